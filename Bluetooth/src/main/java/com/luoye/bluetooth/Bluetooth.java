@@ -8,8 +8,16 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -27,10 +35,26 @@ public class Bluetooth {
     private Context mContext;
     /** 蓝牙适配器 */
     private BluetoothAdapter mBluetoothAdapter;
-    /** 蓝牙搜索广播接收器 */
+    /** 主线程Handler，用于向中途加入的搜索订阅者补发搜索结果，以及在主线程中恢复被快速连接暂停的搜索 */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** 搜索锁，保护共享搜索会话、广播接收器和暂停状态 */
+    private final Object mDiscoveryLock = new Object();
+    /** 共享搜索会话，没有订阅者时为null，由搜索锁保护 */
+    private BluetoothDiscoverySession mDiscoverySession;
+    /** 蓝牙搜索广播接收器，与共享搜索会话同时存在，由搜索锁保护 */
     private BluetoothDiscoveryBroadcastReceiver mReceiver;
-    /** 蓝牙搜索监听接口 */
-    private OnBluetoothDiscoveryListener mOnBluetoothDiscoveryListener;
+    /** 本次会话的搜索是否已开始，由搜索锁保护 */
+    private boolean mDiscoveryStarted;
+    /** 快速连接期间的搜索暂停状态，由搜索锁保护 */
+    private final BluetoothDiscoveryPause mDiscoveryPause = new BluetoothDiscoveryPause();
+    /** 搜索索引，按设备地址去重 */
+    private final BluetoothDiscoveryIndex mDiscoveryIndex = new BluetoothDiscoveryIndex();
+    /** 已知设备缓存文件名 */
+    private static final String KNOWN_DEVICES_FILE = "bluetooth_known_devices";
+    /** 已知设备缓存，构造时开始在I/O调度器中加载 */
+    private final BluetoothDeviceCache mDeviceCache;
+    /** 共享蓝牙终端登记表 */
+    private final BluetoothClientRegistry mClientRegistry = new BluetoothClientRegistry();
 
     /**
      * 默认构造
@@ -45,6 +69,8 @@ public class Bluetooth {
         if (null == mBluetoothAdapter) {
             throw new IllegalArgumentException("Bluetooth is not supported on this hardware platform.");
         }
+        mDeviceCache = new BluetoothDeviceCache(new File(context.getFilesDir(), KNOWN_DEVICES_FILE));
+        mDeviceCache.preload();
     }
 
     /**
@@ -119,42 +145,182 @@ public class Bluetooth {
 
     /**
      * 扫描附近的设备，并根据监听接口回调来监听扫描结果。
-     * <p>若监听接口为空，需要自己注册广播接收事件</p>
+     * <p>若监听接口为空，需要自己注册广播接收事件。搜索结果按设备地址记录在搜索索引中，
+     * 监听接口为{@link OnBluetoothDeviceIndexListener}时只回调设备的增加、变化和丢失，
+     * 不再回调{@link OnBluetoothDiscoveryListener#onDeviceFound(BluetoothDevice, BluetoothClass, String, int)}。</p>
+     * <p>搜索是共享的：多个监听接口订阅同一次搜索，只注册一个广播接收器。搜索进行中加入的监听接口
+     * 在主线程中收到搜索开始事件，并补发本次搜索已找到的设备。调用{@link #stopScan(OnBluetoothDiscoveryListener)}
+     * 退订，最后一个监听接口退订时搜索才停止。</p>
      * @param l 蓝牙扫描监听接口
-     * @return true 开始扫描附近的设备，false 蓝牙设备未打开或扫描周边设备已开启
+     * @return true 开始扫描或加入正在进行的扫描，false 蓝牙设备未打开或监听接口已订阅
      */
     public boolean scanDevices(OnBluetoothDiscoveryListener l) {
-        if (isDiscovering())
-            return false;
+        return scanDevices(null, 0, l);
+    }
+
+    /**
+     * 按过滤条件扫描附近的设备。
+     * <p>过滤条件在广播接收器中直接判断，不符合条件的设备不会回调该监听接口，所有订阅者都不接受的设备不会进入搜索索引。
+     * {@code maxMatches}大于0时，符合条件的不同设备数达到该值后立即退订并回调
+     * {@link OnBluetoothDiscoveryListener#onDiscoveryFinished()}，不必等待整轮搜索完成；没有其他订阅者时搜索随之停止。
+     * 搜索期间不要修改过滤条件。</p>
+     * @param filter 过滤条件，为null时不过滤
+     * @param maxMatches 符合条件的设备数达到该值时结束该监听接口的搜索，为0时搜索完整一轮
+     * @param l 蓝牙扫描监听接口
+     * @return true 开始扫描或加入正在进行的扫描，false 蓝牙设备未打开或监听接口已订阅
+     * @throws IllegalArgumentException maxMatches为负数
+     * @see #scanDevices(OnBluetoothDiscoveryListener)
+     */
+    public boolean scanDevices(BluetoothDiscoveryFilter filter, int maxMatches, OnBluetoothDiscoveryListener l) {
+        if (maxMatches < 0)
+            throw new IllegalArgumentException("maxMatches can't be negative.");
+        if (null == l)
+            return !isDiscovering() && mBluetoothAdapter.startDiscovery();
 
-        if (null != l) {
-            mOnBluetoothDiscoveryListener = l;
+        BluetoothDiscoverySession.Subscriber subscriber;
+        synchronized (mDiscoveryLock) {
+            if (null != mDiscoverySession) {
+                subscriber = mDiscoverySession.add(l, filter, maxMatches);
+                if (null == subscriber)
+                    return false;
+                if (mDiscoveryStarted)
+                    startSubscriber(subscriber);
+                return true;
+            }
+            // 其他调用者已发起的搜索同样可以共享
+            boolean discovering = mBluetoothAdapter.isDiscovering();
+            mDiscoverySession = new BluetoothDiscoverySession(SystemClock.elapsedRealtime());
+            mDiscoveryStarted = discovering;
+            mDiscoveryPause.reset();
+            subscriber = mDiscoverySession.add(l, filter, maxMatches);
             mReceiver = new BluetoothDiscoveryBroadcastReceiver();
-            IntentFilter filter = new IntentFilter();
-            filter.addAction(BluetoothDevice.ACTION_FOUND);
-            filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
-            filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-            mContext.registerReceiver(mReceiver, filter);
+            IntentFilter intentFilter = new IntentFilter();
+            intentFilter.addAction(BluetoothDevice.ACTION_FOUND);
+            intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+            intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+            mContext.registerReceiver(mReceiver, intentFilter);
+            if (discovering) {
+                startSubscriber(subscriber);
+                return true;
+            }
+            if (mBluetoothAdapter.startDiscovery())
+                return true;
+            mContext.unregisterReceiver(closeDiscoverySession());
         }
-        return mBluetoothAdapter.startDiscovery();
+        return false;
     }
 
     /**
-     * 停止扫描
+     * 停止扫描，所有订阅者都收到{@link OnBluetoothDiscoveryListener#onDiscoveryCanceled()}
      * @return false 蓝牙设备未开启
      */
     public boolean stopScan() {
-        if (null != mOnBluetoothDiscoveryListener) {
-            mOnBluetoothDiscoveryListener.onDiscoveryCanceled();
-            mOnBluetoothDiscoveryListener = null;
-        }
-        if (null != mReceiver) {
-            mContext.unregisterReceiver(mReceiver);
-            mReceiver = null;
+        List<BluetoothDiscoverySession.Subscriber> subscribers = Collections.emptyList();
+        BluetoothDiscoveryBroadcastReceiver receiver = null;
+        synchronized (mDiscoveryLock) {
+            if (null != mDiscoverySession) {
+                subscribers = mDiscoverySession.removeAll();
+                receiver = closeDiscoverySession();
+            }
         }
+        for (BluetoothDiscoverySession.Subscriber subscriber : subscribers)
+            subscriber.cancel();
+        if (null != receiver)
+            mContext.unregisterReceiver(receiver);
         return mBluetoothAdapter.cancelDiscovery();
     }
 
+    /**
+     * 退订扫描，监听接口收到{@link OnBluetoothDiscoveryListener#onDiscoveryCanceled()}，
+     * 最后一个订阅者退订时停止扫描
+     * @param l 蓝牙扫描监听接口
+     * @return true 已退订，false 监听接口未订阅
+     */
+    public boolean stopScan(OnBluetoothDiscoveryListener l) {
+        BluetoothDiscoverySession.Subscriber subscriber;
+        BluetoothDiscoveryBroadcastReceiver receiver = null;
+        synchronized (mDiscoveryLock) {
+            if (null == mDiscoverySession)
+                return false;
+            subscriber = mDiscoverySession.remove(l);
+            if (null == subscriber)
+                return false;
+            if (mDiscoverySession.isEmpty())
+                receiver = closeDiscoverySession();
+        }
+        if (null != receiver) {
+            mBluetoothAdapter.cancelDiscovery();
+            mContext.unregisterReceiver(receiver);
+        }
+        subscriber.cancel();
+        return true;
+    }
+
+    /**
+     * 获取当前扫描的订阅者数
+     * @return 订阅者数，没有进行中的扫描时为0
+     */
+    public int getDiscoverySubscriberCount() {
+        synchronized (mDiscoveryLock) {
+            return null == mDiscoverySession ? 0 : mDiscoverySession.size();
+        }
+    }
+
+    /**
+     * 搜索第一个符合条件的设备并立即连接。
+     * <p>搜到符合条件的设备后立即退订搜索，没有其他订阅者时搜索随之停止，再通过{@link #fastConnect(BluetoothClient, BluetoothClient.OnBluetoothConnectCallback)}
+     * 连接该设备，省去等待整轮搜索结束的时间。整轮搜索都没有符合条件的设备或搜索被取消时回调
+     * {@link BluetoothClient.OnBluetoothConnectCallback#onConnectFailure(Exception)}。</p>
+     * @param filter 过滤条件
+     * @param uuid 口令
+     * @param secure 是否是安全通信
+     * @param callback 异步连接监听回调
+     * @return true 开始搜索，false 蓝牙设备未打开或扫描周边设备已开启
+     * @throws IllegalArgumentException 参数为null
+     */
+    public boolean scanAndConnect(final BluetoothDiscoveryFilter filter, final UUID uuid, final boolean secure,
+                                  final BluetoothClient.OnBluetoothConnectCallback callback) {
+        if (null == filter)
+            throw new IllegalArgumentException("the BluetoothDiscoveryFilter can't be null.");
+        if (null == uuid)
+            throw new IllegalArgumentException("the UUID can't be null.");
+        if (null == callback)
+            throw new IllegalArgumentException("the OnBluetoothConnectCallback can't be null.");
+        return scanDevices(filter, 1, new OnBluetoothDiscoveryListener() {
+            /** 符合条件的设备，只在广播接收线程中访问 */
+            private BluetoothDevice mMatched;
+
+            @Override
+            public void onDiscoveryStarted() {
+            }
+
+            @Override
+            public void onDeviceFound(BluetoothDevice device, BluetoothClass cls, String name, int rssi) {
+                if (null == mMatched)
+                    mMatched = device;
+            }
+
+            @Override
+            public void onDiscoveryFinished() {
+                if (null == mMatched) {
+                    callback.notifyCallFailure(new IOException("no device matched " + filter + "."));
+                    return;
+                }
+                // 搜索已结束，寻呼不会再被搜索拖慢
+                try {
+                    fastConnect(newBluetoothClient(mMatched, uuid, secure), callback);
+                } catch (IOException e) {
+                    callback.notifyCallFailure(e);
+                }
+            }
+
+            @Override
+            public void onDiscoveryCanceled() {
+                callback.notifyCallFailure(new IOException("Bluetooth discovery is canceled."));
+            }
+        });
+    }
+
     /**
      * 新建蓝牙通信终端
      * @param device 蓝牙设备
@@ -179,6 +345,405 @@ public class Bluetooth {
         return new BluetoothClient(device, uuid, secure);
     }
 
+    /**
+     * 新建主动连接的可恢复会话，调用{@link BluetoothResilientSession#start()}后开始连接，断开后自动重连
+     * @param device 蓝牙设备
+     * @param uuid 口令
+     * @param secure 是否是安全通信
+     * @param callback 会话回调
+     * @return 可恢复会话
+     * @throws IllegalArgumentException 参数为null
+     */
+    public BluetoothResilientSession newResilientSession(BluetoothDevice device, UUID uuid, boolean secure,
+                                                         BluetoothResilientSession.OnResilientSessionCallback callback) {
+        if (null == device)
+            throw new IllegalArgumentException("the BluetoothDevice can't be null.");
+        if (null == uuid)
+            throw new IllegalArgumentException("the UUID can't be null.");
+        return new BluetoothResilientSession(device, uuid, secure, callback);
+    }
+
+    /**
+     * 新建接受连接的可恢复会话，服务端每次接受对方的连接后交给{@link BluetoothResilientSession#attach(BluetoothClient)}
+     * @param callback 会话回调
+     * @return 可恢复会话
+     * @throws IllegalArgumentException 回调为null
+     */
+    public BluetoothResilientSession newResilientSession(BluetoothResilientSession.OnResilientSessionCallback callback) {
+        return new BluetoothResilientSession(null, null, true, callback);
+    }
+
+    /**
+     * 快速连接，依次尝试安全、非安全和直连通道策略，单次尝试超时为{@link BluetoothClient#DEFAULT_CONNECT_ATTEMPT_TIMEOUT}
+     * @param client 蓝牙通信终端
+     * @param callback 异步连接监听回调
+     * @throws IOException 蓝牙已连接
+     * @see #fastConnect(BluetoothClient, int[], long, BluetoothClient.OnBluetoothConnectCallback)
+     */
+    public void fastConnect(BluetoothClient client, BluetoothClient.OnBluetoothConnectCallback callback) throws IOException {
+        int[] strategies = {BluetoothClient.CONNECT_STRATEGY_SECURE, BluetoothClient.CONNECT_STRATEGY_INSECURE,
+                BluetoothClient.CONNECT_STRATEGY_CHANNEL};
+        // 快速连接通常在主线程中调用，已知设备尚未加载时按默认顺序连接
+        BluetoothKnownDevice known = null == client ? null : mDeviceCache.peek(client.getRemoteDevice().getAddress());
+        if (null != known && BluetoothClient.CONNECT_STRATEGY_NONE != known.getConnectStrategy()) {
+            // 优先尝试上次连上的策略
+            int first = known.getConnectStrategy();
+            for (int i = strategies.length - 1; i > 0; i--) {
+                if (strategies[i] == first) {
+                    System.arraycopy(strategies, 0, strategies, 1, i);
+                    strategies[0] = first;
+                    break;
+                }
+            }
+            if (BluetoothKnownDevice.RFCOMM_CHANNEL_UNKNOWN != known.getRfcommChannel())
+                client.setRfcommChannel(known.getRfcommChannel());
+        }
+        fastConnect(client, strategies, BluetoothClient.DEFAULT_CONNECT_ATTEMPT_TIMEOUT, callback);
+    }
+
+    /**
+     * 快速连接。
+     * <p>设备搜索会严重拖慢寻呼，连接期间暂停{@link #scanDevices(OnBluetoothDiscoveryListener)}发起的搜索，
+     * 连接成功或失败后在主线程中恢复，暂停期间搜索监听不会收到结束事件，无法恢复时在主线程中收到结束事件。连接按策略顺序进行，
+     * 参见{@link BluetoothClient#asyncConnect(int[], long, BluetoothClient.OnBluetoothConnectCallback)}。</p>
+     * @param client 蓝牙通信终端
+     * @param strategies 连接策略顺序
+     * @param attemptTimeoutMillis 单次尝试超时，毫秒，为0时不限时
+     * @param callback 异步连接监听回调
+     * @throws IOException 蓝牙已连接，或终端由服务端接受而无法重新连接
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public void fastConnect(BluetoothClient client, int[] strategies, long attemptTimeoutMillis,
+                            final BluetoothClient.OnBluetoothConnectCallback callback) throws IOException {
+        if (null == client)
+            throw new IllegalArgumentException("the BluetoothClient can't be null.");
+        if (null == callback)
+            throw new IllegalArgumentException("the OnBluetoothConnectCallback can't be null.");
+        pauseDiscovery();
+        try {
+            client.asyncConnect(strategies, attemptTimeoutMillis, new BluetoothClient.OnBluetoothConnectCallback(BluetoothExecutors.direct()) {
+                @Override
+                public void onConnectSuccess(BluetoothClient client) {
+                    postResumeDiscovery();
+                    rememberDevice(client);
+                    callback.notifyCallSuccess(client);
+                }
+
+                @Override
+                public void onConnectFailure(Exception e) {
+                    postResumeDiscovery();
+                    callback.notifyCallFailure(e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            postResumeDiscovery();
+            throw e;
+        }
+    }
+
+    /**
+     * 暂停正在进行的搜索
+     */
+    private void pauseDiscovery() {
+        synchronized (mDiscoveryLock) {
+            if (!mDiscoveryPause.pause(null != mReceiver && mBluetoothAdapter.isDiscovering()))
+                return;
+        }
+        mBluetoothAdapter.cancelDiscovery();
+    }
+
+    /**
+     * 在主线程中恢复被暂停的搜索，连接回调在连接线程中执行，而搜索事件只能在主线程中回调
+     */
+    private void postResumeDiscovery() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                resumeDiscovery();
+            }
+        });
+    }
+
+    /**
+     * 最后一个快速连接结束后恢复被暂停的搜索，在主线程中调用
+     */
+    private void resumeDiscovery() {
+        synchronized (mDiscoveryLock) {
+            if (!mDiscoveryPause.resume())
+                return;
+            if (null != mReceiver && mBluetoothAdapter.startDiscovery())
+                return;
+            mDiscoveryPause.abandon();
+        }
+        // 搜索已停止或无法恢复，按正常结束处理
+        finishDiscovery();
+    }
+
+    /**
+     * 结束搜索，通知所有订阅者并注销广播接收器，在主线程中调用
+     */
+    private void finishDiscovery() {
+        List<BluetoothDiscoverySession.Subscriber> subscribers;
+        BluetoothDiscoveryBroadcastReceiver receiver;
+        synchronized (mDiscoveryLock) {
+            if (null == mDiscoverySession)
+                return;
+            subscribers = mDiscoverySession.removeAll();
+            receiver = closeDiscoverySession();
+        }
+        List<BluetoothDiscoveredDevice> lost = mDiscoveryIndex.expire(SystemClock.elapsedRealtime());
+        for (BluetoothDiscoverySession.Subscriber subscriber : subscribers)
+            subscriber.finish(lost);
+        mContext.unregisterReceiver(receiver);
+    }
+
+    /**
+     * 订阅者达到匹配上限，提前结束它的搜索，最后一个订阅者结束时停止搜索
+     * @param subscriber 订阅者
+     */
+    private void completeSubscriber(BluetoothDiscoverySession.Subscriber subscriber) {
+        BluetoothDiscoveryBroadcastReceiver receiver = null;
+        synchronized (mDiscoveryLock) {
+            if (null == mDiscoverySession || !mDiscoverySession.remove(subscriber))
+                return;
+            if (mDiscoverySession.isEmpty())
+                receiver = closeDiscoverySession();
+        }
+        // 先停止搜索再通知，订阅者可在回调中立即发起连接
+        if (null != receiver) {
+            mBluetoothAdapter.cancelDiscovery();
+            mContext.unregisterReceiver(receiver);
+        }
+        subscriber.finish(Collections.<BluetoothDiscoveredDevice>emptyList());
+    }
+
+    /**
+     * 在主线程中向订阅者回调搜索开始并补发本次会话已找到的设备
+     * @param subscriber 订阅者
+     */
+    private void startSubscriber(final BluetoothDiscoverySession.Subscriber subscriber) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (subscriber.start(sessionDevices()))
+                    completeSubscriber(subscriber);
+            }
+        });
+    }
+
+    /**
+     * 获取本次会话已找到的设备
+     * @return 设备快照列表，没有进行中的会话时为空
+     */
+    private List<BluetoothDiscoveredDevice> sessionDevices() {
+        long startTime;
+        synchronized (mDiscoveryLock) {
+            if (null == mDiscoverySession)
+                return Collections.emptyList();
+            startTime = mDiscoverySession.getStartTime();
+        }
+        List<BluetoothDiscoveredDevice> devices = new ArrayList<>();
+        for (BluetoothDiscoveredDevice device : mDiscoveryIndex.snapshot()) {
+            if (device.getLastSeen() >= startTime)
+                devices.add(device);
+        }
+        return devices;
+    }
+
+    /**
+     * 关闭共享搜索会话，需持有搜索锁
+     * @return 需要注销的广播接收器
+     */
+    private BluetoothDiscoveryBroadcastReceiver closeDiscoverySession() {
+        BluetoothDiscoveryBroadcastReceiver receiver = mReceiver;
+        mDiscoverySession = null;
+        mReceiver = null;
+        mDiscoveryStarted = false;
+        return receiver;
+    }
+
+    /**
+     * 获取搜索索引中的设备，包括之前几轮搜索中发现且尚未丢失的设备
+     * @return 设备快照列表，顺序不定
+     */
+    public List<BluetoothDiscoveredDevice> getDiscoveredDevices() {
+        return mDiscoveryIndex.snapshot();
+    }
+
+    /**
+     * 清空搜索索引，之后再搜索到的设备都按新设备回调
+     */
+    public void clearDiscoveredDevices() {
+        mDiscoveryIndex.clear();
+    }
+
+    /**
+     * 设置搜索到的设备的丢失时限，默认30秒，搜索结束时超过时限未再出现的设备按丢失回调并移出索引
+     * @param timeoutMillis 时限，毫秒
+     * @throws IllegalArgumentException 时限不是正数
+     */
+    public void setDeviceLostTimeout(long timeoutMillis) {
+        mDiscoveryIndex.setLostTimeout(timeoutMillis);
+    }
+
+    /**
+     * 设置RSSI平滑参数，平滑后的RSSI相对上次回调的值变化达到阈值时才回调设备变化
+     * @param alpha 新样本的权重，(0, 1]，默认0.3，为1时不平滑
+     * @param threshold 变化阈值，dBm，默认5
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public void setRssiSmoothing(float alpha, int threshold) {
+        mDiscoveryIndex.setRssiAlpha(alpha);
+        mDiscoveryIndex.setRssiThreshold(threshold);
+    }
+
+    /**
+     * 获取已知设备，即连接成功过的设备，缓存文件在构造时开始后台加载，加载完成前调用会同步加载。
+     * <p>应用启动后可直接展示并通过{@link #getRemoteDevice(String)}连接这些设备，无需先搜索；
+     * 之后{@link #scanDevices(OnBluetoothDiscoveryListener)}搜索到已知设备时会刷新其名称、类型、RSSI和出现时间。</p>
+     * @return 设备列表，按最近出现的时间从近到远排列
+     */
+    public List<BluetoothKnownDevice> getKnownDevices() {
+        return mDeviceCache.getAll();
+    }
+
+    /**
+     * 获取已知设备
+     * @param address 设备地址
+     * @return 设备，未知时为null
+     */
+    public BluetoothKnownDevice getKnownDevice(String address) {
+        return mDeviceCache.get(address);
+    }
+
+    /**
+     * 记录已连接的设备，{@link #fastConnect(BluetoothClient, BluetoothClient.OnBluetoothConnectCallback)}连接成功时会自动记录。
+     * <p>同时记录设备的SDP服务UUID和本次连上的连接策略，之后快速连接该设备时优先尝试该策略。</p>
+     * @param client 已连接的蓝牙通信终端
+     * @throws IllegalArgumentException 蓝牙通信终端为null
+     */
+    public void rememberDevice(BluetoothClient client) {
+        if (null == client)
+            throw new IllegalArgumentException("the BluetoothClient can't be null.");
+        BluetoothDevice device = client.getRemoteDevice();
+        BluetoothDeviceCache cache = mDeviceCache;
+        BluetoothKnownDevice previous = cache.get(device.getAddress());
+        int strategy = client.getConnectStrategy();
+        int channel = BluetoothKnownDevice.RFCOMM_CHANNEL_UNKNOWN;
+        if (BluetoothClient.CONNECT_STRATEGY_NONE == strategy && null != previous) { // 未经策略连接，沿用上次的策略
+            strategy = previous.getConnectStrategy();
+            channel = previous.getRfcommChannel();
+        } else if (BluetoothClient.CONNECT_STRATEGY_CHANNEL == strategy) {
+            channel = client.getRfcommChannel();
+        }
+        ParcelUuid[] parcelUuids = device.getUuids();
+        UUID[] uuids;
+        if (null != parcelUuids) {
+            uuids = new UUID[parcelUuids.length];
+            for (int i = 0; i < parcelUuids.length; i++)
+                uuids[i] = parcelUuids[i].getUuid();
+        } else {
+            uuids = null == previous ? null : previous.getUuids();
+        }
+        BluetoothClass cls = device.getBluetoothClass();
+        String name = device.getName();
+        cache.put(new BluetoothKnownDevice(device.getAddress(),
+                null == name && null != previous ? previous.getName() : name,
+                null != cls ? cls.getDeviceClass()
+                        : (null == previous ? BluetoothKnownDevice.DEVICE_CLASS_UNKNOWN : previous.getDeviceClass()),
+                null == previous ? BluetoothDiscoveredDevice.RSSI_UNKNOWN : previous.getRssi(),
+                System.currentTimeMillis(), uuids, strategy, channel));
+    }
+
+    /**
+     * 移除已知设备
+     * @param address 设备地址
+     * @return true 设备已知
+     */
+    public boolean forgetDevice(String address) {
+        return mDeviceCache.remove(address);
+    }
+
+    /**
+     * 清空已知设备
+     */
+    public void clearKnownDevices() {
+        mDeviceCache.clear();
+    }
+
+    /**
+     * 立即将已知设备写入缓存文件，修改后默认延迟2秒在后台合并写入，退出前可调用本方法确保写入
+     * @throws IOException 写入失败
+     */
+    public void saveKnownDevices() throws IOException {
+        mDeviceCache.save();
+    }
+
+    /**
+     * 根据地址获取蓝牙设备，可用于连接已知设备
+     * @param address 设备地址
+     * @return 蓝牙设备
+     * @throws IllegalArgumentException 地址格式不正确
+     */
+    public BluetoothDevice getRemoteDevice(String address) {
+        return mBluetoothAdapter.getRemoteDevice(address);
+    }
+
+    /**
+     * 获取共享蓝牙通信终端的句柄
+     * @param device 蓝牙设备
+     * @param uuid 口令
+     * @param secure 是否是安全通信
+     * @return 共享蓝牙通信终端句柄
+     * @see #acquireBluetoothClient(BluetoothDevice, UUID, boolean)
+     */
+    public BluetoothClientHandle acquireBluetoothClient(BluetoothDevice device, String uuid, boolean secure) {
+        return acquireBluetoothClient(device, formUUID(uuid), secure);
+    }
+
+    /**
+     * 获取共享蓝牙通信终端的句柄。
+     * <p>同一设备地址和UUID共用一个连接，已有连接时直接复用，不再重新寻呼和建立RFCOMM连接；
+     * {@code secure}只在新建连接时生效。所有句柄释放后，连接在{@link #setClientLingerMillis(long)}
+     * 设置的逗留时间内仍无人获取才会关闭。</p>
+     * @param device 蓝牙设备
+     * @param uuid 口令
+     * @param secure 是否是安全通信
+     * @return 共享蓝牙通信终端句柄
+     * @throws IllegalArgumentException 设备或口令为null
+     */
+    public BluetoothClientHandle acquireBluetoothClient(BluetoothDevice device, UUID uuid, boolean secure) {
+        if (null == device)
+            throw new IllegalArgumentException("the BluetoothDevice can't be null.");
+        if (null == uuid)
+            throw new IllegalArgumentException("the UUID can't be null.");
+        return mClientRegistry.acquire(device, uuid, secure);
+    }
+
+    /**
+     * 设置共享蓝牙通信终端的逗留时间，默认5秒
+     * @param lingerMillis 所有句柄释放后保持连接的时间，毫秒，为0时立即关闭
+     * @throws IllegalArgumentException 逗留时间为负数
+     */
+    public void setClientLingerMillis(long lingerMillis) {
+        mClientRegistry.setLingerMillis(lingerMillis);
+    }
+
+    /**
+     * 获取共享蓝牙通信终端数量，包括逗留中的连接
+     * @return 连接数
+     */
+    public int getSharedClientCount() {
+        return mClientRegistry.size();
+    }
+
+    /**
+     * 立即关闭所有共享蓝牙通信终端，已获取的句柄随之失效
+     */
+    public void closeSharedClients() {
+        mClientRegistry.closeAll();
+    }
+
     /**
      * 新建蓝牙通信服务端
      * @param name
@@ -213,24 +778,61 @@ public class Bluetooth {
     }
 
     /**
-     * 蓝牙搜索广播接收器
+     * 蓝牙搜索广播接收器，在主线程中把搜索结果分发给共享搜索会话的订阅者
      */
     private class BluetoothDiscoveryBroadcastReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (BluetoothDevice.ACTION_FOUND == action) {
-                mOnBluetoothDiscoveryListener.onDeviceFound((BluetoothDevice) intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE),
-                        (BluetoothClass) intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS),
-                        intent.getStringExtra(BluetoothDevice.EXTRA_NAME),
-                        intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) 0));
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                BluetoothClass cls = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) BluetoothDiscoveredDevice.RSSI_UNKNOWN);
+                if (null == device)
+                    return;
+                String address = device.getAddress();
+                mDeviceCache.refresh(address, name,
+                        null == cls ? BluetoothKnownDevice.DEVICE_CLASS_UNKNOWN : cls.getDeviceClass(),
+                        rssi, System.currentTimeMillis());
+                List<BluetoothDiscoverySession.Subscriber> subscribers;
+                synchronized (mDiscoveryLock) {
+                    if (null == mDiscoverySession)
+                        return;
+                    subscribers = mDiscoverySession.accepting(address, name, cls, rssi);
+                }
+                if (subscribers.isEmpty()) // 所有订阅者都不关心的设备不进入搜索索引
+                    return;
+                BluetoothDiscoveryIndex.Delta delta = mDiscoveryIndex.upsert(address, device, cls, name,
+                        rssi, SystemClock.elapsedRealtime());
+                BluetoothDiscoveredDevice snapshot = null == delta ? mDiscoveryIndex.get(address) : delta.mDevice;
+                if (null == snapshot)
+                    return;
+                for (BluetoothDiscoverySession.Subscriber subscriber : subscribers) {
+                    if (subscriber.deliver(device, cls, name, rssi, snapshot, delta))
+                        completeSubscriber(subscriber);
+                }
             } else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED == action) {
-                mOnBluetoothDiscoveryListener.onDiscoveryStarted();
+                List<BluetoothDiscoverySession.Subscriber> subscribers;
+                synchronized (mDiscoveryLock) {
+                    if (mDiscoveryPause.onStarted()) // 快速连接暂停或恢复的搜索
+                        return;
+                    if (null == mDiscoverySession)
+                        return;
+                    mDiscoveryStarted = true;
+                    subscribers = mDiscoverySession.subscribers();
+                }
+                List<BluetoothDiscoveredDevice> devices = sessionDevices();
+                for (BluetoothDiscoverySession.Subscriber subscriber : subscribers) {
+                    if (subscriber.start(devices))
+                        completeSubscriber(subscriber);
+                }
             } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED == action) {
-                mOnBluetoothDiscoveryListener.onDiscoveryFinished();
-                mOnBluetoothDiscoveryListener = null;
-                mContext.unregisterReceiver(mReceiver);
-                mReceiver = null;
+                synchronized (mDiscoveryLock) {
+                    if (mDiscoveryPause.onFinished()) // 因快速连接而暂停
+                        return;
+                }
+                finishDiscovery();
             }
         }
     }
@@ -263,4 +865,30 @@ public class Bluetooth {
          */
         public void onDiscoveryCanceled();
     }
+
+    /**
+     * 蓝牙搜索索引监听接口，同一设备的重复搜索结果已合并，
+     * 不会回调{@link OnBluetoothDiscoveryListener#onDeviceFound(BluetoothDevice, BluetoothClass, String, int)}
+     */
+    public static interface OnBluetoothDeviceIndexListener extends OnBluetoothDiscoveryListener {
+        /**
+         * 搜索到索引中没有的设备
+         * @param device 设备快照
+         */
+        public void onDeviceAdded(BluetoothDiscoveredDevice device);
+
+        /**
+         * 设备名称、类型或平滑后的RSSI发生变化
+         * @param device 变化后的设备快照
+         * @param changes 变化标识，为{@link BluetoothDiscoveredDevice#CHANGE_NAME}、
+         *                {@link BluetoothDiscoveredDevice#CHANGE_CLASS}、{@link BluetoothDiscoveredDevice#CHANGE_RSSI}的组合
+         */
+        public void onDeviceUpdated(BluetoothDiscoveredDevice device, int changes);
+
+        /**
+         * 搜索结束时设备超过丢失时限未再出现，已移出索引
+         * @param device 最后一次的设备快照
+         */
+        public void onDeviceLost(BluetoothDiscoveredDevice device);
+    }
 }
@@ -0,0 +1,77 @@
+package com.luoye.bluetooth;
+
+import java.util.Random;
+
+/**
+ * 带抖动的指数退避，用于计算重连等待时间。
+ * <p>第n次等待时间的上限为{@code min(max, base * 2^n)}，实际等待时间在上限的一半到上限之间随机取值，
+ * 既保证等待时间随失败次数增长，又避免多个终端在同一时刻集中重连。</p>
+ */
+class BluetoothBackoff {
+    /** 默认初始等待时间，毫秒 */
+    static final long DEFAULT_BASE_MILLIS = 500;
+    /** 默认最大等待时间，毫秒 */
+    static final long DEFAULT_MAX_MILLIS = 30000;
+
+    /** 初始等待时间，毫秒 */
+    private final long mBaseMillis;
+    /** 最大等待时间，毫秒 */
+    private final long mMaxMillis;
+    /** 随机数 */
+    private final Random mRandom;
+    /** 连续退避次数 */
+    private int mAttempts;
+
+    /**
+     * 构造函数
+     * @param baseMillis 初始等待时间，毫秒
+     * @param maxMillis 最大等待时间，毫秒
+     * @throws IllegalArgumentException 参数不合法
+     */
+    BluetoothBackoff(long baseMillis, long maxMillis) {
+        this(baseMillis, maxMillis, new Random());
+    }
+
+    /**
+     * 构造函数
+     * @param baseMillis 初始等待时间，毫秒
+     * @param maxMillis 最大等待时间，毫秒
+     * @param random 随机数
+     * @throws IllegalArgumentException 参数不合法
+     */
+    BluetoothBackoff(long baseMillis, long maxMillis, Random random) {
+        if (baseMillis <= 0 || maxMillis < baseMillis)
+            throw new IllegalArgumentException("baseMillis must be positive and not greater than maxMillis.");
+        mBaseMillis = baseMillis;
+        mMaxMillis = maxMillis;
+        mRandom = random;
+    }
+
+    /**
+     * 计算下一次等待时间并增加退避次数
+     * @return 等待时间，毫秒
+     */
+    synchronized long next() {
+        long ceiling = mMaxMillis;
+        if (mAttempts < 62 && mBaseMillis <= mMaxMillis >> mAttempts)
+            ceiling = Math.min(mMaxMillis, mBaseMillis << mAttempts);
+        mAttempts++;
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half + 1));
+    }
+
+    /**
+     * 连接成功后重置退避次数
+     */
+    synchronized void reset() {
+        mAttempts = 0;
+    }
+
+    /**
+     * 获取连续退避次数
+     * @return 次数
+     */
+    synchronized int attempts() {
+        return mAttempts;
+    }
+}
@@ -0,0 +1,73 @@
+package com.luoye.bluetooth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量接收数据，包含一个时间窗口内按到达顺序接收到的所有数据块。
+ * <p>处理完毕后必须调用{@link #release()}释放其中的所有缓存。</p>
+ */
+public final class BluetoothBatch {
+    /** 数据块列表 */
+    private final ArrayList<BluetoothBuffer> mChunks;
+    /** 数据总长度 */
+    private final int mLength;
+
+    /**
+     * 默认构造，包可见
+     * @param chunks 数据块列表
+     * @param length 数据总长度
+     */
+    BluetoothBatch(ArrayList<BluetoothBuffer> chunks, int length) {
+        mChunks = chunks;
+        mLength = length;
+    }
+
+    /**
+     * 获取数据块列表
+     * @return 只读的数据块列表
+     */
+    public List<BluetoothBuffer> chunks() {
+        return Collections.unmodifiableList(mChunks);
+    }
+
+    /**
+     * 获取数据块数量
+     * @return 数据块数量
+     */
+    public int chunkCount() {
+        return mChunks.size();
+    }
+
+    /**
+     * 获取数据总长度
+     * @return 字节数
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * 将所有数据块按顺序拼接到新的字节数组
+     * @return 字节数组
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[mLength];
+        int position = 0;
+        for (BluetoothBuffer chunk : mChunks) {
+            System.arraycopy(chunk.array(), chunk.offset(), bytes, position, chunk.length());
+            position += chunk.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * 释放所有数据块
+     */
+    public void release() {
+        for (BluetoothBuffer chunk : mChunks)
+            chunk.release();
+        mChunks.clear();
+    }
+}
@@ -0,0 +1,165 @@
+package com.luoye.bluetooth;
+
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * 蓝牙终端批量数据接收监听回调。
+ * <p>数据高速到达时，按时间窗口和字节数上限将多次读取的数据合并后再回调，一个窗口内只向回调线程投递一次消息，
+ * 避免主线程被大量细碎的消息占满。从第一块数据到达开始计时，达到最大延迟或单批最大字节数时立即回调。</p>
+ */
+public abstract class BluetoothBatchInputCallback extends BluetoothClient.BluetoothInputCallback {
+    /** 默认最大延迟，约为一帧的时长 */
+    public static final long DEFAULT_MAX_LATENCY_MILLIS = 16;
+    /** 默认单批最大字节数 */
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024;
+
+    /** 批量数据接收消息 */
+    private static final int MESSAGE_BLUETOOTH_INPUT_ONBATCH = 101;
+
+    /** 批量聚合器 */
+    private final BluetoothInputBatcher mBatcher;
+
+    /**
+     * 默认构造，使用默认窗口在主线程中回调
+     */
+    public BluetoothBatchInputCallback() {
+        this(DEFAULT_MAX_LATENCY_MILLIS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * 构造函数，在主线程中回调
+     * @param maxLatencyMillis 最大延迟，毫秒
+     * @param maxBytes 单批最大字节数
+     * @throws IllegalArgumentException 参数小于1
+     */
+    public BluetoothBatchInputCallback(long maxLatencyMillis, int maxBytes) {
+        this(maxLatencyMillis, maxBytes, Looper.getMainLooper());
+    }
+
+    /**
+     * 构造函数，在指定Looper线程中回调
+     * @param maxLatencyMillis 最大延迟，毫秒
+     * @param maxBytes 单批最大字节数
+     * @param looper 消息循环
+     * @throws IllegalArgumentException 参数小于1或消息循环为null
+     */
+    public BluetoothBatchInputCallback(long maxLatencyMillis, int maxBytes, Looper looper) {
+        super(looper);
+        mBatcher = new BluetoothInputBatcher(maxLatencyMillis, maxBytes);
+    }
+
+    /**
+     * 构造函数，通过执行器回调
+     * @param maxLatencyMillis 最大延迟，毫秒
+     * @param maxBytes 单批最大字节数
+     * @param executor 回调执行器，参见{@link BluetoothExecutors}
+     * @throws IllegalArgumentException 参数小于1或执行器为null
+     */
+    public BluetoothBatchInputCallback(long maxLatencyMillis, int maxBytes, Executor executor) {
+        super(executor);
+        mBatcher = new BluetoothInputBatcher(maxLatencyMillis, maxBytes);
+    }
+
+    @Override
+    void notifyInput(BluetoothBuffer buffer) {
+        BluetoothBatch batch = mBatcher.add(buffer, System.nanoTime());
+        if (null != batch)
+            dispatch(MESSAGE_BLUETOOTH_INPUT_ONBATCH, batch);
+    }
+
+    @Override
+    long notifyIdle(long now) {
+        BluetoothBatch batch = mBatcher.poll(now);
+        if (null != batch)
+            dispatch(MESSAGE_BLUETOOTH_INPUT_ONBATCH, batch);
+        return mBatcher.remaining(now);
+    }
+
+    @Override
+    void notifyFlush() {
+        BluetoothBatch batch = mBatcher.drain();
+        if (null != batch)
+            dispatch(MESSAGE_BLUETOOTH_INPUT_ONBATCH, batch);
+    }
+
+    @Override
+    void notifyDisconnected(IOException e) {
+        notifyFlush();
+        super.notifyDisconnected(e);
+    }
+
+    @Override
+    void handleCallback(int what, Object obj) {
+        if (MESSAGE_BLUETOOTH_INPUT_ONBATCH == what) {
+            BluetoothBatch batch = (BluetoothBatch) obj;
+            BluetoothMetrics metrics = mMetrics;
+            if (null != metrics) {
+                // 每块数据的延迟从各自读到的时间算起，包含在批次中等待合并的时间
+                for (BluetoothBuffer chunk : batch.chunks())
+                    metrics.recordDispatched(chunk.mTimestamp);
+            }
+            onBatch(batch);
+        }
+    }
+
+    /**
+     * 批量数据输入回调。
+     * <p>默认实现将批次内的数据拼接为一个字节数组后释放缓存，再回调{@link #onInput(byte[])}。
+     * 重写此方法可直接按块处理数据，处理完毕后必须调用{@link BluetoothBatch#release()}。</p>
+     * @param batch 批量数据
+     */
+    public void onBatch(BluetoothBatch batch) {
+        byte[] bytes;
+        try {
+            bytes = batch.toByteArray();
+        } finally {
+            batch.release();
+        }
+        onInput(bytes);
+    }
+
+    /**
+     * 获取已回调的批次数
+     * @return 批次数
+     */
+    public long getBatchCount() {
+        return mBatcher.batchCount();
+    }
+
+    /**
+     * 获取平均每批的字节数
+     * @return 字节数，尚未回调时为0
+     */
+    public double getAverageBatchBytes() {
+        long count = mBatcher.batchCount();
+        return 0 == count ? 0 : (double) mBatcher.byteCount() / count;
+    }
+
+    /**
+     * 获取平均每批合并的数据块数
+     * @return 数据块数，尚未回调时为0
+     */
+    public double getAverageBatchChunks() {
+        long count = mBatcher.batchCount();
+        return 0 == count ? 0 : (double) mBatcher.chunkCount() / count;
+    }
+
+    /**
+     * 获取单批最大字节数
+     * @return 字节数
+     */
+    public int getMaxBatchBytes() {
+        return mBatcher.maxBatchBytes();
+    }
+
+    /**
+     * 获取因达到单批最大字节数而提前回调的批次数，其余批次均因达到最大延迟而回调
+     * @return 批次数
+     */
+    public long getSizeFlushCount() {
+        return mBatcher.sizeFlushCount();
+    }
+}
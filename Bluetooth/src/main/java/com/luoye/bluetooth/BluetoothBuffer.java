@@ -0,0 +1,221 @@
+package com.luoye.bluetooth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 蓝牙数据缓存，对字节数组中一段有效数据的引用计数封装。
+ * <p>由{@link BluetoothBufferPool}分配的缓存在引用计数归零后会自动归还缓存池，
+ * 因此使用者处理完数据后必须调用{@link #release()}，且释放后不能再访问该缓存。</p>
+ */
+public final class BluetoothBuffer {
+    /** 所属缓存池，为null时表示非池化缓存 */
+    private final BluetoothBufferPool mPool;
+    /** 切片所引用的父缓存，为null时表示非切片 */
+    private BluetoothBuffer mParent;
+    /** 字节数组 */
+    private byte[] mArray;
+    /** 有效数据在字节数组中的起始位置 */
+    private int mOffset;
+    /** 有效数据长度 */
+    private int mLength;
+    /** 引用计数 */
+    private final AtomicInteger mRefCnt = new AtomicInteger();
+    /** 读到该数据的时间，纳秒，未统计时为0，供连接统计计算分发延迟 */
+    long mTimestamp;
+
+    /**
+     * 构造函数，包可见
+     * @param pool 所属缓存池
+     * @param array 字节数组
+     */
+    BluetoothBuffer(BluetoothBufferPool pool, byte[] array) {
+        mPool = pool;
+        mArray = array;
+        mLength = array.length;
+    }
+
+    /**
+     * 包装字节数组为非池化缓存，不会拷贝数据
+     * @param array 字节数组
+     * @return 引用计数为1的缓存
+     */
+    public static BluetoothBuffer wrap(byte[] array) {
+        return wrap(array, 0, array.length);
+    }
+
+    /**
+     * 包装字节数组中的一段数据为非池化缓存，不会拷贝数据
+     * @param array 字节数组
+     * @param offset 起始位置
+     * @param length 数据长度
+     * @return 引用计数为1的缓存
+     * @throws IndexOutOfBoundsException 字节数组操作越界
+     */
+    public static BluetoothBuffer wrap(byte[] array, int offset, int length) {
+        checkRange(array.length, offset, length);
+        BluetoothBuffer buffer = new BluetoothBuffer(null, array);
+        buffer.mOffset = offset;
+        buffer.mLength = length;
+        buffer.mRefCnt.set(1);
+        return buffer;
+    }
+
+    /**
+     * 获取底层字节数组，有效数据位于[{@link #offset()}, {@link #offset()} + {@link #length()})区间
+     * @return 字节数组
+     */
+    public byte[] array() {
+        return mArray;
+    }
+
+    /**
+     * 获取有效数据在字节数组中的起始位置
+     * @return 起始位置
+     */
+    public int offset() {
+        return mOffset;
+    }
+
+    /**
+     * 获取有效数据长度
+     * @return 数据长度
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * 获取缓存容量，即从起始位置到字节数组末尾的长度
+     * @return 缓存容量
+     */
+    public int capacity() {
+        return mArray.length - mOffset;
+    }
+
+    /**
+     * 读取指定位置的字节
+     * @param index 相对于{@link #offset()}的位置
+     * @return 字节
+     * @throws IndexOutOfBoundsException 位置越界
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= mLength)
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        return mArray[mOffset + index];
+    }
+
+    /**
+     * 将有效数据拷贝到新的字节数组
+     * @return 字节数组
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[mLength];
+        System.arraycopy(mArray, mOffset, bytes, 0, mLength);
+        return bytes;
+    }
+
+    /**
+     * 获取当前引用计数
+     * @return 引用计数，为0时表示已释放
+     */
+    public int refCnt() {
+        return mRefCnt.get();
+    }
+
+    /**
+     * 引用计数加1，用于将缓存交给其他使用者
+     * @return 当前缓存
+     * @throws IllegalStateException 缓存已释放
+     */
+    public BluetoothBuffer retain() {
+        for (;;) {
+            int refCnt = mRefCnt.get();
+            if (refCnt <= 0)
+                throw new IllegalStateException("the BluetoothBuffer has been released.");
+            if (mRefCnt.compareAndSet(refCnt, refCnt + 1))
+                return this;
+        }
+    }
+
+    /**
+     * 引用计数减1，归零时缓存将归还缓存池
+     * @return true 引用计数已归零
+     * @throws IllegalStateException 缓存已释放
+     */
+    public boolean release() {
+        for (;;) {
+            int refCnt = mRefCnt.get();
+            if (refCnt <= 0)
+                throw new IllegalStateException("the BluetoothBuffer has been released.");
+            if (mRefCnt.compareAndSet(refCnt, refCnt - 1)) {
+                if (1 == refCnt)
+                    deallocate();
+                return 1 == refCnt;
+            }
+        }
+    }
+
+    /**
+     * 创建共享当前数据的切片，切片持有当前缓存的一个引用，释放切片时同时释放该引用
+     * @param index 相对于{@link #offset()}的起始位置
+     * @param length 切片长度
+     * @return 引用计数为1的切片
+     * @throws IndexOutOfBoundsException 切片越界
+     */
+    public BluetoothBuffer retainedSlice(int index, int length) {
+        checkRange(mLength, index, length);
+        retain();
+        BluetoothBuffer slice = new BluetoothBuffer(null, mArray);
+        slice.mParent = this;
+        slice.mOffset = mOffset + index;
+        slice.mLength = length;
+        slice.mRefCnt.set(1);
+        return slice;
+    }
+
+    /**
+     * 缓存池分配缓存时调用，重置数据区间和引用计数
+     */
+    void reset() {
+        mOffset = 0;
+        mLength = mArray.length;
+        mTimestamp = 0;
+        mRefCnt.set(1);
+    }
+
+    /**
+     * 设置有效数据区间，由数据写入方调用
+     * @param offset 起始位置
+     * @param length 数据长度
+     * @throws IndexOutOfBoundsException 区间越界
+     */
+    void setRange(int offset, int length) {
+        checkRange(mArray.length, offset, length);
+        mOffset = offset;
+        mLength = length;
+    }
+
+    /**
+     * 引用计数归零后释放资源
+     */
+    private void deallocate() {
+        if (null != mParent) {
+            BluetoothBuffer parent = mParent;
+            mParent = null;
+            parent.release();
+        } else if (null != mPool) {
+            mPool.recycle(this);
+        }
+    }
+
+    /**
+     * 检查区间是否越界
+     * @param size 总长度
+     * @param offset 起始位置
+     * @param length 区间长度
+     */
+    private static void checkRange(int size, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > size)
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", size: " + size);
+    }
+}
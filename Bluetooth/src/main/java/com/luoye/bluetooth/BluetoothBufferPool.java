@@ -0,0 +1,94 @@
+package com.luoye.bluetooth;
+
+/**
+ * 蓝牙数据缓存池，复用固定大小的{@link BluetoothBuffer}，避免每次读取都分配新的字节数组。
+ * <p>缓存池为空时会新建缓存，缓存释放时若池已满则直接丢弃，交由GC回收。</p>
+ */
+public class BluetoothBufferPool {
+    /** 默认单个缓存大小 */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    /** 默认最大缓存数量 */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    /** 单个缓存大小 */
+    private final int mBufferSize;
+    /** 空闲缓存栈 */
+    private final BluetoothBuffer[] mFreeBuffers;
+    /** 空闲缓存数量 */
+    private int mFreeCount;
+    /** 累计新建的缓存数量 */
+    private long mAllocatedCount;
+
+    /**
+     * 默认构造
+     */
+    public BluetoothBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * 构造函数
+     * @param bufferSize 单个缓存大小
+     * @param maxPooled 最大缓存数量
+     * @throws IllegalArgumentException 参数小于1
+     */
+    public BluetoothBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < 1 || maxPooled < 1)
+            throw new IllegalArgumentException("bufferSize and maxPooled must be positive.");
+        mBufferSize = bufferSize;
+        mFreeBuffers = new BluetoothBuffer[maxPooled];
+    }
+
+    /**
+     * 获取单个缓存大小
+     * @return 缓存大小
+     */
+    public int bufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * 分配缓存，优先复用空闲缓存
+     * @return 引用计数为1的缓存，数据区间为整个字节数组
+     */
+    public BluetoothBuffer acquire() {
+        BluetoothBuffer buffer = null;
+        synchronized (this) {
+            if (mFreeCount > 0) {
+                buffer = mFreeBuffers[--mFreeCount];
+                mFreeBuffers[mFreeCount] = null;
+            } else {
+                mAllocatedCount++;
+            }
+        }
+        if (null == buffer)
+            buffer = new BluetoothBuffer(this, new byte[mBufferSize]);
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * 获取累计新建的缓存数量，可用于观察稳定状态下是否还在分配内存
+     * @return 新建缓存数量
+     */
+    public synchronized long allocatedCount() {
+        return mAllocatedCount;
+    }
+
+    /**
+     * 获取当前空闲缓存数量
+     * @return 空闲缓存数量
+     */
+    public synchronized int freeCount() {
+        return mFreeCount;
+    }
+
+    /**
+     * 回收引用计数已归零的缓存
+     * @param buffer 缓存
+     */
+    synchronized void recycle(BluetoothBuffer buffer) {
+        if (mFreeCount < mFreeBuffers.length)
+            mFreeBuffers[mFreeCount++] = buffer;
+    }
+}
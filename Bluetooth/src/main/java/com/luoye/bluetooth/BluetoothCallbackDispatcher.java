@@ -0,0 +1,95 @@
+package com.luoye.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 蓝牙回调分发器，将I/O线程中的事件转交到回调方法的执行线程。
+ * <p>指定Looper时通过Handler消息分发，消息对象由系统复用，不会额外分配内存；
+ * 指定执行器时通过{@link Executor#execute(Runnable)}分发，直接执行器则在当前线程立即回调。</p>
+ */
+class BluetoothCallbackDispatcher {
+    /** 消息句柄，使用执行器时为null */
+    private final Handler mHandler;
+    /** 回调执行器，使用Looper时为null */
+    private final Executor mExecutor;
+    /** 回调目标 */
+    private final Target mTarget;
+
+    /**
+     * 构造函数，在指定Looper线程中回调
+     * @param looper 消息循环
+     * @param target 回调目标
+     * @throws IllegalArgumentException 消息循环为null
+     */
+    BluetoothCallbackDispatcher(Looper looper, Target target) {
+        if (null == looper)
+            throw new IllegalArgumentException("the Looper can't be null.");
+        mHandler = new CallbackHandler(looper);
+        mExecutor = null;
+        mTarget = target;
+    }
+
+    /**
+     * 构造函数，通过执行器回调
+     * @param executor 回调执行器
+     * @param target 回调目标
+     * @throws IllegalArgumentException 执行器为null
+     */
+    BluetoothCallbackDispatcher(Executor executor, Target target) {
+        if (null == executor)
+            throw new IllegalArgumentException("the Executor can't be null.");
+        mHandler = null;
+        mExecutor = executor;
+        mTarget = target;
+    }
+
+    /**
+     * 分发事件
+     * @param what 事件类型
+     * @param obj 事件参数
+     */
+    void dispatch(final int what, final Object obj) {
+        if (null != mHandler) {
+            mHandler.obtainMessage(what, obj).sendToTarget();
+        } else if (BluetoothExecutors.isDirect(mExecutor)) {
+            mTarget.onCallback(what, obj);
+        } else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mTarget.onCallback(what, obj);
+                }
+            });
+        }
+    }
+
+    /**
+     * 回调消息句柄
+     */
+    private class CallbackHandler extends Handler {
+        CallbackHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            mTarget.onCallback(msg.what, msg.obj);
+        }
+    }
+
+    /**
+     * 回调目标
+     */
+    interface Target {
+        /**
+         * 在回调线程中处理事件
+         * @param what 事件类型
+         * @param obj 事件参数
+         */
+        void onCallback(int what, Object obj);
+    }
+}
@@ -0,0 +1,326 @@
+package com.luoye.bluetooth;
+
+import android.os.Looper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * 逻辑通道，由{@link BluetoothMultiplexer#openChannel(int, OnChannelCallback)}创建。
+ * <p>每个通道有独立的发送队列、接收回调和基于信用的流量控制：发送方只能发出接收方授予的信用字节数，
+ * 接收方在回调处理完消息后才归还信用，处理缓慢的通道只会阻塞自己，不会占满链路或其他通道的缓存。</p>
+ */
+public final class BluetoothChannel {
+    /** 通道编号 */
+    private final int mId;
+    /** 所属多路复用器，可为null */
+    private final BluetoothMultiplexer mMultiplexer;
+    /** 接收回调 */
+    private final OnChannelCallback mCallback;
+    /** 最大消息长度 */
+    private final int mMaxMessageLength;
+
+    /** 发送队列，由多路复用器锁保护 */
+    private final ArrayDeque<byte[]> mSendQueue = new ArrayDeque<>();
+    /** 队首消息已发出的位置，由多路复用器锁保护 */
+    private int mSendPosition;
+    /** 发送队列中的字节数，由多路复用器锁保护 */
+    private long mQueuedBytes;
+    /** 对方授予的发送信用，由多路复用器锁保护 */
+    private long mCredits;
+
+    /** 正在重组的消息，仅在接收线程中访问 */
+    private final ByteArrayOutputStream mReassembly = new ByteArrayOutputStream();
+
+    /**
+     * 默认构造，包可见
+     * @param id 通道编号
+     * @param multiplexer 所属多路复用器，可为null
+     * @param callback 接收回调
+     * @param window 初始发送信用
+     * @param maxMessageLength 最大消息长度
+     */
+    BluetoothChannel(int id, BluetoothMultiplexer multiplexer, OnChannelCallback callback, long window, int maxMessageLength) {
+        mId = id;
+        mMultiplexer = multiplexer;
+        mCallback = callback;
+        mCredits = window;
+        mMaxMessageLength = maxMessageLength;
+    }
+
+    /**
+     * 获取通道编号
+     * @return 通道编号
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * 发送一条消息，消息按分片大小拆分后与其他通道轮流发出，对方收到完整消息后回调
+     * @param data 消息内容，会被复制
+     * @throws IOException 多路复用器已关闭
+     * @throws IllegalArgumentException 消息为null或超过最大消息长度
+     */
+    public void send(byte[] data) throws IOException {
+        if (null == data)
+            throw new IllegalArgumentException("the data can't be null.");
+        if (data.length > mMaxMessageLength)
+            throw new IllegalArgumentException("message length " + data.length + " exceeds " + mMaxMessageLength + ".");
+        mMultiplexer.send(this, data.clone());
+    }
+
+    /**
+     * 获取尚未发出的字节数
+     * @return 字节数
+     */
+    public long getQueuedBytes() {
+        synchronized (mMultiplexer) {
+            return mQueuedBytes;
+        }
+    }
+
+    /**
+     * 获取剩余的发送信用
+     * @return 字节数
+     */
+    public long getCredits() {
+        synchronized (mMultiplexer) {
+            return mCredits;
+        }
+    }
+
+    /**
+     * 加入发送队列，需持有多路复用器锁
+     * @param data 消息内容，引用随之转交
+     */
+    void enqueue(byte[] data) {
+        mSendQueue.addLast(data);
+        mQueuedBytes += data.length;
+    }
+
+    /**
+     * 是否有可以发出的数据，需持有多路复用器锁
+     * @return true 队列非空且有信用，空消息不需要信用
+     */
+    boolean isSendable() {
+        if (mSendQueue.isEmpty())
+            return false;
+        return mCredits > 0 || mSendQueue.peekFirst().length == mSendPosition;
+    }
+
+    /**
+     * 取出下一个分片并扣除信用，需持有多路复用器锁
+     * @param maxLength 最大分片长度
+     * @return 分片
+     */
+    Fragment nextFragment(int maxLength) {
+        byte[] head = mSendQueue.peekFirst();
+        int length = (int) Math.min(Math.min(maxLength, mCredits), head.length - mSendPosition);
+        Fragment fragment = new Fragment(head, mSendPosition, length, mSendPosition + length == head.length);
+        mSendPosition += length;
+        mQueuedBytes -= length;
+        mCredits -= length;
+        if (fragment.mLast) {
+            mSendQueue.pollFirst();
+            mSendPosition = 0;
+        }
+        return fragment;
+    }
+
+    /**
+     * 增加发送信用，需持有多路复用器锁
+     * @param credits 字节数
+     */
+    void addCredits(long credits) {
+        mCredits += credits;
+    }
+
+    /**
+     * 清空发送队列，需持有多路复用器锁
+     */
+    void clear() {
+        mSendQueue.clear();
+        mSendPosition = 0;
+        mQueuedBytes = 0;
+    }
+
+    /**
+     * 收到一个分片，在接收线程中调用
+     * @param array 字节缓存
+     * @param offset 分片起始位置
+     * @param length 分片长度
+     * @param last 是否为消息的最后一个分片
+     * @return 完整的消息，消息未完成时为null
+     * @throws IOException 消息超过最大消息长度
+     */
+    byte[] receive(byte[] array, int offset, int length, boolean last) throws IOException {
+        if (mReassembly.size() + length > mMaxMessageLength)
+            throw new IOException("channel " + mId + " message exceeds " + mMaxMessageLength + " bytes.");
+        mReassembly.write(array, offset, length);
+        if (!last)
+            return null;
+        byte[] message = mReassembly.toByteArray();
+        mReassembly.reset();
+        return message;
+    }
+
+    /**
+     * 通知回调收到消息，回调执行完毕后归还最后一个分片的信用
+     * @param message 消息内容
+     * @param credits 待归还的信用
+     */
+    void notifyMessage(byte[] message, int credits) {
+        mCallback.notifyMessage(this, message, credits);
+    }
+
+    /**
+     * 通知回调通道关闭
+     * @param e 关闭原因
+     */
+    void notifyClosed(IOException e) {
+        mCallback.notifyClosed(this, e);
+    }
+
+    /**
+     * 消息处理完毕，向对方归还信用，在回调线程中调用
+     * @param credits 待归还的信用
+     */
+    void consumed(int credits) {
+        if (null != mMultiplexer)
+            mMultiplexer.consumed(mId, credits);
+    }
+
+    /**
+     * 待发出的分片
+     */
+    static final class Fragment {
+        /** 消息内容 */
+        final byte[] mData;
+        /** 分片起始位置 */
+        final int mOffset;
+        /** 分片长度 */
+        final int mLength;
+        /** 是否为消息的最后一个分片 */
+        final boolean mLast;
+
+        Fragment(byte[] data, int offset, int length, boolean last) {
+            mData = data;
+            mOffset = offset;
+            mLength = length;
+            mLast = last;
+        }
+    }
+
+    /**
+     * 逻辑通道接收回调
+     */
+    public static abstract class OnChannelCallback {
+        /** 收到消息 */
+        private static final int MESSAGE_CHANNEL_MESSAGE = 1;
+        /** 通道关闭消息 */
+        private static final int MESSAGE_CHANNEL_CLOSED = 2;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnChannelCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnChannelCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnChannelCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 逻辑通道回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                ChannelEvent event = (ChannelEvent) obj;
+                switch (what) {
+                    case MESSAGE_CHANNEL_MESSAGE:
+                        try {
+                            onMessage(event.mChannel, event.mData);
+                        } finally {
+                            event.mChannel.consumed(event.mCredits);
+                        }
+                        break;
+                    case MESSAGE_CHANNEL_CLOSED:
+                        onClosed(event.mChannel, event.mException);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 通知回调收到消息方法
+         * @param channel 逻辑通道
+         * @param data 消息内容
+         * @param credits 回调执行完毕后归还的信用
+         */
+        void notifyMessage(BluetoothChannel channel, byte[] data, int credits) {
+            mDispatcher.dispatch(MESSAGE_CHANNEL_MESSAGE, new ChannelEvent(channel, data, credits, null));
+        }
+
+        /**
+         * 通知回调通道关闭方法
+         * @param channel 逻辑通道
+         * @param e 关闭原因
+         */
+        void notifyClosed(BluetoothChannel channel, IOException e) {
+            mDispatcher.dispatch(MESSAGE_CHANNEL_CLOSED, new ChannelEvent(channel, null, 0, e));
+        }
+
+        /**
+         * 收到一条完整的消息，方法返回后才向对方归还信用
+         * @param channel 逻辑通道
+         * @param data 消息内容
+         */
+        public abstract void onMessage(BluetoothChannel channel, byte[] data);
+
+        /**
+         * 多路复用器关闭或连接断开
+         * @param channel 逻辑通道
+         * @param e 关闭原因
+         */
+        public abstract void onClosed(BluetoothChannel channel, IOException e);
+
+        /**
+         * 逻辑通道事件
+         */
+        private static class ChannelEvent {
+            final BluetoothChannel mChannel;
+            final byte[] mData;
+            final int mCredits;
+            final IOException mException;
+
+            ChannelEvent(BluetoothChannel channel, byte[] data, int credits, IOException e) {
+                mChannel = channel;
+                mData = data;
+                mCredits = credits;
+                mException = e;
+            }
+        }
+    }
+}
@@ -3,14 +3,20 @@ package com.luoye.bluetooth;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.os.Build;
-import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 蓝牙通信终端，负责主动连接其他指定的蓝牙设备，并完成蓝牙通信数据的收发。
@@ -26,14 +32,74 @@ public class BluetoothClient {
     /** 蓝牙终端状态：已关闭 */
     public static final int BLUETOOTH_CLIENT_STATUS_CLOSED = 3;
 
+    /** 异步写入优先级：控制指令，优先于大块数据写出 */
+    public static final int WRITE_PRIORITY_CONTROL = BluetoothWriter.PRIORITY_CONTROL;
+    /** 异步写入优先级：大块数据，按数据包大小拆分写出，每块之间让出给控制指令 */
+    public static final int WRITE_PRIORITY_BULK = BluetoothWriter.PRIORITY_BULK;
+
+    /** 连接策略：未知，由服务端接受的连接或尚未连接 */
+    public static final int CONNECT_STRATEGY_NONE = 0;
+    /** 连接策略：经SDP查询通道的安全连接，需要配对 */
+    public static final int CONNECT_STRATEGY_SECURE = 1;
+    /** 连接策略：经SDP查询通道的非安全连接，Android 2.3.3及以上可用 */
+    public static final int CONNECT_STRATEGY_INSECURE = 2;
+    /** 连接策略：跳过SDP查询直接连接指定RFCOMM通道，适用于固定通道的串口模块 */
+    public static final int CONNECT_STRATEGY_CHANNEL = 3;
+    /** 默认的单次连接尝试超时，毫秒，略长于一次寻呼加SDP查询的耗时 */
+    public static final long DEFAULT_CONNECT_ATTEMPT_TIMEOUT = 6000;
+    /** 默认的直连RFCOMM通道 */
+    public static final int DEFAULT_RFCOMM_CHANNEL = 1;
+
+    /** 蓝牙设备，由服务端接受的连接为null */
+    private final BluetoothDevice mDevice;
+    /** 口令，由服务端接受的连接为null */
+    private final UUID mUuid;
+    /** 是否是安全通信 */
+    private final boolean mSecure;
+    /** 直连策略使用的RFCOMM通道 */
+    private volatile int mRfcommChannel = DEFAULT_RFCOMM_CHANNEL;
+    /** 建立连接使用的策略 */
+    private volatile int mConnectStrategy = CONNECT_STRATEGY_NONE;
+    /** 建立连接的耗时，毫秒 */
+    private volatile long mConnectDurationMillis;
     /** 蓝牙终端套接字 */
-    private BluetoothSocket mSocket;
+    private volatile BluetoothSocket mSocket;
+    /** 收发数据通道 */
+    private final Transport mTransport;
     /** 蓝牙终端状态 */
-    private int mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
-    /** 蓝牙终端读取线程 */
-    private ReadThread mReadThread;
+    private volatile int mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
+    /** 蓝牙数据接收流水线 */
+    private BluetoothInputPipeline mInputPipeline;
     /** 蓝牙异步读取监听接口 */
-    private BluetoothInputCallback mBluetoothInputCallback;
+    private volatile BluetoothInputCallback mBluetoothInputCallback;
+    /** 接收数据缓存池 */
+    private BluetoothBufferPool mBufferPool = new BluetoothBufferPool();
+    /** 接收数据帧解码器 */
+    private volatile BluetoothFrameDecoder mFrameDecoder;
+    /** 压缩层 */
+    private volatile BluetoothCompression mCompression;
+    /** 收发任务执行器，为null时每个任务使用独立线程 */
+    private volatile Executor mIoExecutor;
+    /** 关闭监听 */
+    private volatile OnCloseListener mOnCloseListener;
+    /** 是否已通知关闭监听 */
+    private final AtomicBoolean mCloseNotified = new AtomicBoolean();
+    /** 异步写入器 */
+    private volatile BluetoothWriter mWriter;
+    /** 正在进行的文件发送任务，发送期间拒绝其他写入 */
+    private volatile BluetoothFileTransfer mFileTransfer;
+    /** 异步写入合并的数据包大小 */
+    private int mWritePacketSize = BluetoothWriter.DEFAULT_PACKET_SIZE;
+    /** 异步写入合并的最大延迟，毫秒 */
+    private long mWriteMaxLatencyMillis;
+    /** 异步写入低水位线 */
+    private long mWriteLowWaterMark = BluetoothWriter.DEFAULT_LOW_WATER_MARK;
+    /** 异步写入高水位线 */
+    private long mWriteHighWaterMark = BluetoothWriter.DEFAULT_HIGH_WATER_MARK;
+    /** 可写状态变化回调 */
+    private volatile OnBluetoothWritabilityCallback mWritabilityCallback;
+    /** 连接统计，为null时不统计 */
+    private volatile BluetoothMetrics mMetrics;
 
     /**
      * 默认构造函数，包可见
@@ -43,6 +109,10 @@ public class BluetoothClient {
      * @throws IOException 构造失败
      */
     BluetoothClient(BluetoothDevice device, UUID uuid, boolean secure) throws IOException {
+        mDevice = device;
+        mUuid = uuid;
+        mSecure = secure;
+        mTransport = new SocketTransport();
         if (secure) {
             mSocket = device.createRfcommSocketToServiceRecord(uuid);
         } else {
@@ -59,7 +129,24 @@ public class BluetoothClient {
      * @param socket 蓝牙终端套接字
      */
     BluetoothClient(BluetoothSocket socket) {
+        mDevice = null;
+        mUuid = null;
+        mSecure = true;
         mSocket = socket;
+        mTransport = new SocketTransport();
+        mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTED;
+    }
+
+    /**
+     * 构造函数，通过指定的数据通道收发，不关联蓝牙设备和套接字，包可见
+     * @param transport 已连接的数据通道
+     */
+    BluetoothClient(Transport transport) {
+        mDevice = null;
+        mUuid = null;
+        mSecure = true;
+        mSocket = null;
+        mTransport = transport;
         mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTED;
     }
 
@@ -88,13 +175,14 @@ public class BluetoothClient {
             throw new IOException("Bluetooth Client is connecting or connected.");
 
         mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTING;
+        long start = System.nanoTime();
         try {
             mSocket.connect();
         } catch (IOException e) {
             mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
             throw e;
         }
-        mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTED;
+        onConnected(defaultStrategy(), start);
     }
 
     /**
@@ -113,7 +201,8 @@ public class BluetoothClient {
         }
 
         mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTING;
-        new Thread() { // 开启连接线程等待建立连接
+        final long start = System.nanoTime();
+        executeConnect(new Runnable() { // 在I/O调度器中等待建立连接
             @Override
             public void run() {
                 boolean bSuccess = true;
@@ -135,11 +224,238 @@ public class BluetoothClient {
                 }
 
                 if (bSuccess) {
-                    mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTED;
+                    onConnected(defaultStrategy(), start);
                     callback.notifyCallSuccess(BluetoothClient.this);
                 }
             }
-        }.start();
+        });
+    }
+
+    /**
+     * 按策略顺序异步连接蓝牙服务端。
+     * <p>依次尝试{@code strategies}中的连接策略，每次尝试超过{@code attemptTimeoutMillis}未连上即放弃并尝试下一个策略，
+     * 第一个连上的策略胜出；所有策略失败时回调{@link OnBluetoothConnectCallback#onConnectFailure(Exception)}，
+     * 异常信息中包含每个策略的失败原因。连接成功后可通过{@link #getConnectStrategy()}和{@link #getConnectDurationMillis()}
+     * 获取胜出的策略和连接耗时。</p>
+     * <p>策略依次尝试而不是同时发起，同一设备上并发的寻呼和SDP查询会相互拖慢。设备搜索同样会严重拖慢寻呼，
+     * 请通过{@link Bluetooth#fastConnect(BluetoothClient, int[], long, OnBluetoothConnectCallback)}连接以自动暂停搜索。</p>
+     * @param strategies 连接策略顺序，取值为{@link #CONNECT_STRATEGY_SECURE}、{@link #CONNECT_STRATEGY_INSECURE}、
+     *                   {@link #CONNECT_STRATEGY_CHANNEL}
+     * @param attemptTimeoutMillis 单次尝试超时，毫秒，为0时不限时
+     * @param callback 异步连接监听回调
+     * @throws IOException 蓝牙已连接，或终端由服务端接受而无法重新连接
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public void asyncConnect(final int[] strategies, final long attemptTimeoutMillis, final OnBluetoothConnectCallback callback) throws IOException {
+        if (null == strategies || 0 == strategies.length)
+            throw new IllegalArgumentException("the connect strategies can't be empty.");
+        for (int strategy : strategies) {
+            if (strategy < CONNECT_STRATEGY_SECURE || strategy > CONNECT_STRATEGY_CHANNEL)
+                throw new IllegalArgumentException("unknown connect strategy " + strategy + ".");
+        }
+        if (attemptTimeoutMillis < 0)
+            throw new IllegalArgumentException("attemptTimeoutMillis can't be negative.");
+        if (null == callback)
+            throw new IllegalArgumentException("the OnBluetoothConnectCallback can't be null.");
+        if (null == mDevice)
+            throw new IOException("Bluetooth client accepted by server can't connect by strategies.");
+        if (mStatus > BLUETOOTH_CLIENT_STATUS_DISCONNECT)
+            throw new IOException("Bluetooth client is connecting or connected.");
+
+        mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTING;
+        final int[] order = strategies.clone();
+        final long start = System.nanoTime();
+        executeConnect(new Runnable() { // 在I/O调度器中依次尝试连接策略
+            @Override
+            public void run() {
+                StringBuilder failures = new StringBuilder();
+                for (int strategy : order) {
+                    if (mStatus >= BLUETOOTH_CLIENT_STATUS_CLOSED)
+                        break;
+                    try {
+                        attempt(strategy, attemptTimeoutMillis);
+                        onConnected(strategy, start);
+                        callback.notifyCallSuccess(BluetoothClient.this);
+                        return;
+                    } catch (IOException e) {
+                        if (failures.length() > 0)
+                            failures.append("; ");
+                        failures.append(strategyName(strategy)).append(": ").append(e.getMessage());
+                    }
+                }
+                if (mStatus < BLUETOOTH_CLIENT_STATUS_CLOSED)
+                    mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
+                callback.notifyCallFailure(new IOException(mStatus >= BLUETOOTH_CLIENT_STATUS_CLOSED
+                        ? "Bluetooth client is closed."
+                        : "all connect strategies failed (" + failures + ")."));
+            }
+        });
+    }
+
+    /**
+     * 执行连接任务，执行器拒绝时恢复为未连接状态
+     * @param task 连接任务
+     * @throws IOException 执行器拒绝执行任务
+     */
+    private void executeConnect(Runnable task) throws IOException {
+        try {
+            execute(task);
+        } catch (IOException e) {
+            if (mStatus < BLUETOOTH_CLIENT_STATUS_CLOSED)
+                mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
+            throw e;
+        }
+    }
+
+    /**
+     * 使用一个连接策略尝试连接，超时后关闭套接字中止连接
+     * @param strategy 连接策略
+     * @param timeoutMillis 超时，毫秒，为0时不限时
+     * @throws IOException 连接失败或超时
+     */
+    private void attempt(int strategy, long timeoutMillis) throws IOException {
+        final BluetoothSocket socket = createSocket(strategy);
+        BluetoothSocket previous = mSocket;
+        mSocket = socket;
+        if (previous != socket) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (mStatus >= BLUETOOTH_CLIENT_STATUS_CLOSED) { // 替换套接字期间被关闭
+            socket.close();
+            throw new IOException("Bluetooth client is closed.");
+        }
+
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        Future<?> watchdog = null;
+        if (timeoutMillis > 0) {
+            watchdog = BluetoothExecutors.timer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            if (timedOut.get())
+                throw new IOException("timed out after " + timeoutMillis + "ms");
+            throw e;
+        } finally {
+            if (null != watchdog)
+                watchdog.cancel(false);
+        }
+        if (timedOut.get()) // 连接恰好在超时时刻完成，套接字已被关闭
+            throw new IOException("timed out after " + timeoutMillis + "ms");
+    }
+
+    /**
+     * 按连接策略创建套接字
+     * @param strategy 连接策略
+     * @return 套接字
+     * @throws IOException 创建失败或当前系统不支持该策略
+     */
+    private BluetoothSocket createSocket(int strategy) throws IOException {
+        switch (strategy) {
+            case CONNECT_STRATEGY_SECURE:
+                return mDevice.createRfcommSocketToServiceRecord(mUuid);
+            case CONNECT_STRATEGY_INSECURE:
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1)
+                    throw new IOException("insecure RFCOMM is not supported before Android 2.3.3");
+                return mDevice.createInsecureRfcommSocketToServiceRecord(mUuid);
+            default:
+                try {
+                    Method method = BluetoothDevice.class.getMethod("createRfcommSocket", int.class);
+                    return (BluetoothSocket) method.invoke(mDevice, mRfcommChannel);
+                } catch (Exception e) {
+                    throw new IOException("direct RFCOMM channel is not available: " + e);
+                }
+        }
+    }
+
+    /**
+     * 默认构造的套接字对应的连接策略
+     * @return 连接策略
+     */
+    private int defaultStrategy() {
+        if (null == mDevice)
+            return CONNECT_STRATEGY_NONE;
+        if (!mSecure && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1)
+            return CONNECT_STRATEGY_INSECURE;
+        return CONNECT_STRATEGY_SECURE;
+    }
+
+    /**
+     * 记录连接结果并更新为已连接状态
+     * @param strategy 胜出的连接策略
+     * @param start 开始连接的时间，纳秒
+     */
+    private void onConnected(int strategy, long start) {
+        mConnectStrategy = strategy;
+        mConnectDurationMillis = (System.nanoTime() - start) / 1000000;
+        mStatus = BLUETOOTH_CLIENT_STATUS_CONNECTED;
+    }
+
+    /**
+     * 连接策略名称
+     * @param strategy 连接策略
+     * @return 名称
+     */
+    static String strategyName(int strategy) {
+        switch (strategy) {
+            case CONNECT_STRATEGY_SECURE:
+                return "secure";
+            case CONNECT_STRATEGY_INSECURE:
+                return "insecure";
+            case CONNECT_STRATEGY_CHANNEL:
+                return "channel";
+            default:
+                return "none";
+        }
+    }
+
+    /**
+     * 设置直连策略{@link #CONNECT_STRATEGY_CHANNEL}使用的RFCOMM通道，默认为{@link #DEFAULT_RFCOMM_CHANNEL}
+     * @param channel 通道号，1~30
+     * @throws IllegalArgumentException 通道号不合法
+     */
+    public void setRfcommChannel(int channel) {
+        if (channel < 1 || channel > 30)
+            throw new IllegalArgumentException("RFCOMM channel must be between 1 and 30.");
+        mRfcommChannel = channel;
+    }
+
+    /**
+     * 获取直连策略使用的RFCOMM通道
+     * @return 通道号
+     */
+    public int getRfcommChannel() {
+        return mRfcommChannel;
+    }
+
+    /**
+     * 获取建立连接使用的策略
+     * @return 连接策略，尚未连接或由服务端接受的连接为{@link #CONNECT_STRATEGY_NONE}
+     */
+    public int getConnectStrategy() {
+        return mConnectStrategy;
+    }
+
+    /**
+     * 获取建立连接的耗时，从发起连接到连接成功，包括失败策略的耗时
+     * @return 毫秒
+     */
+    public long getConnectDurationMillis() {
+        return mConnectDurationMillis;
     }
 
 //    /**
@@ -193,7 +509,7 @@ public class BluetoothClient {
      * @throws IOException 蓝牙输出流异常
      */
     public void write(byte[] buffer) throws IOException {
-        mSocket.getOutputStream().write(buffer);
+        write(buffer, 0, buffer.length);
     }
 
     /**
@@ -201,11 +517,59 @@ public class BluetoothClient {
      * @param buffer 字节缓存
      * @param offset buffer缓存的起始位置
      * @param count 期望写入的字节数
-     * @throws IOException 蓝牙输出流异常
+     * @throws IOException 蓝牙输出流异常或正在发送文件
      * @throws IndexOutOfBoundsException 字节缓存操作越界
      */
     public void write(byte[] buffer, int offset, int count) throws IOException {
-        mSocket.getOutputStream().write(buffer, offset, count);
+        checkNoFileTransfer();
+        BluetoothCompression compression = mCompression;
+        int written;
+        if (null != compression) {
+            if (offset < 0 || count < 0 || offset + count > buffer.length)
+                throw new IndexOutOfBoundsException("offset: " + offset + ", count: " + count + ", length: " + buffer.length);
+            BluetoothBuffer message = compression.encode(buffer, offset, count);
+            mTransport.getOutputStream().write(message.array(), message.offset(), message.length());
+            written = message.length();
+        } else {
+            mTransport.getOutputStream().write(buffer, offset, count);
+            written = count;
+        }
+        BluetoothTraffic.recordWritten(written);
+        BluetoothMetrics metrics = mMetrics;
+        if (null != metrics)
+            metrics.recordWritten(written, 1);
+    }
+
+    /**
+     * 启用压缩层，需在蓝牙连接后、{@link #asyncRead(BluetoothInputCallback)}和首次写入之前调用，通信双方都需要启用。
+     * <p>启用时向对方发送握手消息，收到对方的握手消息后，达到压缩阈值且压缩效果良好的写入将被压缩发送。
+     * 接收到的数据先由压缩层还原，再交给帧解码器或异步读取监听回调。</p>
+     * @param compression 压缩层，每个蓝牙终端使用独立的实例
+     * @throws IOException 蓝牙未连接或已启用压缩层
+     * @throws IllegalArgumentException 压缩层为null
+     */
+    public void setCompression(BluetoothCompression compression) throws IOException {
+        if (null == compression)
+            throw new IllegalArgumentException("the BluetoothCompression can't be null.");
+        if (BLUETOOTH_CLIENT_STATUS_CONNECTED != mStatus)
+            throw new IOException("Bluetooth client is not connected.");
+        synchronized (this) {
+            if (null != mCompression)
+                throw new IOException("compression is already enabled.");
+            mCompression = compression;
+            BluetoothWriter writer = writer();
+            writer.setCompression(compression);
+            byte[] hello = compression.hello();
+            writer.writeRaw(hello, 0, hello.length, WRITE_PRIORITY_CONTROL, null);
+        }
+    }
+
+    /**
+     * 获取压缩层
+     * @return 压缩层，未启用时为null
+     */
+    public BluetoothCompression getCompression() {
+        return mCompression;
     }
 
 //    /**
@@ -225,10 +589,345 @@ public class BluetoothClient {
 //        os.flush();
 //    }
 
+    /**
+     * 设置异步写入的合并策略，需在首次调用{@code asyncWrite}之前调用。
+     * <p>写入线程空闲时立即写出队列中的数据，并将不超过{@code packetSize}的多次写入合并为一个数据包；
+     * {@code maxLatencyMillis}大于0时，不足一个数据包的数据最多等待该时长以合并后续写入。</p>
+     * @param packetSize 数据包大小
+     * @param maxLatencyMillis 最大合并延迟，毫秒
+     * @throws IllegalArgumentException 数据包大小小于1或延迟为负数
+     */
+    public void setWriteCoalescing(int packetSize, long maxLatencyMillis) {
+        if (packetSize < 1 || maxLatencyMillis < 0)
+            throw new IllegalArgumentException("packetSize must be positive and maxLatencyMillis can't be negative.");
+        mWritePacketSize = packetSize;
+        mWriteMaxLatencyMillis = maxLatencyMillis;
+    }
+
+    /**
+     * 设置异步写入的高低水位线。
+     * <p>尚未写出的字节数超过{@code highWaterMark}时{@link #isWritable()}返回false，
+     * 回落到{@code lowWaterMark}及以下时恢复为true，状态变化时回调{@link OnBluetoothWritabilityCallback}。
+     * 不可写时{@code asyncWrite}仍会接受数据，写入方应根据可写状态暂停产生数据。</p>
+     * @param lowWaterMark 低水位线，字节
+     * @param highWaterMark 高水位线，字节
+     * @throws IllegalArgumentException 水位线为负数或低水位线大于高水位线
+     */
+    public void setWriteWaterMarks(long lowWaterMark, long highWaterMark) {
+        if (lowWaterMark < 0 || lowWaterMark > highWaterMark)
+            throw new IllegalArgumentException("lowWaterMark must be between 0 and highWaterMark.");
+        BluetoothWriter writer;
+        synchronized (this) {
+            mWriteLowWaterMark = lowWaterMark;
+            mWriteHighWaterMark = highWaterMark;
+            writer = mWriter;
+        }
+        // 在锁外更新，避免可写状态回调中访问蓝牙终端时死锁
+        if (null != writer)
+            writer.setWaterMarks(lowWaterMark, highWaterMark);
+    }
+
+    /**
+     * 设置可写状态变化回调
+     * @param callback 回调，为null时取消监听
+     */
+    public void setOnBluetoothWritabilityCallback(OnBluetoothWritabilityCallback callback) {
+        mWritabilityCallback = callback;
+    }
+
+    /**
+     * 异步写入是否可写，尚未写出的数据超过高水位线后返回false，直至回落到低水位线
+     * @return true 可写
+     */
+    public boolean isWritable() {
+        BluetoothWriter writer = mWriter;
+        return null == writer || writer.isWritable();
+    }
+
+    /**
+     * 等待异步写入的数据全部写出到蓝牙输出流
+     * @param timeoutMillis 最长等待时间，毫秒
+     * @return true 数据已全部写出或尚未异步写入，false 超时或写入已失败
+     * @throws InterruptedException 等待线程被中断
+     */
+    public boolean awaitWritesDrained(long timeoutMillis) throws InterruptedException {
+        BluetoothWriter writer = mWriter;
+        return null == writer || writer.awaitDrained(timeoutMillis);
+    }
+
+    /**
+     * 获取异步写入尚未写出的字节数
+     * @return 字节数
+     */
+    public long pendingWriteBytes() {
+        BluetoothWriter writer = mWriter;
+        return null == writer ? 0 : writer.pendingBytes();
+    }
+
+    /**
+     * 异步写入字节缓存{@code buffer}。
+     * @param buffer 字节缓存，写入完成前不能修改
+     * @throws IOException 蓝牙未连接或蓝牙输出流异常
+     */
+    public void asyncWrite(byte[] buffer) throws IOException {
+        asyncWrite(buffer, 0, buffer.length, null);
+    }
+
+    /**
+     * 异步写入字节缓存{@code buffer}。
+     * @param buffer 字节缓存，写入完成前不能修改
+     * @param callback 写入完成回调，可为null
+     * @throws IOException 蓝牙未连接或蓝牙输出流异常
+     */
+    public void asyncWrite(byte[] buffer, OnBluetoothWriteCallback callback) throws IOException {
+        asyncWrite(buffer, 0, buffer.length, callback);
+    }
+
+    /**
+     * 异步写入字节缓存{@code buffer}从{@code offset}开始的{@code count}字节。
+     * <p>该方法会立即返回，数据由写入线程按调用顺序写出，写出后回调{@link OnBluetoothWriteCallback#onWriteSuccess()}，
+     * 写入失败或蓝牙终端关闭时回调{@link OnBluetoothWriteCallback#onWriteFailure(IOException)}。
+     * 与同步的{@link #write(byte[])}混用时无法保证两者之间的先后顺序。</p>
+     * @param buffer 字节缓存，写入完成前不能修改
+     * @param offset buffer缓存的起始位置
+     * @param count 期望写入的字节数
+     * @param callback 写入完成回调，可为null
+     * @throws IOException 蓝牙未连接或蓝牙输出流异常
+     * @throws IndexOutOfBoundsException 字节缓存操作越界
+     */
+    public void asyncWrite(byte[] buffer, int offset, int count, OnBluetoothWriteCallback callback) throws IOException {
+        asyncWrite(buffer, offset, count, WRITE_PRIORITY_CONTROL, callback);
+    }
+
+    /**
+     * 以指定优先级异步写入字节缓存{@code buffer}从{@code offset}开始的{@code count}字节。
+     * <p>{@link #WRITE_PRIORITY_CONTROL}的数据优先写出；{@link #WRITE_PRIORITY_BULK}的数据按数据包大小拆分，
+     * 每写出一块后先写出等待中的控制指令。同一优先级内按调用顺序写出。</p>
+     * @param buffer 字节缓存，写入完成前不能修改
+     * @param offset buffer缓存的起始位置
+     * @param count 期望写入的字节数
+     * @param priority 写入优先级
+     * @param callback 写入完成回调，可为null
+     * @throws IOException 蓝牙未连接、蓝牙输出流异常或正在发送文件
+     * @throws IndexOutOfBoundsException 字节缓存操作越界
+     * @throws IllegalArgumentException 优先级不合法
+     */
+    public void asyncWrite(byte[] buffer, int offset, int count, int priority, OnBluetoothWriteCallback callback) throws IOException {
+        if (BLUETOOTH_CLIENT_STATUS_CONNECTED != mStatus)
+            throw new IOException("Bluetooth client is not connected.");
+        synchronized (this) {
+            checkNoFileTransfer();
+            writer().write(buffer, offset, count, priority, callback);
+        }
+    }
+
+    /**
+     * 以写入完成标识异步写入，供库内的协议层使用，完成时直接在写入线程中回调
+     * @param buffer 字节缓存，写入完成前不能修改
+     * @param offset buffer缓存的起始位置
+     * @param count 期望写入的字节数
+     * @param priority 写入优先级
+     * @param completion 写入完成标识
+     * @throws IOException 蓝牙未连接、蓝牙输出流异常或正在发送文件
+     */
+    void enqueue(byte[] buffer, int offset, int count, int priority, BluetoothWriter.Completion completion) throws IOException {
+        if (BLUETOOTH_CLIENT_STATUS_CONNECTED != mStatus)
+            throw new IOException("Bluetooth client is not connected.");
+        synchronized (this) {
+            checkNoFileTransfer();
+            writer().write(buffer, offset, count, priority, completion);
+        }
+    }
+
+    /**
+     * 检查是否正在发送文件，接收方把发送期间到达的所有数据都写入文件，其他写入会混入文件数据
+     * @throws IOException 正在发送文件
+     */
+    private void checkNoFileTransfer() throws IOException {
+        if (null != mFileTransfer)
+            throw new IOException("a file transfer is in progress.");
+    }
+
+    /**
+     * 发送文件。
+     * <p>该方法会立即返回，由文件发送线程通过{@link java.nio.channels.FileChannel}按块读取文件，
+     * 以{@link #WRITE_PRIORITY_BULK}优先级写出，不会将整个文件读入内存。</p>
+     * <p>接收方{@link BluetoothFileInputCallback}把到达的数据全部写入文件，因此从调用该方法到回调发送完成或失败之前，
+     * 同步写入、异步写入以及基于本终端的协议层写入都会抛出{@link IOException}，也不能同时发送另一个文件。
+     * 连接中断后，在新的连接上以接收方已收到的字节数作为{@code offset}再次调用即可续传。</p>
+     * @param file 待发送文件
+     * @param offset 起始位置
+     * @param callback 发送回调
+     * @return 发送任务
+     * @throws IOException 蓝牙未连接、蓝牙输出流异常或正在发送文件
+     * @throws IllegalArgumentException 文件或回调为null，或起始位置超出文件长度
+     */
+    public BluetoothFileTransfer sendFile(File file, long offset, BluetoothFileTransfer.OnFileTransferCallback callback) throws IOException {
+        if (BLUETOOTH_CLIENT_STATUS_CONNECTED != mStatus)
+            throw new IOException("Bluetooth client is not connected.");
+        BluetoothFileTransfer transfer;
+        synchronized (this) {
+            checkNoFileTransfer();
+            transfer = new BluetoothFileTransfer(file, offset, writer(), callback);
+            mFileTransfer = transfer;
+        }
+        try {
+            execute(new FileTransferTask(transfer));
+        } catch (IOException e) {
+            mFileTransfer = null;
+            throw e;
+        }
+        return transfer;
+    }
+
+    /**
+     * 获取指定优先级异步写入队列的统计快照，包括队列深度和等待时间
+     * @param priority 写入优先级
+     * @return 统计快照，尚未异步写入时各项均为0
+     * @throws IllegalArgumentException 优先级不合法
+     */
+    public BluetoothWriteStats getWriteStats(int priority) {
+        if (WRITE_PRIORITY_CONTROL != priority && WRITE_PRIORITY_BULK != priority)
+            throw new IllegalArgumentException("unknown write priority: " + priority);
+        BluetoothWriter writer = mWriter;
+        if (null == writer)
+            return new BluetoothWriteStats(priority, 0, 0, 0, 0, 0, 0);
+        return writer.stats(priority);
+    }
+
+    /**
+     * 获取异步写入器，首次调用时启动写入线程
+     * @return 异步写入器
+     * @throws IOException 蓝牙输出流异常
+     */
+    private synchronized BluetoothWriter writer() throws IOException {
+        if (null == mWriter || mWriter.isClosed()) {
+            mWriter = new BluetoothWriter(mTransport.getOutputStream(), mWritePacketSize, mWriteMaxLatencyMillis, new WriteListener());
+            mWriter.setWaterMarks(mWriteLowWaterMark, mWriteHighWaterMark);
+            mWriter.setCompression(mCompression);
+            mWriter.setMetrics(mMetrics);
+            try {
+                execute(new WriteTask(mWriter));
+            } catch (IOException e) {
+                mWriter.close(e);
+                throw e;
+            }
+        }
+        return mWriter;
+    }
+
+
+    /**
+     * 设置连接和收发任务执行器，需在异步连接、{@link #asyncRead(BluetoothInputCallback)}和首次异步写入之前调用。
+     * <p>异步读取、分发、写入和文件发送都是长时间运行的阻塞任务，每个蓝牙终端最多同时占用4个线程，
+     * 执行器的线程数需满足所有共用该执行器的蓝牙终端。执行器拒绝任务时，对应的连接、读取、写入或文件发送抛出{@link IOException}；
+     * 任务排队的执行器会使排在后面的收发一直暂停，不宜使用。</p>
+     * @param executor 执行器，为null时使用{@link BluetoothIoScheduler#getDefault()}
+     */
+    public void setIoExecutor(Executor executor) {
+        mIoExecutor = executor;
+    }
+
+    /**
+     * 获取收发任务执行器
+     * @return 执行器，未设置时为null，此时使用{@link BluetoothIoScheduler#getDefault()}
+     */
+    public Executor getIoExecutor() {
+        return mIoExecutor;
+    }
+
+    /**
+     * 执行连接和收发任务
+     * @param task 任务
+     * @throws IOException 执行器拒绝执行任务
+     */
+    private void execute(Runnable task) throws IOException {
+        Executor executor = mIoExecutor;
+        if (null == executor)
+            executor = BluetoothIoScheduler.getDefault();
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Bluetooth I/O executor rejected the task: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 设置关闭监听，包可见
+     * @param listener 关闭监听
+     */
+    void setOnCloseListener(OnCloseListener listener) {
+        mOnCloseListener = listener;
+    }
+
+    /**
+     * 通知关闭监听，只通知一次
+     */
+    private void notifyClosed() {
+        OnCloseListener listener = mOnCloseListener;
+        if (null != listener && mCloseNotified.compareAndSet(false, true))
+            listener.onClosed(this);
+    }
+
+    /**
+     * 设置接收数据缓存池，需在{@link #asyncRead(BluetoothInputCallback)}之前调用。
+     * <p>多个蓝牙终端可共享同一个缓存池。</p>
+     * @param pool 缓存池
+     * @throws IllegalArgumentException 缓存池为null
+     */
+    public void setBufferPool(BluetoothBufferPool pool) {
+        if (null == pool)
+            throw new IllegalArgumentException("the BluetoothBufferPool can't be null.");
+        mBufferPool = pool;
+    }
+
+    /**
+     * 获取接收数据缓存池
+     * @return 缓存池
+     */
+    public BluetoothBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * 设置连接统计，需在{@link #asyncRead(BluetoothInputCallback)}和首次异步写入之前调用。
+     * <p>多个蓝牙终端可共用同一个统计对象，此时得到的是它们的合计。</p>
+     * @param metrics 连接统计，为null时不统计
+     */
+    public void setMetrics(BluetoothMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 获取连接统计
+     * @return 连接统计，未设置时为null
+     */
+    public BluetoothMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 设置接收数据帧解码器，需在{@link #asyncRead(BluetoothInputCallback)}之前调用。
+     * <p>设置后异步读取监听回调只会收到解码器输出的完整数据帧。数据不符合帧格式时，蓝牙终端将断开连接，
+     * 并通过{@link BluetoothInputCallback#onDisconnected(IOException)}回调解码异常。</p>
+     * @param decoder 数据帧解码器，为null时直接回调接收到的原始数据
+     */
+    public void setFrameDecoder(BluetoothFrameDecoder decoder) {
+        mFrameDecoder = decoder;
+    }
+
+    /**
+     * 获取接收数据帧解码器
+     * @return 数据帧解码器
+     */
+    public BluetoothFrameDecoder getFrameDecoder() {
+        return mFrameDecoder;
+    }
 
     /**
      * 异步读取蓝牙数据
      * @param callback 监听回调
+     * @throws IOException 已在异步读取，或I/O执行器拒绝读取任务，此时连接按断开处理
      */
     public void asyncRead(final BluetoothInputCallback callback) throws IOException {
         if (null == callback)
@@ -240,25 +939,33 @@ public class BluetoothClient {
         if (BLUETOOTH_CLIENT_STATUS_CONNECTED != mStatus)
             return;
 
+        callback.mMetrics = mMetrics;
         mBluetoothInputCallback = callback;
 
-        if (null == mReadThread || mReadThread.getState() == Thread.State.TERMINATED) {
-            mReadThread = new ReadThread();
-            mReadThread.start();
-        } else if (mReadThread.getState() == Thread.State.WAITING) {
-            mReadThread.notify();
+        if (null == mInputPipeline || mInputPipeline.isClosed()) {
+            mInputPipeline = new BluetoothInputPipeline(BluetoothInputPipeline.DEFAULT_CAPACITY, new InputDispatcher());
+            try {
+                execute(new DispatchTask(mInputPipeline));
+                execute(new ReadTask(mInputPipeline));
+            } catch (IOException e) {
+                // 已启动的分发任务随接收队列结束，不再回调本次的监听
+                mBluetoothInputCallback = null;
+                mInputPipeline.finish(e);
+                throw e;
+            }
+        } else {
+            mInputPipeline.resume();
         }
     }
 
     /**
      * 取消异步监听.
+     * <p>取消后接收到的数据暂存在接收队列中，队列写满后暂停读取，再次调用{@link #asyncRead(BluetoothInputCallback)}时继续分发。
+     * 暂存期间连接断开时没有接收者，队列中尚未分发的数据被释放丢弃，之后调用{@link #asyncRead(BluetoothInputCallback)}
+     * 只会收到断开通知。需要完整接收数据时，应在连接断开前恢复监听。</p>
      */
     public void cancelAsyncRead() {
-        if (null != mBluetoothInputCallback) {
-            synchronized (mBluetoothInputCallback) {
-                mBluetoothInputCallback = null;
-            }
-        }
+        mBluetoothInputCallback = null;
     }
 
     /**
@@ -266,7 +973,7 @@ public class BluetoothClient {
      * @return true 蓝牙已连接
      */
     public boolean isConnected() {
-        return mSocket.isConnected() && mStatus == BLUETOOTH_CLIENT_STATUS_CONNECTED;
+        return mTransport.isConnected() && mStatus == BLUETOOTH_CLIENT_STATUS_CONNECTED;
     }
 
     /**
@@ -277,110 +984,380 @@ public class BluetoothClient {
         return mSocket.getRemoteDevice();
     }
 
+    /**
+     * 获取连接使用的口令
+     * @return 口令，由服务端接受的连接为null
+     */
+    public UUID getUuid() {
+        return mUuid;
+    }
+
     /**
      * 关闭蓝牙客户端
      * @throws IOException
      */
     public void shutdown() throws IOException {
         mStatus = BLUETOOTH_CLIENT_STATUS_CLOSED;
-        mSocket.close();
+        synchronized (this) {
+            if (null != mWriter)
+                mWriter.close(new IOException("Bluetooth client is closed."));
+        }
+        try {
+            mTransport.close();
+        } finally {
+            notifyClosed();
+        }
     }
 
     /**
-     * 接收线程
+     * 接收任务，负责从套接字读取数据并写入接收队列
      */
-    class ReadThread extends Thread {
+    class ReadTask implements Runnable {
+        /** 蓝牙数据接收流水线 */
+        private final BluetoothInputPipeline mPipeline;
+
+        ReadTask(BluetoothInputPipeline pipeline) {
+            mPipeline = pipeline;
+        }
+
         @Override
         public void run() {
+            BluetoothReader reader;
             try {
-                InputStream is = mSocket.getInputStream();
-                byte[] buffer = new byte[1024];
-                int nSize = 0;
-                boolean bWait = false;
-                while ((nSize = is.read(buffer)) != -1) {
-                    byte[] newBuffer = new byte[nSize];
-                    System.arraycopy(buffer, 0, newBuffer, 0, nSize);
-                    if (null != mBluetoothInputCallback) {
-                        synchronized (mBluetoothInputCallback) {
-                            mBluetoothInputCallback.notifyInput(newBuffer);
-                        }
-                    } else {
-                        bWait = true;
-                    }
+                reader = new BluetoothReader(mTransport.getInputStream(), mBufferPool);
+                reader.setMetrics(mMetrics);
+            } catch (IOException e) {
+                mPipeline.finish(e);
+                return;
+            }
+            // 蓝牙断开时不会返回-1，而是直接抛出异常
+            mPipeline.produce(reader);
+        }
+    }
 
-                    if (bWait) {
-                        try {
-                            bWait = false;
-                            wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                            break; // 此处会导致数据丢失
-                        }
+    /**
+     * 分发任务，负责从接收队列取出数据并通知异步读取监听回调
+     */
+    class DispatchTask implements Runnable {
+        /** 蓝牙数据接收流水线 */
+        private final BluetoothInputPipeline mPipeline;
+
+        DispatchTask(BluetoothInputPipeline pipeline) {
+            mPipeline = pipeline;
+        }
+
+        @Override
+        public void run() {
+            mPipeline.consume();
+        }
+    }
+
+    /**
+     * 写入任务，负责按顺序写出异步写入队列中的数据
+     */
+    class WriteTask implements Runnable {
+        /** 异步写入器 */
+        private final BluetoothWriter mWriter;
+
+        WriteTask(BluetoothWriter writer) {
+            mWriter = writer;
+        }
+
+        @Override
+        public void run() {
+            mWriter.run();
+        }
+    }
+
+    /**
+     * 文件发送任务，负责读取文件并写入异步写入队列
+     */
+    class FileTransferTask implements Runnable {
+        /** 文件发送任务 */
+        private final BluetoothFileTransfer mTransfer;
+
+        FileTransferTask(BluetoothFileTransfer transfer) {
+            mTransfer = transfer;
+        }
+
+        @Override
+        public void run() {
+            IOException failure = mTransfer.transfer();
+            // 先允许其他写入，回调中即可继续通信
+            mFileTransfer = null;
+            mTransfer.notifyResult(failure);
+        }
+    }
 
-                        // 将上次未发送的数据发送出去
-                        if (null != mBluetoothInputCallback)
-                            mBluetoothInputCallback.notifyInput(buffer);
+    /**
+     * 收发数据通道，包可见
+     */
+    interface Transport {
+        /**
+         * 获取输入流
+         * @return 输入流
+         * @throws IOException 通道未连接
+         */
+        InputStream getInputStream() throws IOException;
+
+        /**
+         * 获取输出流
+         * @return 输出流
+         * @throws IOException 通道未连接
+         */
+        OutputStream getOutputStream() throws IOException;
+
+        /**
+         * 通道是否已连接
+         * @return true 已连接
+         */
+        boolean isConnected();
+
+        /**
+         * 关闭通道，阻塞中的读写随之抛出异常
+         * @throws IOException 关闭异常
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * 蓝牙终端套接字数据通道，连接过程中替换套接字后自动使用新的套接字
+     */
+    private class SocketTransport implements Transport {
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return mSocket.isConnected();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+
+    /**
+     * 蓝牙终端关闭监听，在接收到连接断开或调用{@link #shutdown()}时通知一次，包可见
+     */
+    interface OnCloseListener {
+        /**
+         * 蓝牙终端已断开或关闭，在断开连接的收发线程或调用{@link #shutdown()}的线程中回调
+         * @param client 蓝牙终端
+         */
+        void onClosed(BluetoothClient client);
+    }
+
+    /**
+     * 异步写入监听，将写入结果转交给对应的写入完成回调，可写状态变化转交给可写状态回调
+     */
+    private class WriteListener implements BluetoothWriter.Listener {
+        @Override
+        public void onWriteComplete(Object token, IOException e) {
+            if (null == token)
+                return;
+            OnBluetoothWriteCallback callback = (OnBluetoothWriteCallback) token;
+            if (null == e)
+                callback.notifyWriteSuccess();
+            else
+                callback.notifyWriteFailure(e);
+        }
+
+        @Override
+        public void onWritabilityChanged(boolean writable) {
+            OnBluetoothWritabilityCallback callback = mWritabilityCallback;
+            if (null != callback)
+                callback.notifyWritabilityChanged(BluetoothClient.this, writable);
+        }
+    }
+
+    /**
+     * 接收数据分发器，将接收队列中的数据转交给当前的异步读取监听回调
+     */
+    private class InputDispatcher implements BluetoothInputPipeline.Dispatcher {
+        /** 上一次分发数据的监听回调 */
+        private BluetoothInputCallback mLastCallback;
+        /** 数据帧输出 */
+        private final FrameOutput mFrameOutput = new FrameOutput();
+        /** 压缩层还原出的数据 */
+        private final ArrayList<BluetoothBuffer> mPayloads = new ArrayList<>();
+        /** 数据帧解码异常 */
+        private IOException mDecodeException;
+
+        @Override
+        public boolean dispatch(BluetoothBuffer buffer) {
+            BluetoothInputCallback callback = current();
+            if (null == callback)
+                return false;
+            BluetoothCompression compression = mCompression;
+            BluetoothFrameDecoder decoder = mFrameDecoder;
+            if (null == compression && null == decoder) {
+                callback.notifyInput(buffer);
+                return true;
+            }
+
+            try {
+                if (null == mDecodeException) {
+                    mFrameOutput.mCallback = callback;
+                    mFrameOutput.mTimestamp = buffer.mTimestamp;
+                    if (null == compression) {
+                        decoder.decode(buffer, mFrameOutput);
                     } else {
-                        try {
-                            sleep(10);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+                        compression.decode(buffer, mPayloads);
+                        for (int i = 0; i < mPayloads.size(); i++) {
+                            BluetoothBuffer payload = mPayloads.get(i);
+                            mPayloads.set(i, null);
+                            payload.mTimestamp = buffer.mTimestamp;
+                            if (null == decoder) {
+                                callback.notifyInput(payload);
+                                continue;
+                            }
+                            try {
+                                decoder.decode(payload, mFrameOutput);
+                            } finally {
+                                payload.release();
+                            }
                         }
                     }
                 }
-
-                // 蓝牙断开时不会返回-1，而是直接抛出异常
-//                //若返回-1，当前终端与服务端断开连接
-//                if (mStatus < BLUETOOTH_CLIENT_STATUS_CLOSED) {
-//                    mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
-//                    if (mBluetoothInputCallback != null)
-//                        mBluetoothInputCallback.notifyDisconnected(new IOException("bluetooth is disconnected."));
-//                }
             } catch (IOException e) {
-                if (mStatus < BLUETOOTH_CLIENT_STATUS_CLOSED) {
-                    mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
-                    if (mBluetoothInputCallback != null)
-                        mBluetoothInputCallback.notifyDisconnected(e);
+                // 帧格式错误后已无法恢复分帧，断开连接并在结束时回调解码异常
+                if (null != compression)
+                    compression.reset();
+                if (null != decoder)
+                    decoder.reset();
+                mDecodeException = e;
+                try {
+                    mTransport.close();
+                } catch (IOException ignored) {
+                }
+            } finally {
+                buffer.release();
+                for (BluetoothBuffer payload : mPayloads) {
+                    if (null != payload)
+                        payload.release();
+                }
+                mPayloads.clear();
+            }
+            return true;
+        }
+
+        @Override
+        public long idle() {
+            BluetoothInputCallback callback = current();
+            return null == callback ? -1 : callback.notifyIdle(System.nanoTime());
+        }
+
+        /**
+         * 获取当前监听回调，监听回调变更时先让上一个监听回调输出暂存的数据
+         * @return 当前监听回调
+         */
+        private BluetoothInputCallback current() {
+            BluetoothInputCallback callback = mBluetoothInputCallback;
+            if (callback != mLastCallback) {
+                if (null != mLastCallback)
+                    mLastCallback.notifyFlush();
+                mLastCallback = callback;
+            }
+            return callback;
+        }
+
+        @Override
+        public void onFinished(IOException e) {
+            BluetoothInputCallback callback = current();
+            if (null != callback)
+                callback.notifyFlush();
+            if (null != mDecodeException)
+                e = mDecodeException;
+            if (null == e)
+                e = new IOException("Bluetooth input stream is closed.");
+            if (mStatus < BLUETOOTH_CLIENT_STATUS_CLOSED) {
+                mStatus = BLUETOOTH_CLIENT_STATUS_DISCONNECT;
+                // 连接已断开，关闭写入器使写入线程退出，并以断开异常通知尚未写出的写入
+                synchronized (BluetoothClient.this) {
+                    if (null != mWriter)
+                        mWriter.close(e);
                 }
+                if (null != callback)
+                    callback.notifyDisconnected(e);
+                notifyClosed();
             }
         }
     }
 
+    /**
+     * 数据帧输出，将解码出的数据帧交给当前的异步读取监听回调
+     */
+    private static class FrameOutput implements BluetoothFrameDecoder.Output {
+        /** 当前监听回调 */
+        BluetoothInputCallback mCallback;
+        /** 当前数据的读取时间，纳秒 */
+        long mTimestamp;
+
+        @Override
+        public void onFrame(BluetoothBuffer frame) {
+            frame.mTimestamp = mTimestamp;
+            mCallback.notifyInput(frame);
+        }
+    }
+
     /**
      * 蓝牙终端连接监听回调
      */
     public static abstract class OnBluetoothConnectCallback {
-        /** 消息句柄 */
-        private BluetoothClientHandler mHandler;
+        /** 蓝牙连接失败消息 */
+        private static final int MESSAGE_BLUETOOTH_CONNECT_FAILURE = 1;
+        /** 蓝牙连接成功消息 */
+        private static final int MESSAGE_BLUETOOTH_CONNECT_SUCCESS = 2;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
 
         /**
-         * 默认构造
+         * 默认构造，在主线程中回调
          */
         public OnBluetoothConnectCallback() {
-            mHandler = new BluetoothClientHandler(Looper.getMainLooper());
+            this(Looper.getMainLooper());
         }
 
         /**
-         * 蓝牙终端连接线程消息句柄
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
          */
-        class BluetoothClientHandler extends  Handler {
-            /** 蓝牙连接失败消息 */
-            static final int MESSAGE_BLUETOOTH_CONNECT_FAILURE = 1;
-            /** 蓝牙连接成功消息 */
-            static final int MESSAGE_BLUETOOTH_CONNECT_SUCCESS = 2;
+        public OnBluetoothConnectCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
 
-            BluetoothClientHandler(Looper looper) {
-                super(looper);
-            }
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnBluetoothConnectCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
 
+        /**
+         * 蓝牙终端连接回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
             @Override
-            public void handleMessage(Message msg) {
-                switch (msg.what) {
+            public void onCallback(int what, Object obj) {
+                switch (what) {
                     case MESSAGE_BLUETOOTH_CONNECT_SUCCESS:
-                        onConnectSuccess((BluetoothClient) msg.obj);
+                        onConnectSuccess((BluetoothClient) obj);
                         break;
                     case MESSAGE_BLUETOOTH_CONNECT_FAILURE:
-                        onConnectFailure(((Exception) msg.obj));
+                        onConnectFailure(((Exception) obj));
                         break;
                 }
             }
@@ -391,7 +1368,7 @@ public class BluetoothClient {
          * @param client 蓝牙终端
          */
         void notifyCallSuccess(BluetoothClient client) {
-            mHandler.sendMessage(mHandler.obtainMessage(BluetoothClientHandler.MESSAGE_BLUETOOTH_CONNECT_SUCCESS, client));
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_CONNECT_SUCCESS, client);
         }
 
         /**
@@ -399,7 +1376,7 @@ public class BluetoothClient {
          * @param e 异常信息
          */
         void notifyCallFailure(Exception e) {
-            mHandler.sendMessage(mHandler.obtainMessage(BluetoothClientHandler.MESSAGE_BLUETOOTH_CONNECT_FAILURE, e));
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_CONNECT_FAILURE, e);
         }
 
         /**
@@ -430,58 +1407,259 @@ public class BluetoothClient {
         public abstract void onConnectFailure(Exception e);
     }
 
+    /**
+     * 蓝牙终端异步写入完成回调
+     */
+    public static abstract class OnBluetoothWriteCallback {
+        /** 写入失败消息 */
+        private static final int MESSAGE_BLUETOOTH_WRITE_FAILURE = 1;
+        /** 写入成功消息 */
+        private static final int MESSAGE_BLUETOOTH_WRITE_SUCCESS = 2;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnBluetoothWriteCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnBluetoothWriteCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnBluetoothWriteCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 蓝牙终端写入回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                switch (what) {
+                    case MESSAGE_BLUETOOTH_WRITE_SUCCESS:
+                        onWriteSuccess();
+                        break;
+                    case MESSAGE_BLUETOOTH_WRITE_FAILURE:
+                        onWriteFailure((IOException) obj);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 通知回调写入成功方法
+         */
+        void notifyWriteSuccess() {
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_WRITE_SUCCESS, null);
+        }
+
+        /**
+         * 通知回调写入失败方法
+         * @param e 异常信息
+         */
+        void notifyWriteFailure(IOException e) {
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_WRITE_FAILURE, e);
+        }
+
+        /**
+         * 数据已写出到蓝牙输出流
+         */
+        public abstract void onWriteSuccess();
+
+        /**
+         * 数据写入失败
+         * @param e 蓝牙输出流异常或蓝牙终端已关闭
+         */
+        public abstract void onWriteFailure(IOException e);
+    }
+
+    /**
+     * 蓝牙终端异步写入可写状态变化回调
+     */
+    public static abstract class OnBluetoothWritabilityCallback {
+        /** 可写状态变化消息 */
+        private static final int MESSAGE_BLUETOOTH_WRITABILITY_CHANGED = 1;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnBluetoothWritabilityCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnBluetoothWritabilityCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnBluetoothWritabilityCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 蓝牙终端可写状态回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                switch (what) {
+                    case MESSAGE_BLUETOOTH_WRITABILITY_CHANGED:
+                        WritabilityEvent event = (WritabilityEvent) obj;
+                        onWritabilityChanged(event.mClient, event.mWritable);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 通知回调可写状态变化方法
+         * @param client 蓝牙终端
+         * @param writable 是否可写
+         */
+        void notifyWritabilityChanged(BluetoothClient client, boolean writable) {
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_WRITABILITY_CHANGED, new WritabilityEvent(client, writable));
+        }
+
+        /**
+         * 可写状态发生变化
+         * @param client 蓝牙终端
+         * @param writable true 尚未写出的数据已回落到低水位线，可以继续写入；false 已超过高水位线，应暂停写入
+         */
+        public abstract void onWritabilityChanged(BluetoothClient client, boolean writable);
+
+        /**
+         * 可写状态变化事件
+         */
+        private static class WritabilityEvent {
+            final BluetoothClient mClient;
+            final boolean mWritable;
+
+            WritabilityEvent(BluetoothClient client, boolean writable) {
+                mClient = client;
+                mWritable = writable;
+            }
+        }
+    }
+
     /**
      * 蓝牙终端数据接收监听回调
      */
     public static abstract class BluetoothInputCallback {
-        /** 蓝牙终端数据接收线程消息句柄 */
-        private BluetoothInputHandler mHandler;
+        /** 数据接收消息 */
+        private static final int MESSAGE_BLUETOOTH_INPUT_ONINPUT = 1;
+        /** 连接断开消息 */
+        private static final int MESSAGE_BLUETOOTH_DISCONNECTED = 2;
+//        /** 数据接收异常消息 */
+//        private static final int MESSAGE_BLUETOOTH_INPUT_EXCEPTION = 3;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+        /** 所属蓝牙终端的连接统计，由{@link BluetoothClient#asyncRead(BluetoothInputCallback)}设置 */
+        volatile BluetoothMetrics mMetrics;
 
         /**
-         * 默认构造
+         * 默认构造，在主线程中回调
          */
         public BluetoothInputCallback() {
-            mHandler = new BluetoothInputHandler(Looper.getMainLooper());
-        }
-
-        class BluetoothInputHandler extends Handler {
-            /** 数据接收消息 */
-            static final int MESSAGE_BLUETOOTH_INPUT_ONINPUT = 1;
-            /** 连接断开消息 */
-            static final int MESSAGE_BLUETOOTH_DISCONNECTED = 2;
-//            /** 数据接收异常消息 */
-//            static final int MESSAGE_BLUETOOTH_INPUT_EXCEPTION = 3;
-
-            /**
-             * 默认构造
-             * @param looper
-             */
-            BluetoothInputHandler(Looper looper) {
-                super(looper);
-            }
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public BluetoothInputCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
 
+        /**
+         * 构造函数，通过执行器回调。
+         * <p>使用{@link BluetoothExecutors#direct()}时直接在蓝牙接收线程中回调，协议解析等处理完全不占用主线程。</p>
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public BluetoothInputCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 蓝牙终端数据接收回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
             @Override
-            public void handleMessage(Message msg) {
-                switch (msg.what) {
+            public void onCallback(int what, Object obj) {
+                switch (what) {
                     case MESSAGE_BLUETOOTH_INPUT_ONINPUT:
-                        onInput((byte[]) msg.obj);
+                        BluetoothBuffer buffer = (BluetoothBuffer) obj;
+                        BluetoothMetrics metrics = mMetrics;
+                        if (null != metrics)
+                            metrics.recordDispatched(buffer.mTimestamp);
+                        onInput(buffer);
                         break;
                     case MESSAGE_BLUETOOTH_DISCONNECTED:
-                        onDisconnected((IOException) msg.obj);
+                        onDisconnected((IOException) obj);
                         break;
 //                    case MESSAGE_BLUETOOTH_INPUT_EXCEPTION:
-//                        onBluetoothClientException((IOException) msg.obj);
+//                        onBluetoothClientException((IOException) obj);
 //                        break;
+                    default:
+                        handleCallback(what, obj);
+                        break;
                 }
             }
         }
 
         /**
-         * 通知回调数据输入回调方法
-         * @param buffer 字节缓存
+         * 向回调线程分发子类自定义的事件
+         * @param what 事件类型
+         * @param obj 事件参数
+         */
+        void dispatch(int what, Object obj) {
+            mDispatcher.dispatch(what, obj);
+        }
+
+        /**
+         * 在回调线程中处理子类自定义的事件
+         * @param what 事件类型
+         * @param obj 事件参数
+         */
+        void handleCallback(int what, Object obj) {
+        }
+
+        /**
+         * 通知回调数据输入回调方法，缓存的引用随消息一并交给回调方法
+         * @param buffer 数据缓存
          */
-        void notifyInput(byte[] buffer) {
-            mHandler.sendMessage(mHandler.obtainMessage(BluetoothInputHandler.MESSAGE_BLUETOOTH_INPUT_ONINPUT, buffer));
+        void notifyInput(BluetoothBuffer buffer) {
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_INPUT_ONINPUT, buffer);
         }
 
         /**
@@ -489,7 +1667,22 @@ public class BluetoothClient {
          * @param e 异常信息
          */
         void notifyDisconnected(IOException e) {
-            mHandler.sendMessage(mHandler.obtainMessage(BluetoothInputHandler.MESSAGE_BLUETOOTH_DISCONNECTED, e));
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_DISCONNECTED, e);
+        }
+
+        /**
+         * 接收队列已空时在分发线程中调用
+         * @param now 当前时间，纳秒
+         * @return 下一次调用前的最长等待纳秒数，-1表示无需定时调用
+         */
+        long notifyIdle(long now) {
+            return -1;
+        }
+
+        /**
+         * 监听回调被取消或替换时在分发线程中调用，用于输出暂存的数据
+         */
+        void notifyFlush() {
         }
 
 //        /**
@@ -497,9 +1690,26 @@ public class BluetoothClient {
 //         * @param e 异常信息
 //         */
 //        void notifyBluetoothClientException(IOException e) {
-//            mHandler.obtainMessage(BluetoothInputHandler.MESSAGE_BLUETOOTH_INPUT_EXCEPTION, e).sendToTarget();
+//            mDispatcher.dispatch(MESSAGE_BLUETOOTH_INPUT_EXCEPTION, e);
 //        }
 
+        /**
+         * 池化数据输入回调。
+         * <p>默认实现将数据拷贝为新的字节数组后立即释放缓存，再回调{@link #onInput(byte[])}。
+         * 对内存分配敏感的使用者可重写此方法直接处理缓存，处理完毕后必须调用{@link BluetoothBuffer#release()}，
+         * 若需在回调之外继续持有数据，应先调用{@link BluetoothBuffer#retain()}。</p>
+         * @param buffer 数据缓存
+         */
+        public void onInput(BluetoothBuffer buffer) {
+            byte[] bytes;
+            try {
+                bytes = buffer.toByteArray();
+            } finally {
+                buffer.release();
+            }
+            onInput(bytes);
+        }
+
         /**
          * 数据输入回调
          * @param buffer 字节缓存
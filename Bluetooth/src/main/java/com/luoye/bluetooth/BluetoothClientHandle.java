@@ -0,0 +1,96 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 共享蓝牙终端句柄，由{@link Bluetooth#acquireBluetoothClient(BluetoothDevice, UUID, boolean)}获取。
+ * <p>同一设备地址和UUID的句柄共用一个连接，使用完毕后调用{@link #release()}，不要直接调用
+ * {@link BluetoothClient#shutdown()}，以免中断其他句柄的通信。所有句柄释放后连接在逗留时间后关闭。</p>
+ */
+public final class BluetoothClientHandle {
+    /** 所属登记表 */
+    private final BluetoothClientRegistry mRegistry;
+    /** 登记项 */
+    private final BluetoothClientRegistry.Entry mEntry;
+    /** 是否已释放 */
+    private final AtomicBoolean mReleased = new AtomicBoolean();
+
+    /**
+     * 默认构造，包可见
+     * @param registry 所属登记表
+     * @param entry 登记项
+     */
+    BluetoothClientHandle(BluetoothClientRegistry registry, BluetoothClientRegistry.Entry entry) {
+        mRegistry = registry;
+        mEntry = entry;
+    }
+
+    /**
+     * 获取蓝牙设备
+     * @return 蓝牙设备
+     */
+    public BluetoothDevice getDevice() {
+        return mEntry.mDevice;
+    }
+
+    /**
+     * 获取口令
+     * @return 口令
+     */
+    public UUID getUuid() {
+        return mEntry.mUuid;
+    }
+
+    /**
+     * 获取共享的蓝牙终端，原连接失败或断开后会换成新的蓝牙终端，请勿长期持有返回值
+     * @return 蓝牙终端
+     * @throws IOException 句柄已释放、连接已关闭或新建蓝牙终端失败
+     */
+    public BluetoothClient getClient() throws IOException {
+        checkReleased();
+        return mEntry.client();
+    }
+
+    /**
+     * 异步连接共享的蓝牙终端。
+     * <p>已连接时直接回调连接成功；其他句柄正在连接时不会重复发起连接，而是等待同一次连接的结果。</p>
+     * @param callback 异步连接监听回调
+     * @throws IOException 句柄已释放、连接已关闭或新建蓝牙终端失败
+     * @throws IllegalArgumentException 回调为null
+     */
+    public void asyncConnect(BluetoothClient.OnBluetoothConnectCallback callback) throws IOException {
+        if (null == callback)
+            throw new IllegalArgumentException("the OnBluetoothConnectCallback can't be null.");
+        checkReleased();
+        mEntry.asyncConnect(callback);
+    }
+
+    /**
+     * 释放句柄，重复调用无效
+     */
+    public void release() {
+        if (mReleased.compareAndSet(false, true))
+            mRegistry.release(mEntry);
+    }
+
+    /**
+     * 句柄是否已释放
+     * @return true 已释放
+     */
+    public boolean isReleased() {
+        return mReleased.get();
+    }
+
+    /**
+     * 检查句柄是否已释放
+     * @throws IOException 句柄已释放
+     */
+    private void checkReleased() throws IOException {
+        if (mReleased.get())
+            throw new IOException("Bluetooth client handle is released.");
+    }
+}
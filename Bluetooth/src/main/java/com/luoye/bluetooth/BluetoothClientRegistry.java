@@ -0,0 +1,346 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享蓝牙终端登记表，按设备地址和UUID复用已建立的连接。
+ * <p>每次获取返回一个引用计数句柄，最后一个句柄释放后，连接在逗留时间内无人获取时才会关闭，
+ * 期间再次获取将直接复用原连接，省去寻呼、SDP查询和RFCOMM建立连接的开销。</p>
+ */
+class BluetoothClientRegistry {
+    /** 默认逗留时间，毫秒 */
+    static final long DEFAULT_LINGER_MILLIS = 5000;
+
+    /** 登记表 */
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    /** 蓝牙终端工厂 */
+    private final Factory mFactory;
+    /** 逗留时间，毫秒 */
+    private long mLingerMillis = DEFAULT_LINGER_MILLIS;
+
+    /**
+     * 默认构造，按设备和口令新建蓝牙终端
+     */
+    BluetoothClientRegistry() {
+        this(new Factory() {
+            @Override
+            public BluetoothClient create(BluetoothDevice device, UUID uuid, boolean secure) throws IOException {
+                return new BluetoothClient(device, uuid, secure);
+            }
+        });
+    }
+
+    /**
+     * 构造函数
+     * @param factory 蓝牙终端工厂
+     */
+    BluetoothClientRegistry(Factory factory) {
+        mFactory = factory;
+    }
+
+    /**
+     * 设置逗留时间
+     * @param lingerMillis 逗留时间，毫秒，为0时最后一个句柄释放后立即关闭
+     * @throws IllegalArgumentException 逗留时间为负数
+     */
+    synchronized void setLingerMillis(long lingerMillis) {
+        if (lingerMillis < 0)
+            throw new IllegalArgumentException("lingerMillis can't be negative.");
+        mLingerMillis = lingerMillis;
+    }
+
+    /**
+     * 获取逗留时间
+     * @return 逗留时间，毫秒
+     */
+    synchronized long getLingerMillis() {
+        return mLingerMillis;
+    }
+
+    /**
+     * 获取共享连接的句柄，不存在时登记新的连接
+     * @param device 蓝牙设备
+     * @param uuid 口令
+     * @param secure 是否是安全通信，仅在新建连接时使用
+     * @return 句柄
+     */
+    BluetoothClientHandle acquire(BluetoothDevice device, UUID uuid, boolean secure) {
+        return acquire(device.getAddress(), device, uuid, secure);
+    }
+
+    /**
+     * 获取共享连接的句柄，不存在时登记新的连接
+     * @param address 设备地址
+     * @param device 蓝牙设备
+     * @param uuid 口令
+     * @param secure 是否是安全通信，仅在新建连接时使用
+     * @return 句柄
+     */
+    synchronized BluetoothClientHandle acquire(String address, BluetoothDevice device, UUID uuid, boolean secure) {
+        String key = address + "/" + uuid;
+        Entry entry = mEntries.get(key);
+        if (null == entry) {
+            entry = new Entry(key, device, uuid, secure, mFactory);
+            mEntries.put(key, entry);
+        }
+        entry.mRefCount++;
+        if (null != entry.mLingerFuture) {
+            entry.mLingerFuture.cancel(false);
+            entry.mLingerFuture = null;
+        }
+        return new BluetoothClientHandle(this, entry);
+    }
+
+    /**
+     * 释放一个句柄，引用计数归零后在逗留时间后关闭连接
+     * @param entry 登记项
+     */
+    void release(final Entry entry) {
+        synchronized (this) {
+            if (--entry.mRefCount > 0)
+                return;
+            if (mLingerMillis > 0) {
+                entry.mLingerFuture = BluetoothExecutors.timer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeIfIdle(entry);
+                    }
+                }, mLingerMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        closeIfIdle(entry);
+    }
+
+    /**
+     * 登记项仍无人引用时移除并关闭连接
+     * @param entry 登记项
+     */
+    private void closeIfIdle(Entry entry) {
+        synchronized (this) {
+            if (entry.mRefCount > 0 || mEntries.get(entry.mKey) != entry)
+                return;
+            mEntries.remove(entry.mKey);
+            entry.mLingerFuture = null;
+        }
+        entry.close();
+    }
+
+    /**
+     * 获取登记的共享连接数，包括逗留中的连接
+     * @return 连接数
+     */
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 立即关闭所有共享连接，已发出的句柄随之失效
+     */
+    void closeAll() {
+        ArrayList<Entry> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(mEntries.values());
+            mEntries.clear();
+            for (Entry entry : entries) {
+                if (null != entry.mLingerFuture)
+                    entry.mLingerFuture.cancel(false);
+            }
+        }
+        for (Entry entry : entries)
+            entry.close();
+    }
+
+    /**
+     * 蓝牙终端工厂
+     */
+    interface Factory {
+        /**
+         * 新建蓝牙终端
+         * @param device 蓝牙设备
+         * @param uuid 口令
+         * @param secure 是否是安全通信
+         * @return 蓝牙终端
+         * @throws IOException 新建失败
+         */
+        BluetoothClient create(BluetoothDevice device, UUID uuid, boolean secure) throws IOException;
+    }
+
+    /**
+     * 登记项，一个设备地址和UUID对应一个共享连接
+     */
+    static class Entry {
+        /** 登记键 */
+        final String mKey;
+        /** 蓝牙设备 */
+        final BluetoothDevice mDevice;
+        /** 口令 */
+        final UUID mUuid;
+        /** 是否是安全通信 */
+        final boolean mSecure;
+        /** 蓝牙终端工厂 */
+        private final Factory mFactory;
+        /** 引用计数，由登记表锁保护 */
+        int mRefCount;
+        /** 逗留关闭任务，由登记表锁保护 */
+        Future<?> mLingerFuture;
+
+        /** 当前蓝牙终端，连接失败或断开后重建 */
+        private BluetoothClient mClient;
+        /** 当前蓝牙终端是否曾连接成功 */
+        private boolean mConnected;
+        /** 已被替换、尚未关闭的蓝牙终端 */
+        private BluetoothClient mStale;
+        /** 登记项是否已关闭 */
+        private boolean mClosed;
+        /** 等待连接结果的回调 */
+        private final ArrayList<BluetoothClient.OnBluetoothConnectCallback> mWaiters = new ArrayList<>();
+
+        Entry(String key, BluetoothDevice device, UUID uuid, boolean secure, Factory factory) {
+            mKey = key;
+            mDevice = device;
+            mUuid = uuid;
+            mSecure = secure;
+            mFactory = factory;
+        }
+
+        /**
+         * 获取当前蓝牙终端，原连接已失效时关闭并新建
+         * @return 蓝牙终端
+         * @throws IOException 登记项已关闭或新建失败
+         */
+        BluetoothClient client() throws IOException {
+            try {
+                return current();
+            } finally {
+                shutdownStale();
+            }
+        }
+
+        /**
+         * 获取当前蓝牙终端，原连接已失效时新建，原蓝牙终端留待{@link #shutdownStale()}在锁外关闭
+         * @return 蓝牙终端
+         * @throws IOException 登记项已关闭或新建失败
+         */
+        private synchronized BluetoothClient current() throws IOException {
+            if (mClosed)
+                throw new IOException("shared Bluetooth client is closed.");
+            if (null != mClient && mConnected
+                    && BluetoothClient.BLUETOOTH_CLIENT_STATUS_CONNECTED != mClient.status()) {
+                mStale = mClient;
+                mClient = null;
+            }
+            if (null == mClient || BluetoothClient.BLUETOOTH_CLIENT_STATUS_CLOSED == mClient.status()) {
+                mClient = mFactory.create(mDevice, mUuid, mSecure);
+                mConnected = false;
+            }
+            return mClient;
+        }
+
+        /**
+         * 关闭已被替换的蓝牙终端，释放其套接字和收发线程
+         */
+        private void shutdownStale() {
+            BluetoothClient stale;
+            synchronized (this) {
+                stale = mStale;
+                mStale = null;
+            }
+            if (null == stale)
+                return;
+            try {
+                stale.shutdown();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * 异步连接，已连接时直接回调成功，正在连接时等待同一次连接的结果
+         * @param callback 连接回调
+         * @throws IOException 登记项已关闭或新建蓝牙终端失败
+         */
+        void asyncConnect(BluetoothClient.OnBluetoothConnectCallback callback) throws IOException {
+            final BluetoothClient client;
+            try {
+                synchronized (this) {
+                    client = current();
+                    if (BluetoothClient.BLUETOOTH_CLIENT_STATUS_CONNECTED == client.status()) {
+                        mConnected = true;
+                        callback.notifyCallSuccess(client);
+                        return;
+                    }
+                    mWaiters.add(callback);
+                    if (mWaiters.size() > 1)
+                        return;
+                }
+            } finally {
+                shutdownStale();
+            }
+            try {
+                client.asyncConnect(new BluetoothClient.OnBluetoothConnectCallback(BluetoothExecutors.direct()) {
+                    @Override
+                    public void onConnectSuccess(BluetoothClient client) {
+                        for (BluetoothClient.OnBluetoothConnectCallback waiter : takeWaiters(true))
+                            waiter.notifyCallSuccess(client);
+                    }
+
+                    @Override
+                    public void onConnectFailure(Exception e) {
+                        ArrayList<BluetoothClient.OnBluetoothConnectCallback> waiters = takeWaiters(false);
+                        shutdownStale();
+                        for (BluetoothClient.OnBluetoothConnectCallback waiter : waiters)
+                            waiter.notifyCallFailure(e);
+                    }
+                });
+            } catch (IOException e) {
+                takeWaiters(false);
+                shutdownStale();
+                throw e;
+            }
+        }
+
+        /**
+         * 取出等待连接结果的回调
+         * @param connected 是否连接成功，失败时丢弃当前蓝牙终端，由调用者随后调用{@link #shutdownStale()}关闭
+         * @return 回调列表
+         */
+        private synchronized ArrayList<BluetoothClient.OnBluetoothConnectCallback> takeWaiters(boolean connected) {
+            ArrayList<BluetoothClient.OnBluetoothConnectCallback> waiters = new ArrayList<>(mWaiters);
+            mWaiters.clear();
+            if (connected) {
+                mConnected = true;
+            } else {
+                mStale = mClient;
+                mClient = null;
+            }
+            return waiters;
+        }
+
+        /**
+         * 关闭当前蓝牙终端
+         */
+        void close() {
+            BluetoothClient client;
+            synchronized (this) {
+                client = mClient;
+                mClient = null;
+                mClosed = true;
+            }
+            if (null == client)
+                return;
+            try {
+                client.shutdown();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
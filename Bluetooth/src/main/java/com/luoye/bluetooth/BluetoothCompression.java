@@ -0,0 +1,386 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 蓝牙数据压缩层，通过{@link BluetoothClient#setCompression(BluetoothCompression)}启用。
+ * <p>启用后每次写入作为一条消息发送，大块数据按数据包大小拆分为多条消息，消息头为1字节类型和4字节大端长度。双方均需启用压缩层，
+ * 启用时各自发送一条握手消息声明支持的压缩算法，收到对方的握手消息之前只发送未压缩的消息。
+ * 接收方按消息还原原始数据后，再交给帧解码器或异步读取监听回调。</p>
+ * <p>小于压缩阈值的数据不压缩；压缩后不能节省足够空间的数据按原样发送，连续多次压缩效果不佳时，
+ * 暂停尝试压缩一段时间后再试探，避免在已压缩的数据（图片、固件包等）上浪费CPU。</p>
+ * <p>压缩在调用写入方法的线程中进行，解压在蓝牙分发线程中进行。</p>
+ */
+public class BluetoothCompression {
+    /** 默认压缩阈值，字节 */
+    public static final int DEFAULT_THRESHOLD = 128;
+    /** 默认单条消息的最大原始长度 */
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+    /** 消息类型：握手 */
+    static final byte TYPE_HELLO = 1;
+    /** 消息类型：未压缩数据 */
+    static final byte TYPE_RAW = 2;
+    /** 消息类型：Deflate压缩数据 */
+    static final byte TYPE_DEFLATE = 3;
+    /** 压缩算法标志：Deflate */
+    static final int CODEC_DEFLATE = 0x01;
+    /** 消息头长度 */
+    static final int HEADER_LENGTH = 5;
+    /** 压缩消息中原始长度字段的长度 */
+    private static final int ORIGINAL_LENGTH_LENGTH = 4;
+
+    /** 压缩后长度不超过原始长度的该比例时才发送压缩数据，百分比 */
+    private static final int MAX_COMPRESSED_PERCENT = 90;
+    /** 连续压缩效果不佳的次数达到该值后暂停尝试 */
+    private static final int POOR_RESULT_LIMIT = 4;
+    /** 暂停尝试压缩的消息条数 */
+    private static final int SKIP_MESSAGE_COUNT = 32;
+
+    /** 压缩阈值 */
+    private final int mThreshold;
+    /** 单条消息的最大原始长度 */
+    private final int mMaxMessageLength;
+    /** 压缩器，由自身锁保护 */
+    private final Deflater mDeflater;
+    /** 解压器，只在分发线程中使用 */
+    private final Inflater mInflater = new Inflater();
+    /** 消息分帧解码器 */
+    private final BluetoothLengthFieldFrameDecoder mFrameDecoder;
+    /** 分帧输出的消息 */
+    private final ArrayList<BluetoothBuffer> mMessages = new ArrayList<>();
+    /** 消息收集输出 */
+    private final BluetoothFrameDecoder.Output mMessageOutput = new BluetoothFrameDecoder.Output() {
+        @Override
+        public void onFrame(BluetoothBuffer frame) {
+            mMessages.add(frame);
+        }
+    };
+
+    /** 对方是否支持Deflate压缩 */
+    private volatile boolean mPeerDeflate;
+    /** 连续压缩效果不佳的次数 */
+    private int mPoorResults;
+    /** 剩余暂停尝试压缩的消息条数 */
+    private int mSkipRemaining;
+
+    /** 已发送的原始字节数 */
+    private volatile long mOriginalBytesSent;
+    /** 已发送的消息字节数，包括消息头 */
+    private volatile long mWireBytesSent;
+    /** 已发送的压缩消息数 */
+    private volatile long mCompressedCount;
+    /** 未压缩发送的消息数 */
+    private volatile long mUncompressedCount;
+    /** 已接收的原始字节数 */
+    private volatile long mOriginalBytesReceived;
+    /** 已接收的消息字节数，包括消息头 */
+    private volatile long mWireBytesReceived;
+
+    /**
+     * 默认构造，使用默认压缩阈值和最快压缩级别
+     */
+    public BluetoothCompression() {
+        this(DEFAULT_THRESHOLD, Deflater.BEST_SPEED, DEFAULT_MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * 构造函数
+     * @param threshold 压缩阈值，小于该长度的数据不压缩
+     * @param level 压缩级别，{@link Deflater#BEST_SPEED}至{@link Deflater#BEST_COMPRESSION}
+     * @param maxMessageLength 单条消息的最大原始长度，接收到更长的消息时断开连接
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothCompression(int threshold, int level, int maxMessageLength) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold can't be negative.");
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("level must be between BEST_SPEED and BEST_COMPRESSION.");
+        if (maxMessageLength < 1 || maxMessageLength > Integer.MAX_VALUE - HEADER_LENGTH - ORIGINAL_LENGTH_LENGTH)
+            throw new IllegalArgumentException("maxMessageLength is out of range.");
+        mThreshold = threshold;
+        mMaxMessageLength = maxMessageLength;
+        mDeflater = new Deflater(level);
+        // 压缩消息的消息体可能略长于原始数据
+        long maxFrameLength = HEADER_LENGTH + ORIGINAL_LENGTH_LENGTH + (long) maxMessageLength + maxMessageLength / 100 + 64;
+        mFrameDecoder = new BluetoothLengthFieldFrameDecoder(1, 4, ByteOrder.BIG_ENDIAN, 0, 0,
+                (int) Math.min(Integer.MAX_VALUE, maxFrameLength));
+    }
+
+    /**
+     * 对方是否已通过握手声明支持压缩
+     * @return true 发送的数据会按需压缩
+     */
+    public boolean isPeerCompressionEnabled() {
+        return mPeerDeflate;
+    }
+
+    /**
+     * 获取已发送的原始字节数
+     * @return 字节数
+     */
+    public long getOriginalBytesSent() {
+        return mOriginalBytesSent;
+    }
+
+    /**
+     * 获取已发送的消息字节数，包括消息头
+     * @return 字节数
+     */
+    public long getWireBytesSent() {
+        return mWireBytesSent;
+    }
+
+    /**
+     * 获取压缩发送的消息数
+     * @return 消息数
+     */
+    public long getCompressedCount() {
+        return mCompressedCount;
+    }
+
+    /**
+     * 获取因低于阈值、压缩效果不佳或对方不支持而未压缩发送的消息数
+     * @return 消息数
+     */
+    public long getUncompressedCount() {
+        return mUncompressedCount;
+    }
+
+    /**
+     * 获取已接收的原始字节数
+     * @return 字节数
+     */
+    public long getOriginalBytesReceived() {
+        return mOriginalBytesReceived;
+    }
+
+    /**
+     * 获取已接收的消息字节数，包括消息头
+     * @return 字节数
+     */
+    public long getWireBytesReceived() {
+        return mWireBytesReceived;
+    }
+
+    /**
+     * 获取发送方向的有效吞吐量倍数，即原始字节数与实际发送字节数之比，链路受限时近似于吞吐量的提升倍数
+     * @return 倍数，尚未发送时为1
+     */
+    public double getSendThroughputGain() {
+        long wire = mWireBytesSent;
+        return 0 == wire ? 1 : (double) mOriginalBytesSent / wire;
+    }
+
+    /**
+     * 获取接收方向的有效吞吐量倍数
+     * @return 倍数，尚未接收时为1
+     */
+    public double getReceiveThroughputGain() {
+        long wire = mWireBytesReceived;
+        return 0 == wire ? 1 : (double) mOriginalBytesReceived / wire;
+    }
+
+    /**
+     * 生成握手消息
+     * @return 消息
+     */
+    byte[] hello() {
+        byte[] message = new byte[HEADER_LENGTH + 1];
+        writeHeader(message, TYPE_HELLO, 1);
+        message[HEADER_LENGTH] = CODEC_DEFLATE;
+        return message;
+    }
+
+    /**
+     * 将数据编码为一条消息，按需压缩
+     * @param buffer 字节缓存
+     * @param offset 起始位置
+     * @param count 字节数
+     * @return 消息
+     * @throws IOException 数据超过单条消息的最大长度
+     */
+    synchronized BluetoothBuffer encode(byte[] buffer, int offset, int count) throws IOException {
+        if (count > mMaxMessageLength)
+            throw new IOException("message length " + count + " exceeds " + mMaxMessageLength + ".");
+        BluetoothBuffer message = null;
+        if (mPeerDeflate && count >= mThreshold) {
+            if (mSkipRemaining > 0) {
+                mSkipRemaining--;
+            } else {
+                message = deflate(buffer, offset, count);
+                if (null == message) {
+                    if (++mPoorResults >= POOR_RESULT_LIMIT) {
+                        mPoorResults = 0;
+                        mSkipRemaining = SKIP_MESSAGE_COUNT;
+                    }
+                } else {
+                    mPoorResults = 0;
+                }
+            }
+        }
+
+        if (null == message) {
+            byte[] raw = new byte[HEADER_LENGTH + count];
+            writeHeader(raw, TYPE_RAW, count);
+            System.arraycopy(buffer, offset, raw, HEADER_LENGTH, count);
+            message = BluetoothBuffer.wrap(raw);
+            mUncompressedCount++;
+        } else {
+            mCompressedCount++;
+        }
+        mOriginalBytesSent += count;
+        mWireBytesSent += message.length();
+        return message;
+    }
+
+    /**
+     * 压缩数据，压缩后的长度超过原始长度的{@link #MAX_COMPRESSED_PERCENT}%时放弃
+     * @return 压缩消息，压缩效果不佳时返回null
+     */
+    private BluetoothBuffer deflate(byte[] buffer, int offset, int count) {
+        int limit = (int) ((long) count * MAX_COMPRESSED_PERCENT / 100);
+        int bodyStart = HEADER_LENGTH + ORIGINAL_LENGTH_LENGTH;
+        byte[] message = new byte[bodyStart + limit];
+        mDeflater.reset();
+        mDeflater.setInput(buffer, offset, count);
+        mDeflater.finish();
+        int length = bodyStart;
+        while (!mDeflater.finished() && length < message.length)
+            length += mDeflater.deflate(message, length, message.length - length);
+        if (!mDeflater.finished())
+            return null;
+
+        writeHeader(message, TYPE_DEFLATE, length - HEADER_LENGTH);
+        writeInt(message, HEADER_LENGTH, count);
+        return BluetoothBuffer.wrap(message, 0, length);
+    }
+
+    /**
+     * 解码接收到的数据，还原出的原始数据依次加入{@code out}，握手消息在内部处理
+     * @param in 接收到的数据，引用仍由调用者持有
+     * @param out 原始数据输出，引用随之转交
+     * @throws IOException 消息格式错误或解压失败
+     */
+    void decode(BluetoothBuffer in, List<BluetoothBuffer> out) throws IOException {
+        try {
+            mFrameDecoder.decode(in, mMessageOutput);
+            for (int i = 0; i < mMessages.size(); i++) {
+                BluetoothBuffer message = mMessages.get(i);
+                mMessages.set(i, null);
+                try {
+                    BluetoothBuffer payload = decodeMessage(message);
+                    if (null != payload)
+                        out.add(payload);
+                } finally {
+                    message.release();
+                }
+            }
+        } finally {
+            for (BluetoothBuffer message : mMessages) {
+                if (null != message)
+                    message.release();
+            }
+            mMessages.clear();
+        }
+    }
+
+    /**
+     * 解码一条完整的消息
+     * @param message 消息，包括消息头
+     * @return 原始数据，握手消息返回null
+     * @throws IOException 消息格式错误或解压失败
+     */
+    private BluetoothBuffer decodeMessage(BluetoothBuffer message) throws IOException {
+        int length = message.length() - HEADER_LENGTH;
+        mWireBytesReceived += message.length();
+        switch (message.get(0)) {
+            case TYPE_HELLO:
+                if (length < 1)
+                    throw new IOException("invalid compression hello message.");
+                mPeerDeflate = 0 != (message.get(HEADER_LENGTH) & CODEC_DEFLATE);
+                return null;
+            case TYPE_RAW:
+                mOriginalBytesReceived += length;
+                return message.retainedSlice(HEADER_LENGTH, length);
+            case TYPE_DEFLATE:
+                return inflate(message);
+            default:
+                throw new IOException("unknown compression message type " + message.get(0) + ".");
+        }
+    }
+
+    /**
+     * 解压一条压缩消息
+     * @param message 消息，包括消息头
+     * @return 原始数据
+     * @throws IOException 消息格式错误或解压失败
+     */
+    private BluetoothBuffer inflate(BluetoothBuffer message) throws IOException {
+        int bodyStart = HEADER_LENGTH + ORIGINAL_LENGTH_LENGTH;
+        if (message.length() < bodyStart)
+            throw new IOException("invalid compressed message.");
+        byte[] array = message.array();
+        int originalLength = readInt(array, message.offset() + HEADER_LENGTH);
+        if (originalLength < 0 || originalLength > mMaxMessageLength)
+            throw new IOException("message length " + originalLength + " exceeds " + mMaxMessageLength + ".");
+
+        byte[] original = new byte[originalLength];
+        mInflater.reset();
+        mInflater.setInput(array, message.offset() + bodyStart, message.length() - bodyStart);
+        try {
+            int length = 0;
+            while (!mInflater.finished()) {
+                int n = mInflater.inflate(original, length, originalLength - length);
+                if (0 == n && (mInflater.needsInput() || mInflater.needsDictionary() || length == originalLength))
+                    break;
+                length += n;
+            }
+            if (!mInflater.finished() || length != originalLength)
+                throw new IOException("compressed message is corrupted.");
+        } catch (DataFormatException e) {
+            throw new IOException("compressed message is corrupted: " + e.getMessage());
+        }
+        mOriginalBytesReceived += originalLength;
+        return BluetoothBuffer.wrap(original);
+    }
+
+    /**
+     * 丢弃未完成的消息
+     */
+    void reset() {
+        mFrameDecoder.reset();
+    }
+
+    /**
+     * 写入消息头
+     */
+    private static void writeHeader(byte[] message, byte type, int length) {
+        message[0] = type;
+        writeInt(message, 1, length);
+    }
+
+    /**
+     * 以大端字节序写入4字节整数
+     */
+    private static void writeInt(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 24);
+        array[offset + 1] = (byte) (value >>> 16);
+        array[offset + 2] = (byte) (value >>> 8);
+        array[offset + 3] = (byte) value;
+    }
+
+    /**
+     * 以大端字节序读取4字节整数
+     */
+    private static int readInt(byte[] array, int offset) {
+        return (array[offset] & 0xFF) << 24 | (array[offset + 1] & 0xFF) << 16
+                | (array[offset + 2] & 0xFF) << 8 | array[offset + 3] & 0xFF;
+    }
+}
@@ -0,0 +1,191 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+
+/**
+ * 分隔符帧解码器，按固定的分隔符切分数据帧，适用于条码枪、GPS NMEA语句、AT指令等按行或按分隔符通信的设备。
+ * <p>解码器在字节数组上查找分隔符，扫描本身与应用层逐字节判断的循环速度相当；它省去的是逐字节追加和拷贝：
+ * 完整落在一次读取中的数据帧以共享原缓存的切片输出，未完成的数据帧暂存后，后续读取只扫描新到达的数据，
+ * 不会重复扫描已暂存的部分，并按最大帧长度限制暂存的数据。</p>
+ */
+public class BluetoothDelimiterFrameDecoder implements BluetoothFrameDecoder {
+    /** 默认最大帧长度 */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 8 * 1024;
+    /** 换行符 */
+    private static final byte LF = '\n';
+    /** 回车符 */
+    private static final byte CR = '\r';
+
+    /** 分隔符 */
+    private final byte[] mDelimiter;
+    /** 分隔符最后一个字节，扫描时只查找该字节 */
+    private final byte mDelimiterLast;
+    /** 最大帧长度，不含分隔符 */
+    private final int mMaxFrameLength;
+    /** 输出时是否去除分隔符 */
+    private final boolean mStripDelimiter;
+    /** 是否将换行符前的回车符视为分隔符的一部分 */
+    private final boolean mStripCarriageReturn;
+
+    /** 跨读取暂存的未完成数据帧 */
+    private byte[] mCumulation;
+    /** 暂存的字节数 */
+    private int mCumulationLength;
+
+    /**
+     * 构造函数，使用单字节分隔符并在输出时去除分隔符
+     * @param delimiter 分隔符
+     * @param maxFrameLength 最大帧长度，不含分隔符
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothDelimiterFrameDecoder(byte delimiter, int maxFrameLength) {
+        this(new byte[]{delimiter}, maxFrameLength, true);
+    }
+
+    /**
+     * 构造函数
+     * @param delimiter 分隔符，可为多个字节
+     * @param maxFrameLength 最大帧长度，不含分隔符
+     * @param stripDelimiter 输出时是否去除分隔符
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothDelimiterFrameDecoder(byte[] delimiter, int maxFrameLength, boolean stripDelimiter) {
+        this(delimiter, maxFrameLength, stripDelimiter, false);
+    }
+
+    private BluetoothDelimiterFrameDecoder(byte[] delimiter, int maxFrameLength, boolean stripDelimiter, boolean stripCarriageReturn) {
+        if (null == delimiter || 0 == delimiter.length)
+            throw new IllegalArgumentException("the delimiter can't be empty.");
+        if (maxFrameLength < 1)
+            throw new IllegalArgumentException("maxFrameLength must be positive.");
+        mDelimiter = delimiter.clone();
+        mDelimiterLast = delimiter[delimiter.length - 1];
+        mMaxFrameLength = maxFrameLength;
+        mStripDelimiter = stripDelimiter;
+        mStripCarriageReturn = stripCarriageReturn;
+    }
+
+    /**
+     * 创建按行切分的解码器，同时支持LF和CR/LF换行，输出时去除换行符
+     * @param maxFrameLength 最大行长度，不含换行符
+     * @return 解码器
+     */
+    public static BluetoothDelimiterFrameDecoder newLineDecoder(int maxFrameLength) {
+        return new BluetoothDelimiterFrameDecoder(new byte[]{LF}, maxFrameLength, true, true);
+    }
+
+    @Override
+    public void decode(BluetoothBuffer in, Output out) throws IOException {
+        byte[] array = in.array();
+        int end = in.offset() + in.length();
+        int frameStart = in.offset();
+        int position = frameStart;
+
+        while (position < end) {
+            int index = indexOf(array, position, end, mDelimiterLast);
+            if (index < 0)
+                break;
+            position = index + 1;
+            // 帧总长度，包含暂存的数据和分隔符
+            int total = mCumulationLength + position - frameStart;
+            if (total < mDelimiter.length || !matchesDelimiter(array, frameStart, total))
+                continue;
+
+            int content = total - mDelimiter.length;
+            // 换行符前的回车符属于分隔符，LF和CR/LF结尾的同一行按相同的内容长度检查
+            if (mStripCarriageReturn && content > 0 && CR == byteAt(array, frameStart, content - 1))
+                content--;
+            if (content > mMaxFrameLength)
+                throw new IOException("frame length " + content + " exceeds " + mMaxFrameLength + ".");
+            out.onFrame(frame(in, frameStart, mStripDelimiter ? content : total));
+            frameStart = position;
+        }
+
+        int remaining = end - frameStart;
+        if (remaining > 0) {
+            // 未完成的帧末尾最多是分隔符除最后一个字节外的部分，按行切分时还可能是换行符前的回车符
+            int limit = mMaxFrameLength + mDelimiter.length - 1;
+            if (mStripCarriageReturn && CR == array[end - 1])
+                limit++;
+            if (mCumulationLength + remaining > limit)
+                throw new IOException("frame length exceeds " + mMaxFrameLength + " without delimiter.");
+            append(array, frameStart, remaining);
+        }
+    }
+
+    @Override
+    public void reset() {
+        mCumulation = null;
+        mCumulationLength = 0;
+    }
+
+    /**
+     * 在字节数组中查找指定字节。
+     * <p>逐字节比较即可，在Java 7下手工将8个字节拼成long按字查找实测反而更慢。</p>
+     * @return 字节位置，未找到时返回-1
+     */
+    private static int indexOf(byte[] array, int from, int end, byte value) {
+        for (int i = from; i < end; i++) {
+            if (array[i] == value)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 以暂存数据和当前数据拼接后的位置读取字节
+     * @param array 当前数据
+     * @param frameStart 当前数据中帧的起始位置
+     * @param index 帧内位置
+     * @return 字节
+     */
+    private byte byteAt(byte[] array, int frameStart, int index) {
+        return index < mCumulationLength ? mCumulation[index] : array[frameStart + index - mCumulationLength];
+    }
+
+    /**
+     * 检查帧末尾是否为完整的分隔符，多字节分隔符可能跨越两次读取
+     */
+    private boolean matchesDelimiter(byte[] array, int frameStart, int total) {
+        for (int i = 0; i < mDelimiter.length - 1; i++) {
+            if (byteAt(array, frameStart, total - mDelimiter.length + i) != mDelimiter[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 生成输出的数据帧
+     * @param in 当前数据
+     * @param frameStart 当前数据中帧的起始位置
+     * @param length 帧长度
+     * @return 数据帧
+     */
+    private BluetoothBuffer frame(BluetoothBuffer in, int frameStart, int length) {
+        if (0 == mCumulationLength)
+            return in.retainedSlice(frameStart - in.offset(), length);
+
+        byte[] frame = new byte[length];
+        int fromCumulation = Math.min(length, mCumulationLength);
+        System.arraycopy(mCumulation, 0, frame, 0, fromCumulation);
+        if (length > fromCumulation)
+            System.arraycopy(in.array(), frameStart, frame, fromCumulation, length - fromCumulation);
+        mCumulationLength = 0;
+        return BluetoothBuffer.wrap(frame);
+    }
+
+    /**
+     * 暂存未完成的数据帧，容量不足时按倍数扩容
+     */
+    private void append(byte[] array, int offset, int length) {
+        int required = mCumulationLength + length;
+        if (null == mCumulation || mCumulation.length < required) {
+            byte[] cumulation = new byte[Math.max(required, null == mCumulation ? 64 : mCumulation.length * 2)];
+            if (mCumulationLength > 0)
+                System.arraycopy(mCumulation, 0, cumulation, 0, mCumulationLength);
+            mCumulation = cumulation;
+        }
+        System.arraycopy(array, offset, mCumulation, mCumulationLength, length);
+        mCumulationLength = required;
+    }
+}
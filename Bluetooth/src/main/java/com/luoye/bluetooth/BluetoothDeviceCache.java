@@ -0,0 +1,345 @@
+package com.luoye.bluetooth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已知设备缓存，以紧凑的二进制格式保存在文件中，由{@link #preload()}在I/O调度器中加载，加载完成前首次访问时同步加载。
+ * <p>搜索广播和快速连接在主线程中调用，只使用{@link #refresh(String, String, int, int, long)}和{@link #peek(String)}，
+ * 加载完成前它们直接返回，不会在主线程中读文件。</p>
+ * <p>修改后延迟{@link #SAVE_DELAY_MILLIS}毫秒在I/O调度器中合并写入，先写临时文件并同步到磁盘再替换，写入中断或断电不会损坏原文件。
+ * 文件格式：4字节魔数、1字节版本、4字节记录数，每条记录依次为地址、是否有名称、名称、设备类型、RSSI、
+ * 出现时间、连接策略、RFCOMM通道、UUID数量和UUID。</p>
+ */
+class BluetoothDeviceCache {
+    /** 最多保存的设备数，超出时移除最久未出现的设备 */
+    static final int MAX_DEVICES = 64;
+    /** 修改后延迟写入的时间，毫秒 */
+    static final long SAVE_DELAY_MILLIS = 2000;
+    /** 文件魔数 */
+    private static final int MAGIC = 0x42544B44;
+    /** 文件格式版本 */
+    private static final byte VERSION = 1;
+
+    /** 缓存文件 */
+    private final File mFile;
+    /** 设备记录，以设备地址为键 */
+    private HashMap<String, BluetoothKnownDevice> mDevices;
+    /** 文件写入锁 */
+    private final Object mWriteLock = new Object();
+    /** 是否有未写入的修改 */
+    private boolean mDirty;
+    /** 是否已安排延迟写入 */
+    private boolean mSaveScheduled;
+
+    /**
+     * 构造函数，不会访问文件
+     * @param file 缓存文件
+     */
+    BluetoothDeviceCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * 获取所有设备，按最近出现的时间从近到远排列
+     * @return 设备列表
+     */
+    synchronized List<BluetoothKnownDevice> getAll() {
+        List<BluetoothKnownDevice> devices = new ArrayList<>(devices().values());
+        Collections.sort(devices, new Comparator<BluetoothKnownDevice>() {
+            @Override
+            public int compare(BluetoothKnownDevice lhs, BluetoothKnownDevice rhs) {
+                return lhs.getLastSeen() == rhs.getLastSeen() ? 0 : (lhs.getLastSeen() > rhs.getLastSeen() ? -1 : 1);
+            }
+        });
+        return devices;
+    }
+
+    /**
+     * 获取设备
+     * @param address 设备地址
+     * @return 设备，不在缓存中时为null
+     */
+    synchronized BluetoothKnownDevice get(String address) {
+        return devices().get(address);
+    }
+
+    /**
+     * 获取设备，不会加载文件
+     * @param address 设备地址
+     * @return 设备，不在缓存中或尚未加载时为null
+     */
+    synchronized BluetoothKnownDevice peek(String address) {
+        return null == mDevices ? null : mDevices.get(address);
+    }
+
+    /**
+     * 是否已从文件加载
+     * @return true 已加载
+     */
+    synchronized boolean isLoaded() {
+        return null != mDevices;
+    }
+
+    /**
+     * 在I/O调度器中加载文件，加载期间不持有缓存锁
+     */
+    void preload() {
+        try {
+            BluetoothIoScheduler.getDefault().execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (BluetoothDeviceCache.this) {
+                        if (null != mDevices)
+                            return;
+                    }
+                    HashMap<String, BluetoothKnownDevice> devices = load();
+                    synchronized (BluetoothDeviceCache.this) {
+                        if (null == mDevices) // 期间已同步加载时以已加载的为准
+                            mDevices = devices;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 保存设备，已存在时替换，超出容量时移除最久未出现的设备
+     * @param device 设备
+     */
+    synchronized void put(BluetoothKnownDevice device) {
+        HashMap<String, BluetoothKnownDevice> devices = devices();
+        devices.put(device.getAddress(), device);
+        while (devices.size() > MAX_DEVICES) {
+            BluetoothKnownDevice oldest = null;
+            for (BluetoothKnownDevice d : devices.values()) {
+                if (null == oldest || d.getLastSeen() < oldest.getLastSeen())
+                    oldest = d;
+            }
+            devices.remove(oldest.getAddress());
+        }
+        markDirty();
+    }
+
+    /**
+     * 用搜索结果刷新已在缓存中的设备，不在缓存中的设备不会加入，尚未加载时直接返回
+     * @param address 设备地址
+     * @param name 设备名称，可为null
+     * @param deviceClass 设备类型
+     * @param rssi RSSI
+     * @param lastSeen 出现的时间
+     * @return true 设备在缓存中
+     */
+    synchronized boolean refresh(String address, String name, int deviceClass, int rssi, long lastSeen) {
+        if (null == mDevices)
+            return false;
+        BluetoothKnownDevice device = mDevices.get(address);
+        if (null == device)
+            return false;
+        mDevices.put(address, device.refresh(name, deviceClass, rssi, lastSeen));
+        markDirty();
+        return true;
+    }
+
+    /**
+     * 移除设备
+     * @param address 设备地址
+     * @return true 设备在缓存中
+     */
+    synchronized boolean remove(String address) {
+        if (null == devices().remove(address))
+            return false;
+        markDirty();
+        return true;
+    }
+
+    /**
+     * 清空缓存
+     */
+    synchronized void clear() {
+        devices().clear();
+        markDirty();
+    }
+
+    /**
+     * 立即写入文件
+     * @throws IOException 写入失败
+     */
+    void save() throws IOException {
+        synchronized (mWriteLock) { // 串行写入，避免旧快照覆盖新快照
+            List<BluetoothKnownDevice> devices;
+            synchronized (this) {
+                if (!mDirty)
+                    return;
+                devices = new ArrayList<>(mDevices.values());
+                mDirty = false;
+            }
+            try {
+                write(devices);
+            } catch (IOException e) {
+                synchronized (this) {
+                    mDirty = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 获取设备表，首次调用时从文件加载，需持有缓存锁
+     * @return 设备表
+     */
+    private HashMap<String, BluetoothKnownDevice> devices() {
+        if (null == mDevices)
+            mDevices = load();
+        return mDevices;
+    }
+
+    /**
+     * 从文件加载设备表
+     * @return 设备表，文件不存在或损坏时为空
+     */
+    private HashMap<String, BluetoothKnownDevice> load() {
+        HashMap<String, BluetoothKnownDevice> devices = new HashMap<>();
+        try {
+            for (BluetoothKnownDevice device : read())
+                devices.put(device.getAddress(), device);
+        } catch (FileNotFoundException e) {
+            // 尚未保存过
+        } catch (IOException e) {
+            // 文件损坏或版本不符，丢弃后重新积累
+            e.printStackTrace();
+            devices.clear();
+        }
+        return devices;
+    }
+
+    /**
+     * 标记修改并安排延迟写入，需持有缓存锁
+     */
+    private void markDirty() {
+        mDirty = true;
+        if (mSaveScheduled)
+            return;
+        mSaveScheduled = true;
+        BluetoothExecutors.timer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BluetoothDeviceCache.this) {
+                    mSaveScheduled = false;
+                }
+                try {
+                    BluetoothIoScheduler.getDefault().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                save();
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 从文件读取设备
+     * @return 设备列表
+     * @throws IOException 文件不存在、损坏或版本不符
+     */
+    private List<BluetoothKnownDevice> read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            if (MAGIC != in.readInt())
+                throw new IOException("not a known device cache file.");
+            byte version = in.readByte();
+            if (VERSION != version)
+                throw new IOException("unsupported known device cache version " + version + ".");
+            int count = in.readInt();
+            if (count < 0 || count > MAX_DEVICES)
+                throw new IOException("malformed known device count " + count + ".");
+            List<BluetoothKnownDevice> devices = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String address = in.readUTF();
+                String name = in.readBoolean() ? in.readUTF() : null;
+                int deviceClass = in.readInt();
+                int rssi = in.readShort();
+                long lastSeen = in.readLong();
+                int strategy = in.readByte();
+                int channel = in.readByte();
+                UUID[] uuids = new UUID[in.readUnsignedShort()];
+                for (int j = 0; j < uuids.length; j++)
+                    uuids[j] = new UUID(in.readLong(), in.readLong());
+                devices.add(new BluetoothKnownDevice(address, name, deviceClass, rssi, lastSeen, uuids, strategy, channel));
+            }
+            return devices;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 写入文件，先写临时文件并同步到磁盘再替换，避免断电后替换已生效而数据仍在页缓存中
+     * @param devices 设备列表
+     * @throws IOException 写入失败
+     */
+    private void write(List<BluetoothKnownDevice> devices) throws IOException {
+        File parent = mFile.getParentFile();
+        if (null != parent && !parent.exists() && !parent.mkdirs())
+            throw new IOException("can't create directory " + parent + ".");
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(devices.size());
+            for (BluetoothKnownDevice device : devices) {
+                out.writeUTF(device.getAddress());
+                out.writeBoolean(null != device.getName());
+                if (null != device.getName())
+                    out.writeUTF(device.getName());
+                out.writeInt(device.getDeviceClass());
+                out.writeShort(device.getRssi());
+                out.writeLong(device.getLastSeen());
+                out.writeByte(device.getConnectStrategy());
+                out.writeByte(device.getRfcommChannel());
+                UUID[] uuids = device.getUuids();
+                out.writeShort(uuids.length);
+                for (UUID uuid : uuids) {
+                    out.writeLong(uuid.getMostSignificantBits());
+                    out.writeLong(uuid.getLeastSignificantBits());
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("can't replace " + mFile + ".");
+        }
+    }
+}
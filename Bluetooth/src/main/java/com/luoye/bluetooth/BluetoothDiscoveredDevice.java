@@ -0,0 +1,142 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * 搜索到的蓝牙设备，是搜索索引中一条记录在回调时刻的快照，创建后不再变化。
+ */
+public final class BluetoothDiscoveredDevice {
+    /** 变化标识：设备名称 */
+    public static final int CHANGE_NAME = 1;
+    /** 变化标识：蓝牙硬件类型 */
+    public static final int CHANGE_CLASS = 1 << 1;
+    /** 变化标识：平滑后的RSSI */
+    public static final int CHANGE_RSSI = 1 << 2;
+    /** RSSI未知 */
+    public static final int RSSI_UNKNOWN = Short.MIN_VALUE;
+
+    /** 设备地址 */
+    private final String mAddress;
+    /** 蓝牙设备 */
+    private final BluetoothDevice mDevice;
+    /** 蓝牙硬件类型 */
+    private final BluetoothClass mBluetoothClass;
+    /** 设备名称 */
+    private final String mName;
+    /** 平滑后的RSSI */
+    private final int mRssi;
+    /** 最近一次的原始RSSI */
+    private final int mRawRssi;
+    /** 首次搜索到的时间 */
+    private final long mFirstSeen;
+    /** 最近一次搜索到的时间 */
+    private final long mLastSeen;
+    /** 搜索到的次数 */
+    private final int mSightings;
+
+    /**
+     * 默认构造，包可见
+     * @param address 设备地址
+     * @param device 蓝牙设备
+     * @param cls 蓝牙硬件类型
+     * @param name 设备名称
+     * @param rssi 平滑后的RSSI
+     * @param rawRssi 最近一次的原始RSSI
+     * @param firstSeen 首次搜索到的时间
+     * @param lastSeen 最近一次搜索到的时间
+     * @param sightings 搜索到的次数
+     */
+    BluetoothDiscoveredDevice(String address, BluetoothDevice device, BluetoothClass cls, String name,
+                              int rssi, int rawRssi, long firstSeen, long lastSeen, int sightings) {
+        mAddress = address;
+        mDevice = device;
+        mBluetoothClass = cls;
+        mName = name;
+        mRssi = rssi;
+        mRawRssi = rawRssi;
+        mFirstSeen = firstSeen;
+        mLastSeen = lastSeen;
+        mSightings = sightings;
+    }
+
+    /**
+     * 获取设备地址
+     * @return 设备地址
+     */
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * 获取蓝牙设备
+     * @return 蓝牙设备
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * 获取蓝牙硬件类型
+     * @return 蓝牙硬件类型，未知时为null
+     */
+    public BluetoothClass getBluetoothClass() {
+        return mBluetoothClass;
+    }
+
+    /**
+     * 获取设备名称
+     * @return 设备名称，未知时为null
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 获取平滑后的RSSI
+     * @return RSSI，未知时为{@link #RSSI_UNKNOWN}
+     */
+    public int getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * 获取最近一次的原始RSSI
+     * @return RSSI，未知时为{@link #RSSI_UNKNOWN}
+     */
+    public int getRawRssi() {
+        return mRawRssi;
+    }
+
+    /**
+     * 获取首次搜索到的时间
+     * @return 开机以来的毫秒数，参见{@link android.os.SystemClock#elapsedRealtime()}
+     */
+    public long getFirstSeen() {
+        return mFirstSeen;
+    }
+
+    /**
+     * 获取最近一次搜索到的时间
+     * @return 开机以来的毫秒数，参见{@link android.os.SystemClock#elapsedRealtime()}
+     */
+    public long getLastSeen() {
+        return mLastSeen;
+    }
+
+    /**
+     * 获取搜索到的次数
+     * @return 次数
+     */
+    public int getSightings() {
+        return mSightings;
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothDiscoveredDevice{address=" + mAddress
+                + ", name=" + mName
+                + ", rssi=" + mRssi
+                + ", sightings=" + mSightings + "}";
+    }
+}
@@ -0,0 +1,96 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothClass;
+
+import java.util.Locale;
+
+/**
+ * 蓝牙搜索过滤条件，在搜索广播接收器中直接判断，不符合条件的搜索结果不会回调监听接口，所有订阅者都不接受的结果不会进入搜索索引。
+ * <p>未设置的条件不参与判断，设置的条件需全部满足。</p>
+ */
+public final class BluetoothDiscoveryFilter {
+    /** 不限制设备主类型 */
+    public static final int ANY_MAJOR_DEVICE_CLASS = -1;
+
+    /** 设备名称前缀 */
+    private String mNamePrefix;
+    /** 设备地址，大写 */
+    private String mAddress;
+    /** 设备主类型 */
+    private int mMajorDeviceClass = ANY_MAJOR_DEVICE_CLASS;
+    /** 最小RSSI */
+    private int mMinRssi = BluetoothDiscoveredDevice.RSSI_UNKNOWN;
+
+    /**
+     * 设置设备名称前缀，区分大小写，名称未知的设备不符合条件
+     * @param prefix 名称前缀，为null时不限制
+     */
+    public void setNamePrefix(String prefix) {
+        mNamePrefix = prefix;
+    }
+
+    /**
+     * 设置设备地址，不区分大小写
+     * @param address 设备地址，为null时不限制
+     */
+    public void setAddress(String address) {
+        mAddress = null == address ? null : address.toUpperCase(Locale.US);
+    }
+
+    /**
+     * 设置设备主类型，类型未知的设备不符合条件
+     * @param majorDeviceClass 主类型，参见{@link BluetoothClass.Device.Major}，为{@link #ANY_MAJOR_DEVICE_CLASS}时不限制
+     */
+    public void setMajorDeviceClass(int majorDeviceClass) {
+        mMajorDeviceClass = majorDeviceClass;
+    }
+
+    /**
+     * 设置最小RSSI，RSSI未知的设备不符合条件
+     * @param minRssi 最小RSSI，dBm，为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}时不限制
+     */
+    public void setMinRssi(int minRssi) {
+        mMinRssi = minRssi;
+    }
+
+    /**
+     * 判断搜索结果是否符合条件，包可见
+     * @param address 设备地址
+     * @param name 设备名称，可为null
+     * @param majorDeviceClass 设备主类型，未知时为{@link #ANY_MAJOR_DEVICE_CLASS}
+     * @param rssi RSSI，未知时为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}
+     * @return true 符合条件
+     */
+    boolean matches(String address, String name, int majorDeviceClass, int rssi) {
+        if (null != mAddress && !mAddress.equalsIgnoreCase(address))
+            return false;
+        if (null != mNamePrefix && (null == name || !name.startsWith(mNamePrefix)))
+            return false;
+        if (ANY_MAJOR_DEVICE_CLASS != mMajorDeviceClass && majorDeviceClass != mMajorDeviceClass)
+            return false;
+        if (BluetoothDiscoveredDevice.RSSI_UNKNOWN != mMinRssi
+                && (BluetoothDiscoveredDevice.RSSI_UNKNOWN == rssi || rssi < mMinRssi))
+            return false;
+        return true;
+    }
+
+    /**
+     * 判断搜索结果是否符合条件，包可见
+     * @param address 设备地址
+     * @param name 设备名称，可为null
+     * @param cls 蓝牙硬件类型，可为null
+     * @param rssi RSSI，未知时为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}
+     * @return true 符合条件
+     */
+    boolean matches(String address, String name, BluetoothClass cls, int rssi) {
+        return matches(address, name, null == cls ? ANY_MAJOR_DEVICE_CLASS : cls.getMajorDeviceClass(), rssi);
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothDiscoveryFilter{namePrefix=" + mNamePrefix
+                + ", address=" + mAddress
+                + ", majorDeviceClass=" + mMajorDeviceClass
+                + ", minRssi=" + mMinRssi + "}";
+    }
+}
@@ -0,0 +1,252 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 搜索索引，按设备地址去重保存搜索到的设备，并对RSSI做指数加权移动平均。
+ * <p>同一设备在一次搜索中会被反复报告，索引只在设备首次出现、名称或类型变化、平滑后的RSSI
+ * 相对上次报告的值变化超过阈值时产生变化，其余报告只更新记录，监听者无需处理。
+ * 超过丢失时限未再出现的设备在{@link #expire(long)}时移出索引。</p>
+ */
+class BluetoothDiscoveryIndex {
+    /** 默认RSSI平滑系数，新样本的权重 */
+    static final float DEFAULT_RSSI_ALPHA = 0.3f;
+    /** 默认RSSI变化阈值，dBm */
+    static final int DEFAULT_RSSI_THRESHOLD = 5;
+    /** 默认丢失时限，毫秒，约为两轮经典蓝牙搜索的时长 */
+    static final long DEFAULT_LOST_TIMEOUT = 30000;
+
+    /** 变化类型：新设备 */
+    static final int DELTA_ADDED = 1;
+    /** 变化类型：设备信息变化 */
+    static final int DELTA_UPDATED = 2;
+
+    /** 设备记录，以设备地址为键 */
+    private final HashMap<String, Record> mRecords = new HashMap<>();
+    /** RSSI平滑系数 */
+    private float mRssiAlpha = DEFAULT_RSSI_ALPHA;
+    /** RSSI变化阈值 */
+    private int mRssiThreshold = DEFAULT_RSSI_THRESHOLD;
+    /** 丢失时限 */
+    private long mLostTimeout = DEFAULT_LOST_TIMEOUT;
+
+    /**
+     * 设置RSSI平滑系数
+     * @param alpha 新样本的权重，(0, 1]，为1时不平滑
+     * @throws IllegalArgumentException 系数不合法
+     */
+    synchronized void setRssiAlpha(float alpha) {
+        if (!(alpha > 0 && alpha <= 1))
+            throw new IllegalArgumentException("alpha must be in (0, 1].");
+        mRssiAlpha = alpha;
+    }
+
+    /**
+     * 设置RSSI变化阈值
+     * @param threshold 阈值，dBm
+     * @throws IllegalArgumentException 阈值为负数
+     */
+    synchronized void setRssiThreshold(int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold can't be negative.");
+        mRssiThreshold = threshold;
+    }
+
+    /**
+     * 设置丢失时限
+     * @param timeoutMillis 时限，毫秒
+     * @throws IllegalArgumentException 时限不是正数
+     */
+    synchronized void setLostTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0)
+            throw new IllegalArgumentException("timeoutMillis must be positive.");
+        mLostTimeout = timeoutMillis;
+    }
+
+    /**
+     * 获取丢失时限
+     * @return 时限，毫秒
+     */
+    synchronized long getLostTimeout() {
+        return mLostTimeout;
+    }
+
+    /**
+     * 记录一次搜索结果
+     * @param address 设备地址
+     * @param device 蓝牙设备
+     * @param cls 蓝牙硬件类型，可为null
+     * @param name 设备名称，为null时保留已知名称
+     * @param rssi 原始RSSI，未知时为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}
+     * @param now 当前时间，毫秒
+     * @return 需要通知的变化，没有值得通知的变化时为null
+     */
+    synchronized Delta upsert(String address, BluetoothDevice device, BluetoothClass cls, String name, int rssi, long now) {
+        Record record = mRecords.get(address);
+        if (null == record) {
+            record = new Record(device, now);
+            mRecords.put(address, record);
+            record.update(cls, name, rssi, mRssiAlpha);
+            record.mReportedRssi = record.mRssi;
+            return new Delta(DELTA_ADDED, record.snapshot(address), 0);
+        }
+        int changes = 0;
+        if (null != name && !name.equals(record.mName))
+            changes |= BluetoothDiscoveredDevice.CHANGE_NAME;
+        if (null != cls && !cls.equals(record.mClass))
+            changes |= BluetoothDiscoveredDevice.CHANGE_CLASS;
+        record.update(cls, name, rssi, mRssiAlpha);
+        record.mDevice = device;
+        record.mLastSeen = now;
+        if (record.mRssi != BluetoothDiscoveredDevice.RSSI_UNKNOWN
+                && (record.mReportedRssi == BluetoothDiscoveredDevice.RSSI_UNKNOWN
+                || Math.abs(record.mRssi - record.mReportedRssi) >= Math.max(1, mRssiThreshold)))
+            changes |= BluetoothDiscoveredDevice.CHANGE_RSSI;
+        if (0 == changes)
+            return null;
+        record.mReportedRssi = record.mRssi;
+        return new Delta(DELTA_UPDATED, record.snapshot(address), changes);
+    }
+
+    /**
+     * 移出超过丢失时限未再出现的设备
+     * @param now 当前时间，毫秒
+     * @return 丢失的设备，不会为null
+     */
+    synchronized List<BluetoothDiscoveredDevice> expire(long now) {
+        List<BluetoothDiscoveredDevice> lost = new ArrayList<>();
+        Iterator<Map.Entry<String, Record>> it = mRecords.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Record> e = it.next();
+            if (now - e.getValue().mLastSeen >= mLostTimeout) {
+                lost.add(e.getValue().snapshot(e.getKey()));
+                it.remove();
+            }
+        }
+        return lost;
+    }
+
+    /**
+     * 获取索引中所有设备的快照
+     * @return 设备列表，顺序不定
+     */
+    synchronized List<BluetoothDiscoveredDevice> snapshot() {
+        List<BluetoothDiscoveredDevice> devices = new ArrayList<>(mRecords.size());
+        for (Map.Entry<String, Record> e : mRecords.entrySet())
+            devices.add(e.getValue().snapshot(e.getKey()));
+        return devices;
+    }
+
+    /**
+     * 获取设备快照
+     * @param address 设备地址
+     * @return 设备快照，索引中没有该设备时为null
+     */
+    synchronized BluetoothDiscoveredDevice get(String address) {
+        Record record = mRecords.get(address);
+        return null == record ? null : record.snapshot(address);
+    }
+
+    /**
+     * 获取设备数
+     * @return 设备数
+     */
+    synchronized int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * 清空索引
+     */
+    synchronized void clear() {
+        mRecords.clear();
+    }
+
+    /**
+     * 设备记录，由索引锁保护
+     */
+    private static class Record {
+        /** 蓝牙设备 */
+        BluetoothDevice mDevice;
+        /** 蓝牙硬件类型 */
+        BluetoothClass mClass;
+        /** 设备名称 */
+        String mName;
+        /** 平滑后的RSSI，精确值 */
+        float mSmoothedRssi;
+        /** 平滑后的RSSI */
+        int mRssi = BluetoothDiscoveredDevice.RSSI_UNKNOWN;
+        /** 最近一次的原始RSSI */
+        int mRawRssi = BluetoothDiscoveredDevice.RSSI_UNKNOWN;
+        /** 上次通知时的平滑RSSI */
+        int mReportedRssi = BluetoothDiscoveredDevice.RSSI_UNKNOWN;
+        /** 首次搜索到的时间 */
+        final long mFirstSeen;
+        /** 最近一次搜索到的时间 */
+        long mLastSeen;
+        /** 搜索到的次数 */
+        int mSightings;
+
+        Record(BluetoothDevice device, long now) {
+            mDevice = device;
+            mFirstSeen = now;
+            mLastSeen = now;
+        }
+
+        /**
+         * 合并一次搜索结果
+         * @param cls 蓝牙硬件类型，为null时保留
+         * @param name 设备名称，为null时保留
+         * @param rssi 原始RSSI
+         * @param alpha 平滑系数
+         */
+        void update(BluetoothClass cls, String name, int rssi, float alpha) {
+            if (null != cls)
+                mClass = cls;
+            if (null != name)
+                mName = name;
+            if (BluetoothDiscoveredDevice.RSSI_UNKNOWN != rssi) {
+                mSmoothedRssi = BluetoothDiscoveredDevice.RSSI_UNKNOWN == mRssi
+                        ? rssi : alpha * rssi + (1 - alpha) * mSmoothedRssi;
+                mRssi = Math.round(mSmoothedRssi);
+                mRawRssi = rssi;
+            }
+            mSightings++;
+        }
+
+        /**
+         * 生成快照
+         * @param address 设备地址
+         * @return 设备快照
+         */
+        BluetoothDiscoveredDevice snapshot(String address) {
+            return new BluetoothDiscoveredDevice(address, mDevice, mClass, mName, mRssi, mRawRssi,
+                    mFirstSeen, mLastSeen, mSightings);
+        }
+    }
+
+    /**
+     * 索引变化
+     */
+    static final class Delta {
+        /** 变化类型 */
+        final int mType;
+        /** 变化后的设备快照 */
+        final BluetoothDiscoveredDevice mDevice;
+        /** 变化标识，参见{@link BluetoothDiscoveredDevice#CHANGE_NAME}等 */
+        final int mChanges;
+
+        Delta(int type, BluetoothDiscoveredDevice device, int changes) {
+            mType = type;
+            mDevice = device;
+            mChanges = changes;
+        }
+    }
+}
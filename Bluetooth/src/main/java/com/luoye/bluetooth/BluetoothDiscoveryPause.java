@@ -0,0 +1,85 @@
+package com.luoye.bluetooth;
+
+/**
+ * 快速连接期间的搜索暂停状态。
+ * <p>多个快速连接可以重叠，第一个快速连接开始时若正在搜索则暂停搜索，最后一个结束时才恢复。
+ * 暂停期间屏蔽搜索结束广播，恢复后屏蔽搜索开始广播，订阅者看到的是一次连续的搜索。</p>
+ * <p>非线程安全，由调用者的搜索锁保护。</p>
+ */
+class BluetoothDiscoveryPause {
+    /** 正在进行的快速连接数 */
+    private int mCount;
+    /** 搜索是否因快速连接而暂停 */
+    private boolean mPaused;
+
+    /**
+     * 新的搜索会话开始，清除上次会话遗留的暂停标记
+     */
+    void reset() {
+        mPaused = false;
+    }
+
+    /**
+     * 快速连接开始
+     * @param discovering 共享搜索是否正在进行
+     * @return true 需要取消正在进行的搜索
+     */
+    boolean pause(boolean discovering) {
+        mCount++;
+        if (!discovering)
+            return false;
+        mPaused = true;
+        return true;
+    }
+
+    /**
+     * 快速连接结束
+     * @return true 最后一个快速连接已结束且搜索曾被暂停，需要恢复搜索
+     */
+    boolean resume() {
+        return --mCount <= 0 && mPaused;
+    }
+
+    /**
+     * 搜索无法恢复，放弃暂停状态，调用者按搜索正常结束处理
+     */
+    void abandon() {
+        mPaused = false;
+    }
+
+    /**
+     * 收到搜索开始广播
+     * @return true 是暂停或恢复引起的事件，应屏蔽
+     */
+    boolean onStarted() {
+        if (!mPaused)
+            return false;
+        if (0 == mCount) // 快速连接结束后恢复的搜索
+            mPaused = false;
+        return true;
+    }
+
+    /**
+     * 收到搜索结束广播
+     * @return true 搜索因快速连接而暂停，应屏蔽
+     */
+    boolean onFinished() {
+        return mPaused;
+    }
+
+    /**
+     * 获取正在进行的快速连接数
+     * @return 连接数
+     */
+    int count() {
+        return mCount;
+    }
+
+    /**
+     * 搜索是否因快速连接而暂停
+     * @return true 已暂停
+     */
+    boolean isPaused() {
+        return mPaused;
+    }
+}
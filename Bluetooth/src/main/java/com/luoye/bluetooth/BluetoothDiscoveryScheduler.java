@@ -0,0 +1,372 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 蓝牙搜索调度器，按占空比周期性地搜索周边设备，适合需要持续发现新设备的场景。
+ * <p>经典蓝牙搜索会占用射频时间，明显降低已连接RFCOMM链路的吞吐。调度器每{@link #SAMPLE_INTERVAL_MILLIS}毫秒
+ * 采样一次库内所有蓝牙终端的收发字节数：任一链路在传输数据时停止搜索，链路持续空闲后再恢复；
+ * 同时以未搜索时的链路吞吐为基线，估算搜索造成的吞吐损失。</p>
+ * <p>每个周期的搜索结束或被打断时，监听接口收到{@link Bluetooth.OnBluetoothDiscoveryListener#onDiscoveryFinished()}；
+ * 只有{@link #stop()}才会回调{@link Bluetooth.OnBluetoothDiscoveryListener#onDiscoveryCanceled()}。
+ * 监听接口为{@link Bluetooth.OnBluetoothDeviceIndexListener}时同样只收到设备的增加、变化和丢失。
+ * 所有事件都在主线程中回调，包括定时采样和{@link #stop()}引起的结束和取消事件。</p>
+ * <p>调度器以订阅者身份加入共享搜索，停止搜索时只退订自己，其他订阅者的搜索不受影响。</p>
+ */
+public final class BluetoothDiscoveryScheduler {
+    /** 默认单次搜索时长上限，与一次经典蓝牙搜索的时长相当 */
+    public static final long DEFAULT_SCAN_WINDOW = 12000;
+    /** 默认搜索周期，即占空比约为20% */
+    public static final long DEFAULT_INTERVAL = 60000;
+    /** 默认繁忙阈值，字节/秒 */
+    public static final long DEFAULT_BUSY_THRESHOLD = 1024;
+    /** 默认恢复搜索前链路需持续空闲的时长 */
+    public static final long DEFAULT_IDLE_HOLD = 3000;
+    /** 流量采样间隔，毫秒 */
+    public static final long SAMPLE_INTERVAL_MILLIS = 500;
+
+    /** 蓝牙设备 */
+    private final Bluetooth mBluetooth;
+    /** 搜索监听接口 */
+    private final Bluetooth.OnBluetoothDiscoveryListener mListener;
+    /** 主线程Handler，用于在主线程中回调监听接口 */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** 单次搜索时长上限 */
+    private long mScanWindowMillis = DEFAULT_SCAN_WINDOW;
+    /** 搜索周期 */
+    private long mIntervalMillis = DEFAULT_INTERVAL;
+    /** 繁忙阈值 */
+    private long mBusyThreshold = DEFAULT_BUSY_THRESHOLD;
+    /** 恢复搜索前链路需持续空闲的时长 */
+    private long mIdleHoldMillis = DEFAULT_IDLE_HOLD;
+    /** 占空比控制，启动后创建，由自身加锁保护 */
+    private BluetoothDutyCycle mDutyCycle;
+    /** 采样任务 */
+    private ScheduledFuture<?> mSampleTask;
+    /** 启动时间 */
+    private long mStartTime;
+    /** 调度器主动停止搜索期间，收到的取消事件按周期结束处理 */
+    private boolean mStoppingScan;
+    /** 本周期订阅搜索的监听，未在搜索时为null */
+    private Bluetooth.OnBluetoothDiscoveryListener mScanListener;
+
+    /**
+     * 构造函数
+     * @param bluetooth 蓝牙设备
+     * @param listener 搜索监听接口，每个搜索周期都会收到开始和结束事件
+     * @throws IllegalArgumentException 参数为null
+     */
+    public BluetoothDiscoveryScheduler(Bluetooth bluetooth, Bluetooth.OnBluetoothDiscoveryListener listener) {
+        if (null == bluetooth)
+            throw new IllegalArgumentException("the Bluetooth can't be null.");
+        if (null == listener)
+            throw new IllegalArgumentException("the OnBluetoothDiscoveryListener can't be null.");
+        mBluetooth = bluetooth;
+        mListener = listener;
+    }
+
+    /**
+     * 设置占空比，需在{@link #start()}之前调用
+     * @param scanWindowMillis 单次搜索时长上限，毫秒
+     * @param intervalMillis 搜索周期，毫秒，不小于单次搜索时长
+     * @throws IllegalArgumentException 参数不合法
+     * @throws IllegalStateException 调度器已启动
+     */
+    public synchronized void setDutyCycle(long scanWindowMillis, long intervalMillis) {
+        checkIdle();
+        if (scanWindowMillis <= 0 || intervalMillis < scanWindowMillis)
+            throw new IllegalArgumentException("scanWindowMillis must be positive and not exceed intervalMillis.");
+        mScanWindowMillis = scanWindowMillis;
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * 设置链路繁忙判定，需在{@link #start()}之前调用
+     * @param bytesPerSecond 所有链路合计吞吐达到该值即视为繁忙，字节/秒
+     * @param idleHoldMillis 恢复搜索前链路需持续空闲的时长，毫秒
+     * @throws IllegalArgumentException 参数不合法
+     * @throws IllegalStateException 调度器已启动
+     */
+    public synchronized void setBusyThreshold(long bytesPerSecond, long idleHoldMillis) {
+        checkIdle();
+        if (bytesPerSecond <= 0 || idleHoldMillis < 0)
+            throw new IllegalArgumentException("bytesPerSecond must be positive and idleHoldMillis can't be negative.");
+        mBusyThreshold = bytesPerSecond;
+        mIdleHoldMillis = idleHoldMillis;
+    }
+
+    /**
+     * 启动调度，统计数据随之清零
+     * @throws IllegalStateException 调度器已启动
+     */
+    public synchronized void start() {
+        checkIdle();
+        mDutyCycle = new BluetoothDutyCycle(mScanWindowMillis, mIntervalMillis, mBusyThreshold, mIdleHoldMillis);
+        mStartTime = SystemClock.elapsedRealtime();
+        mSampleTask = BluetoothExecutors.timer().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止调度，正在进行的搜索随之取消
+     */
+    public void stop() {
+        Bluetooth.OnBluetoothDiscoveryListener listener;
+        synchronized (this) {
+            if (null == mSampleTask)
+                return;
+            mSampleTask.cancel(false);
+            mSampleTask = null;
+            mDutyCycle.scanEnded(SystemClock.elapsedRealtime());
+            listener = mScanListener;
+            mScanListener = null;
+        }
+        if (null != listener)
+            mBluetooth.stopScan(listener);
+    }
+
+    /**
+     * 是否已启动
+     * @return true 已启动
+     */
+    public synchronized boolean isRunning() {
+        return null != mSampleTask;
+    }
+
+    /**
+     * 是否正在搜索
+     * @return true 正在搜索
+     */
+    public synchronized boolean isScanning() {
+        return null != mDutyCycle && mDutyCycle.isScanning();
+    }
+
+    /**
+     * 获取搜索次数
+     * @return 次数
+     */
+    public synchronized long getScanCount() {
+        return null == mDutyCycle ? 0 : mDutyCycle.getScanCount();
+    }
+
+    /**
+     * 获取因链路繁忙而中止搜索的次数
+     * @return 次数
+     */
+    public synchronized long getBackoffCount() {
+        return null == mDutyCycle ? 0 : mDutyCycle.getBackoffCount();
+    }
+
+    /**
+     * 获取实际占空比，即启动以来搜索时长所占的比例，不含正在进行的搜索
+     * @return 0~1
+     */
+    public synchronized double getActualDutyCycle() {
+        if (null == mDutyCycle)
+            return 0;
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        return elapsed <= 0 ? 0 : (double) mDutyCycle.getScanMillis() / elapsed;
+    }
+
+    /**
+     * 获取搜索期间有数据传输时的链路吞吐
+     * @return 字节/秒
+     */
+    public synchronized long getThroughputWhileScanning() {
+        return null == mDutyCycle ? 0 : mDutyCycle.getScanningThroughput();
+    }
+
+    /**
+     * 获取未搜索时有数据传输时的链路吞吐，作为估算吞吐损失的基线
+     * @return 字节/秒
+     */
+    public synchronized long getThroughputWhileIdle() {
+        return null == mDutyCycle ? 0 : mDutyCycle.getLinkThroughput();
+    }
+
+    /**
+     * 获取估算的因搜索而少传输的字节数
+     * @return 字节数
+     */
+    public synchronized long getLostBytes() {
+        return null == mDutyCycle ? 0 : mDutyCycle.getLostBytes();
+    }
+
+    /**
+     * 检查调度器未启动，需持有调度器锁
+     * @throws IllegalStateException 调度器已启动
+     */
+    private void checkIdle() {
+        if (null != mSampleTask)
+            throw new IllegalStateException("Bluetooth discovery scheduler is running.");
+    }
+
+    /**
+     * 采样链路流量并开始或停止搜索，在定时器线程中调用
+     */
+    private void sample() {
+        int action;
+        synchronized (this) {
+            if (null == mSampleTask)
+                return;
+            action = mDutyCycle.sample(SystemClock.elapsedRealtime(), BluetoothTraffic.totalBytes());
+        }
+        Bluetooth.OnBluetoothDiscoveryListener listener;
+        switch (action) {
+            case BluetoothDutyCycle.ACTION_START_SCAN:
+                listener = mListener instanceof Bluetooth.OnBluetoothDeviceIndexListener
+                        ? new IndexScanListener() : new ScanListener();
+                synchronized (this) {
+                    // 搜索开始事件可能早于scanDevices返回到达，先记为开始
+                    mDutyCycle.scanStarted(SystemClock.elapsedRealtime());
+                    mScanListener = listener;
+                }
+                if (!mBluetooth.scanDevices(listener)) { // 蓝牙未开启，搜索未能开始
+                    synchronized (this) {
+                        mDutyCycle.scanEnded(SystemClock.elapsedRealtime());
+                        mScanListener = null;
+                    }
+                }
+                break;
+            case BluetoothDutyCycle.ACTION_STOP_SCAN:
+                synchronized (this) {
+                    mStoppingScan = true;
+                    listener = mScanListener;
+                    mScanListener = null;
+                }
+                try {
+                    if (null != listener)
+                        mBluetooth.stopScan(listener);
+                } finally {
+                    synchronized (this) {
+                        mStoppingScan = false;
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * 本周期的搜索结束
+     */
+    private void onScanEnded() {
+        synchronized (this) {
+            if (null != mDutyCycle)
+                mDutyCycle.scanEnded(SystemClock.elapsedRealtime());
+            mScanListener = null;
+        }
+    }
+
+    /**
+     * 在主线程中回调监听接口，当前已在主线程时立即回调，否则按顺序投递到主线程
+     * @param event 回调事件
+     */
+    private void notifyListener(Runnable event) {
+        if (Looper.getMainLooper() == Looper.myLooper())
+            event.run();
+        else
+            mMainHandler.post(event);
+    }
+
+    /**
+     * 单个搜索周期的监听，将事件转交给调度器的监听接口。
+     * <p>结束和取消事件可能来自定时器线程或调用{@link #stop()}的线程，统一转到主线程回调。</p>
+     */
+    private class ScanListener implements Bluetooth.OnBluetoothDiscoveryListener {
+        @Override
+        public void onDiscoveryStarted() {
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onDiscoveryStarted();
+                }
+            });
+        }
+
+        @Override
+        public void onDeviceFound(final BluetoothDevice device, final BluetoothClass cls, final String name,
+                                  final int rssi) {
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onDeviceFound(device, cls, name, rssi);
+                }
+            });
+        }
+
+        @Override
+        public void onDiscoveryFinished() {
+            onScanEnded();
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onDiscoveryFinished();
+                }
+            });
+        }
+
+        @Override
+        public void onDiscoveryCanceled() {
+            final boolean byScheduler;
+            synchronized (BluetoothDiscoveryScheduler.this) {
+                byScheduler = mStoppingScan;
+            }
+            onScanEnded();
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (byScheduler) // 周期结束或链路繁忙，按搜索结束通知
+                        mListener.onDiscoveryFinished();
+                    else
+                        mListener.onDiscoveryCanceled();
+                }
+            });
+        }
+    }
+
+    /**
+     * 单个搜索周期的索引监听
+     */
+    private class IndexScanListener extends ScanListener implements Bluetooth.OnBluetoothDeviceIndexListener {
+        @Override
+        public void onDeviceAdded(final BluetoothDiscoveredDevice device) {
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    ((Bluetooth.OnBluetoothDeviceIndexListener) mListener).onDeviceAdded(device);
+                }
+            });
+        }
+
+        @Override
+        public void onDeviceUpdated(final BluetoothDiscoveredDevice device, final int changes) {
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    ((Bluetooth.OnBluetoothDeviceIndexListener) mListener).onDeviceUpdated(device, changes);
+                }
+            });
+        }
+
+        @Override
+        public void onDeviceLost(final BluetoothDiscoveredDevice device) {
+            notifyListener(new Runnable() {
+                @Override
+                public void run() {
+                    ((Bluetooth.OnBluetoothDeviceIndexListener) mListener).onDeviceLost(device);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 共享搜索会话，多个订阅者共用一次搜索和一个广播接收器，最后一个订阅者离开时搜索才停止。
+ * <p>每个订阅者有各自的过滤条件和匹配上限，并记录已分发给它的设备：中途加入的订阅者开始时补发本次会话
+ * 已搜索到的设备，此后同一设备对它来说第一次出现时按新设备分发，与其他订阅者何时加入无关。</p>
+ * <p>订阅者的增减由会话加锁保护，可在任意线程进行；订阅者的分发状态由订阅者自身加锁保护。</p>
+ */
+class BluetoothDiscoverySession {
+    /** 会话开始时间，早于该时间的索引记录不属于本次会话 */
+    private final long mStartTime;
+    /** 订阅者，按加入顺序 */
+    private final ArrayList<Subscriber> mSubscribers = new ArrayList<>();
+
+    /**
+     * 构造函数
+     * @param startTime 会话开始时间，毫秒
+     */
+    BluetoothDiscoverySession(long startTime) {
+        mStartTime = startTime;
+    }
+
+    /**
+     * 获取会话开始时间
+     * @return 毫秒
+     */
+    long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * 加入订阅者
+     * @param listener 搜索监听接口
+     * @param filter 过滤条件，可为null
+     * @param maxMatches 匹配上限，为0时不限
+     * @return 订阅者，监听接口已订阅时为null
+     */
+    synchronized Subscriber add(Bluetooth.OnBluetoothDiscoveryListener listener, BluetoothDiscoveryFilter filter,
+                                int maxMatches) {
+        if (null != find(listener))
+            return null;
+        Subscriber subscriber = new Subscriber(listener, filter, maxMatches);
+        mSubscribers.add(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * 移除订阅者
+     * @param listener 搜索监听接口
+     * @return 订阅者，未订阅时为null
+     */
+    synchronized Subscriber remove(Bluetooth.OnBluetoothDiscoveryListener listener) {
+        Subscriber subscriber = find(listener);
+        if (null != subscriber)
+            mSubscribers.remove(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * 移除订阅者
+     * @param subscriber 订阅者
+     * @return true 订阅者在会话中
+     */
+    synchronized boolean remove(Subscriber subscriber) {
+        return mSubscribers.remove(subscriber);
+    }
+
+    /**
+     * 移除所有订阅者
+     * @return 被移除的订阅者
+     */
+    synchronized List<Subscriber> removeAll() {
+        List<Subscriber> subscribers = new ArrayList<>(mSubscribers);
+        mSubscribers.clear();
+        return subscribers;
+    }
+
+    /**
+     * 获取所有订阅者
+     * @return 订阅者列表的副本
+     */
+    synchronized List<Subscriber> subscribers() {
+        return new ArrayList<>(mSubscribers);
+    }
+
+    /**
+     * 获取过滤条件接受该搜索结果的订阅者
+     * @param address 设备地址
+     * @param name 设备名称，可为null
+     * @param cls 蓝牙硬件类型，可为null
+     * @param rssi RSSI，未知时为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}
+     * @return 订阅者列表，不会为null
+     */
+    synchronized List<Subscriber> accepting(String address, String name, BluetoothClass cls, int rssi) {
+        List<Subscriber> subscribers = new ArrayList<>(mSubscribers.size());
+        for (Subscriber subscriber : mSubscribers) {
+            if (subscriber.accepts(address, name, cls, rssi))
+                subscribers.add(subscriber);
+        }
+        return subscribers;
+    }
+
+    /**
+     * 获取订阅者数
+     * @return 订阅者数
+     */
+    synchronized int size() {
+        return mSubscribers.size();
+    }
+
+    /**
+     * 会话是否没有订阅者
+     * @return true 没有订阅者
+     */
+    synchronized boolean isEmpty() {
+        return mSubscribers.isEmpty();
+    }
+
+    /**
+     * 查找订阅者，需持有会话锁
+     * @param listener 搜索监听接口
+     * @return 订阅者，未订阅时为null
+     */
+    private Subscriber find(Bluetooth.OnBluetoothDiscoveryListener listener) {
+        for (Subscriber subscriber : mSubscribers) {
+            if (subscriber.mListener == listener)
+                return subscriber;
+        }
+        return null;
+    }
+
+    /**
+     * 订阅者，监听接口为{@link Bluetooth.OnBluetoothDeviceIndexListener}时按设备的增加、变化和丢失分发
+     */
+    static class Subscriber {
+        /** 搜索监听接口 */
+        final Bluetooth.OnBluetoothDiscoveryListener mListener;
+        /** 过滤条件，可为null */
+        private final BluetoothDiscoveryFilter mFilter;
+        /** 匹配上限，为0时不限 */
+        private final int mMaxMatches;
+        /** 已分发的设备地址 */
+        private final HashSet<String> mDelivered = new HashSet<>();
+        /** 是否已回调搜索开始 */
+        private boolean mStarted;
+        /** 是否已回调搜索结束或取消 */
+        private boolean mEnded;
+
+        /**
+         * 构造函数
+         * @param listener 搜索监听接口
+         * @param filter 过滤条件，可为null
+         * @param maxMatches 匹配上限，为0时不限
+         */
+        Subscriber(Bluetooth.OnBluetoothDiscoveryListener listener, BluetoothDiscoveryFilter filter, int maxMatches) {
+            mListener = listener;
+            mFilter = filter;
+            mMaxMatches = maxMatches;
+        }
+
+        /**
+         * 过滤条件是否接受该搜索结果
+         * @param address 设备地址
+         * @param name 设备名称，可为null
+         * @param cls 蓝牙硬件类型，可为null
+         * @param rssi RSSI，未知时为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}
+         * @return true 接受
+         */
+        boolean accepts(String address, String name, BluetoothClass cls, int rssi) {
+            return null == mFilter || mFilter.matches(address, name, cls, rssi);
+        }
+
+        /**
+         * 回调搜索开始并补发本次会话已搜索到的设备，重复调用无效
+         * @param seen 本次会话已搜索到的设备
+         * @return true 已达到匹配上限
+         */
+        synchronized boolean start(List<BluetoothDiscoveredDevice> seen) {
+            if (mStarted || mEnded)
+                return false;
+            mStarted = true;
+            mListener.onDiscoveryStarted();
+            for (BluetoothDiscoveredDevice device : seen) {
+                if (isFull())
+                    break;
+                if (!accepts(device.getAddress(), device.getName(), device.getBluetoothClass(), device.getRawRssi()))
+                    continue;
+                mDelivered.add(device.getAddress());
+                if (mListener instanceof Bluetooth.OnBluetoothDeviceIndexListener)
+                    ((Bluetooth.OnBluetoothDeviceIndexListener) mListener).onDeviceAdded(device);
+                else
+                    mListener.onDeviceFound(device.getDevice(), device.getBluetoothClass(), device.getName(),
+                            BluetoothDiscoveredDevice.RSSI_UNKNOWN == device.getRawRssi() ? 0 : device.getRawRssi());
+            }
+            return isFull();
+        }
+
+        /**
+         * 分发一次搜索结果，搜索开始前、结束后或已达到匹配上限时忽略
+         * @param device 蓝牙设备
+         * @param cls 蓝牙硬件类型，可为null
+         * @param name 设备名称，可为null
+         * @param rssi 原始RSSI，未知时为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}
+         * @param snapshot 该设备在索引中的当前快照
+         * @param delta 索引变化，没有值得通知的变化时为null
+         * @return true 本次分发后达到匹配上限
+         */
+        synchronized boolean deliver(BluetoothDevice device, BluetoothClass cls, String name, int rssi,
+                                     BluetoothDiscoveredDevice snapshot, BluetoothDiscoveryIndex.Delta delta) {
+            if (!mStarted || mEnded || isFull())
+                return false;
+            if (!accepts(snapshot.getAddress(), name, cls, rssi))
+                return false;
+            boolean added = mDelivered.add(snapshot.getAddress());
+            if (!(mListener instanceof Bluetooth.OnBluetoothDeviceIndexListener)) {
+                mListener.onDeviceFound(device, cls, name, BluetoothDiscoveredDevice.RSSI_UNKNOWN == rssi ? 0 : rssi);
+            } else {
+                Bluetooth.OnBluetoothDeviceIndexListener il = (Bluetooth.OnBluetoothDeviceIndexListener) mListener;
+                if (added || (null != delta && BluetoothDiscoveryIndex.DELTA_ADDED == delta.mType))
+                    il.onDeviceAdded(snapshot);
+                else if (null != delta)
+                    il.onDeviceUpdated(delta.mDevice, delta.mChanges);
+            }
+            return added && isFull();
+        }
+
+        /**
+         * 回调搜索结束，重复调用无效
+         * @param lost 移出索引的设备，只通知分发过的设备
+         */
+        synchronized void finish(List<BluetoothDiscoveredDevice> lost) {
+            if (mEnded)
+                return;
+            mEnded = true;
+            if (mListener instanceof Bluetooth.OnBluetoothDeviceIndexListener) {
+                Bluetooth.OnBluetoothDeviceIndexListener il = (Bluetooth.OnBluetoothDeviceIndexListener) mListener;
+                for (BluetoothDiscoveredDevice device : lost) {
+                    if (mDelivered.remove(device.getAddress()))
+                        il.onDeviceLost(device);
+                }
+            }
+            mListener.onDiscoveryFinished();
+        }
+
+        /**
+         * 回调搜索取消，重复调用无效
+         */
+        synchronized void cancel() {
+            if (mEnded)
+                return;
+            mEnded = true;
+            mListener.onDiscoveryCanceled();
+        }
+
+        /**
+         * 是否已达到匹配上限，需持有订阅者锁
+         * @return true 已达到
+         */
+        private boolean isFull() {
+            return mMaxMatches > 0 && mDelivered.size() >= mMaxMatches;
+        }
+    }
+}
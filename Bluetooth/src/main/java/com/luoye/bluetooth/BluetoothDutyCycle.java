@@ -0,0 +1,201 @@
+package com.luoye.bluetooth;
+
+/**
+ * 搜索占空比控制，根据链路流量的周期采样决定何时开始和停止搜索，并统计搜索造成的吞吐损失。
+ * <p>每个周期最多搜索{@code scanWindowMillis}毫秒；链路吞吐达到繁忙阈值时立即停止搜索，
+ * 链路持续空闲{@code idleHoldMillis}毫秒后重新搜索被打断的周期。</p>
+ * <p>吞吐损失以未搜索时有流量的采样为基线：搜索期间有流量的采样中，实际字节数低于基线吞吐的部分计为损失。</p>
+ */
+class BluetoothDutyCycle {
+    /** 采样结果：无动作 */
+    static final int ACTION_NONE = 0;
+    /** 采样结果：开始搜索 */
+    static final int ACTION_START_SCAN = 1;
+    /** 采样结果：停止搜索 */
+    static final int ACTION_STOP_SCAN = 2;
+
+    /** 单次搜索时长上限 */
+    private final long mScanWindowMillis;
+    /** 搜索周期 */
+    private final long mIntervalMillis;
+    /** 繁忙阈值，字节/秒 */
+    private final long mBusyBytesPerSecond;
+    /** 恢复搜索前链路需持续空闲的时长 */
+    private final long mIdleHoldMillis;
+
+    /** 上次采样时间，尚未采样时为-1 */
+    private long mLastSampleTime = -1;
+    /** 上次采样时的累计字节数 */
+    private long mLastBytes;
+    /** 最近一次繁忙的时间 */
+    private long mLastBusyTime = Long.MIN_VALUE / 2;
+    /** 下次搜索的时间 */
+    private long mNextScanTime;
+    /** 本次搜索开始的时间 */
+    private long mScanStartTime;
+    /** 是否正在搜索 */
+    private boolean mScanning;
+
+    /** 搜索次数 */
+    private long mScanCount;
+    /** 因链路繁忙而中止搜索的次数 */
+    private long mBackoffCount;
+    /** 累计搜索时长 */
+    private long mScanMillis;
+    /** 搜索期间有流量的采样的字节数 */
+    private long mScanningBytes;
+    /** 搜索期间有流量的采样的时长 */
+    private long mScanningMillis;
+    /** 未搜索时有流量的采样的字节数 */
+    private long mLinkBytes;
+    /** 未搜索时有流量的采样的时长 */
+    private long mLinkMillis;
+    /** 估算的吞吐损失，字节 */
+    private double mLostBytes;
+
+    /**
+     * 构造函数
+     * @param scanWindowMillis 单次搜索时长上限
+     * @param intervalMillis 搜索周期，不小于单次搜索时长
+     * @param busyBytesPerSecond 繁忙阈值，字节/秒
+     * @param idleHoldMillis 恢复搜索前链路需持续空闲的时长
+     * @throws IllegalArgumentException 参数不合法
+     */
+    BluetoothDutyCycle(long scanWindowMillis, long intervalMillis, long busyBytesPerSecond, long idleHoldMillis) {
+        if (scanWindowMillis <= 0 || intervalMillis < scanWindowMillis)
+            throw new IllegalArgumentException("scanWindowMillis must be positive and not exceed intervalMillis.");
+        if (busyBytesPerSecond <= 0 || idleHoldMillis < 0)
+            throw new IllegalArgumentException("busyBytesPerSecond must be positive and idleHoldMillis can't be negative.");
+        mScanWindowMillis = scanWindowMillis;
+        mIntervalMillis = intervalMillis;
+        mBusyBytesPerSecond = busyBytesPerSecond;
+        mIdleHoldMillis = idleHoldMillis;
+    }
+
+    /**
+     * 采样链路流量并决定下一步动作
+     * @param now 当前时间，毫秒
+     * @param totalBytes 所有链路累计收发的字节数
+     * @return {@link #ACTION_NONE}、{@link #ACTION_START_SCAN}或{@link #ACTION_STOP_SCAN}
+     */
+    int sample(long now, long totalBytes) {
+        if (mLastSampleTime < 0) {
+            mLastSampleTime = now;
+            mLastBytes = totalBytes;
+            mNextScanTime = now;
+        }
+        long elapsed = now - mLastSampleTime;
+        long bytes = totalBytes - mLastBytes;
+        mLastSampleTime = now;
+        mLastBytes = totalBytes;
+
+        boolean busy = elapsed > 0 && bytes * 1000 >= mBusyBytesPerSecond * elapsed;
+        if (busy)
+            mLastBusyTime = now;
+        if (elapsed > 0 && bytes > 0) {
+            if (mScanning) {
+                if (mLinkMillis > 0) {
+                    double expected = (double) mLinkBytes * elapsed / mLinkMillis;
+                    mLostBytes += Math.max(0, expected - bytes);
+                }
+                mScanningBytes += bytes;
+                mScanningMillis += elapsed;
+            } else {
+                mLinkBytes += bytes;
+                mLinkMillis += elapsed;
+            }
+        }
+
+        if (mScanning) {
+            if (busy) {
+                mBackoffCount++;
+                mNextScanTime = now; // 链路空闲后重新搜索被打断的周期
+                return ACTION_STOP_SCAN;
+            }
+            return now - mScanStartTime >= mScanWindowMillis ? ACTION_STOP_SCAN : ACTION_NONE;
+        }
+        if (now >= mNextScanTime && now - mLastBusyTime >= mIdleHoldMillis)
+            return ACTION_START_SCAN;
+        return ACTION_NONE;
+    }
+
+    /**
+     * 搜索已开始
+     * @param now 当前时间，毫秒
+     */
+    void scanStarted(long now) {
+        if (mScanning)
+            return;
+        mScanning = true;
+        mScanStartTime = now;
+        mNextScanTime = now + mIntervalMillis;
+        mScanCount++;
+    }
+
+    /**
+     * 搜索已结束
+     * @param now 当前时间，毫秒
+     */
+    void scanEnded(long now) {
+        if (!mScanning)
+            return;
+        mScanning = false;
+        mScanMillis += now - mScanStartTime;
+    }
+
+    /**
+     * 是否正在搜索
+     * @return true 正在搜索
+     */
+    boolean isScanning() {
+        return mScanning;
+    }
+
+    /**
+     * 获取搜索次数
+     * @return 次数
+     */
+    long getScanCount() {
+        return mScanCount;
+    }
+
+    /**
+     * 获取因链路繁忙而中止搜索的次数
+     * @return 次数
+     */
+    long getBackoffCount() {
+        return mBackoffCount;
+    }
+
+    /**
+     * 获取累计搜索时长，不含正在进行的搜索
+     * @return 毫秒
+     */
+    long getScanMillis() {
+        return mScanMillis;
+    }
+
+    /**
+     * 获取搜索期间的链路吞吐
+     * @return 字节/秒，没有数据时为0
+     */
+    long getScanningThroughput() {
+        return 0 == mScanningMillis ? 0 : mScanningBytes * 1000 / mScanningMillis;
+    }
+
+    /**
+     * 获取未搜索时的链路吞吐
+     * @return 字节/秒，没有数据时为0
+     */
+    long getLinkThroughput() {
+        return 0 == mLinkMillis ? 0 : mLinkBytes * 1000 / mLinkMillis;
+    }
+
+    /**
+     * 获取估算的吞吐损失
+     * @return 字节
+     */
+    long getLostBytes() {
+        return (long) mLostBytes;
+    }
+}
@@ -0,0 +1,91 @@
+package com.luoye.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 蓝牙回调执行器，用于指定连接、接受请求和数据接收等回调方法的执行线程。
+ * <p>回调默认在主线程执行；协议解析等耗时处理可改用后台执行器，或使用{@link #direct()}直接在蓝牙I/O线程中回调，
+ * 此时回调方法不能执行阻塞操作，也不能直接操作界面。</p>
+ */
+public final class BluetoothExecutors {
+    /** 直接在调用线程中执行的执行器 */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** 超时和延迟任务定时器，首次使用时创建 */
+    private static ScheduledExecutorService sTimer;
+
+    private BluetoothExecutors() {
+    }
+
+    /**
+     * 获取直接在蓝牙I/O线程中执行回调的执行器
+     * @return 执行器
+     */
+    public static Executor direct() {
+        return DIRECT;
+    }
+
+    /**
+     * 获取在指定Looper线程中执行回调的执行器
+     * @param looper 消息循环
+     * @return 执行器
+     * @throws IllegalArgumentException 消息循环为null
+     */
+    public static Executor looper(Looper looper) {
+        if (null == looper)
+            throw new IllegalArgumentException("the Looper can't be null.");
+        final Handler handler = new Handler(looper);
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    /**
+     * 获取在主线程中执行回调的执行器
+     * @return 执行器
+     */
+    public static Executor mainThread() {
+        return looper(Looper.getMainLooper());
+    }
+
+    /**
+     * 是否为直接执行器
+     * @param executor 执行器
+     * @return true 直接在调用线程中执行
+     */
+    static boolean isDirect(Executor executor) {
+        return DIRECT == executor;
+    }
+
+    /**
+     * 获取库内共享的定时器，用于连接超时、延迟关闭等短小任务，任务中不能执行阻塞操作
+     * @return 定时器
+     */
+    static synchronized ScheduledExecutorService timer() {
+        if (null == sTimer) {
+            sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "bluetooth-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimer;
+    }
+}
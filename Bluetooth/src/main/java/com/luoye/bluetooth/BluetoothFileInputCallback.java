@@ -0,0 +1,248 @@
+package com.luoye.bluetooth;
+
+import android.os.Looper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * 蓝牙文件接收监听回调，将接收到的数据直接写入文件。
+ * <p>数据在蓝牙分发线程中通过{@link FileChannel}写入文件后立即释放缓存，不经过回调线程，也不会在内存中累积；
+ * 回调线程只接收进度、完成和失败通知。文件写满{@code length}字节后，同一次读取中剩余的数据以及后续数据
+ * 按普通数据回调{@link #onInput(byte[])}。接收期间到达的所有数据都按文件数据处理，
+ * 发送方在{@link BluetoothClient#sendFile(File, long, BluetoothFileTransfer.OnFileTransferCallback)}期间拒绝其他写入。</p>
+ * <p>连接中断后，以{@link #getPosition()}作为{@code offset}创建新的回调，并请发送方从该位置续传。</p>
+ */
+public abstract class BluetoothFileInputCallback extends BluetoothClient.BluetoothInputCallback {
+    /** 进度回调的最少次数 */
+    private static final int PROGRESS_STEPS = 100;
+    /** 进度回调的最少间隔字节数 */
+    private static final long MIN_PROGRESS_STEP = 8 * 1024;
+
+    /** 接收进度消息 */
+    private static final int MESSAGE_FILE_INPUT_PROGRESS = 111;
+    /** 接收完成消息 */
+    private static final int MESSAGE_FILE_INPUT_COMPLETE = 112;
+    /** 接收失败消息 */
+    private static final int MESSAGE_FILE_INPUT_FAILURE = 113;
+
+    /** 接收文件 */
+    private final File mFile;
+    /** 文件总长度 */
+    private final long mLength;
+    /** 两次进度回调之间的最少字节数 */
+    private final long mProgressStep;
+    /** 随机读写文件 */
+    private RandomAccessFile mRandomAccessFile;
+    /** 文件通道 */
+    private FileChannel mChannel;
+
+    /** 已写入文件的位置 */
+    private volatile long mPosition;
+    /** 已接收的文件数据位置，写入失败后继续计数以跳过剩余的文件数据 */
+    private long mReceived;
+    /** 上一次回调进度的位置 */
+    private long mReportedPosition;
+    /** 文件数据是否已接收完毕 */
+    private boolean mFinished;
+
+    /**
+     * 构造函数，在主线程中回调
+     * @param file 接收文件
+     * @param offset 起始位置，文件中该位置之后的数据会被截断
+     * @param length 文件总长度
+     * @throws IOException 文件打开失败或文件短于起始位置
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothFileInputCallback(File file, long offset, long length) throws IOException {
+        this(file, offset, length, Looper.getMainLooper());
+    }
+
+    /**
+     * 构造函数，在指定Looper线程中回调
+     * @param file 接收文件
+     * @param offset 起始位置，文件中该位置之后的数据会被截断
+     * @param length 文件总长度
+     * @param looper 消息循环
+     * @throws IOException 文件打开失败或文件短于起始位置
+     * @throws IllegalArgumentException 参数不合法或消息循环为null
+     */
+    public BluetoothFileInputCallback(File file, long offset, long length, Looper looper) throws IOException {
+        super(looper);
+        mFile = file;
+        mLength = length;
+        mProgressStep = Math.max(MIN_PROGRESS_STEP, (length - offset) / PROGRESS_STEPS);
+        open(offset);
+    }
+
+    /**
+     * 构造函数，通过执行器回调
+     * @param file 接收文件
+     * @param offset 起始位置，文件中该位置之后的数据会被截断
+     * @param length 文件总长度
+     * @param executor 回调执行器，参见{@link BluetoothExecutors}
+     * @throws IOException 文件打开失败或文件短于起始位置
+     * @throws IllegalArgumentException 参数不合法或执行器为null
+     */
+    public BluetoothFileInputCallback(File file, long offset, long length, Executor executor) throws IOException {
+        super(executor);
+        mFile = file;
+        mLength = length;
+        mProgressStep = Math.max(MIN_PROGRESS_STEP, (length - offset) / PROGRESS_STEPS);
+        open(offset);
+    }
+
+    /**
+     * 打开文件并定位到起始位置
+     * @param offset 起始位置
+     * @throws IOException 文件打开失败或文件短于起始位置
+     */
+    private void open(long offset) throws IOException {
+        if (null == mFile)
+            throw new IllegalArgumentException("the File can't be null.");
+        if (offset < 0 || offset >= mLength)
+            throw new IllegalArgumentException("offset must be between 0 and length " + mLength + ".");
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            if (file.length() < offset)
+                throw new IOException("file length " + file.length() + " is less than offset " + offset + ".");
+            file.setLength(offset);
+            mChannel = file.getChannel();
+            mChannel.position(offset);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        mRandomAccessFile = file;
+        mPosition = offset;
+        mReceived = offset;
+        mReportedPosition = offset;
+    }
+
+    /**
+     * 获取接收文件
+     * @return 文件
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 获取文件总长度
+     * @return 字节数
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * 获取已写入文件的位置，可作为续传的起始位置
+     * @return 文件位置
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    void notifyInput(BluetoothBuffer buffer) {
+        if (mFinished) {
+            super.notifyInput(buffer);
+            return;
+        }
+
+        int length = (int) Math.min(buffer.length(), mLength - mReceived);
+        if (null != mChannel) {
+            try {
+                ByteBuffer bb = ByteBuffer.wrap(buffer.array(), buffer.offset(), length);
+                while (bb.hasRemaining())
+                    mChannel.write(bb);
+                mPosition += length;
+                BluetoothMetrics metrics = mMetrics;
+                if (null != metrics)
+                    metrics.recordDispatched(buffer.mTimestamp);
+            } catch (IOException e) {
+                close();
+                dispatch(MESSAGE_FILE_INPUT_FAILURE, e);
+            }
+        }
+        mReceived += length;
+
+        if (mReceived == mLength) {
+            mFinished = true;
+            if (null != mChannel) {
+                close();
+                dispatch(MESSAGE_FILE_INPUT_COMPLETE, mFile);
+            }
+        } else if (null != mChannel && mPosition - mReportedPosition >= mProgressStep) {
+            mReportedPosition = mPosition;
+            dispatch(MESSAGE_FILE_INPUT_PROGRESS, mPosition);
+        }
+
+        if (length < buffer.length()) {
+            BluetoothBuffer remaining = buffer.retainedSlice(length, buffer.length() - length);
+            buffer.release();
+            super.notifyInput(remaining);
+        } else {
+            buffer.release();
+        }
+    }
+
+    @Override
+    void notifyDisconnected(IOException e) {
+        if (!mFinished && null != mChannel) {
+            close();
+            dispatch(MESSAGE_FILE_INPUT_FAILURE, e);
+        }
+        super.notifyDisconnected(e);
+    }
+
+    @Override
+    void handleCallback(int what, Object obj) {
+        switch (what) {
+            case MESSAGE_FILE_INPUT_PROGRESS:
+                onFileProgress((Long) obj, mLength);
+                break;
+            case MESSAGE_FILE_INPUT_COMPLETE:
+                onFileComplete((File) obj);
+                break;
+            case MESSAGE_FILE_INPUT_FAILURE:
+                onFileFailure((IOException) obj);
+                break;
+        }
+    }
+
+    /**
+     * 关闭文件
+     */
+    private void close() {
+        mChannel = null;
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 文件接收进度回调
+     * @param position 已写入文件的位置
+     * @param length 文件总长度
+     */
+    public abstract void onFileProgress(long position, long length);
+
+    /**
+     * 文件接收完成
+     * @param file 接收文件
+     */
+    public abstract void onFileComplete(File file);
+
+    /**
+     * 文件写入失败或连接在接收完成前断开，可从{@link #getPosition()}续传
+     * @param e 异常信息
+     */
+    public abstract void onFileFailure(IOException e);
+}
@@ -0,0 +1,351 @@
+package com.luoye.bluetooth;
+
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 蓝牙文件发送任务，由{@link BluetoothClient#sendFile(File, long, OnFileTransferCallback)}创建。
+ * <p>文件通过{@link FileChannel}按块读入池化缓存后以{@link BluetoothClient#WRITE_PRIORITY_BULK}优先级写出，
+ * 同时在途的数据块数量有上限，无论文件多大，占用的内存都只有几个数据块。发送期间不能通过同一蓝牙终端写入其他数据。</p>
+ * <p>连接中断时已确认写出的位置由{@link #getPosition()}给出，重新连接后从该位置或接收方确认的位置再次发送即可续传。</p>
+ */
+public final class BluetoothFileTransfer {
+    /** 默认数据块大小 */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+    /** 最大在途数据块数量 */
+    private static final int MAX_IN_FLIGHT = 4;
+    /** 进度回调的最少次数，文件较小时按数据块回调 */
+    private static final int PROGRESS_STEPS = 100;
+
+    /** 待发送文件 */
+    private final File mFile;
+    /** 文件长度 */
+    private final long mLength;
+    /** 起始位置 */
+    private final long mOffset;
+    /** 异步写入器 */
+    private final BluetoothWriter mWriter;
+    /** 发送回调 */
+    private final OnFileTransferCallback mCallback;
+    /** 数据块缓存池 */
+    private final BluetoothBufferPool mPool = new BluetoothBufferPool(DEFAULT_CHUNK_SIZE, MAX_IN_FLIGHT);
+    /** 在途数据块许可 */
+    private final Semaphore mPermits = new Semaphore(MAX_IN_FLIGHT);
+    /** 两次进度回调之间的最少字节数 */
+    private final long mProgressStep;
+
+    /** 已确认写出的位置 */
+    private volatile long mPosition;
+    /** 上一次回调进度的位置 */
+    private long mReportedPosition;
+    /** 是否已取消 */
+    private volatile boolean mCancelled;
+    /** 写出失败的异常 */
+    private volatile IOException mFailure;
+
+    /**
+     * 默认构造，包可见
+     * @param file 待发送文件
+     * @param offset 起始位置
+     * @param writer 异步写入器
+     * @param callback 发送回调
+     * @throws IllegalArgumentException 参数不合法
+     */
+    BluetoothFileTransfer(File file, long offset, BluetoothWriter writer, OnFileTransferCallback callback) {
+        if (null == file)
+            throw new IllegalArgumentException("the File can't be null.");
+        if (null == callback)
+            throw new IllegalArgumentException("the OnFileTransferCallback can't be null.");
+        mFile = file;
+        mLength = file.length();
+        if (offset < 0 || offset > mLength)
+            throw new IllegalArgumentException("offset must be between 0 and file length " + mLength + ".");
+        mOffset = offset;
+        mPosition = offset;
+        mReportedPosition = offset;
+        mWriter = writer;
+        mCallback = callback;
+        mProgressStep = Math.max(DEFAULT_CHUNK_SIZE, (mLength - offset) / PROGRESS_STEPS);
+    }
+
+    /**
+     * 获取待发送文件
+     * @return 文件
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 获取文件长度
+     * @return 字节数
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * 获取已确认写出到蓝牙输出流的位置，可作为续传的起始位置
+     * @return 文件位置
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * 取消发送，已写入队列的数据块写出后回调{@link OnFileTransferCallback#onFailure(BluetoothFileTransfer, IOException)}
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * 在当前线程发送文件并回调结果
+     */
+    void run() {
+        notifyResult(transfer());
+    }
+
+    /**
+     * 在当前线程读取文件并写入发送队列，直至文件发送完毕、取消或写出失败，
+     * 返回前等待在途的数据块全部写出，结果由{@link #notifyResult(IOException)}回调
+     * @return 失败原因，发送完成时为null
+     */
+    IOException transfer() {
+        IOException failure = null;
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(mFile);
+            FileChannel channel = fis.getChannel();
+            long position = mOffset;
+            while (position < mLength && !mCancelled && null == mFailure) {
+                mPermits.acquire();
+                BluetoothBuffer buffer = mPool.acquire();
+                int length = (int) Math.min(buffer.capacity(), mLength - position);
+                try {
+                    readFully(channel, buffer.array(), length, position);
+                    mWriter.write(buffer.array(), 0, length, BluetoothWriter.PRIORITY_BULK, new Chunk(buffer, length));
+                } catch (IOException e) {
+                    buffer.release();
+                    mPermits.release();
+                    throw e;
+                }
+                position += length;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("Bluetooth file transfer is interrupted.");
+        } finally {
+            if (null != fis) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // 等待在途的数据块全部写出
+        mPermits.acquireUninterruptibly(MAX_IN_FLIGHT);
+        if (null == failure)
+            failure = mFailure;
+        if (null == failure && mCancelled && mPosition < mLength)
+            failure = new IOException("Bluetooth file transfer is cancelled.");
+        return failure;
+    }
+
+    /**
+     * 回调发送结果
+     * @param failure 失败原因，发送完成时为null
+     */
+    void notifyResult(IOException failure) {
+        if (null == failure)
+            mCallback.notifyComplete(this);
+        else
+            mCallback.notifyFailure(this, failure);
+    }
+
+    /**
+     * 从文件指定位置读满字节数组
+     * @throws IOException 读取失败或文件在发送过程中被截断
+     */
+    private static void readFully(FileChannel channel, byte[] array, int length, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(array, 0, length);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position()) < 0)
+                throw new IOException("file is truncated during transfer.");
+        }
+    }
+
+    /**
+     * 一个数据块写出完成，在写入线程中调用
+     * @param length 数据块长度
+     * @param e 写出异常，成功时为null
+     */
+    private void onChunkComplete(int length, IOException e) {
+        if (null != e) {
+            if (null == mFailure)
+                mFailure = e;
+        } else {
+            long position = mPosition + length;
+            mPosition = position;
+            if (position == mLength || position - mReportedPosition >= mProgressStep) {
+                mReportedPosition = position;
+                mCallback.notifyProgress(this, position);
+            }
+        }
+        mPermits.release();
+    }
+
+    /**
+     * 在途数据块，作为写入标识交给异步写入器
+     */
+    private class Chunk implements BluetoothWriter.Completion {
+        /** 数据块缓存 */
+        private final BluetoothBuffer mBuffer;
+        /** 数据块长度 */
+        private final int mLength;
+
+        Chunk(BluetoothBuffer buffer, int length) {
+            mBuffer = buffer;
+            mLength = length;
+        }
+
+        @Override
+        public void onWriteComplete(IOException e) {
+            mBuffer.release();
+            onChunkComplete(mLength, e);
+        }
+    }
+
+    /**
+     * 蓝牙文件发送回调
+     */
+    public static abstract class OnFileTransferCallback {
+        /** 发送进度消息 */
+        private static final int MESSAGE_FILE_TRANSFER_PROGRESS = 1;
+        /** 发送完成消息 */
+        private static final int MESSAGE_FILE_TRANSFER_COMPLETE = 2;
+        /** 发送失败消息 */
+        private static final int MESSAGE_FILE_TRANSFER_FAILURE = 3;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnFileTransferCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnFileTransferCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnFileTransferCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 文件发送回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                TransferEvent event = (TransferEvent) obj;
+                switch (what) {
+                    case MESSAGE_FILE_TRANSFER_PROGRESS:
+                        onProgress(event.mTransfer, event.mPosition, event.mTransfer.getLength());
+                        break;
+                    case MESSAGE_FILE_TRANSFER_COMPLETE:
+                        onComplete(event.mTransfer);
+                        break;
+                    case MESSAGE_FILE_TRANSFER_FAILURE:
+                        onFailure(event.mTransfer, event.mException);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 通知回调发送进度方法
+         * @param transfer 发送任务
+         * @param position 已写出的位置
+         */
+        void notifyProgress(BluetoothFileTransfer transfer, long position) {
+            mDispatcher.dispatch(MESSAGE_FILE_TRANSFER_PROGRESS, new TransferEvent(transfer, position, null));
+        }
+
+        /**
+         * 通知回调发送完成方法
+         * @param transfer 发送任务
+         */
+        void notifyComplete(BluetoothFileTransfer transfer) {
+            mDispatcher.dispatch(MESSAGE_FILE_TRANSFER_COMPLETE, new TransferEvent(transfer, transfer.getLength(), null));
+        }
+
+        /**
+         * 通知回调发送失败方法
+         * @param transfer 发送任务
+         * @param e 异常信息
+         */
+        void notifyFailure(BluetoothFileTransfer transfer, IOException e) {
+            mDispatcher.dispatch(MESSAGE_FILE_TRANSFER_FAILURE, new TransferEvent(transfer, transfer.getPosition(), e));
+        }
+
+        /**
+         * 发送进度回调
+         * @param transfer 发送任务
+         * @param position 已写出的位置
+         * @param length 文件长度
+         */
+        public abstract void onProgress(BluetoothFileTransfer transfer, long position, long length);
+
+        /**
+         * 文件发送完成
+         * @param transfer 发送任务
+         */
+        public abstract void onComplete(BluetoothFileTransfer transfer);
+
+        /**
+         * 文件发送失败或已取消，可从{@link BluetoothFileTransfer#getPosition()}续传
+         * @param transfer 发送任务
+         * @param e 异常信息
+         */
+        public abstract void onFailure(BluetoothFileTransfer transfer, IOException e);
+
+        /**
+         * 发送事件
+         */
+        private static class TransferEvent {
+            final BluetoothFileTransfer mTransfer;
+            final long mPosition;
+            final IOException mException;
+
+            TransferEvent(BluetoothFileTransfer transfer, long position, IOException e) {
+                mTransfer = transfer;
+                mPosition = position;
+                mException = e;
+            }
+        }
+    }
+}
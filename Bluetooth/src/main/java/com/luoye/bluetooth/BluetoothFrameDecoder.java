@@ -0,0 +1,34 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+
+/**
+ * 蓝牙数据帧解码器，在分发线程中把分段到达的数据流重组为完整的数据帧。
+ * <p>通过{@link BluetoothClient#setFrameDecoder(BluetoothFrameDecoder)}设置后，
+ * 异步读取监听回调只会收到完整的数据帧。解码器只在单个线程中使用，无需考虑线程安全。</p>
+ */
+public interface BluetoothFrameDecoder {
+    /**
+     * 解码一块数据，解出的完整数据帧依次交给{@code out}
+     * @param in 接收到的数据，引用仍由调用者持有，解码器需要保留数据时应自行{@link BluetoothBuffer#retain()}
+     * @param out 数据帧输出
+     * @throws IOException 数据不符合帧格式，此后的数据已无法正确分帧
+     */
+    void decode(BluetoothBuffer in, Output out) throws IOException;
+
+    /**
+     * 丢弃未完成的数据帧，恢复初始状态
+     */
+    void reset();
+
+    /**
+     * 数据帧输出
+     */
+    interface Output {
+        /**
+         * 输出一个完整的数据帧
+         * @param frame 数据帧，引用随之转交
+         */
+        void onFrame(BluetoothBuffer frame);
+    }
+}
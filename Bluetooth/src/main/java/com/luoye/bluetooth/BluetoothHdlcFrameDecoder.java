@@ -0,0 +1,210 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+
+/**
+ * HDLC风格的字节填充帧解码器。
+ * <p>数据帧以标志字节（默认0x7E）分隔，数据中出现的标志字节和转义字节（默认0x7D）以“转义字节 + 原字节异或0x20”传输。
+ * 解码时去除转义并输出原始数据，连续的标志字节之间的空帧会被忽略，转义字节后紧跟标志字节表示中止当前帧。
+ * 首个标志字节之前的数据无法确定帧边界，将被丢弃。</p>
+ * <p>扫描时只查找标志字节和转义字节，其余数据整段拷贝；不含转义且完整落在一次读取中的数据帧以共享原缓存的切片输出。</p>
+ */
+public class BluetoothHdlcFrameDecoder implements BluetoothFrameDecoder {
+    /** 默认标志字节 */
+    public static final byte DEFAULT_FLAG = 0x7E;
+    /** 默认转义字节 */
+    public static final byte DEFAULT_ESCAPE = 0x7D;
+    /** 默认转义异或值 */
+    public static final byte DEFAULT_ESCAPE_XOR = 0x20;
+
+    /** 标志字节 */
+    private final byte mFlag;
+    /** 转义字节 */
+    private final byte mEscape;
+    /** 转义异或值 */
+    private final byte mEscapeXor;
+    /** 最大帧长度，去除转义后 */
+    private final int mMaxFrameLength;
+
+    /** 是否已收到标志字节，确定了帧边界 */
+    private boolean mSynchronized;
+    /** 上一次读取是否以转义字节结尾 */
+    private boolean mEscapePending;
+    /** 跨读取暂存的未完成数据帧，已去除转义 */
+    private byte[] mCumulation;
+    /** 暂存的字节数 */
+    private int mCumulationLength;
+
+    /**
+     * 构造函数，使用默认的标志字节和转义规则
+     * @param maxFrameLength 最大帧长度
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothHdlcFrameDecoder(int maxFrameLength) {
+        this(DEFAULT_FLAG, DEFAULT_ESCAPE, DEFAULT_ESCAPE_XOR, maxFrameLength);
+    }
+
+    /**
+     * 构造函数
+     * @param flag 标志字节
+     * @param escape 转义字节
+     * @param escapeXor 转义异或值
+     * @param maxFrameLength 最大帧长度
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothHdlcFrameDecoder(byte flag, byte escape, byte escapeXor, int maxFrameLength) {
+        if (flag == escape)
+            throw new IllegalArgumentException("flag and escape must be different.");
+        if (maxFrameLength < 1)
+            throw new IllegalArgumentException("maxFrameLength must be positive.");
+        mFlag = flag;
+        mEscape = escape;
+        mEscapeXor = escapeXor;
+        mMaxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public void decode(BluetoothBuffer in, Output out) throws IOException {
+        byte[] array = in.array();
+        int end = in.offset() + in.length();
+        int position = in.offset();
+
+        if (!mSynchronized) {
+            int index = indexOf(array, position, end, mFlag);
+            if (index < 0)
+                return;
+            mSynchronized = true;
+            position = index + 1;
+        }
+
+        if (mEscapePending && position < end) {
+            mEscapePending = false;
+            if (array[position] == mFlag) {
+                // 转义字节后紧跟标志字节，中止当前帧
+                mCumulationLength = 0;
+            } else {
+                appendByte((byte) (array[position] ^ mEscapeXor));
+            }
+            position++;
+        }
+
+        int runStart = position;
+        while (position < end) {
+            int index = indexOfFlagOrEscape(array, position, end);
+            if (index < 0)
+                break;
+
+            if (array[index] == mFlag) {
+                int runLength = index - runStart;
+                if (0 == mCumulationLength) {
+                    if (runLength > 0) {
+                        checkLength(runLength);
+                        out.onFrame(in.retainedSlice(runStart - in.offset(), runLength));
+                    }
+                } else {
+                    append(array, runStart, runLength);
+                    out.onFrame(BluetoothBuffer.wrap(mCumulation, 0, mCumulationLength));
+                    mCumulation = null;
+                    mCumulationLength = 0;
+                }
+                position = index + 1;
+                runStart = position;
+                continue;
+            }
+
+            // 转义字节：先保存之前的数据，再还原被转义的字节
+            append(array, runStart, index - runStart);
+            if (index + 1 >= end) {
+                mEscapePending = true;
+                return;
+            }
+            if (array[index + 1] == mFlag) {
+                mCumulationLength = 0;
+            } else {
+                appendByte((byte) (array[index + 1] ^ mEscapeXor));
+            }
+            position = index + 2;
+            runStart = position;
+        }
+        append(array, runStart, end - runStart);
+    }
+
+    @Override
+    public void reset() {
+        mSynchronized = false;
+        mEscapePending = false;
+        mCumulation = null;
+        mCumulationLength = 0;
+    }
+
+    /**
+     * 在字节数组中查找指定字节
+     * @return 字节位置，未找到时返回-1
+     */
+    private static int indexOf(byte[] array, int from, int end, byte value) {
+        for (int i = from; i < end; i++) {
+            if (array[i] == value)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 在字节数组中查找标志字节或转义字节
+     * @return 字节位置，未找到时返回-1
+     */
+    private int indexOfFlagOrEscape(byte[] array, int from, int end) {
+        byte flag = mFlag;
+        byte escape = mEscape;
+        for (int i = from; i < end; i++) {
+            byte b = array[i];
+            if (b == flag || b == escape)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 检查帧长度
+     * @throws IOException 超过最大帧长度
+     */
+    private void checkLength(int length) throws IOException {
+        if (length > mMaxFrameLength)
+            throw new IOException("frame length " + length + " exceeds " + mMaxFrameLength + ".");
+    }
+
+    /**
+     * 暂存一段已去除转义的数据，容量不足时按倍数扩容
+     */
+    private void append(byte[] array, int offset, int length) throws IOException {
+        if (length <= 0)
+            return;
+        int required = mCumulationLength + length;
+        checkLength(required);
+        ensureCapacity(required);
+        System.arraycopy(array, offset, mCumulation, mCumulationLength, length);
+        mCumulationLength = required;
+    }
+
+    /**
+     * 暂存一个已去除转义的字节
+     */
+    private void appendByte(byte value) throws IOException {
+        checkLength(mCumulationLength + 1);
+        ensureCapacity(mCumulationLength + 1);
+        mCumulation[mCumulationLength++] = value;
+    }
+
+    /**
+     * 确保暂存空间不小于指定长度
+     */
+    private void ensureCapacity(int capacity) {
+        if (null == mCumulation || mCumulation.length < capacity) {
+            byte[] cumulation = new byte[Math.min(mMaxFrameLength,
+                    Math.max(capacity, null == mCumulation ? 64 : mCumulation.length * 2))];
+            if (mCumulationLength > 0)
+                System.arraycopy(mCumulation, 0, cumulation, 0, mCumulationLength);
+            mCumulation = cumulation;
+        }
+    }
+}
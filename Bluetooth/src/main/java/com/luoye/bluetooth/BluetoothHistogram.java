@@ -0,0 +1,86 @@
+package com.luoye.bluetooth;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按2的幂分桶的无锁直方图。
+ * <p>第0个桶统计小于2的值，第i个桶统计[2<sup>i</sup>, 2<sup>i+1</sup>)区间的值，最后一个桶统计更大的所有值。
+ * 记录一次只需一次原子加，桶边界固定，不需要预先知道数值范围。</p>
+ */
+final class BluetoothHistogram {
+    /** 分桶计数 */
+    private final AtomicLongArray mBuckets;
+
+    /**
+     * 构造函数
+     * @param bucketCount 桶数
+     * @throws IllegalArgumentException 桶数不在1~63之间
+     */
+    BluetoothHistogram(int bucketCount) {
+        if (bucketCount < 1 || bucketCount > 63)
+            throw new IllegalArgumentException("bucketCount must be between 1 and 63.");
+        mBuckets = new AtomicLongArray(bucketCount);
+    }
+
+    /**
+     * 记录一个值
+     * @param value 数值，负数按0记录
+     */
+    void record(long value) {
+        mBuckets.incrementAndGet(bucket(value, mBuckets.length()));
+    }
+
+    /**
+     * 获取各桶计数的副本
+     * @return 分桶计数
+     */
+    long[] counts() {
+        long[] counts = new long[mBuckets.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = mBuckets.get(i);
+        return counts;
+    }
+
+    /**
+     * 计算数值所在的桶
+     * @param value 数值
+     * @param bucketCount 桶数
+     * @return 桶下标
+     */
+    static int bucket(long value, int bucketCount) {
+        if (value < 2)
+            return 0;
+        return Math.min(63 - Long.numberOfLeadingZeros(value), bucketCount - 1);
+    }
+
+    /**
+     * 获取桶所含数值的上界
+     * @param bucket 桶下标
+     * @return 上界，包含在桶内
+     */
+    static long upperBound(int bucket) {
+        return (1L << (bucket + 1)) - 1;
+    }
+
+    /**
+     * 按分桶计数估算百分位数，结果为所在桶的上界
+     * @param counts 分桶计数
+     * @param percentile 百分位，0~100
+     * @return 估算值，没有记录时为0
+     */
+    static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        if (0 == total)
+            return 0;
+        long rank = (long) Math.ceil(total * Math.max(0, Math.min(100, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank))
+                return upperBound(i);
+        }
+        return upperBound(counts.length - 1);
+    }
+}
@@ -0,0 +1,122 @@
+package com.luoye.bluetooth;
+
+import java.util.ArrayList;
+
+/**
+ * 接收数据批量聚合器，按时间窗口和字节数上限将多个数据块合并为一个{@link BluetoothBatch}。
+ * <p>只能在单个线程中调用，统计数据可在任意线程读取。</p>
+ */
+class BluetoothInputBatcher {
+    /** 最大延迟，纳秒 */
+    private final long mMaxLatencyNanos;
+    /** 单批最大字节数 */
+    private final int mMaxBytes;
+    /** 当前批次的数据块 */
+    private ArrayList<BluetoothBuffer> mChunks = new ArrayList<>();
+    /** 当前批次的字节数 */
+    private int mLength;
+    /** 当前批次的截止时间，纳秒 */
+    private long mDeadline;
+
+    /** 已输出批次数 */
+    private volatile long mBatchCount;
+    /** 已输出数据块数 */
+    private volatile long mChunkCount;
+    /** 已输出字节数 */
+    private volatile long mByteCount;
+    /** 单批最大字节数 */
+    private volatile int mMaxBatchBytes;
+    /** 因达到字节数上限而输出的批次数 */
+    private volatile long mSizeFlushCount;
+
+    /**
+     * 默认构造
+     * @param maxLatencyMillis 最大延迟，毫秒
+     * @param maxBytes 单批最大字节数
+     * @throws IllegalArgumentException 参数小于1
+     */
+    BluetoothInputBatcher(long maxLatencyMillis, int maxBytes) {
+        if (maxLatencyMillis < 1 || maxBytes < 1)
+            throw new IllegalArgumentException("maxLatencyMillis and maxBytes must be positive.");
+        mMaxLatencyNanos = maxLatencyMillis * 1000000L;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 加入数据块，当前批次达到字节数上限或截止时间时返回聚合结果
+     * @param buffer 数据块，引用随之转交
+     * @param now 当前时间，纳秒
+     * @return 待输出的批次，未达到输出条件时返回null
+     */
+    BluetoothBatch add(BluetoothBuffer buffer, long now) {
+        if (mChunks.isEmpty())
+            mDeadline = now + mMaxLatencyNanos;
+        mChunks.add(buffer);
+        mLength += buffer.length();
+        if (mLength >= mMaxBytes) {
+            mSizeFlushCount++;
+            return drain();
+        }
+        return now - mDeadline >= 0 ? drain() : null;
+    }
+
+    /**
+     * 检查当前批次是否已到截止时间
+     * @param now 当前时间，纳秒
+     * @return 待输出的批次，未到截止时间或批次为空时返回null
+     */
+    BluetoothBatch poll(long now) {
+        if (mChunks.isEmpty() || now - mDeadline < 0)
+            return null;
+        return drain();
+    }
+
+    /**
+     * 获取距当前批次截止时间的剩余时长
+     * @param now 当前时间，纳秒
+     * @return 剩余纳秒数，批次为空时返回-1
+     */
+    long remaining(long now) {
+        if (mChunks.isEmpty())
+            return -1;
+        return Math.max(0, mDeadline - now);
+    }
+
+    /**
+     * 立即输出当前批次
+     * @return 当前批次，批次为空时返回null
+     */
+    BluetoothBatch drain() {
+        if (mChunks.isEmpty())
+            return null;
+        BluetoothBatch batch = new BluetoothBatch(mChunks, mLength);
+        mBatchCount++;
+        mChunkCount += mChunks.size();
+        mByteCount += mLength;
+        if (mLength > mMaxBatchBytes)
+            mMaxBatchBytes = mLength;
+        mChunks = new ArrayList<>();
+        mLength = 0;
+        return batch;
+    }
+
+    long batchCount() {
+        return mBatchCount;
+    }
+
+    long chunkCount() {
+        return mChunkCount;
+    }
+
+    long byteCount() {
+        return mByteCount;
+    }
+
+    int maxBatchBytes() {
+        return mMaxBatchBytes;
+    }
+
+    long sizeFlushCount() {
+        return mSizeFlushCount;
+    }
+}
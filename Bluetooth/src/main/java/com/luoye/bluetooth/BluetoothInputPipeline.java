@@ -0,0 +1,202 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 蓝牙数据接收流水线。
+ * <p>读取线程通过{@link #produce(BluetoothReader)}将读到的缓存写入单生产者单消费者环形队列，
+ * 分发线程通过{@link #consume()}取出缓存并交给{@link Dispatcher}。两端都没有固定时长的休眠，
+ * 队列为空或已满时才挂起等待对端唤醒，数据延迟只取决于数据到达速度。</p>
+ */
+class BluetoothInputPipeline {
+    /** 默认队列容量 */
+    static final int DEFAULT_CAPACITY = 32;
+
+    /** 环形队列 */
+    private final BluetoothRingBuffer<BluetoothBuffer> mRingBuffer;
+    /** 数据分发目标 */
+    private final Dispatcher mDispatcher;
+    /** 读取线程 */
+    private volatile Thread mProducerThread;
+    /** 分发线程 */
+    private volatile Thread mConsumerThread;
+    /** 读取线程是否挂起等待队列空位 */
+    private volatile boolean mProducerParked;
+    /** 分发线程是否挂起等待数据 */
+    private volatile boolean mConsumerParked;
+    /** 输入是否已结束 */
+    private volatile boolean mFinished;
+    /** 分发线程是否已退出 */
+    private volatile boolean mClosed;
+    /** 输入结束的原因，在{@link #mFinished}之前写入 */
+    private IOException mException;
+
+    /**
+     * 默认构造
+     * @param capacity 队列容量
+     * @param dispatcher 数据分发目标
+     */
+    BluetoothInputPipeline(int capacity, Dispatcher dispatcher) {
+        mRingBuffer = new BluetoothRingBuffer<>(capacity);
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * 在当前线程循环读取数据并写入队列，直至输入流结束或读取异常。
+     * @param reader 蓝牙数据读取器
+     */
+    void produce(BluetoothReader reader) {
+        mProducerThread = Thread.currentThread();
+        IOException exception = null;
+        try {
+            BluetoothBuffer buffer;
+            while ((buffer = reader.read()) != null) {
+                if (!publish(buffer)) {
+                    buffer.release();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            exception = e;
+        }
+        finish(exception);
+    }
+
+    /**
+     * 将缓存写入队列，队列已满时挂起等待分发线程取走数据
+     * @param buffer 数据缓存
+     * @return false 分发线程已退出
+     */
+    boolean publish(BluetoothBuffer buffer) {
+        while (!mRingBuffer.offer(buffer)) {
+            if (mClosed)
+                return false;
+            mProducerParked = true;
+            if (mRingBuffer.isFull() && !mClosed)
+                LockSupport.park(this);
+            mProducerParked = false;
+        }
+        if (mConsumerParked)
+            LockSupport.unpark(mConsumerThread);
+        return true;
+    }
+
+    /**
+     * 标记输入结束，分发线程分发完队列中的剩余数据后退出
+     * @param e 断开异常，输入流正常结束时为null
+     */
+    void finish(IOException e) {
+        mException = e;
+        mFinished = true;
+        Thread consumer = mConsumerThread;
+        if (null != consumer)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * 在当前线程循环分发队列中的数据，直至输入结束且队列为空。
+     * <p>{@link Dispatcher#dispatch(BluetoothBuffer)}返回false时暂停分发，直至{@link #resume()}被调用，
+     * 暂停期间队列写满后读取线程也随之挂起，不会丢失数据。暂停期间输入结束时没有接收者，
+     * 分发线程立即退出，队列中的剩余数据被释放丢弃，随后回调{@link Dispatcher#onFinished(IOException)}。</p>
+     */
+    void consume() {
+        mConsumerThread = Thread.currentThread();
+        try {
+            for (;;) {
+                BluetoothBuffer buffer = mRingBuffer.peek();
+                if (null == buffer) {
+                    if (mFinished && mRingBuffer.isEmpty())
+                        break;
+                    long timeout = mDispatcher.idle();
+                    if (0 != timeout)
+                        await(true, timeout);
+                    continue;
+                }
+                if (!mDispatcher.dispatch(buffer)) {
+                    if (mFinished)
+                        break;
+                    await(false, -1);
+                    continue;
+                }
+                mRingBuffer.poll();
+                if (mProducerParked)
+                    LockSupport.unpark(mProducerThread);
+            }
+        } finally {
+            mClosed = true;
+            BluetoothBuffer buffer;
+            while ((buffer = mRingBuffer.poll()) != null)
+                buffer.release();
+            Thread producer = mProducerThread;
+            if (null != producer)
+                LockSupport.unpark(producer);
+        }
+        mDispatcher.onFinished(mException);
+    }
+
+    /**
+     * 唤醒暂停中的分发线程
+     */
+    void resume() {
+        Thread consumer = mConsumerThread;
+        if (null != consumer)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * 分发线程是否已退出
+     * @return true 已退出
+     */
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * 获取队列中待分发的缓存数量
+     * @return 缓存数量
+     */
+    int pendingCount() {
+        return mRingBuffer.size();
+    }
+
+    /**
+     * 分发线程挂起等待
+     * @param waitForData true 等待新数据，false 等待恢复分发
+     * @param timeout 最长等待纳秒数，小于0时无限等待
+     */
+    private void await(boolean waitForData, long timeout) {
+        mConsumerParked = true;
+        if (!waitForData || (mRingBuffer.isEmpty() && !mFinished)) {
+            if (timeout < 0)
+                LockSupport.park(this);
+            else
+                LockSupport.parkNanos(this, timeout);
+        }
+        mConsumerParked = false;
+    }
+
+    /**
+     * 数据分发目标
+     */
+    interface Dispatcher {
+        /**
+         * 分发一块数据，返回true时缓存的引用随之转交
+         * @param buffer 数据缓存
+         * @return false 暂无接收者，数据保留在队列中
+         */
+        boolean dispatch(BluetoothBuffer buffer);
+
+        /**
+         * 队列已空，分发线程即将挂起等待新数据
+         * @return 最长等待纳秒数，到时后再次调用此方法；返回-1时一直等待到新数据到达
+         */
+        long idle();
+
+        /**
+         * 输入已结束且数据已分发完毕，或暂停分发期间输入结束、剩余数据已丢弃
+         * @param e 断开异常，输入流正常结束时为null
+         */
+        void onFinished(IOException e);
+    }
+}
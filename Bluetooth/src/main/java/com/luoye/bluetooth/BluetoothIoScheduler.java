@@ -0,0 +1,188 @@
+package com.luoye.bluetooth;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 蓝牙I/O调度器，库内所有阻塞的蓝牙操作（连接、接受请求、接收、分发和写入）默认都在其有界线程池中执行，
+ * 频繁建立和断开连接时不会不断创建新线程。
+ * <p>接收、分发和写入任务在连接存续期间一直占用线程，每个连接最多占用四个线程。任务不排队：
+ * 排在长期占用线程的任务之后的连接尝试永远不会开始，因此线程数已满时新任务直接被拒绝，
+ * 蓝牙终端以{@link java.io.IOException}通知调用方，可通过{@link #getActiveCount()}诊断。单个终端可通过
+ * {@link BluetoothClient#setIoExecutor(Executor)}改用其他执行器。</p>
+ * <p>连接断开时接收、分发和写入任务随之退出并归还线程；断开只能在异步读取期间被发现，
+ * 未调用{@code asyncRead}的蓝牙终端不再使用时需调用{@link BluetoothClient#shutdown()}，否则其写入任务会一直占用线程。</p>
+ */
+public final class BluetoothIoScheduler implements Executor {
+    /** 默认最大线程数，足够经典蓝牙同时连接的7个设备各自收发 */
+    public static final int DEFAULT_MAX_THREADS = 32;
+    /** 默认线程名前缀 */
+    public static final String DEFAULT_THREAD_NAME_PREFIX = "bluetooth-io";
+    /** 空闲线程的存活时间，秒 */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    /** 线程数已满时等待空闲线程接手任务的时间，毫秒 */
+    private static final long HANDOFF_TIMEOUT_MILLIS = 50;
+
+    /** 默认调度器 */
+    private static BluetoothIoScheduler sDefault;
+
+    /** 线程池 */
+    private final ThreadPoolExecutor mExecutor;
+    /** 最大线程数 */
+    private final int mMaxThreads;
+
+    /**
+     * 构造函数
+     * @param maxThreads 最大线程数
+     * @param threadNamePrefix 线程名前缀，线程名为前缀加序号
+     * @param threadPriority 线程优先级，{@link Thread#MIN_PRIORITY}~{@link Thread#MAX_PRIORITY}
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothIoScheduler(int maxThreads, final String threadNamePrefix, final int threadPriority) {
+        if (maxThreads < 1)
+            throw new IllegalArgumentException("maxThreads must be positive.");
+        if (null == threadNamePrefix)
+            throw new IllegalArgumentException("the threadNamePrefix can't be null.");
+        if (threadPriority < Thread.MIN_PRIORITY || threadPriority > Thread.MAX_PRIORITY)
+            throw new IllegalArgumentException("threadPriority must be between " + Thread.MIN_PRIORITY
+                    + " and " + Thread.MAX_PRIORITY + ".");
+        mMaxThreads = maxThreads;
+        mExecutor = new ThreadPoolExecutor(0, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mIndex = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, threadNamePrefix + "-" + mIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(threadPriority);
+                        return thread;
+                    }
+                }, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // 刚执行完任务的线程可能还未回到队列等待，稍等片刻交给空闲线程
+                        try {
+                            if (!executor.isShutdown()
+                                    && executor.getQueue().offer(r, HANDOFF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                                return;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new RejectedExecutionException(executor.isShutdown() ? "scheduler is shutdown."
+                                : "all " + mMaxThreads + " Bluetooth I/O threads are busy.");
+                    }
+                });
+    }
+
+    /**
+     * 获取默认调度器，首次调用时以默认参数创建
+     * @return 默认调度器
+     */
+    public static synchronized BluetoothIoScheduler getDefault() {
+        if (null == sDefault)
+            sDefault = new BluetoothIoScheduler(DEFAULT_MAX_THREADS, DEFAULT_THREAD_NAME_PREFIX, Thread.NORM_PRIORITY);
+        return sDefault;
+    }
+
+    /**
+     * 替换默认调度器，只影响此后启动的任务，原调度器中的任务继续执行直至结束
+     * @param scheduler 新的默认调度器
+     * @throws IllegalArgumentException 调度器为null
+     */
+    public static synchronized void setDefault(BluetoothIoScheduler scheduler) {
+        if (null == scheduler)
+            throw new IllegalArgumentException("the BluetoothIoScheduler can't be null.");
+        BluetoothIoScheduler previous = sDefault;
+        sDefault = scheduler;
+        if (null != previous && previous != scheduler)
+            previous.shutdown();
+    }
+
+    /**
+     * 执行任务
+     * @param command 任务
+     * @throws RejectedExecutionException 调度器已关闭或线程数已满
+     */
+    @Override
+    public void execute(Runnable command) {
+        mExecutor.execute(command);
+    }
+
+    /**
+     * 关闭调度器，不再接受新任务，已提交的任务继续执行直至结束
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 是否已关闭
+     * @return true 已关闭
+     */
+    public boolean isShutdown() {
+        return mExecutor.isShutdown();
+    }
+
+    /**
+     * 获取最大线程数
+     * @return 线程数
+     */
+    public int getMaxThreads() {
+        return mMaxThreads;
+    }
+
+    /**
+     * 获取当前线程数
+     * @return 线程数
+     */
+    public int getPoolSize() {
+        return mExecutor.getPoolSize();
+    }
+
+    /**
+     * 获取正在执行任务的线程数，近似值
+     * @return 线程数
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * 获取排队等待线程的任务数，任务不排队，始终为0
+     * @return 任务数
+     */
+    public int getQueuedCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * 获取已完成的任务数，近似值
+     * @return 任务数
+     */
+    public long getCompletedCount() {
+        return mExecutor.getCompletedTaskCount();
+    }
+
+    /**
+     * 获取线程数的历史最大值
+     * @return 线程数
+     */
+    public int getLargestPoolSize() {
+        return mExecutor.getLargestPoolSize();
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothIoScheduler{active=" + getActiveCount()
+                + ", queued=" + getQueuedCount()
+                + ", poolSize=" + getPoolSize() + "/" + mMaxThreads
+                + ", completed=" + getCompletedCount() + "}";
+    }
+}
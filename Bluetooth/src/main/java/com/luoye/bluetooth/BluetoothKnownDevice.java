@@ -0,0 +1,156 @@
+package com.luoye.bluetooth;
+
+import java.util.UUID;
+
+/**
+ * 已知蓝牙设备，是设备缓存中一条记录的快照，创建后不再变化。
+ * <p>记录连接成功过的设备的名称、类型、RSSI、最近一次出现的时间、SDP服务UUID和最近一次连上的连接策略，
+ * 应用启动后无需搜索即可展示并直接连接。</p>
+ */
+public final class BluetoothKnownDevice {
+    /** 设备类型未知 */
+    public static final int DEVICE_CLASS_UNKNOWN = -1;
+    /** RFCOMM通道未知 */
+    public static final int RFCOMM_CHANNEL_UNKNOWN = 0;
+
+    /** 设备地址 */
+    private final String mAddress;
+    /** 设备名称 */
+    private final String mName;
+    /** 设备类型，参见{@link android.bluetooth.BluetoothClass#getDeviceClass()} */
+    private final int mDeviceClass;
+    /** 最近一次的RSSI */
+    private final int mRssi;
+    /** 最近一次出现的时间 */
+    private final long mLastSeen;
+    /** SDP服务UUID */
+    private final UUID[] mUuids;
+    /** 最近一次连上的连接策略 */
+    private final int mConnectStrategy;
+    /** 最近一次连上的RFCOMM通道 */
+    private final int mRfcommChannel;
+
+    /**
+     * 默认构造，包可见
+     * @param address 设备地址
+     * @param name 设备名称，可为null
+     * @param deviceClass 设备类型
+     * @param rssi 最近一次的RSSI
+     * @param lastSeen 最近一次出现的时间
+     * @param uuids SDP服务UUID，引用随之转交
+     * @param connectStrategy 最近一次连上的连接策略
+     * @param rfcommChannel 最近一次连上的RFCOMM通道
+     */
+    BluetoothKnownDevice(String address, String name, int deviceClass, int rssi, long lastSeen, UUID[] uuids,
+                         int connectStrategy, int rfcommChannel) {
+        mAddress = address;
+        mName = name;
+        mDeviceClass = deviceClass;
+        mRssi = rssi;
+        mLastSeen = lastSeen;
+        mUuids = null == uuids ? new UUID[0] : uuids;
+        mConnectStrategy = connectStrategy;
+        mRfcommChannel = rfcommChannel;
+    }
+
+    /**
+     * 获取设备地址
+     * @return 设备地址
+     */
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * 获取设备名称
+     * @return 设备名称，未知时为null
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 获取设备类型
+     * @return 设备类型，参见{@link android.bluetooth.BluetoothClass#getDeviceClass()}，未知时为{@link #DEVICE_CLASS_UNKNOWN}
+     */
+    public int getDeviceClass() {
+        return mDeviceClass;
+    }
+
+    /**
+     * 获取最近一次的RSSI
+     * @return RSSI，未知时为{@link BluetoothDiscoveredDevice#RSSI_UNKNOWN}
+     */
+    public int getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * 获取最近一次出现的时间，即最近一次连接成功或被搜索到的时间
+     * @return 毫秒时间戳，参见{@link System#currentTimeMillis()}
+     */
+    public long getLastSeen() {
+        return mLastSeen;
+    }
+
+    /**
+     * 获取SDP服务UUID
+     * @return UUID数组的副本，未知时为空数组
+     */
+    public UUID[] getUuids() {
+        return mUuids.clone();
+    }
+
+    /**
+     * 是否提供指定的服务
+     * @param uuid 服务UUID
+     * @return true 最近一次SDP查询结果中包含该服务
+     */
+    public boolean hasService(UUID uuid) {
+        for (UUID u : mUuids) {
+            if (u.equals(uuid))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取最近一次连上的连接策略
+     * @return 连接策略，参见{@link BluetoothClient#CONNECT_STRATEGY_SECURE}等，未知时为{@link BluetoothClient#CONNECT_STRATEGY_NONE}
+     */
+    public int getConnectStrategy() {
+        return mConnectStrategy;
+    }
+
+    /**
+     * 获取最近一次以直连通道策略连上的RFCOMM通道
+     * @return 通道号，未知时为{@link #RFCOMM_CHANNEL_UNKNOWN}
+     */
+    public int getRfcommChannel() {
+        return mRfcommChannel;
+    }
+
+    /**
+     * 合并一次搜索结果，包可见
+     * @param name 设备名称，为null时保留
+     * @param deviceClass 设备类型，未知时保留
+     * @param rssi RSSI，未知时保留
+     * @param lastSeen 出现的时间
+     * @return 合并后的记录
+     */
+    BluetoothKnownDevice refresh(String name, int deviceClass, int rssi, long lastSeen) {
+        return new BluetoothKnownDevice(mAddress,
+                null == name ? mName : name,
+                DEVICE_CLASS_UNKNOWN == deviceClass ? mDeviceClass : deviceClass,
+                BluetoothDiscoveredDevice.RSSI_UNKNOWN == rssi ? mRssi : rssi,
+                Math.max(mLastSeen, lastSeen), mUuids, mConnectStrategy, mRfcommChannel);
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothKnownDevice{address=" + mAddress
+                + ", name=" + mName
+                + ", strategy=" + BluetoothClient.strategyName(mConnectStrategy)
+                + ", lastSeen=" + mLastSeen + "}";
+    }
+}
@@ -0,0 +1,201 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * 长度字段帧解码器，按帧头中的长度字段切分数据帧。
+ * <p>帧的总长度为：长度字段偏移 + 长度字段宽度 + 长度字段的值 + 长度修正值。
+ * 若长度字段的值包含了帧头，可将长度修正值设为负的帧头长度。</p>
+ * <p>完整落在一次读取中的数据帧以共享原缓存的切片输出，不拷贝数据；跨越多次读取的数据帧在帧长已知后
+ * 一次分配足够的空间暂存，每个字节最多拷贝一次，完成后整块交给回调，不会产生重复拷贝。</p>
+ */
+public class BluetoothLengthFieldFrameDecoder implements BluetoothFrameDecoder {
+    /** 默认最大帧长度 */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024;
+
+    /** 长度字段偏移 */
+    private final int mLengthFieldOffset;
+    /** 长度字段宽度，字节 */
+    private final int mLengthFieldLength;
+    /** 长度字段字节序 */
+    private final ByteOrder mByteOrder;
+    /** 长度修正值 */
+    private final int mLengthAdjustment;
+    /** 输出时从帧头部去除的字节数 */
+    private final int mInitialBytesToStrip;
+    /** 最大帧长度 */
+    private final int mMaxFrameLength;
+    /** 帧头长度，即长度字段结束位置 */
+    private final int mHeaderLength;
+
+    /** 跨读取暂存的未完成数据帧 */
+    private byte[] mCumulation;
+    /** 暂存的字节数 */
+    private int mCumulationLength;
+    /** 未完成数据帧的总长度，帧头未收齐时为-1 */
+    private int mPendingFrameLength = -1;
+
+    /**
+     * 构造函数，长度字段位于帧首，值为帧头之后的数据长度，输出时去除帧头
+     * @param lengthFieldLength 长度字段宽度，支持1、2、3、4、8字节
+     * @param byteOrder 长度字段字节序
+     * @param maxFrameLength 最大帧长度
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothLengthFieldFrameDecoder(int lengthFieldLength, ByteOrder byteOrder, int maxFrameLength) {
+        this(0, lengthFieldLength, byteOrder, 0, lengthFieldLength, maxFrameLength);
+    }
+
+    /**
+     * 构造函数
+     * @param lengthFieldOffset 长度字段偏移
+     * @param lengthFieldLength 长度字段宽度，支持1、2、3、4、8字节
+     * @param byteOrder 长度字段字节序
+     * @param lengthAdjustment 长度修正值
+     * @param initialBytesToStrip 输出时从帧头部去除的字节数
+     * @param maxFrameLength 最大帧长度
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothLengthFieldFrameDecoder(int lengthFieldOffset, int lengthFieldLength, ByteOrder byteOrder,
+                                            int lengthAdjustment, int initialBytesToStrip, int maxFrameLength) {
+        if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 3
+                && lengthFieldLength != 4 && lengthFieldLength != 8)
+            throw new IllegalArgumentException("lengthFieldLength must be 1, 2, 3, 4 or 8.");
+        if (lengthFieldOffset < 0 || initialBytesToStrip < 0)
+            throw new IllegalArgumentException("lengthFieldOffset and initialBytesToStrip can't be negative.");
+        if (null == byteOrder)
+            throw new IllegalArgumentException("the ByteOrder can't be null.");
+        if (maxFrameLength < lengthFieldOffset + lengthFieldLength)
+            throw new IllegalArgumentException("maxFrameLength must not be less than the header length.");
+        mLengthFieldOffset = lengthFieldOffset;
+        mLengthFieldLength = lengthFieldLength;
+        mByteOrder = byteOrder;
+        mLengthAdjustment = lengthAdjustment;
+        mInitialBytesToStrip = initialBytesToStrip;
+        mMaxFrameLength = maxFrameLength;
+        mHeaderLength = lengthFieldOffset + lengthFieldLength;
+    }
+
+    @Override
+    public void decode(BluetoothBuffer in, Output out) throws IOException {
+        byte[] array = in.array();
+        int position = in.offset();
+        int end = in.offset() + in.length();
+
+        if (mCumulationLength > 0) {
+            position = continuePending(array, position, end, out);
+            if (mCumulationLength > 0)
+                return;
+        }
+
+        while (position < end) {
+            int available = end - position;
+            if (available < mHeaderLength) {
+                startPending(array, position, available, -1);
+                return;
+            }
+            int frameLength = frameLength(array, position);
+            if (available < frameLength) {
+                startPending(array, position, available, frameLength);
+                return;
+            }
+            out.onFrame(in.retainedSlice(position - in.offset() + mInitialBytesToStrip, frameLength - mInitialBytesToStrip));
+            position += frameLength;
+        }
+    }
+
+    @Override
+    public void reset() {
+        mCumulation = null;
+        mCumulationLength = 0;
+        mPendingFrameLength = -1;
+    }
+
+    /**
+     * 暂存未完成数据帧的开头部分
+     * @param array 字节数组
+     * @param position 起始位置
+     * @param length 字节数
+     * @param frameLength 帧总长度，未知时为-1
+     */
+    private void startPending(byte[] array, int position, int length, int frameLength) {
+        mPendingFrameLength = frameLength;
+        ensureCapacity(frameLength < 0 ? mHeaderLength : frameLength);
+        System.arraycopy(array, position, mCumulation, 0, length);
+        mCumulationLength = length;
+    }
+
+    /**
+     * 用新数据补全暂存的数据帧
+     * @return 已使用的数据结束位置
+     */
+    private int continuePending(byte[] array, int position, int end, Output out) throws IOException {
+        if (mPendingFrameLength < 0) {
+            int count = Math.min(mHeaderLength - mCumulationLength, end - position);
+            System.arraycopy(array, position, mCumulation, mCumulationLength, count);
+            mCumulationLength += count;
+            position += count;
+            if (mCumulationLength < mHeaderLength)
+                return position;
+            mPendingFrameLength = frameLength(mCumulation, 0);
+            ensureCapacity(mPendingFrameLength);
+        }
+
+        int count = Math.min(mPendingFrameLength - mCumulationLength, end - position);
+        System.arraycopy(array, position, mCumulation, mCumulationLength, count);
+        mCumulationLength += count;
+        position += count;
+        if (mCumulationLength == mPendingFrameLength) {
+            // 暂存空间正好是一个完整帧，直接转交给回调，下次需要时再重新分配
+            byte[] frame = mCumulation;
+            int frameLength = mPendingFrameLength;
+            reset();
+            out.onFrame(BluetoothBuffer.wrap(frame, mInitialBytesToStrip, frameLength - mInitialBytesToStrip));
+        }
+        return position;
+    }
+
+    /**
+     * 确保暂存空间不小于指定长度
+     * @param capacity 最小长度
+     */
+    private void ensureCapacity(int capacity) {
+        if (null == mCumulation) {
+            mCumulation = new byte[capacity];
+        } else if (mCumulation.length < capacity) {
+            byte[] cumulation = new byte[capacity];
+            System.arraycopy(mCumulation, 0, cumulation, 0, mCumulationLength);
+            mCumulation = cumulation;
+        }
+    }
+
+    /**
+     * 解析帧总长度
+     * @param array 字节数组
+     * @param position 帧起始位置
+     * @return 帧总长度
+     * @throws IOException 帧长度不合法或超过最大帧长度
+     */
+    private int frameLength(byte[] array, int position) throws IOException {
+        long value = 0;
+        int start = position + mLengthFieldOffset;
+        if (ByteOrder.BIG_ENDIAN == mByteOrder) {
+            for (int i = 0; i < mLengthFieldLength; i++)
+                value = (value << 8) | (array[start + i] & 0xFF);
+        } else {
+            for (int i = mLengthFieldLength - 1; i >= 0; i--)
+                value = (value << 8) | (array[start + i] & 0xFF);
+        }
+        if (value < 0)
+            throw new IOException("frame length field is negative: " + value);
+        long frameLength = value + mHeaderLength + mLengthAdjustment;
+        if (frameLength < mHeaderLength)
+            throw new IOException("frame length " + frameLength + " is less than the header length " + mHeaderLength + ".");
+        if (frameLength < mInitialBytesToStrip)
+            throw new IOException("frame length " + frameLength + " is less than initialBytesToStrip " + mInitialBytesToStrip + ".");
+        if (frameLength > mMaxFrameLength)
+            throw new IOException("frame length " + frameLength + " exceeds " + mMaxFrameLength + ".");
+        return (int) frameLength;
+    }
+}
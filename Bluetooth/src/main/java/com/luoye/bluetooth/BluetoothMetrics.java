@@ -0,0 +1,153 @@
+package com.luoye.bluetooth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 蓝牙连接统计，通过{@link BluetoothClient#setMetrics(BluetoothMetrics)}或
+ * {@link BluetoothServer#setMetrics(BluetoothMetrics)}启用，未设置时收发路径上没有任何统计开销。
+ * <p>统计收发的字节数和消息数、读取数据块大小的分布、异步写入队列深度，以及从读到数据到输入回调开始执行的分发延迟。
+ * 计数使用分段计数器，直方图和最大值使用原子操作，收发线程之间不加锁。
+ * 多个蓝牙终端可共用同一个统计对象，此时各项为所有终端的合计，队列峰值为单个终端的最大值。</p>
+ * <p>通过{@link #snapshot()}获取快照，瞬时吞吐为距上一次快照的平均速率，适合定时轮询或导出。</p>
+ */
+public final class BluetoothMetrics {
+    /** 读取数据块大小直方图的桶数，最后一个桶统计64KB及以上的数据块 */
+    public static final int READ_CHUNK_BUCKETS = 17;
+    /** 分发延迟直方图的桶数，单位微秒，最后一个桶统计约16.8秒及以上的延迟 */
+    public static final int DISPATCH_LATENCY_BUCKETS = 25;
+
+    /** 创建时间，纳秒 */
+    private final long mStartNanos = System.nanoTime();
+    /** 接收的字节数 */
+    private final BluetoothStripedCounter mBytesRead = new BluetoothStripedCounter();
+    /** 发送的字节数 */
+    private final BluetoothStripedCounter mBytesWritten = new BluetoothStripedCounter();
+    /** 分发给输入回调的消息数 */
+    private final BluetoothStripedCounter mMessagesRead = new BluetoothStripedCounter();
+    /** 写出的消息数 */
+    private final BluetoothStripedCounter mMessagesWritten = new BluetoothStripedCounter();
+    /** 读取数据块大小直方图 */
+    private final BluetoothHistogram mReadChunks = new BluetoothHistogram(READ_CHUNK_BUCKETS);
+    /** 异步写入队列中的消息数 */
+    private final BluetoothStripedCounter mQueuedMessages = new BluetoothStripedCounter();
+    /** 异步写入队列中的字节数 */
+    private final BluetoothStripedCounter mQueuedBytes = new BluetoothStripedCounter();
+    /** 单个异步写入队列的字节数峰值 */
+    private final AtomicLong mPeakQueuedBytes = new AtomicLong();
+    /** 有读取时间的分发次数 */
+    private final BluetoothStripedCounter mLatencySamples = new BluetoothStripedCounter();
+    /** 累计分发延迟，纳秒 */
+    private final BluetoothStripedCounter mTotalLatencyNanos = new BluetoothStripedCounter();
+    /** 最大分发延迟，纳秒 */
+    private final AtomicLong mMaxLatencyNanos = new AtomicLong();
+    /** 分发延迟直方图，微秒 */
+    private final BluetoothHistogram mLatencies = new BluetoothHistogram(DISPATCH_LATENCY_BUCKETS);
+
+    /** 上一次快照的时间，纳秒，由对象锁保护 */
+    private long mLastSnapshotNanos = mStartNanos;
+    /** 上一次快照时接收的字节数，由对象锁保护 */
+    private long mLastBytesRead;
+    /** 上一次快照时发送的字节数，由对象锁保护 */
+    private long mLastBytesWritten;
+
+    /**
+     * 获取统计快照
+     * @return 快照
+     */
+    public synchronized BluetoothMetricsSnapshot snapshot() {
+        long now = System.nanoTime();
+        long bytesRead = mBytesRead.sum();
+        long bytesWritten = mBytesWritten.sum();
+        long interval = now - mLastSnapshotNanos;
+        long readRate = rate(bytesRead - mLastBytesRead, interval);
+        long writeRate = rate(bytesWritten - mLastBytesWritten, interval);
+        mLastSnapshotNanos = now;
+        mLastBytesRead = bytesRead;
+        mLastBytesWritten = bytesWritten;
+        return new BluetoothMetricsSnapshot(now - mStartNanos, bytesRead, bytesWritten, mMessagesRead.sum(),
+                mMessagesWritten.sum(), readRate, writeRate, mReadChunks.counts(),
+                Math.max(0, mQueuedMessages.sum()), Math.max(0, mQueuedBytes.sum()), mPeakQueuedBytes.get(),
+                mLatencySamples.sum(), mTotalLatencyNanos.sum(), mMaxLatencyNanos.get(), mLatencies.counts());
+    }
+
+    /**
+     * 记录读取的一块数据，在接收线程中调用
+     * @param bytes 字节数
+     */
+    void recordRead(int bytes) {
+        mBytesRead.add(bytes);
+        mReadChunks.record(bytes);
+    }
+
+    /**
+     * 记录写出的数据
+     * @param bytes 字节数
+     * @param messages 完整写出的消息数
+     */
+    void recordWritten(long bytes, int messages) {
+        mBytesWritten.add(bytes);
+        if (messages > 0)
+            mMessagesWritten.add(messages);
+    }
+
+    /**
+     * 记录一条消息加入异步写入队列
+     * @param bytes 字节数
+     * @param queuedBytes 加入后该队列中的字节数
+     */
+    void recordEnqueued(int bytes, long queuedBytes) {
+        mQueuedMessages.increment();
+        mQueuedBytes.add(bytes);
+        updateMax(mPeakQueuedBytes, queuedBytes);
+    }
+
+    /**
+     * 记录数据移出异步写入队列
+     * @param messages 完整移出的消息数
+     * @param bytes 字节数
+     */
+    void recordDequeued(int messages, long bytes) {
+        if (messages > 0)
+            mQueuedMessages.add(-messages);
+        if (bytes > 0)
+            mQueuedBytes.add(-bytes);
+    }
+
+    /**
+     * 记录一条消息开始输入回调，在回调线程中调用
+     * @param readNanos 读到该消息数据的时间，纳秒，为0时只计数
+     */
+    void recordDispatched(long readNanos) {
+        mMessagesRead.increment();
+        if (0 == readNanos)
+            return;
+        long latency = Math.max(0, System.nanoTime() - readNanos);
+        mLatencySamples.increment();
+        mTotalLatencyNanos.add(latency);
+        updateMax(mMaxLatencyNanos, latency);
+        mLatencies.record(latency / 1000);
+    }
+
+    /**
+     * 计算速率
+     * @param bytes 字节数
+     * @param nanos 时长，纳秒
+     * @return 字节/秒
+     */
+    static long rate(long bytes, long nanos) {
+        return nanos <= 0 ? 0 : (long) (bytes * 1e9 / nanos);
+    }
+
+    /**
+     * 更新最大值
+     * @param max 最大值
+     * @param value 新值
+     */
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value))
+                return;
+        }
+    }
+}
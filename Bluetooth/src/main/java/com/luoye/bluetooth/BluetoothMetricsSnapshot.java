@@ -0,0 +1,235 @@
+package com.luoye.bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * 蓝牙连接统计快照，由{@link BluetoothMetrics#snapshot()}获取，创建后不再变化。
+ */
+public final class BluetoothMetricsSnapshot {
+    /** 统计时长，纳秒 */
+    private final long mElapsedNanos;
+    /** 接收的字节数 */
+    private final long mBytesRead;
+    /** 发送的字节数 */
+    private final long mBytesWritten;
+    /** 分发给输入回调的消息数 */
+    private final long mMessagesRead;
+    /** 写出的消息数 */
+    private final long mMessagesWritten;
+    /** 瞬时接收速率，字节/秒 */
+    private final long mReadRate;
+    /** 瞬时发送速率，字节/秒 */
+    private final long mWriteRate;
+    /** 读取数据块大小直方图 */
+    private final long[] mReadChunkHistogram;
+    /** 异步写入队列中的消息数 */
+    private final long mQueuedMessages;
+    /** 异步写入队列中的字节数 */
+    private final long mQueuedBytes;
+    /** 单个异步写入队列的字节数峰值 */
+    private final long mPeakQueuedBytes;
+    /** 有读取时间的分发次数 */
+    private final long mLatencySamples;
+    /** 累计分发延迟，纳秒 */
+    private final long mTotalLatencyNanos;
+    /** 最大分发延迟，纳秒 */
+    private final long mMaxLatencyNanos;
+    /** 分发延迟直方图，微秒 */
+    private final long[] mLatencyHistogram;
+
+    /**
+     * 默认构造，包可见
+     */
+    BluetoothMetricsSnapshot(long elapsedNanos, long bytesRead, long bytesWritten, long messagesRead,
+                             long messagesWritten, long readRate, long writeRate, long[] readChunkHistogram,
+                             long queuedMessages, long queuedBytes, long peakQueuedBytes, long latencySamples,
+                             long totalLatencyNanos, long maxLatencyNanos, long[] latencyHistogram) {
+        mElapsedNanos = elapsedNanos;
+        mBytesRead = bytesRead;
+        mBytesWritten = bytesWritten;
+        mMessagesRead = messagesRead;
+        mMessagesWritten = messagesWritten;
+        mReadRate = readRate;
+        mWriteRate = writeRate;
+        mReadChunkHistogram = readChunkHistogram;
+        mQueuedMessages = queuedMessages;
+        mQueuedBytes = queuedBytes;
+        mPeakQueuedBytes = peakQueuedBytes;
+        mLatencySamples = latencySamples;
+        mTotalLatencyNanos = totalLatencyNanos;
+        mMaxLatencyNanos = maxLatencyNanos;
+        mLatencyHistogram = latencyHistogram;
+    }
+
+    /**
+     * 获取统计时长，即统计对象创建至今的时长
+     * @return 毫秒
+     */
+    public long getElapsedMillis() {
+        return mElapsedNanos / 1000000L;
+    }
+
+    /**
+     * 获取接收的字节数
+     * @return 字节数
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * 获取发送的字节数，包括同步写入和异步写入
+     * @return 字节数
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * 获取分发给输入回调的消息数，设置帧解码器时为数据帧数
+     * @return 消息数
+     */
+    public long getMessagesRead() {
+        return mMessagesRead;
+    }
+
+    /**
+     * 获取完整写出的消息数，每次同步写入或异步写入为一条消息
+     * @return 消息数
+     */
+    public long getMessagesWritten() {
+        return mMessagesWritten;
+    }
+
+    /**
+     * 获取瞬时接收速率，即距上一次快照的平均速率
+     * @return 字节/秒
+     */
+    public long getReadRate() {
+        return mReadRate;
+    }
+
+    /**
+     * 获取瞬时发送速率，即距上一次快照的平均速率
+     * @return 字节/秒
+     */
+    public long getWriteRate() {
+        return mWriteRate;
+    }
+
+    /**
+     * 获取平均接收速率，即统计时长内的平均速率
+     * @return 字节/秒
+     */
+    public long getAverageReadRate() {
+        return BluetoothMetrics.rate(mBytesRead, mElapsedNanos);
+    }
+
+    /**
+     * 获取平均发送速率，即统计时长内的平均速率
+     * @return 字节/秒
+     */
+    public long getAverageWriteRate() {
+        return BluetoothMetrics.rate(mBytesWritten, mElapsedNanos);
+    }
+
+    /**
+     * 获取读取数据块大小直方图，第0个桶统计1字节的数据块，第i个桶统计[2<sup>i</sup>, 2<sup>i+1</sup>)字节的数据块，
+     * 最后一个桶统计更大的数据块
+     * @return 分桶计数的副本，长度为{@link BluetoothMetrics#READ_CHUNK_BUCKETS}
+     */
+    public long[] getReadChunkHistogram() {
+        return mReadChunkHistogram.clone();
+    }
+
+    /**
+     * 获取读取的数据块数
+     * @return 数据块数
+     */
+    public long getReadChunkCount() {
+        long count = 0;
+        for (long n : mReadChunkHistogram)
+            count += n;
+        return count;
+    }
+
+    /**
+     * 获取平均读取数据块大小，数据块偏小说明对方发送过于细碎
+     * @return 字节数，尚未读取时为0
+     */
+    public long getAverageReadChunkSize() {
+        long count = getReadChunkCount();
+        return 0 == count ? 0 : mBytesRead / count;
+    }
+
+    /**
+     * 获取异步写入队列中的消息数
+     * @return 消息数
+     */
+    public long getQueuedMessages() {
+        return mQueuedMessages;
+    }
+
+    /**
+     * 获取异步写入队列中的字节数
+     * @return 字节数
+     */
+    public long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    /**
+     * 获取单个异步写入队列的字节数峰值
+     * @return 字节数
+     */
+    public long getPeakQueuedBytes() {
+        return mPeakQueuedBytes;
+    }
+
+    /**
+     * 获取平均分发延迟，即从读到数据到输入回调开始执行的平均时长
+     * @return 毫秒，没有样本时为0
+     */
+    public double getAverageDispatchLatencyMillis() {
+        return 0 == mLatencySamples ? 0 : mTotalLatencyNanos / 1e6 / mLatencySamples;
+    }
+
+    /**
+     * 获取最大分发延迟
+     * @return 毫秒
+     */
+    public double getMaxDispatchLatencyMillis() {
+        return mMaxLatencyNanos / 1e6;
+    }
+
+    /**
+     * 按分发延迟直方图估算百分位延迟，结果为所在桶的上界
+     * @param percentile 百分位，0~100
+     * @return 毫秒，没有样本时为0
+     */
+    public double getDispatchLatencyPercentileMillis(double percentile) {
+        return BluetoothHistogram.percentile(mLatencyHistogram, percentile) / 1e3;
+    }
+
+    /**
+     * 获取分发延迟直方图，单位微秒，分桶方式与{@link #getReadChunkHistogram()}相同
+     * @return 分桶计数的副本，长度为{@link BluetoothMetrics#DISPATCH_LATENCY_BUCKETS}
+     */
+    public long[] getDispatchLatencyHistogram() {
+        return mLatencyHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothMetricsSnapshot{elapsedMillis=" + getElapsedMillis()
+                + ", bytesRead=" + mBytesRead + ", bytesWritten=" + mBytesWritten
+                + ", messagesRead=" + mMessagesRead + ", messagesWritten=" + mMessagesWritten
+                + ", readRate=" + mReadRate + ", writeRate=" + mWriteRate
+                + ", averageReadRate=" + getAverageReadRate() + ", averageWriteRate=" + getAverageWriteRate()
+                + ", readChunkHistogram=" + Arrays.toString(mReadChunkHistogram)
+                + ", queuedMessages=" + mQueuedMessages + ", queuedBytes=" + mQueuedBytes
+                + ", peakQueuedBytes=" + mPeakQueuedBytes
+                + ", averageDispatchLatencyMillis=" + getAverageDispatchLatencyMillis()
+                + ", maxDispatchLatencyMillis=" + getMaxDispatchLatencyMillis() + "}";
+    }
+}
@@ -0,0 +1,327 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 蓝牙多路复用器，在一个RFCOMM连接上承载多个逻辑通道，省去为每类数据单独建立连接的开销。
+ * <p>主动连接的终端和服务端接受的终端均可使用，双方以相同的通道编号调用{@link #openChannel(int, BluetoothChannel.OnChannelCallback)}。
+ * 消息按分片大小拆分，各通道按轮转顺序每次发出一个分片；写入队列中只保留少量分片，
+ * 因此大块数据通道不会让其他通道的消息排在其整条消息之后。</p>
+ * <p>每个通道的初始发送信用为接收窗口大小，接收方的回调处理完消息后归还信用，累计达到窗口一半时发出信用帧。
+ * 超过窗口的长消息在接收方重组时即归还中间分片的信用，只有最后一个分片的信用等待回调处理完毕。</p>
+ * <p>多路复用器独占蓝牙终端的数据接收和帧解码。帧格式：1字节类型、2字节通道编号、2字节大端长度，之后为内容。</p>
+ */
+public final class BluetoothMultiplexer {
+    /** 默认分片大小，加上帧头后不超过一个写入数据包 */
+    public static final int DEFAULT_FRAGMENT_SIZE = BluetoothWriter.DEFAULT_PACKET_SIZE - 5;
+    /** 默认接收窗口，字节 */
+    public static final int DEFAULT_WINDOW = 16 * 1024;
+    /** 默认最大消息长度 */
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 1024 * 1024;
+    /** 最大通道编号 */
+    public static final int MAX_CHANNEL_ID = 0xFFFF;
+
+    /** 帧类型：消息分片，后续还有分片 */
+    private static final byte FRAME_DATA = 1;
+    /** 帧类型：消息的最后一个分片 */
+    private static final byte FRAME_DATA_END = 2;
+    /** 帧类型：信用，内容为4字节大端的归还字节数 */
+    private static final byte FRAME_CREDIT = 3;
+    /** 帧头长度 */
+    private static final int HEADER_LENGTH = 5;
+    /** 写入队列中最多保留的分片数 */
+    private static final int MAX_OUTSTANDING_FRAGMENTS = 2;
+
+    /** 蓝牙终端 */
+    private final BluetoothClient mClient;
+    /** 分片大小 */
+    private final int mFragmentSize;
+    /** 接收窗口 */
+    private final int mWindow;
+    /** 最大消息长度 */
+    private final int mMaxMessageLength;
+    /** 通道表 */
+    private final HashMap<Integer, BluetoothChannel> mChannels = new HashMap<>();
+    /** 轮转顺序 */
+    private final ArrayList<BluetoothChannel> mOrder = new ArrayList<>();
+    /** 下一次轮转的起始位置 */
+    private int mCursor;
+    /** 写入队列中的分片数 */
+    private int mOutstanding;
+    /** 各通道待归还的信用，由自身加锁保护 */
+    private final HashMap<Integer, Integer> mConsumed = new HashMap<>();
+    /** 关闭原因，未关闭时为null */
+    private IOException mClosed;
+    /** 分片写出完成标识 */
+    private final BluetoothWriter.Completion mFragmentCompletion = new BluetoothWriter.Completion() {
+        @Override
+        public void onWriteComplete(IOException e) {
+            if (null != e) {
+                close(e);
+                return;
+            }
+            synchronized (BluetoothMultiplexer.this) {
+                mOutstanding--;
+                pump();
+            }
+        }
+    };
+
+    /**
+     * 构造函数，使用默认的分片大小、接收窗口和最大消息长度
+     * @param client 已连接的蓝牙终端
+     * @throws IllegalArgumentException 蓝牙终端为null
+     */
+    public BluetoothMultiplexer(BluetoothClient client) {
+        this(client, DEFAULT_FRAGMENT_SIZE, DEFAULT_WINDOW, DEFAULT_MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * 构造函数，双方的接收窗口必须一致
+     * @param client 已连接的蓝牙终端
+     * @param fragmentSize 分片大小，1~65535
+     * @param window 每个通道的接收窗口，字节
+     * @param maxMessageLength 最大消息长度
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public BluetoothMultiplexer(BluetoothClient client, int fragmentSize, int window, int maxMessageLength) {
+        if (null == client)
+            throw new IllegalArgumentException("the BluetoothClient can't be null.");
+        if (fragmentSize < 1 || fragmentSize > 0xFFFF)
+            throw new IllegalArgumentException("fragmentSize must be between 1 and 65535.");
+        if (window < 1 || maxMessageLength < 1)
+            throw new IllegalArgumentException("window and maxMessageLength must be positive.");
+        mClient = client;
+        mFragmentSize = fragmentSize;
+        mWindow = window;
+        mMaxMessageLength = maxMessageLength;
+    }
+
+    /**
+     * 打开逻辑通道，须在{@link #start()}之前打开双方约定的全部通道
+     * @param id 通道编号，0~{@link #MAX_CHANNEL_ID}
+     * @param callback 接收回调
+     * @return 逻辑通道
+     * @throws IllegalArgumentException 编号不合法、已被占用或回调为null
+     */
+    public synchronized BluetoothChannel openChannel(int id, BluetoothChannel.OnChannelCallback callback) {
+        if (id < 0 || id > MAX_CHANNEL_ID)
+            throw new IllegalArgumentException("channel id must be between 0 and " + MAX_CHANNEL_ID + ".");
+        if (null == callback)
+            throw new IllegalArgumentException("the OnChannelCallback can't be null.");
+        if (mChannels.containsKey(id))
+            throw new IllegalArgumentException("channel " + id + " is already open.");
+        BluetoothChannel channel = new BluetoothChannel(id, this, callback, mWindow, mMaxMessageLength);
+        mChannels.put(id, channel);
+        mOrder.add(channel);
+        return channel;
+    }
+
+    /**
+     * 获取逻辑通道
+     * @param id 通道编号
+     * @return 逻辑通道，未打开时为null
+     */
+    public synchronized BluetoothChannel getChannel(int id) {
+        return mChannels.get(id);
+    }
+
+    /**
+     * 开始接收数据
+     * @throws IOException 蓝牙未连接
+     */
+    public void start() throws IOException {
+        mClient.setFrameDecoder(new BluetoothLengthFieldFrameDecoder(3, 2, ByteOrder.BIG_ENDIAN, 0, 0,
+                HEADER_LENGTH + 0xFFFF));
+        mClient.asyncRead(new MultiplexerInputCallback());
+    }
+
+    /**
+     * 关闭多路复用器，丢弃未发出的数据并通知所有通道，不会关闭蓝牙终端
+     */
+    public void close() {
+        close(new IOException("Bluetooth multiplexer is closed."));
+    }
+
+    /**
+     * 关闭多路复用器
+     * @param e 关闭原因
+     */
+    private void close(IOException e) {
+        ArrayList<BluetoothChannel> channels;
+        synchronized (this) {
+            if (null != mClosed)
+                return;
+            mClosed = e;
+            for (BluetoothChannel channel : mOrder)
+                channel.clear();
+            channels = new ArrayList<>(mOrder);
+        }
+        mClient.cancelAsyncRead();
+        for (BluetoothChannel channel : channels)
+            channel.notifyClosed(e);
+    }
+
+    /**
+     * 加入通道的发送队列
+     * @param channel 逻辑通道
+     * @param data 消息内容
+     * @throws IOException 多路复用器已关闭
+     */
+    synchronized void send(BluetoothChannel channel, byte[] data) throws IOException {
+        if (null != mClosed)
+            throw new IOException("Bluetooth multiplexer is closed: " + mClosed.getMessage());
+        channel.enqueue(data);
+        pump();
+    }
+
+    /**
+     * 按轮转顺序从有数据且有信用的通道中各取一个分片写出，直至写入队列中的分片数达到上限，需持有多路复用器锁
+     */
+    private void pump() {
+        int count = mOrder.size();
+        while (null == mClosed && mOutstanding < MAX_OUTSTANDING_FRAGMENTS) {
+            BluetoothChannel channel = null;
+            for (int i = 0; i < count; i++) {
+                BluetoothChannel candidate = mOrder.get((mCursor + i) % count);
+                if (candidate.isSendable()) {
+                    channel = candidate;
+                    mCursor = (mCursor + i + 1) % count;
+                    break;
+                }
+            }
+            if (null == channel)
+                return;
+            BluetoothChannel.Fragment fragment = channel.nextFragment(mFragmentSize);
+            byte[] frame = encodeHeader(fragment.mLast ? FRAME_DATA_END : FRAME_DATA, channel.getId(), fragment.mLength);
+            System.arraycopy(fragment.mData, fragment.mOffset, frame, HEADER_LENGTH, fragment.mLength);
+            try {
+                mClient.enqueue(frame, 0, frame.length, BluetoothClient.WRITE_PRIORITY_CONTROL, mFragmentCompletion);
+                mOutstanding++;
+            } catch (final IOException e) {
+                // 在锁外关闭，避免在持有锁时回调
+                BluetoothExecutors.timer().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        close(e);
+                    }
+                });
+                return;
+            }
+        }
+    }
+
+    /**
+     * 通道数据处理完毕，累计达到半个窗口时向对方归还信用，在接收线程或回调线程中调用
+     * @param id 通道编号
+     * @param length 字节数
+     */
+    void consumed(int id, int length) {
+        int credits;
+        synchronized (mConsumed) {
+            Integer consumed = mConsumed.get(id);
+            credits = (null == consumed ? 0 : consumed) + length;
+            if (credits < (mWindow + 1) / 2) {
+                mConsumed.put(id, credits);
+                return;
+            }
+            mConsumed.remove(id);
+        }
+        byte[] frame = encodeHeader(FRAME_CREDIT, id, 4);
+        ByteBuffer.wrap(frame, HEADER_LENGTH, 4).putInt(credits);
+        try {
+            mClient.asyncWrite(frame);
+        } catch (IOException e) {
+            // 连接已断开，由接收线程报告
+        }
+    }
+
+    /**
+     * 处理一个完整的数据帧，在蓝牙接收线程中调用
+     * @param frame 数据帧
+     * @throws IOException 帧格式错误或消息过长
+     */
+    private void onFrame(BluetoothBuffer frame) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(frame.array(), frame.offset(), frame.length());
+        byte type = bb.get();
+        int id = bb.getShort() & 0xFFFF;
+        int length = bb.getShort() & 0xFFFF;
+        BluetoothChannel channel;
+        synchronized (this) {
+            channel = mChannels.get(id);
+        }
+        switch (type) {
+            case FRAME_DATA:
+            case FRAME_DATA_END:
+                if (null == channel) { // 本方未打开的通道，丢弃数据并立即归还信用
+                    consumed(id, length);
+                    break;
+                }
+                byte[] message = channel.receive(frame.array(), frame.offset() + HEADER_LENGTH, length, FRAME_DATA_END == type);
+                if (null != message)
+                    channel.notifyMessage(message, length);
+                else
+                    consumed(id, length);
+                break;
+            case FRAME_CREDIT:
+                if (4 != length)
+                    throw new IOException("malformed credit frame.");
+                int credits = bb.getInt();
+                if (null != channel) {
+                    synchronized (this) {
+                        channel.addCredits(credits);
+                        pump();
+                    }
+                }
+                break;
+            default:
+                throw new IOException("unknown multiplexer frame type " + type + ".");
+        }
+    }
+
+    /**
+     * 分配数据帧并写入帧头
+     * @param type 帧类型
+     * @param id 通道编号
+     * @param length 内容长度
+     * @return 数据帧，内容部分待填充
+     */
+    private static byte[] encodeHeader(byte type, int id, int length) {
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        ByteBuffer.wrap(frame).put(type).putShort((short) id).putShort((short) length);
+        return frame;
+    }
+
+    /**
+     * 多路复用器数据接收回调，直接在蓝牙接收线程中处理数据帧
+     */
+    private class MultiplexerInputCallback extends BluetoothClient.BluetoothInputCallback {
+        MultiplexerInputCallback() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onInput(BluetoothBuffer buffer) {
+            try {
+                onFrame(buffer);
+            } catch (IOException e) {
+                close(e);
+            } finally {
+                buffer.release();
+            }
+        }
+
+        @Override
+        public void onInput(byte[] buffer) {
+        }
+
+        @Override
+        public void onDisconnected(IOException e) {
+            close(null == e ? new IOException("Bluetooth client is disconnected.") : e);
+        }
+    }
+}
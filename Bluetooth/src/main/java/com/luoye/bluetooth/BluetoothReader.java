@@ -0,0 +1,64 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 蓝牙数据读取器，将输入流中的数据直接读入缓存池分配的缓存，读取过程不再额外拷贝和分配字节数组。
+ */
+class BluetoothReader {
+    /** 输入流 */
+    private final InputStream mInputStream;
+    /** 缓存池 */
+    private final BluetoothBufferPool mBufferPool;
+    /** 连接统计，可为null */
+    private BluetoothMetrics mMetrics;
+
+    /**
+     * 默认构造
+     * @param is 输入流
+     * @param pool 缓存池
+     */
+    BluetoothReader(InputStream is, BluetoothBufferPool pool) {
+        mInputStream = is;
+        mBufferPool = pool;
+    }
+
+    /**
+     * 设置连接统计，需在读取之前调用
+     * @param metrics 连接统计，为null时不统计
+     */
+    void setMetrics(BluetoothMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 读取一块数据。此方法会阻塞当前线程直至有数据可读。
+     * @return 引用计数为1的缓存，由调用者负责释放；输入流已结束时返回null
+     * @throws IOException 输入流已关闭或蓝牙连接已断开
+     */
+    BluetoothBuffer read() throws IOException {
+        for (;;) {
+            BluetoothBuffer buffer = mBufferPool.acquire();
+            int nSize;
+            try {
+                nSize = mInputStream.read(buffer.array(), 0, buffer.capacity());
+            } catch (IOException e) {
+                buffer.release();
+                throw e;
+            }
+            if (nSize > 0) {
+                BluetoothTraffic.recordRead(nSize);
+                buffer.setRange(0, nSize);
+                if (null != mMetrics) {
+                    mMetrics.recordRead(nSize);
+                    buffer.mTimestamp = System.nanoTime();
+                }
+                return buffer;
+            }
+            buffer.release();
+            if (-1 == nSize)
+                return null;
+        }
+    }
+}
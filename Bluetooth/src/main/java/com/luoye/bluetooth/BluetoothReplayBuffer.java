@@ -0,0 +1,108 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 重放缓存，按序号保存已发送但对方尚未确认的消息，重连后由此重发。
+ * <p>缓存按字节数限定容量，写满后拒绝新的消息而不是丢弃旧消息，以免静默丢失数据，调用者应等待确认后再发送。</p>
+ */
+class BluetoothReplayBuffer {
+    /** 未确认的消息，按序号递增排列 */
+    private final ArrayDeque<Message> mMessages = new ArrayDeque<>();
+    /** 容量，字节 */
+    private final long mCapacity;
+    /** 未确认的字节数 */
+    private long mBytes;
+    /** 下一条消息的序号 */
+    private long mNextSequence = 1;
+
+    /**
+     * 构造函数
+     * @param capacity 容量，字节
+     * @throws IllegalArgumentException 容量不是正数
+     */
+    BluetoothReplayBuffer(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive.");
+        mCapacity = capacity;
+    }
+
+    /**
+     * 保存一条消息并分配序号
+     * @param data 消息，引用随之转交
+     * @return 消息
+     * @throws IOException 缓存已满
+     */
+    Message add(byte[] data) throws IOException {
+        if (mBytes + data.length > mCapacity)
+            throw new IOException("replay buffer is full, " + mBytes + " bytes are not acknowledged.");
+        Message message = new Message(mNextSequence++, data);
+        mMessages.addLast(message);
+        mBytes += data.length;
+        return message;
+    }
+
+    /**
+     * 确认序号不大于{@code sequence}的消息并移出缓存
+     * @param sequence 对方已收到的最大序号
+     * @return 移出的消息数
+     */
+    int acknowledge(long sequence) {
+        int count = 0;
+        while (!mMessages.isEmpty() && mMessages.peekFirst().mSequence <= sequence) {
+            mBytes -= mMessages.pollFirst().mData.length;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 获取所有未确认的消息
+     * @return 消息列表，按序号递增排列
+     */
+    List<Message> pending() {
+        return new ArrayList<>(mMessages);
+    }
+
+    /**
+     * 获取未确认的消息数
+     * @return 消息数
+     */
+    int size() {
+        return mMessages.size();
+    }
+
+    /**
+     * 获取未确认的字节数
+     * @return 字节数
+     */
+    long bytes() {
+        return mBytes;
+    }
+
+    /**
+     * 获取容量
+     * @return 字节数
+     */
+    long capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 带序号的消息
+     */
+    static final class Message {
+        /** 序号 */
+        final long mSequence;
+        /** 消息内容 */
+        final byte[] mData;
+
+        Message(long sequence, byte[] data) {
+            mSequence = sequence;
+            mData = data;
+        }
+    }
+}
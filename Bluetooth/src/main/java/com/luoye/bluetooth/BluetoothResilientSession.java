@@ -0,0 +1,876 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可恢复的蓝牙会话，由{@link Bluetooth#newResilientSession(BluetoothDevice, UUID, boolean, OnResilientSessionCallback)}
+ * 或{@link Bluetooth#newResilientSession(OnResilientSessionCallback)}创建。
+ * <p>会话给每条发出的消息编号，并在重放缓存中保留到对方确认为止。连接断开后，主动方按带抖动的指数退避重连，
+ * 接受方等待{@link #attach(BluetoothClient)}交给它新的连接；连接建立后双方交换各自已收到的最大序号，
+ * 只重发对方尚未收到的消息，接收方再按序号丢弃重复的消息，因此断线前后的消息既不丢失也不重复。</p>
+ * <p>会话独占蓝牙终端的数据接收和帧解码，不要在会话的蓝牙终端上再调用{@code asyncRead}或{@code setFrameDecoder}。</p>
+ * <p>帧格式：1字节类型、8字节序号、4字节大端长度，之后为消息内容。</p>
+ */
+public final class BluetoothResilientSession {
+    /** 会话状态：未启动 */
+    public static final int STATE_IDLE = 0;
+    /** 会话状态：首次连接中 */
+    public static final int STATE_CONNECTING = 1;
+    /** 会话状态：已连接 */
+    public static final int STATE_CONNECTED = 2;
+    /** 会话状态：连接断开，正在恢复 */
+    public static final int STATE_RECOVERING = 3;
+    /** 会话状态：已关闭 */
+    public static final int STATE_CLOSED = 4;
+
+    /** 默认重放缓存容量 */
+    public static final long DEFAULT_REPLAY_BUFFER_SIZE = 256 * 1024;
+    /** 单条消息的最大长度 */
+    public static final int MAX_MESSAGE_LENGTH = 64 * 1024;
+
+    /** 帧类型：消息 */
+    private static final byte FRAME_DATA = 1;
+    /** 帧类型：确认，序号为已收到的最大序号 */
+    private static final byte FRAME_ACK = 2;
+    /** 帧类型：恢复，内容为本方会话标识、已知的对方会话标识和已收到的对方最大序号 */
+    private static final byte FRAME_RESUME = 3;
+    /** 帧头长度 */
+    private static final int HEADER_LENGTH = 13;
+    /** 恢复帧内容长度 */
+    private static final int RESUME_LENGTH = 24;
+    /** 每收到多少条消息立即确认一次 */
+    private static final int ACK_EVERY = 8;
+    /** 消息不足{@link #ACK_EVERY}条时的延迟确认时间，毫秒 */
+    private static final long ACK_DELAY_MILLIS = 100;
+
+    /** 蓝牙设备，接受方为null */
+    private final BluetoothDevice mDevice;
+    /** 口令 */
+    private final UUID mUuid;
+    /** 是否是安全通信 */
+    private final boolean mSecure;
+    /** 会话回调 */
+    private final OnResilientSessionCallback mCallback;
+    /** 本方会话标识 */
+    private final long mSessionId;
+
+    /** 会话状态 */
+    private volatile int mState = STATE_IDLE;
+    /** 连接代数，每次连接或断开后递增，用于丢弃旧连接的事件 */
+    private int mGeneration;
+    /** 当前蓝牙终端 */
+    private BluetoothClient mClient;
+    /** 当前连接是否已完成恢复握手，完成前新消息只进入重放缓存 */
+    private boolean mResumed;
+    /** 重连任务 */
+    private Future<?> mReconnectFuture;
+    /** 延迟确认任务 */
+    private Future<?> mAckFuture;
+    /** 退避 */
+    private BluetoothBackoff mBackoff = new BluetoothBackoff(BluetoothBackoff.DEFAULT_BASE_MILLIS, BluetoothBackoff.DEFAULT_MAX_MILLIS);
+    /** 最大连续重连次数，0为不限 */
+    private int mMaxReconnectAttempts;
+    /** 重放缓存 */
+    private BluetoothReplayBuffer mReplayBuffer = new BluetoothReplayBuffer(DEFAULT_REPLAY_BUFFER_SIZE);
+
+    /** 对方会话标识，0为未知 */
+    private long mPeerSessionId;
+    /** 已收到的对方最大序号，-1表示接受任意起始序号 */
+    private long mReceivedSequence = -1;
+    /** 尚未确认的已收消息数 */
+    private int mUnacknowledged;
+
+    /** 连接断开的时间，纳秒，0为未断开 */
+    private long mLostTime;
+    /** 恢复次数 */
+    private int mRecoveryCount;
+    /** 最近一次恢复耗时，毫秒 */
+    private long mLastRecoveryMillis;
+    /** 恢复总耗时，毫秒 */
+    private long mTotalRecoveryMillis;
+    /** 重发的消息数 */
+    private long mReplayedCount;
+    /** 重发的字节数 */
+    private long mReplayedBytes;
+    /** 丢弃的重复消息数 */
+    private long mDuplicateCount;
+
+    /**
+     * 默认构造，包可见
+     * @param device 蓝牙设备，接受方为null
+     * @param uuid 口令
+     * @param secure 是否是安全通信
+     * @param callback 会话回调
+     */
+    BluetoothResilientSession(BluetoothDevice device, UUID uuid, boolean secure, OnResilientSessionCallback callback) {
+        if (null == callback)
+            throw new IllegalArgumentException("the OnResilientSessionCallback can't be null.");
+        mDevice = device;
+        mUuid = uuid;
+        mSecure = secure;
+        mCallback = callback;
+        long id;
+        Random random = new Random();
+        do {
+            id = random.nextLong();
+        } while (0 == id); // 0表示未知的会话
+        mSessionId = id;
+    }
+
+    /**
+     * 设置重连退避时间，须在启动前调用
+     * @param baseMillis 首次重连前的等待时间，毫秒
+     * @param maxMillis 最大等待时间，毫秒
+     * @throws IllegalArgumentException 参数不合法
+     * @throws IllegalStateException 会话已启动
+     */
+    public synchronized void setReconnectBackoff(long baseMillis, long maxMillis) {
+        checkIdle();
+        mBackoff = new BluetoothBackoff(baseMillis, maxMillis);
+    }
+
+    /**
+     * 设置最大连续重连次数，超过后关闭会话，须在启动前调用
+     * @param maxAttempts 次数，0为不限，默认不限
+     * @throws IllegalArgumentException 次数为负数
+     * @throws IllegalStateException 会话已启动
+     */
+    public synchronized void setMaxReconnectAttempts(int maxAttempts) {
+        if (maxAttempts < 0)
+            throw new IllegalArgumentException("maxAttempts can't be negative.");
+        checkIdle();
+        mMaxReconnectAttempts = maxAttempts;
+    }
+
+    /**
+     * 设置重放缓存容量，须在启动前调用
+     * @param size 容量，字节，默认为{@link #DEFAULT_REPLAY_BUFFER_SIZE}
+     * @throws IllegalArgumentException 容量不是正数
+     * @throws IllegalStateException 会话已启动
+     */
+    public synchronized void setReplayBufferSize(long size) {
+        checkIdle();
+        mReplayBuffer = new BluetoothReplayBuffer(size);
+    }
+
+    /**
+     * 启动会话，主动方开始连接，接受方等待{@link #attach(BluetoothClient)}
+     * @throws IllegalStateException 会话已启动
+     */
+    public void start() {
+        synchronized (this) {
+            checkIdle();
+            mState = STATE_CONNECTING;
+            if (null == mDevice)
+                return;
+        }
+        connect();
+    }
+
+    /**
+     * 交给会话一个已连接的蓝牙终端，通常是服务端接受的连接，原有连接会被关闭
+     * @param client 已连接的蓝牙终端
+     * @throws IOException 会话已关闭或开始接收数据失败
+     * @throws IllegalArgumentException 蓝牙终端为null
+     */
+    public void attach(BluetoothClient client) throws IOException {
+        if (null == client)
+            throw new IllegalArgumentException("the BluetoothClient can't be null.");
+        int generation;
+        BluetoothClient previous;
+        synchronized (this) {
+            if (STATE_CLOSED == mState)
+                throw new IOException("Bluetooth resilient session is closed.");
+            if (STATE_IDLE == mState)
+                mState = STATE_CONNECTING;
+            previous = detach();
+            generation = ++mGeneration;
+            if (null != mReconnectFuture) {
+                mReconnectFuture.cancel(false);
+                mReconnectFuture = null;
+            }
+        }
+        shutdown(previous);
+        onClientConnected(generation, client);
+    }
+
+    /**
+     * 发送一条消息，消息在对方确认前保留在重放缓存中，连接断开期间发送的消息在恢复后发出
+     * @param data 消息内容，会被复制
+     * @throws IOException 会话已关闭或重放缓存已满
+     * @throws IllegalArgumentException 消息为null或超过{@link #MAX_MESSAGE_LENGTH}
+     */
+    public void send(byte[] data) throws IOException {
+        if (null == data)
+            throw new IllegalArgumentException("the data can't be null.");
+        if (data.length > MAX_MESSAGE_LENGTH)
+            throw new IllegalArgumentException("message length " + data.length + " exceeds " + MAX_MESSAGE_LENGTH + ".");
+        synchronized (this) {
+            if (STATE_CLOSED == mState)
+                throw new IOException("Bluetooth resilient session is closed.");
+            BluetoothReplayBuffer.Message message = mReplayBuffer.add(data.clone());
+            if (!mResumed)
+                return;
+            try {
+                write(encode(FRAME_DATA, message.mSequence, message.mData));
+            } catch (IOException e) {
+                // 连接已断开，由接收线程报告，消息在恢复后重发
+            }
+        }
+    }
+
+    /**
+     * 关闭会话，未确认的消息被丢弃
+     */
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * 关闭会话
+     * @param e 关闭原因，主动关闭时为null
+     */
+    private void close(IOException e) {
+        BluetoothClient client;
+        synchronized (this) {
+            if (STATE_CLOSED == mState)
+                return;
+            mState = STATE_CLOSED;
+            client = detach();
+            if (null != mReconnectFuture) {
+                mReconnectFuture.cancel(false);
+                mReconnectFuture = null;
+            }
+        }
+        shutdown(client);
+        mCallback.notifyClosed(this, e);
+    }
+
+    /**
+     * 获取会话状态
+     * @return {@link #STATE_IDLE}、{@link #STATE_CONNECTING}、{@link #STATE_CONNECTED}、{@link #STATE_RECOVERING}
+     * 或{@link #STATE_CLOSED}
+     */
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * 获取当前连接的蓝牙终端
+     * @return 蓝牙终端，未连接时为null
+     */
+    public synchronized BluetoothClient getClient() {
+        return mClient;
+    }
+
+    /**
+     * 获取恢复次数
+     * @return 次数
+     */
+    public synchronized int getRecoveryCount() {
+        return mRecoveryCount;
+    }
+
+    /**
+     * 获取最近一次恢复耗时，从发现连接断开到恢复握手完成
+     * @return 毫秒
+     */
+    public synchronized long getLastRecoveryMillis() {
+        return mLastRecoveryMillis;
+    }
+
+    /**
+     * 获取恢复总耗时
+     * @return 毫秒
+     */
+    public synchronized long getTotalRecoveryMillis() {
+        return mTotalRecoveryMillis;
+    }
+
+    /**
+     * 获取恢复后重发的消息数
+     * @return 消息数
+     */
+    public synchronized long getReplayedCount() {
+        return mReplayedCount;
+    }
+
+    /**
+     * 获取恢复后重发的字节数，不含帧头
+     * @return 字节数
+     */
+    public synchronized long getReplayedBytes() {
+        return mReplayedBytes;
+    }
+
+    /**
+     * 获取按序号丢弃的重复消息数
+     * @return 消息数
+     */
+    public synchronized long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * 获取对方尚未确认的消息数
+     * @return 消息数
+     */
+    public synchronized int getUnacknowledgedCount() {
+        return mReplayBuffer.size();
+    }
+
+    /**
+     * 获取对方尚未确认的字节数
+     * @return 字节数
+     */
+    public synchronized long getUnacknowledgedBytes() {
+        return mReplayBuffer.bytes();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BluetoothResilientSession{state=" + mState
+                + ", recoveries=" + mRecoveryCount
+                + ", lastRecoveryMillis=" + mLastRecoveryMillis
+                + ", replayed=" + mReplayedCount + "/" + mReplayedBytes + "B"
+                + ", duplicates=" + mDuplicateCount
+                + ", unacknowledged=" + mReplayBuffer.size() + "/" + mReplayBuffer.bytes() + "B}";
+    }
+
+    /**
+     * 新建蓝牙终端并发起连接，在调用线程或定时器线程中执行
+     */
+    private void connect() {
+        final int generation;
+        BluetoothClient client = null;
+        synchronized (this) {
+            mReconnectFuture = null;
+            if (STATE_CLOSED == mState)
+                return;
+            generation = ++mGeneration;
+        }
+        try {
+            client = new BluetoothClient(mDevice, mUuid, mSecure);
+            client.asyncConnect(new BluetoothClient.OnBluetoothConnectCallback(BluetoothExecutors.direct()) {
+                @Override
+                public void onConnectSuccess(BluetoothClient client) {
+                    onClientConnected(generation, client);
+                }
+
+                @Override
+                public void onConnectFailure(Exception e) {
+                    onClientFailed(generation, e instanceof IOException ? (IOException) e : new IOException(e.toString()));
+                }
+            });
+        } catch (IOException e) {
+            shutdown(client);
+            onClientFailed(generation, e);
+        }
+    }
+
+    /**
+     * 连接建立后发送恢复帧并开始接收数据
+     * @param generation 发起连接时的连接代数
+     * @param client 已连接的蓝牙终端
+     */
+    private void onClientConnected(int generation, BluetoothClient client) {
+        synchronized (this) {
+            if (generation != mGeneration || STATE_CLOSED == mState) {
+                generation = -1;
+            } else {
+                mClient = client;
+                mResumed = false;
+            }
+        }
+        if (generation < 0) { // 会话已关闭或已有更新的连接
+            shutdown(client);
+            return;
+        }
+        try {
+            client.setFrameDecoder(new BluetoothLengthFieldFrameDecoder(9, 4, ByteOrder.BIG_ENDIAN, 0, 0,
+                    HEADER_LENGTH + MAX_MESSAGE_LENGTH));
+            // 恢复帧须在开始接收前、在重发所用的会话锁内入队，否则对方的恢复帧触发的重发消息会先于本方恢复帧发出，
+            // 对方按旧的序号把这些消息当作重复消息丢弃
+            synchronized (this) {
+                if (generation != mGeneration) // 已有更新的连接，本连接已被关闭
+                    return;
+                ByteBuffer resume = ByteBuffer.allocate(RESUME_LENGTH);
+                resume.putLong(mSessionId).putLong(mPeerSessionId).putLong(mReceivedSequence);
+                client.asyncWrite(encode(FRAME_RESUME, 0, resume.array()));
+            }
+            client.asyncRead(new SessionInputCallback(generation));
+        } catch (IOException e) {
+            onLost(generation, e);
+        }
+    }
+
+    /**
+     * 连接失败，按退避时间安排下一次连接
+     * @param generation 发起连接时的连接代数
+     * @param e 失败原因
+     */
+    private void onClientFailed(int generation, IOException e) {
+        synchronized (this) {
+            if (generation != mGeneration || STATE_CLOSED == mState)
+                return;
+        }
+        scheduleReconnect(e);
+    }
+
+    /**
+     * 连接断开
+     * @param generation 断开连接的连接代数
+     * @param e 断开原因
+     */
+    private void onLost(int generation, IOException e) {
+        BluetoothClient client;
+        boolean notify;
+        synchronized (this) {
+            if (generation != mGeneration || STATE_CLOSED == mState)
+                return;
+            mGeneration++;
+            client = detach();
+            notify = STATE_CONNECTED == mState;
+            if (notify) {
+                mState = STATE_RECOVERING;
+                mLostTime = System.nanoTime();
+            }
+        }
+        shutdown(client);
+        if (notify)
+            mCallback.notifyConnectionLost(this, e);
+        if (null != mDevice)
+            scheduleReconnect(e);
+    }
+
+    /**
+     * 安排下一次重连，超过最大重连次数时关闭会话
+     * @param e 上一次失败的原因
+     */
+    private void scheduleReconnect(IOException e) {
+        synchronized (this) {
+            if (STATE_CLOSED == mState)
+                return;
+            if (0 == mMaxReconnectAttempts || mBackoff.attempts() < mMaxReconnectAttempts) {
+                mReconnectFuture = BluetoothExecutors.timer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        connect();
+                    }
+                }, mBackoff.next(), TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        close(new IOException("Bluetooth resilient session gave up after " + mMaxReconnectAttempts
+                + " reconnect attempts: " + e.getMessage()));
+    }
+
+    /**
+     * 处理一个完整的数据帧，在蓝牙接收线程中调用
+     * @param generation 连接代数
+     * @param frame 数据帧
+     */
+    private void onFrame(int generation, BluetoothBuffer frame) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(frame.array(), frame.offset(), frame.length());
+        byte type = bb.get();
+        long sequence = bb.getLong();
+        int length = bb.getInt();
+        switch (type) {
+            case FRAME_DATA:
+                onData(generation, sequence, frame.array(), frame.offset() + HEADER_LENGTH, length);
+                break;
+            case FRAME_ACK:
+                synchronized (this) {
+                    if (generation == mGeneration)
+                        mReplayBuffer.acknowledge(sequence);
+                }
+                break;
+            case FRAME_RESUME:
+                if (length != RESUME_LENGTH)
+                    throw new IOException("malformed resume frame.");
+                onResume(generation, bb.getLong(), bb.getLong(), bb.getLong());
+                break;
+            default:
+                throw new IOException("unknown session frame type " + type + ".");
+        }
+    }
+
+    /**
+     * 收到对方的恢复帧，丢弃对方已收到的消息并重发其余消息
+     * @param generation 连接代数
+     * @param peerSessionId 对方会话标识
+     * @param knownSessionId 对方已知的本方会话标识
+     * @param received 对方已收到的本方最大序号
+     */
+    private void onResume(int generation, long peerSessionId, long knownSessionId, long received) {
+        int replayed = 0;
+        long recoveryMillis = -1;
+        synchronized (this) {
+            if (generation != mGeneration || STATE_CLOSED == mState)
+                return;
+            if (peerSessionId != mPeerSessionId) { // 对方是新的会话，从其第一条消息开始接收
+                mPeerSessionId = peerSessionId;
+                mReceivedSequence = -1;
+                mUnacknowledged = 0;
+            }
+            if (knownSessionId == mSessionId)
+                mReplayBuffer.acknowledge(received);
+            try {
+                for (BluetoothReplayBuffer.Message message : mReplayBuffer.pending()) {
+                    write(encode(FRAME_DATA, message.mSequence, message.mData));
+                    replayed++;
+                    if (0 != mLostTime) {
+                        mReplayedCount++;
+                        mReplayedBytes += message.mData.length;
+                    }
+                }
+            } catch (IOException e) {
+                return; // 连接已断开，由接收线程报告
+            }
+            mResumed = true;
+            mState = STATE_CONNECTED;
+            mBackoff.reset();
+            if (0 != mLostTime) {
+                recoveryMillis = (System.nanoTime() - mLostTime) / 1000000;
+                mLostTime = 0;
+                mRecoveryCount++;
+                mLastRecoveryMillis = recoveryMillis;
+                mTotalRecoveryMillis += recoveryMillis;
+            }
+        }
+        if (recoveryMillis < 0)
+            mCallback.notifyConnected(this);
+        else
+            mCallback.notifyRecovered(this, recoveryMillis, replayed);
+    }
+
+    /**
+     * 收到对方的消息，按序号去重后交给回调
+     * @param generation 连接代数
+     * @param sequence 序号
+     * @param array 字节缓存
+     * @param offset 消息起始位置
+     * @param length 消息长度
+     */
+    private void onData(final int generation, long sequence, byte[] array, int offset, int length) {
+        boolean ackNow = false;
+        synchronized (this) {
+            if (generation != mGeneration)
+                return;
+            if (mReceivedSequence >= 0 && sequence <= mReceivedSequence) {
+                mDuplicateCount++;
+                return;
+            }
+            mReceivedSequence = sequence;
+            if (++mUnacknowledged >= ACK_EVERY) {
+                ackNow = true;
+            } else if (null == mAckFuture) {
+                mAckFuture = BluetoothExecutors.timer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        acknowledge(generation);
+                    }
+                }, ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        byte[] data = new byte[length];
+        System.arraycopy(array, offset, data, 0, length);
+        mCallback.notifyMessage(this, data);
+        if (ackNow)
+            acknowledge(generation);
+    }
+
+    /**
+     * 向对方确认已收到的最大序号
+     * @param generation 连接代数
+     */
+    private synchronized void acknowledge(int generation) {
+        if (null != mAckFuture) {
+            mAckFuture.cancel(false);
+            mAckFuture = null;
+        }
+        if (generation != mGeneration || !mResumed || 0 == mUnacknowledged)
+            return;
+        mUnacknowledged = 0;
+        try {
+            write(encode(FRAME_ACK, mReceivedSequence, new byte[0]));
+        } catch (IOException e) {
+            // 连接已断开，由接收线程报告，恢复帧会再次携带已收到的序号
+        }
+    }
+
+    /**
+     * 写出一个数据帧，需持有会话锁
+     * @param frame 数据帧
+     * @throws IOException 未连接或写入失败
+     */
+    private void write(byte[] frame) throws IOException {
+        if (null == mClient)
+            throw new IOException("Bluetooth resilient session is not connected.");
+        mClient.asyncWrite(frame);
+    }
+
+    /**
+     * 编码数据帧
+     * @param type 帧类型
+     * @param sequence 序号
+     * @param data 帧内容
+     * @return 数据帧
+     */
+    private static byte[] encode(byte type, long sequence, byte[] data) {
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_LENGTH + data.length);
+        bb.put(type).putLong(sequence).putInt(data.length).put(data);
+        return bb.array();
+    }
+
+    /**
+     * 解除当前连接，需持有会话锁
+     * @return 原蓝牙终端
+     */
+    private BluetoothClient detach() {
+        BluetoothClient client = mClient;
+        mClient = null;
+        mResumed = false;
+        if (null != mAckFuture) {
+            mAckFuture.cancel(false);
+            mAckFuture = null;
+        }
+        return client;
+    }
+
+    /**
+     * 关闭蓝牙终端
+     * @param client 蓝牙终端，可为null
+     */
+    private static void shutdown(BluetoothClient client) {
+        if (null == client)
+            return;
+        try {
+            client.shutdown();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 检查会话是否尚未启动，需持有会话锁
+     * @throws IllegalStateException 会话已启动
+     */
+    private void checkIdle() {
+        if (STATE_IDLE != mState)
+            throw new IllegalStateException("Bluetooth resilient session is already started.");
+    }
+
+    /**
+     * 会话数据接收回调，直接在蓝牙接收线程中处理数据帧
+     */
+    private class SessionInputCallback extends BluetoothClient.BluetoothInputCallback {
+        /** 连接代数 */
+        private final int mGeneration;
+
+        SessionInputCallback(int generation) {
+            super(BluetoothExecutors.direct());
+            mGeneration = generation;
+        }
+
+        @Override
+        public void onInput(BluetoothBuffer buffer) {
+            try {
+                onFrame(mGeneration, buffer);
+            } catch (IOException e) {
+                onLost(mGeneration, e);
+            } finally {
+                buffer.release();
+            }
+        }
+
+        @Override
+        public void onInput(byte[] buffer) {
+        }
+
+        @Override
+        public void onDisconnected(IOException e) {
+            onLost(mGeneration, e);
+        }
+    }
+
+    /**
+     * 可恢复蓝牙会话回调
+     */
+    public static abstract class OnResilientSessionCallback {
+        /** 首次连接完成消息 */
+        private static final int MESSAGE_SESSION_CONNECTED = 1;
+        /** 收到消息 */
+        private static final int MESSAGE_SESSION_MESSAGE = 2;
+        /** 连接断开消息 */
+        private static final int MESSAGE_SESSION_CONNECTION_LOST = 3;
+        /** 恢复完成消息 */
+        private static final int MESSAGE_SESSION_RECOVERED = 4;
+        /** 会话关闭消息 */
+        private static final int MESSAGE_SESSION_CLOSED = 5;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnResilientSessionCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnResilientSessionCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnResilientSessionCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 会话回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                SessionEvent event = (SessionEvent) obj;
+                switch (what) {
+                    case MESSAGE_SESSION_CONNECTED:
+                        onConnected(event.mSession);
+                        break;
+                    case MESSAGE_SESSION_MESSAGE:
+                        onMessage(event.mSession, event.mData);
+                        break;
+                    case MESSAGE_SESSION_CONNECTION_LOST:
+                        onConnectionLost(event.mSession, event.mException);
+                        break;
+                    case MESSAGE_SESSION_RECOVERED:
+                        onRecovered(event.mSession, event.mRecoveryMillis, event.mReplayed);
+                        break;
+                    case MESSAGE_SESSION_CLOSED:
+                        onClosed(event.mSession, event.mException);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 通知回调首次连接完成方法
+         * @param session 会话
+         */
+        void notifyConnected(BluetoothResilientSession session) {
+            mDispatcher.dispatch(MESSAGE_SESSION_CONNECTED, new SessionEvent(session, null, null, 0, 0));
+        }
+
+        /**
+         * 通知回调收到消息方法
+         * @param session 会话
+         * @param data 消息内容
+         */
+        void notifyMessage(BluetoothResilientSession session, byte[] data) {
+            mDispatcher.dispatch(MESSAGE_SESSION_MESSAGE, new SessionEvent(session, data, null, 0, 0));
+        }
+
+        /**
+         * 通知回调连接断开方法
+         * @param session 会话
+         * @param e 断开原因
+         */
+        void notifyConnectionLost(BluetoothResilientSession session, IOException e) {
+            mDispatcher.dispatch(MESSAGE_SESSION_CONNECTION_LOST, new SessionEvent(session, null, e, 0, 0));
+        }
+
+        /**
+         * 通知回调恢复完成方法
+         * @param session 会话
+         * @param recoveryMillis 恢复耗时，毫秒
+         * @param replayed 重发的消息数
+         */
+        void notifyRecovered(BluetoothResilientSession session, long recoveryMillis, int replayed) {
+            mDispatcher.dispatch(MESSAGE_SESSION_RECOVERED, new SessionEvent(session, null, null, recoveryMillis, replayed));
+        }
+
+        /**
+         * 通知回调会话关闭方法
+         * @param session 会话
+         * @param e 关闭原因
+         */
+        void notifyClosed(BluetoothResilientSession session, IOException e) {
+            mDispatcher.dispatch(MESSAGE_SESSION_CLOSED, new SessionEvent(session, null, e, 0, 0));
+        }
+
+        /**
+         * 首次连接并完成恢复握手
+         * @param session 会话
+         */
+        public abstract void onConnected(BluetoothResilientSession session);
+
+        /**
+         * 收到对方的消息，同一条消息只回调一次
+         * @param session 会话
+         * @param data 消息内容
+         */
+        public abstract void onMessage(BluetoothResilientSession session, byte[] data);
+
+        /**
+         * 连接断开，会话开始恢复，期间发送的消息在恢复后发出
+         * @param session 会话
+         * @param e 断开原因
+         */
+        public abstract void onConnectionLost(BluetoothResilientSession session, IOException e);
+
+        /**
+         * 重新连接并完成恢复握手
+         * @param session 会话
+         * @param recoveryMillis 从发现连接断开到恢复完成的耗时，毫秒
+         * @param replayed 重发的消息数
+         */
+        public abstract void onRecovered(BluetoothResilientSession session, long recoveryMillis, int replayed);
+
+        /**
+         * 会话关闭
+         * @param session 会话
+         * @param e 关闭原因，调用{@link BluetoothResilientSession#close()}关闭时为null
+         */
+        public abstract void onClosed(BluetoothResilientSession session, IOException e);
+
+        /**
+         * 会话事件
+         */
+        private static class SessionEvent {
+            final BluetoothResilientSession mSession;
+            final byte[] mData;
+            final IOException mException;
+            final long mRecoveryMillis;
+            final int mReplayed;
+
+            SessionEvent(BluetoothResilientSession session, byte[] data, IOException e, long recoveryMillis, int replayed) {
+                mSession = session;
+                mData = data;
+                mException = e;
+                mRecoveryMillis = recoveryMillis;
+                mReplayed = replayed;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.luoye.bluetooth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单生产者单消费者无锁环形队列。
+ * <p>仅允许一个线程调用{@link #offer(Object)}，一个线程调用{@link #peek()}和{@link #poll()}，
+ * 两端只通过读写指针交换数据，不使用任何锁。</p>
+ * @param <E> 元素类型
+ */
+class BluetoothRingBuffer<E> {
+    /** 元素数组 */
+    private final Object[] mElements;
+    /** 下标掩码，容量为2的幂 */
+    private final int mMask;
+    /** 读指针，仅由消费者写入 */
+    private final AtomicLong mHead = new AtomicLong();
+    /** 写指针，仅由生产者写入 */
+    private final AtomicLong mTail = new AtomicLong();
+    /** 生产者缓存的读指针，减少对读指针的访问 */
+    private long mHeadCache;
+
+    /**
+     * 默认构造
+     * @param capacity 期望容量，实际容量向上取整为2的幂
+     * @throws IllegalArgumentException 容量小于1
+     */
+    BluetoothRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity must be in [1, 2^30].");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        mElements = new Object[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * 获取队列容量
+     * @return 队列容量
+     */
+    int capacity() {
+        return mElements.length;
+    }
+
+    /**
+     * 生产者写入元素
+     * @param e 元素，不能为null
+     * @return false 队列已满
+     */
+    boolean offer(E e) {
+        long tail = mTail.get();
+        if (tail - mHeadCache >= mElements.length) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache >= mElements.length)
+                return false;
+        }
+        mElements[(int) tail & mMask] = e;
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * 消费者查看队首元素，不移出队列
+     * @return 队首元素，队列为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    E peek() {
+        long head = mHead.get();
+        if (head >= mTail.get())
+            return null;
+        return (E) mElements[(int) head & mMask];
+    }
+
+    /**
+     * 消费者移出队首元素
+     * @return 队首元素，队列为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long head = mHead.get();
+        if (head >= mTail.get())
+            return null;
+        int index = (int) head & mMask;
+        E e = (E) mElements[index];
+        mElements[index] = null;
+        mHead.set(head + 1);
+        return e;
+    }
+
+    /**
+     * 队列是否为空
+     * @return true 队列为空
+     */
+    boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    /**
+     * 队列是否已满
+     * @return true 队列已满
+     */
+    boolean isFull() {
+        return mTail.get() - mHead.get() >= mElements.length;
+    }
+
+    /**
+     * 获取队列中元素数量的近似值
+     * @return 元素数量
+     */
+    int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+}
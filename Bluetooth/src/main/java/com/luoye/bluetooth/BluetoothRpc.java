@@ -0,0 +1,536 @@
+package com.luoye.bluetooth;
+
+import android.os.Looper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 蓝牙远程调用层，在一个已连接的蓝牙终端上以关联标识匹配请求和应答。
+ * <p>多个请求可以不等应答连续发出，在途请求数达到上限后新的请求按调用顺序排队，有请求完成时再发出，
+ * 链路往返延迟因此被流水线掩盖。每个请求都有截止时间，从调用时开始计算，超时后以失败完成。</p>
+ * <p>双方均可发起请求，收到的请求交给{@link OnRpcRequestCallback}，处理后调用{@link #reply(int, byte[])}
+ * 或{@link #replyError(int, String)}应答，应答顺序不必与请求顺序一致。</p>
+ * <p>远程调用层独占蓝牙终端的数据接收和帧解码。帧格式：1字节类型、4字节关联标识、4字节大端长度，之后为内容。</p>
+ */
+public final class BluetoothRpc {
+    /** 默认最大在途请求数 */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    /** 默认请求截止时间，毫秒 */
+    public static final long DEFAULT_TIMEOUT = 5000;
+    /** 单个请求或应答的最大长度 */
+    public static final int MAX_MESSAGE_LENGTH = 64 * 1024;
+
+    /** 帧类型：请求 */
+    private static final byte FRAME_REQUEST = 1;
+    /** 帧类型：应答 */
+    private static final byte FRAME_RESPONSE = 2;
+    /** 帧类型：错误应答，内容为UTF-8编码的错误信息 */
+    private static final byte FRAME_ERROR = 3;
+    /** 帧头长度 */
+    private static final int HEADER_LENGTH = 9;
+    /** 错误信息编码 */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** 蓝牙终端 */
+    private final BluetoothClient mClient;
+    /** 最大在途请求数 */
+    private final int mMaxInFlight;
+    /** 已发出、等待应答的请求 */
+    private final HashMap<Integer, BluetoothRpcFuture> mInFlight = new HashMap<>();
+    /** 等待发出的请求 */
+    private final ArrayDeque<PendingCall> mQueue = new ArrayDeque<>();
+    /** 下一个关联标识 */
+    private int mNextId = 1;
+    /** 请求处理回调 */
+    private volatile OnRpcRequestCallback mRequestCallback;
+    /** 关闭原因，未关闭时为null */
+    private IOException mClosed;
+
+    /**
+     * 构造函数，最大在途请求数为{@link #DEFAULT_MAX_IN_FLIGHT}
+     * @param client 已连接的蓝牙终端
+     * @throws IllegalArgumentException 蓝牙终端为null
+     */
+    public BluetoothRpc(BluetoothClient client) {
+        this(client, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * 构造函数
+     * @param client 已连接的蓝牙终端
+     * @param maxInFlight 最大在途请求数，为1时退化为一问一答
+     * @throws IllegalArgumentException 蓝牙终端为null或在途请求数小于1
+     */
+    public BluetoothRpc(BluetoothClient client, int maxInFlight) {
+        if (null == client)
+            throw new IllegalArgumentException("the BluetoothClient can't be null.");
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be positive.");
+        mClient = client;
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * 开始接收请求和应答
+     * @param callback 请求处理回调，为null时对方的请求一律以错误应答
+     * @throws IOException 蓝牙未连接
+     */
+    public void start(OnRpcRequestCallback callback) throws IOException {
+        mRequestCallback = callback;
+        mClient.setFrameDecoder(new BluetoothLengthFieldFrameDecoder(5, 4, ByteOrder.BIG_ENDIAN, 0, 0,
+                HEADER_LENGTH + MAX_MESSAGE_LENGTH));
+        mClient.asyncRead(new RpcInputCallback());
+    }
+
+    /**
+     * 发起请求，截止时间为{@link #DEFAULT_TIMEOUT}
+     * @param request 请求内容，会被复制
+     * @return 调用结果
+     * @see #call(byte[], long, OnRpcResponseCallback)
+     */
+    public BluetoothRpcFuture call(byte[] request) {
+        return call(request, DEFAULT_TIMEOUT, null);
+    }
+
+    /**
+     * 发起请求
+     * @param request 请求内容，会被复制
+     * @param timeoutMillis 截止时间，毫秒，为0时不限时
+     * @return 调用结果
+     * @see #call(byte[], long, OnRpcResponseCallback)
+     */
+    public BluetoothRpcFuture call(byte[] request, long timeoutMillis) {
+        return call(request, timeoutMillis, null);
+    }
+
+    /**
+     * 发起请求。
+     * <p>该方法不会阻塞，在途请求已满时请求进入队列。远程调用层已关闭时返回的结果立即以失败完成。</p>
+     * @param request 请求内容，会被复制
+     * @param timeoutMillis 截止时间，毫秒，为0时不限时
+     * @param callback 完成回调，可为null
+     * @return 调用结果
+     * @throws IllegalArgumentException 请求为null、超过{@link #MAX_MESSAGE_LENGTH}或截止时间为负数
+     */
+    public BluetoothRpcFuture call(byte[] request, long timeoutMillis, OnRpcResponseCallback callback) {
+        if (null == request)
+            throw new IllegalArgumentException("the request can't be null.");
+        if (request.length > MAX_MESSAGE_LENGTH)
+            throw new IllegalArgumentException("request length " + request.length + " exceeds " + MAX_MESSAGE_LENGTH + ".");
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("timeoutMillis can't be negative.");
+
+        final BluetoothRpcFuture future;
+        IOException closed;
+        synchronized (this) {
+            int id = mNextId++;
+            if (0 == mNextId)
+                mNextId = 1;
+            future = new BluetoothRpcFuture(this, id, callback);
+            closed = mClosed;
+            if (null == closed) {
+                byte[] frame = encode(FRAME_REQUEST, id, request, 0, request.length);
+                if (mInFlight.size() < mMaxInFlight)
+                    send(future, frame);
+                else
+                    mQueue.addLast(new PendingCall(future, frame));
+            }
+        }
+        if (null != closed) {
+            future.fail(closed);
+        } else if (timeoutMillis > 0) {
+            future.setDeadline(BluetoothExecutors.timer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.fail(new IOException("RPC " + future.getId() + " deadline exceeded.")))
+                        remove(future.getId());
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        return future;
+    }
+
+    /**
+     * 应答对方的请求
+     * @param id 请求的关联标识
+     * @param response 应答内容
+     * @throws IOException 蓝牙未连接
+     * @throws IllegalArgumentException 应答为null或超过{@link #MAX_MESSAGE_LENGTH}
+     */
+    public void reply(int id, byte[] response) throws IOException {
+        if (null == response)
+            throw new IllegalArgumentException("the response can't be null.");
+        if (response.length > MAX_MESSAGE_LENGTH)
+            throw new IllegalArgumentException("response length " + response.length + " exceeds " + MAX_MESSAGE_LENGTH + ".");
+        mClient.asyncWrite(encode(FRAME_RESPONSE, id, response, 0, response.length));
+    }
+
+    /**
+     * 以错误应答对方的请求，对方的调用以包含错误信息的{@link IOException}失败
+     * @param id 请求的关联标识
+     * @param message 错误信息
+     * @throws IOException 蓝牙未连接
+     */
+    public void replyError(int id, String message) throws IOException {
+        byte[] bytes = String.valueOf(message).getBytes(UTF_8);
+        int length = Math.min(bytes.length, MAX_MESSAGE_LENGTH);
+        mClient.asyncWrite(encode(FRAME_ERROR, id, bytes, 0, length));
+    }
+
+    /**
+     * 获取在途请求数
+     * @return 请求数
+     */
+    public synchronized int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    /**
+     * 获取排队等待发出的请求数
+     * @return 请求数
+     */
+    public synchronized int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * 关闭远程调用层，未完成的请求全部失败，不会关闭蓝牙终端
+     */
+    public void close() {
+        close(new IOException("Bluetooth RPC is closed."));
+    }
+
+    /**
+     * 关闭远程调用层
+     * @param e 失败原因
+     */
+    private void close(IOException e) {
+        ArrayList<BluetoothRpcFuture> failed = new ArrayList<>();
+        synchronized (this) {
+            if (null != mClosed)
+                return;
+            mClosed = e;
+            failed.addAll(mInFlight.values());
+            mInFlight.clear();
+            for (PendingCall call : mQueue)
+                failed.add(call.mFuture);
+            mQueue.clear();
+        }
+        mClient.cancelAsyncRead();
+        for (BluetoothRpcFuture future : failed)
+            future.fail(e);
+    }
+
+    /**
+     * 移除已完成或已取消的请求，并发出排队中的请求
+     * @param id 关联标识
+     */
+    void remove(int id) {
+        synchronized (this) {
+            if (null == mInFlight.remove(id)) {
+                for (PendingCall call : mQueue) {
+                    if (call.mFuture.getId() == id) {
+                        mQueue.remove(call);
+                        break;
+                    }
+                }
+                return;
+            }
+            while (null == mClosed && mInFlight.size() < mMaxInFlight && !mQueue.isEmpty()) {
+                PendingCall call = mQueue.pollFirst();
+                send(call.mFuture, call.mFrame);
+            }
+        }
+    }
+
+    /**
+     * 写出请求并登记为在途请求，需持有远程调用层锁
+     * @param future 调用结果
+     * @param frame 请求帧
+     */
+    private void send(final BluetoothRpcFuture future, byte[] frame) {
+        mInFlight.put(future.getId(), future);
+        try {
+            mClient.asyncWrite(frame);
+        } catch (final IOException e) {
+            mInFlight.remove(future.getId());
+            // 在锁外完成，避免在持有锁时回调
+            BluetoothExecutors.timer().execute(new Runnable() {
+                @Override
+                public void run() {
+                    future.fail(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 处理一个完整的数据帧，在蓝牙接收线程中调用
+     * @param frame 数据帧
+     * @throws IOException 帧类型未知
+     */
+    private void onFrame(BluetoothBuffer frame) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(frame.array(), frame.offset(), frame.length());
+        byte type = bb.get();
+        int id = bb.getInt();
+        int length = bb.getInt();
+        byte[] payload = new byte[length];
+        bb.get(payload);
+        switch (type) {
+            case FRAME_REQUEST:
+                OnRpcRequestCallback callback = mRequestCallback;
+                if (null == callback)
+                    replyError(id, "no request handler.");
+                else
+                    callback.notifyRequest(this, id, payload);
+                break;
+            case FRAME_RESPONSE:
+            case FRAME_ERROR:
+                BluetoothRpcFuture future;
+                synchronized (this) {
+                    future = mInFlight.get(id);
+                }
+                if (null == future) // 已超时或已取消
+                    break;
+                if (FRAME_RESPONSE == type)
+                    future.complete(payload);
+                else
+                    future.fail(new IOException("RPC " + id + " failed remotely: " + new String(payload, UTF_8)));
+                remove(id);
+                break;
+            default:
+                throw new IOException("unknown RPC frame type " + type + ".");
+        }
+    }
+
+    /**
+     * 编码数据帧
+     * @param type 帧类型
+     * @param id 关联标识
+     * @param data 字节缓存
+     * @param offset 内容起始位置
+     * @param length 内容长度
+     * @return 数据帧
+     */
+    private static byte[] encode(byte type, int id, byte[] data, int offset, int length) {
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_LENGTH + length);
+        bb.put(type).putInt(id).putInt(length).put(data, offset, length);
+        return bb.array();
+    }
+
+    /**
+     * 排队等待发出的请求
+     */
+    private static class PendingCall {
+        /** 调用结果 */
+        final BluetoothRpcFuture mFuture;
+        /** 请求帧 */
+        final byte[] mFrame;
+
+        PendingCall(BluetoothRpcFuture future, byte[] frame) {
+            mFuture = future;
+            mFrame = frame;
+        }
+    }
+
+    /**
+     * 远程调用数据接收回调，直接在蓝牙接收线程中处理数据帧
+     */
+    private class RpcInputCallback extends BluetoothClient.BluetoothInputCallback {
+        RpcInputCallback() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onInput(BluetoothBuffer buffer) {
+            try {
+                onFrame(buffer);
+            } catch (IOException e) {
+                close(e);
+            } finally {
+                buffer.release();
+            }
+        }
+
+        @Override
+        public void onInput(byte[] buffer) {
+        }
+
+        @Override
+        public void onDisconnected(IOException e) {
+            close(null == e ? new IOException("Bluetooth client is disconnected.") : e);
+        }
+    }
+
+    /**
+     * 远程调用完成回调
+     */
+    public static abstract class OnRpcResponseCallback {
+        /** 应答消息 */
+        private static final int MESSAGE_RPC_RESPONSE = 1;
+        /** 失败消息 */
+        private static final int MESSAGE_RPC_FAILURE = 2;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnRpcResponseCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnRpcResponseCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnRpcResponseCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 远程调用完成回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                switch (what) {
+                    case MESSAGE_RPC_RESPONSE:
+                        onResponse((byte[]) obj);
+                        break;
+                    case MESSAGE_RPC_FAILURE:
+                        onFailure((IOException) obj);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 通知回调应答方法
+         * @param response 应答内容
+         */
+        void notifyResponse(byte[] response) {
+            mDispatcher.dispatch(MESSAGE_RPC_RESPONSE, response);
+        }
+
+        /**
+         * 通知回调失败方法
+         * @param e 失败原因
+         */
+        void notifyFailure(IOException e) {
+            mDispatcher.dispatch(MESSAGE_RPC_FAILURE, e);
+        }
+
+        /**
+         * 收到应答
+         * @param response 应答内容
+         */
+        public abstract void onResponse(byte[] response);
+
+        /**
+         * 调用失败、超过截止时间或连接断开
+         * @param e 失败原因
+         */
+        public abstract void onFailure(IOException e);
+    }
+
+    /**
+     * 远程调用请求处理回调
+     */
+    public static abstract class OnRpcRequestCallback {
+        /** 请求消息 */
+        private static final int MESSAGE_RPC_REQUEST = 1;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnRpcRequestCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnRpcRequestCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnRpcRequestCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 请求处理回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                RequestEvent event = (RequestEvent) obj;
+                onRequest(event.mRpc, event.mId, event.mRequest);
+            }
+        }
+
+        /**
+         * 通知回调请求方法
+         * @param rpc 远程调用层
+         * @param id 关联标识
+         * @param request 请求内容
+         */
+        void notifyRequest(BluetoothRpc rpc, int id, byte[] request) {
+            mDispatcher.dispatch(MESSAGE_RPC_REQUEST, new RequestEvent(rpc, id, request));
+        }
+
+        /**
+         * 收到对方的请求，处理后以{@code id}调用{@link BluetoothRpc#reply(int, byte[])}或
+         * {@link BluetoothRpc#replyError(int, String)}应答
+         * @param rpc 远程调用层
+         * @param id 关联标识
+         * @param request 请求内容
+         */
+        public abstract void onRequest(BluetoothRpc rpc, int id, byte[] request);
+
+        /**
+         * 请求事件
+         */
+        private static class RequestEvent {
+            final BluetoothRpc mRpc;
+            final int mId;
+            final byte[] mRequest;
+
+            RequestEvent(BluetoothRpc rpc, int id, byte[] request) {
+                mRpc = rpc;
+                mId = id;
+                mRequest = request;
+            }
+        }
+    }
+}
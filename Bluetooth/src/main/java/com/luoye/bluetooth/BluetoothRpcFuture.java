@@ -0,0 +1,173 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 远程调用结果，由{@link BluetoothRpc#call(byte[], long)}返回。
+ * <p>调用失败、超过截止时间或连接断开时，{@link #get()}抛出{@link ExecutionException}，原因为{@link IOException}。</p>
+ */
+public final class BluetoothRpcFuture implements Future<byte[]> {
+    /** 所属远程调用层，取消时从中移除，可为null */
+    private final BluetoothRpc mRpc;
+    /** 关联标识 */
+    private final int mId;
+    /** 完成回调，可为null */
+    private final BluetoothRpc.OnRpcResponseCallback mCallback;
+
+    /** 是否已完成 */
+    private boolean mDone;
+    /** 是否已取消 */
+    private boolean mCancelled;
+    /** 应答内容 */
+    private byte[] mResponse;
+    /** 失败原因 */
+    private IOException mFailure;
+    /** 截止时间任务 */
+    private Future<?> mDeadline;
+
+    /**
+     * 默认构造，包可见
+     * @param rpc 所属远程调用层
+     * @param id 关联标识
+     * @param callback 完成回调，可为null
+     */
+    BluetoothRpcFuture(BluetoothRpc rpc, int id, BluetoothRpc.OnRpcResponseCallback callback) {
+        mRpc = rpc;
+        mId = id;
+        mCallback = callback;
+    }
+
+    /**
+     * 获取关联标识
+     * @return 关联标识
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * 设置截止时间任务，完成时取消
+     * @param deadline 截止时间任务
+     */
+    synchronized void setDeadline(Future<?> deadline) {
+        if (mDone)
+            deadline.cancel(false);
+        else
+            mDeadline = deadline;
+    }
+
+    /**
+     * 以应答完成
+     * @param response 应答内容
+     * @return true 本次调用完成了结果
+     */
+    boolean complete(byte[] response) {
+        synchronized (this) {
+            if (!finish())
+                return false;
+            mResponse = response;
+            notifyAll();
+        }
+        if (null != mCallback)
+            mCallback.notifyResponse(response);
+        return true;
+    }
+
+    /**
+     * 以失败完成
+     * @param e 失败原因
+     * @return true 本次调用完成了结果
+     */
+    boolean fail(IOException e) {
+        synchronized (this) {
+            if (!finish())
+                return false;
+            mFailure = e;
+            notifyAll();
+        }
+        if (null != mCallback)
+            mCallback.notifyFailure(e);
+        return true;
+    }
+
+    /**
+     * 标记为已完成并取消截止时间任务，需持有结果锁
+     * @return false 已经完成
+     */
+    private boolean finish() {
+        if (mDone)
+            return false;
+        mDone = true;
+        if (null != mDeadline) {
+            mDeadline.cancel(false);
+            mDeadline = null;
+        }
+        return true;
+    }
+
+    /**
+     * 取消调用，尚未发出的请求不再发出，已发出请求的应答将被丢弃，不回调完成回调
+     * @param mayInterruptIfRunning 未使用
+     * @return true 取消成功
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (!finish())
+                return false;
+            mCancelled = true;
+            notifyAll();
+        }
+        if (null != mRpc)
+            mRpc.remove(mId);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    @Override
+    public synchronized byte[] get() throws InterruptedException, ExecutionException {
+        while (!mDone)
+            wait();
+        return result();
+    }
+
+    @Override
+    public synchronized byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (!mDone) {
+            if (remaining <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return result();
+    }
+
+    /**
+     * 获取结果，需持有结果锁
+     * @return 应答内容
+     * @throws ExecutionException 调用失败
+     */
+    private byte[] result() throws ExecutionException {
+        if (mCancelled)
+            throw new CancellationException();
+        if (null != mFailure)
+            throw new ExecutionException(mFailure);
+        return mResponse;
+    }
+}
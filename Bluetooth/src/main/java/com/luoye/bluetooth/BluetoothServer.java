@@ -2,14 +2,16 @@ package com.luoye.bluetooth;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.os.Build;
-import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 蓝牙通信服务端，等待其他蓝牙设备接入，并完成蓝牙通信收发。
@@ -23,10 +25,29 @@ public class BluetoothServer {
     /** 蓝牙服务端状态：已关闭 */
     public static final int BLUETOOTH_SERVER_STATUS_CLOSED = 2;
 
+    /** 默认最大会话数，经典蓝牙一个主设备最多同时连接7个从设备 */
+    public static final int DEFAULT_MAX_SESSIONS = 7;
+    /** 每个会话最多占用的收发线程数：接收、分发、写入和文件发送 */
+    private static final int THREADS_PER_SESSION = 4;
+    /** 会话收发线程名前缀 */
+    private static final String SESSION_THREAD_NAME_PREFIX = "bluetooth-session";
+
     /** 接收套接字 */
     private BluetoothServerSocket mServerSocket;
+    /** 连接接受器 */
+    private final Acceptor mAcceptor;
     /** 蓝牙服务端状态 */
-    private int mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
+    private volatile int mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
+    /** 会话表，按建立顺序排列 */
+    private final LinkedHashMap<Integer, BluetoothSession> mSessions = new LinkedHashMap<>();
+    /** 下一个会话编号 */
+    private int mNextSessionId = 1;
+    /** 因会话数已满而拒绝的连接数 */
+    private long mRejectedCount;
+    /** 会话收发调度器 */
+    private BluetoothIoScheduler mSessionScheduler;
+    /** 连接统计，为null时不统计 */
+    private volatile BluetoothMetrics mMetrics;
 
     /**
      * 默认构造函数
@@ -46,6 +67,15 @@ public class BluetoothServer {
                 mServerSocket = adapter.listenUsingRfcommWithServiceRecord(name, uuid);
             }
         }
+        mAcceptor = new SocketAcceptor();
+    }
+
+    /**
+     * 构造函数，通过指定的连接接受器接受连接，不关联接收套接字，包可见
+     * @param acceptor 连接接受器
+     */
+    BluetoothServer(Acceptor acceptor) {
+        mAcceptor = acceptor;
     }
 
     /**
@@ -80,16 +110,12 @@ public class BluetoothServer {
         if (mStatus > BLUETOOTH_SERVER_STATUS_DISCONNECT)
             throw new IOException("Bluetooth server is accepting or shutdown.");
         mStatus = BLUETOOTH_SERVER_STATUS_ACCEPTING;
-        BluetoothClient client = null;
         try {
-            BluetoothSocket socket = mServerSocket.accept(timeout);
-            client = new BluetoothClient(socket);
-        } catch (IOException e) {
-            mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
-            throw e;
+            return acceptClient(timeout);
+        } finally {
+            if (mStatus < BLUETOOTH_SERVER_STATUS_CLOSED)
+                mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
         }
-        mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
-        return client;
     }
 
     /**
@@ -119,30 +145,395 @@ public class BluetoothServer {
         if (null == callback)
             throw new IllegalArgumentException("the OnBluetoothAcceptCallback can't be null.");
         mStatus = BLUETOOTH_SERVER_STATUS_ACCEPTING;
-        new Thread() {
+        final Runnable task = new Runnable() {
             @Override
             public void run() {
                 try {
-                    while (!isInterrupted()) {
-                        BluetoothSocket socket = mServerSocket.accept(timeout);
-                        callback.notifyCallSuccess(new BluetoothClient(socket));
+                    while (BLUETOOTH_SERVER_STATUS_ACCEPTING == mStatus) {
+                        callback.notifyCallSuccess(acceptClient(timeout));
                     }
                 } catch (IOException e) {
+                    callback.notifyCallFailure(e);
+                } finally {
+                    // 无论接受循环因何结束，都不能停留在接受中状态
                     if (mStatus < BLUETOOTH_SERVER_STATUS_CLOSED)
                         mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
-                    callback.notifyCallFailure(e);
                 }
             }
-        }.start();
+        };
+        try {
+            BluetoothIoScheduler.getDefault().execute(task);
+        } catch (RejectedExecutionException e) {
+            mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
+            throw new IOException("Bluetooth I/O scheduler rejected the accept task: " + e.getMessage());
+        }
     }
 
     /**
-     * 关闭蓝牙服务端
+     * 以会话模式持续接受连接，使用默认的最大会话数。
+     * @param callback 会话监听回调
+     * @throws IOException 蓝牙服务端正在接受请求或已关闭
+     * @throws IllegalArgumentException 监听回调为null
+     * @see #startSessions(int, OnBluetoothSessionCallback)
+     */
+    public void startSessions(OnBluetoothSessionCallback callback) throws IOException {
+        startSessions(DEFAULT_MAX_SESSIONS, callback);
+    }
+
+    /**
+     * 以会话模式持续接受连接。
+     * <p>该方法会立即返回。每个接入的连接建立一个{@link BluetoothSession}并登记在会话表中，
+     * 会话中的蓝牙终端与接受循环共用一个有界线程池，不再为每个连接单独创建线程。会话数已满时，新的连接会被直接关闭。
+     * 会话在蓝牙终端断开或关闭时自动关闭蓝牙终端并移除，归还其占用的线程，断开只能在异步读取期间被发现，因此会话建立后应尽快调用
+     * {@link BluetoothClient#asyncRead(BluetoothClient.BluetoothInputCallback)}。</p>
+     * @param maxSessions 最大会话数
+     * @param callback 会话监听回调
+     * @throws IOException 蓝牙服务端正在接受请求或已关闭
+     * @throws IllegalArgumentException 最大会话数小于1或监听回调为null
+     */
+    public void startSessions(int maxSessions, final OnBluetoothSessionCallback callback) throws IOException {
+        if (maxSessions < 1)
+            throw new IllegalArgumentException("maxSessions must be positive.");
+        if (null == callback)
+            throw new IllegalArgumentException("the OnBluetoothSessionCallback can't be null.");
+        final BluetoothIoScheduler executor;
+        synchronized (mSessions) {
+            if (mStatus > BLUETOOTH_SERVER_STATUS_DISCONNECT)
+                throw new IOException("Bluetooth server is accepting or shutdown.");
+            mStatus = BLUETOOTH_SERVER_STATUS_ACCEPTING;
+            if (null == mSessionScheduler)
+                mSessionScheduler = new BluetoothIoScheduler(maxSessions * THREADS_PER_SESSION + 1,
+                        SESSION_THREAD_NAME_PREFIX, Thread.NORM_PRIORITY);
+            executor = mSessionScheduler;
+        }
+
+        final int max = maxSessions;
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (BLUETOOTH_SERVER_STATUS_ACCEPTING == mStatus) {
+                        openSession(acceptClient(-1), max, executor, callback);
+                    }
+                } catch (IOException e) {
+                    if (mStatus < BLUETOOTH_SERVER_STATUS_CLOSED)
+                        callback.notifyAcceptFailure(e);
+                } finally {
+                    if (mStatus < BLUETOOTH_SERVER_STATUS_CLOSED)
+                        mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            mStatus = BLUETOOTH_SERVER_STATUS_DISCONNECT;
+            throw new IOException("Bluetooth I/O scheduler rejected the accept task: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 登记新接入的会话，会话数已满时关闭连接
+     * @param client 蓝牙终端
+     * @param maxSessions 最大会话数
+     * @param executor 会话收发线程池
+     * @param callback 会话监听回调
+     */
+    private void openSession(BluetoothClient client, int maxSessions, Executor executor,
+                             final OnBluetoothSessionCallback callback) {
+        final BluetoothSession session;
+        synchronized (mSessions) {
+            if (mSessions.size() >= maxSessions || BLUETOOTH_SERVER_STATUS_CLOSED == mStatus) {
+                mRejectedCount++;
+                session = null;
+            } else {
+                session = new BluetoothSession(mNextSessionId++, client);
+                mSessions.put(session.getId(), session);
+            }
+        }
+        if (null == session) {
+            try {
+                client.shutdown();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        client.setIoExecutor(executor);
+        client.setOnCloseListener(new BluetoothClient.OnCloseListener() {
+            @Override
+            public void onClosed(BluetoothClient client) {
+                // 对方断开时套接字和写入器仍未释放，关闭蓝牙终端以归还其占用的会话线程
+                try {
+                    client.shutdown();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                synchronized (mSessions) {
+                    if (null == mSessions.remove(session.getId()))
+                        return;
+                }
+                callback.notifySessionClosed(session);
+            }
+        });
+        callback.notifySessionOpened(session);
+    }
+
+    /**
+     * 获取当前会话数
+     * @return 会话数
+     */
+    public int getSessionCount() {
+        synchronized (mSessions) {
+            return mSessions.size();
+        }
+    }
+
+    /**
+     * 获取当前会话列表
+     * @return 按建立顺序排列的会话快照
+     */
+    public List<BluetoothSession> getSessions() {
+        synchronized (mSessions) {
+            return new ArrayList<>(mSessions.values());
+        }
+    }
+
+    /**
+     * 获取指定编号的会话
+     * @param id 会话编号
+     * @return 会话，不存在或已移除时为null
+     */
+    public BluetoothSession getSession(int id) {
+        synchronized (mSessions) {
+            return mSessions.get(id);
+        }
+    }
+
+    /**
+     * 获取因会话数已满而拒绝的连接数
+     * @return 连接数
+     */
+    public long getRejectedSessionCount() {
+        synchronized (mSessions) {
+            return mRejectedCount;
+        }
+    }
+
+    /**
+     * 获取会话收发调度器，可用于诊断会话线程的占用和排队情况
+     * @return 调度器，未以会话模式接受连接时为null
+     */
+    public BluetoothIoScheduler getSessionScheduler() {
+        synchronized (mSessions) {
+            return mSessionScheduler;
+        }
+    }
+
+    /**
+     * 设置连接统计，此后接受的蓝牙终端共用该统计对象，得到的是所有连接的合计
+     * @param metrics 连接统计，为null时不统计
+     */
+    public void setMetrics(BluetoothMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 获取连接统计
+     * @return 连接统计，未设置时为null
+     */
+    public BluetoothMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 接受一个连接并创建蓝牙终端
+     * @param timeout 超时阈值，小于0时一直等待
+     * @return 蓝牙终端
+     * @throws IOException 蓝牙服务端已关闭或接受已超时
+     */
+    private BluetoothClient acceptClient(int timeout) throws IOException {
+        BluetoothClient client = mAcceptor.accept(timeout);
+        client.setMetrics(mMetrics);
+        return client;
+    }
+
+    /**
+     * 关闭蓝牙服务端，并立即关闭所有会话
      * @throws IOException 异常信息
      */
     public void shutdown() throws IOException {
+        try {
+            shutdownGracefully(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 关闭蓝牙服务端，停止接受连接后等待各会话已加入队列的异步写入写出，再关闭所有会话。
+     * @param timeoutMillis 等待异步写入的最长总时间，毫秒
+     * @throws IOException 关闭接收套接字异常
+     * @throws InterruptedException 等待线程被中断，此时会话尚未全部关闭
+     */
+    public void shutdownGracefully(long timeoutMillis) throws IOException, InterruptedException {
         mStatus = BLUETOOTH_SERVER_STATUS_CLOSED;
-        mServerSocket.close();
+        try {
+            mAcceptor.close();
+        } finally {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            for (BluetoothSession session : getSessions()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0)
+                    session.getClient().awaitWritesDrained(remaining);
+                try {
+                    session.getClient().shutdown();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (mSessions) {
+                if (null != mSessionScheduler)
+                    mSessionScheduler.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 连接接受器，包可见
+     */
+    interface Acceptor {
+        /**
+         * 接受一个连接。此方法将会阻塞当前线程直至有连接请求接入或接受器已关闭。
+         * @param timeout 超时阈值，小于0时一直等待
+         * @return 已连接的蓝牙终端
+         * @throws IOException 接受器已关闭或接受已超时
+         */
+        BluetoothClient accept(int timeout) throws IOException;
+
+        /**
+         * 关闭接受器，阻塞中的接受随之抛出异常
+         * @throws IOException 关闭异常
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * 接收套接字连接接受器
+     */
+    private class SocketAcceptor implements Acceptor {
+        @Override
+        public BluetoothClient accept(int timeout) throws IOException {
+            return new BluetoothClient(mServerSocket.accept(timeout));
+        }
+
+        @Override
+        public void close() throws IOException {
+            mServerSocket.close();
+        }
+    }
+
+    /**
+     * 蓝牙服务端会话监听回调
+     */
+    public static abstract class OnBluetoothSessionCallback {
+        /** 接受连接失败消息 */
+        private static final int MESSAGE_BLUETOOTH_ACCEPT_FAILURE = 1;
+        /** 会话建立消息 */
+        private static final int MESSAGE_BLUETOOTH_SESSION_OPENED = 2;
+        /** 会话关闭消息 */
+        private static final int MESSAGE_BLUETOOTH_SESSION_CLOSED = 3;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
+
+        /**
+         * 默认构造，在主线程中回调
+         */
+        public OnBluetoothSessionCallback() {
+            this(Looper.getMainLooper());
+        }
+
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnBluetoothSessionCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
+
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnBluetoothSessionCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
+
+        /**
+         * 蓝牙服务端会话回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
+            @Override
+            public void onCallback(int what, Object obj) {
+                switch (what) {
+                    case MESSAGE_BLUETOOTH_SESSION_OPENED:
+                        onSessionOpened((BluetoothSession) obj);
+                        break;
+                    case MESSAGE_BLUETOOTH_SESSION_CLOSED:
+                        onSessionClosed((BluetoothSession) obj);
+                        break;
+                    case MESSAGE_BLUETOOTH_ACCEPT_FAILURE:
+                        onAcceptFailure((IOException) obj);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * 通知回调会话建立方法
+         * @param session 会话
+         */
+        void notifySessionOpened(BluetoothSession session) {
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_SESSION_OPENED, session);
+        }
+
+        /**
+         * 通知回调会话关闭方法
+         * @param session 会话
+         */
+        void notifySessionClosed(BluetoothSession session) {
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_SESSION_CLOSED, session);
+        }
+
+        /**
+         * 通知回调接受连接失败方法
+         * @param e 异常信息
+         */
+        void notifyAcceptFailure(IOException e) {
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_ACCEPT_FAILURE, e);
+        }
+
+        /**
+         * 新的会话已建立，可在此调用蓝牙终端的{@code asyncRead}开始接收数据
+         * @param session 会话
+         */
+        public abstract void onSessionOpened(BluetoothSession session);
+
+        /**
+         * 会话已断开或关闭，并已从会话表中移除
+         * @param session 会话
+         */
+        public abstract void onSessionClosed(BluetoothSession session);
+
+        /**
+         * 接受连接失败，服务端停止接受新的连接，已建立的会话不受影响
+         * @param e 异常信息
+         */
+        public abstract void onAcceptFailure(IOException e);
     }
 
     /**
@@ -151,34 +542,51 @@ public class BluetoothServer {
      *
      */
     public static abstract class OnBluetoothAcceptCallback {
-        /** 消息句柄 */
-        private BluetoothServerHandler mHandler;
+        /** 蓝牙接受请求失败消息 */
+        private static final int MESSAGE_BLUETOOTH_ACCEPT_FAILURE = 1;
+        /** 蓝牙接受请求成功消息 */
+        private static final int MESSAGE_BLUETOOTH_ACCEPT_SUCCESS = 2;
+
+        /** 回调分发器 */
+        private BluetoothCallbackDispatcher mDispatcher;
 
         /**
-         * 默认构造
+         * 默认构造，在主线程中回调
          */
         public OnBluetoothAcceptCallback() {
-            mHandler = new BluetoothServerHandler(Looper.getMainLooper());
+            this(Looper.getMainLooper());
         }
 
-        class BluetoothServerHandler extends Handler {
-            /** 蓝牙接受请求失败消息 */
-            static final int MESSAGE_BLUETOOTH_ACCEPT_FAILURE = 1;
-            /** 蓝牙接受请求成功消息 */
-            static final int MESSAGE_BLUETOOTH_ACCEPT_SUCCESS = 2;
+        /**
+         * 构造函数，在指定Looper线程中回调
+         * @param looper 消息循环
+         * @throws IllegalArgumentException 消息循环为null
+         */
+        public OnBluetoothAcceptCallback(Looper looper) {
+            mDispatcher = new BluetoothCallbackDispatcher(looper, new CallbackTarget());
+        }
 
-            BluetoothServerHandler(Looper looper) {
-                super(looper);
-            }
+        /**
+         * 构造函数，通过执行器回调
+         * @param executor 回调执行器，参见{@link BluetoothExecutors}
+         * @throws IllegalArgumentException 执行器为null
+         */
+        public OnBluetoothAcceptCallback(Executor executor) {
+            mDispatcher = new BluetoothCallbackDispatcher(executor, new CallbackTarget());
+        }
 
+        /**
+         * 蓝牙服务端接受请求回调目标
+         */
+        private class CallbackTarget implements BluetoothCallbackDispatcher.Target {
             @Override
-            public void handleMessage(Message msg) {
-                switch (msg.what) {
+            public void onCallback(int what, Object obj) {
+                switch (what) {
                     case MESSAGE_BLUETOOTH_ACCEPT_SUCCESS:
-                        onAcceptSuccess((BluetoothClient) msg.obj);
+                        onAcceptSuccess((BluetoothClient) obj);
                         break;
                     case MESSAGE_BLUETOOTH_ACCEPT_FAILURE:
-                        onAcceptFailure((IOException) msg.obj);
+                        onAcceptFailure((IOException) obj);
                         break;
                 }
             }
@@ -189,7 +597,7 @@ public class BluetoothServer {
          * @param client 蓝牙通信终端
          */
         void notifyCallSuccess(BluetoothClient client) {
-            mHandler.obtainMessage(BluetoothServerHandler.MESSAGE_BLUETOOTH_ACCEPT_SUCCESS, client).sendToTarget();
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_ACCEPT_SUCCESS, client);
         }
 
         /**
@@ -197,7 +605,7 @@ public class BluetoothServer {
          * @param e 异常信息
          */
         void notifyCallFailure(IOException e) {
-            mHandler.obtainMessage(BluetoothServerHandler.MESSAGE_BLUETOOTH_ACCEPT_FAILURE, e).sendToTarget();
+            mDispatcher.dispatch(MESSAGE_BLUETOOTH_ACCEPT_FAILURE, e);
         }
 
         /**
@@ -0,0 +1,78 @@
+package com.luoye.bluetooth;
+
+/**
+ * 蓝牙服务端会话，由{@link BluetoothServer#startSessions(int, BluetoothServer.OnBluetoothSessionCallback)}接受连接后创建。
+ * <p>会话中的蓝牙终端使用服务端的共享线程池收发数据，断开或关闭后自动从服务端的会话表中移除。</p>
+ */
+public final class BluetoothSession {
+    /** 会话编号 */
+    private final int mId;
+    /** 蓝牙终端 */
+    private final BluetoothClient mClient;
+    /** 建立时间，毫秒 */
+    private final long mOpenedTime;
+
+    /**
+     * 默认构造，包可见
+     * @param id 会话编号
+     * @param client 蓝牙终端
+     */
+    BluetoothSession(int id, BluetoothClient client) {
+        mId = id;
+        mClient = client;
+        mOpenedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取会话编号，同一服务端内唯一
+     * @return 会话编号
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * 获取会话的蓝牙终端
+     * @return 蓝牙终端
+     */
+    public BluetoothClient getClient() {
+        return mClient;
+    }
+
+    /**
+     * 获取会话建立时间
+     * @return 毫秒时间戳
+     */
+    public long getOpenedTime() {
+        return mOpenedTime;
+    }
+
+    /**
+     * 获取会话状态
+     * @return 蓝牙终端状态，参见{@link BluetoothClient#status()}
+     */
+    public int getState() {
+        return mClient.status();
+    }
+
+    /**
+     * 会话是否仍处于连接状态
+     * @return true 已连接
+     */
+    public boolean isConnected() {
+        return BluetoothClient.BLUETOOTH_CLIENT_STATUS_CONNECTED == mClient.status();
+    }
+
+    /**
+     * 获取会话尚未写出的字节数
+     * @return 字节数
+     */
+    public long getPendingWriteBytes() {
+        return mClient.pendingWriteBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothSession{id=" + mId + ", state=" + getState() + ", openedTime=" + mOpenedTime + "}";
+    }
+}
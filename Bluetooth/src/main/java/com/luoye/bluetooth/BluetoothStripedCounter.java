@@ -0,0 +1,66 @@
+package com.luoye.bluetooth;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器，多个线程同时累加时分散到不同的计数单元，避免争用同一个原子变量。
+ * <p>线程按线程号散列到固定的计数单元，相邻单元间隔一个缓存行，互不干扰；读取时累加所有单元，
+ * 因此累加开销接近无争用的原子操作，读取开销与单元数成正比，适合写多读少的统计计数。</p>
+ */
+final class BluetoothStripedCounter {
+    /** 单元间隔，8个long即64字节，与常见的缓存行大小一致 */
+    private static final int PADDING = 8;
+    /** 计数单元数，不小于处理器数的2的幂，最多16个 */
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    /** 计数单元 */
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * 累加
+     * @param delta 增量，可为负数
+     */
+    void add(long delta) {
+        mCells.getAndAdd(index(), delta);
+    }
+
+    /**
+     * 加一
+     */
+    void increment() {
+        add(1);
+    }
+
+    /**
+     * 获取累计值，与并发的累加之间没有原子性保证
+     * @return 累计值
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++)
+            sum += mCells.get(i * PADDING);
+        return sum;
+    }
+
+    /**
+     * 获取当前线程的计数单元下标
+     * @return 下标
+     */
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * 计算计数单元数
+     * @param processors 处理器数
+     * @return 2的幂
+     */
+    static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 16)
+            stripes <<= 1;
+        return stripes;
+    }
+}
@@ -0,0 +1,37 @@
+package com.luoye.bluetooth;
+
+/**
+ * 库内所有蓝牙终端的累计收发字节数，供搜索调度器判断链路是否繁忙。
+ * <p>每次收发都会计数，使用分段计数器避免各终端的收发线程争用同一个原子变量。</p>
+ */
+final class BluetoothTraffic {
+    /** 累计收发的字节数 */
+    private static final BluetoothStripedCounter sBytes = new BluetoothStripedCounter();
+
+    private BluetoothTraffic() {
+    }
+
+    /**
+     * 记录接收的字节数
+     * @param count 字节数
+     */
+    static void recordRead(int count) {
+        sBytes.add(count);
+    }
+
+    /**
+     * 记录发送的字节数
+     * @param count 字节数
+     */
+    static void recordWritten(int count) {
+        sBytes.add(count);
+    }
+
+    /**
+     * 获取累计收发的字节数
+     * @return 字节数
+     */
+    static long totalBytes() {
+        return sBytes.sum();
+    }
+}
@@ -0,0 +1,99 @@
+package com.luoye.bluetooth;
+
+/**
+ * 异步写入单个优先级队列的统计快照。
+ * <p>等待时间为数据加入队列到开始写出第一个字节之间的时长，可用于观察控制指令是否被大块数据阻塞。</p>
+ */
+public final class BluetoothWriteStats {
+    /** 写入优先级 */
+    private final int mPriority;
+    /** 队列中的写入次数 */
+    private final int mQueuedCount;
+    /** 队列中的字节数 */
+    private final long mQueuedBytes;
+    /** 已开始写出的写入次数 */
+    private final long mWriteCount;
+    /** 已写出的数据块数 */
+    private final long mChunkCount;
+    /** 累计等待时间，纳秒 */
+    private final long mTotalWaitNanos;
+    /** 最大等待时间，纳秒 */
+    private final long mMaxWaitNanos;
+
+    /**
+     * 默认构造，包可见
+     */
+    BluetoothWriteStats(int priority, int queuedCount, long queuedBytes, long writeCount, long chunkCount,
+                        long totalWaitNanos, long maxWaitNanos) {
+        mPriority = priority;
+        mQueuedCount = queuedCount;
+        mQueuedBytes = queuedBytes;
+        mWriteCount = writeCount;
+        mChunkCount = chunkCount;
+        mTotalWaitNanos = totalWaitNanos;
+        mMaxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * 获取写入优先级
+     * @return {@link BluetoothClient#WRITE_PRIORITY_CONTROL}或{@link BluetoothClient#WRITE_PRIORITY_BULK}
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * 获取队列中等待写出的写入次数
+     * @return 写入次数
+     */
+    public int getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * 获取队列中等待写出的字节数
+     * @return 字节数
+     */
+    public long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    /**
+     * 获取已开始写出的写入次数
+     * @return 写入次数
+     */
+    public long getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * 获取已写出的数据块数，大块数据按数据包大小拆分后分块写出
+     * @return 数据块数
+     */
+    public long getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * 获取平均等待时间
+     * @return 毫秒，尚未写出时为0
+     */
+    public double getAverageWaitMillis() {
+        return 0 == mWriteCount ? 0 : mTotalWaitNanos / 1e6 / mWriteCount;
+    }
+
+    /**
+     * 获取最大等待时间
+     * @return 毫秒
+     */
+    public double getMaxWaitMillis() {
+        return mMaxWaitNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothWriteStats{priority=" + mPriority + ", queuedCount=" + mQueuedCount
+                + ", queuedBytes=" + mQueuedBytes + ", writeCount=" + mWriteCount + ", chunkCount=" + mChunkCount
+                + ", averageWaitMillis=" + getAverageWaitMillis() + ", maxWaitMillis=" + getMaxWaitMillis() + "}";
+    }
+}
@@ -0,0 +1,619 @@
+package com.luoye.bluetooth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * 蓝牙数据异步写入器，由单个写入线程按顺序写出队列中的数据。
+ * <p>写入线程每次从队列中取出不超过一个数据包大小的若干次写入，拷贝合并后一次写出并刷新，
+ * 减少细碎的RFCOMM数据包；超过数据包大小的写入直接写出，不做拷贝。设置最大延迟后，
+ * 队列中的数据不足一个数据包时最多等待该时长以合并后续写入。</p>
+ * <p>写入分为控制和大块数据两个优先级队列。控制队列中有数据时优先写出；大块数据按数据包大小拆分后逐块写出，
+ * 每写出一块都会重新检查控制队列，控制指令最多等待一个数据包的写出时间。</p>
+ * <p>启用压缩层后，大块数据先按数据包大小拆分，每块单独编码为一条压缩层消息；已开始写出的消息写完之前不会插入控制指令，
+ * 避免对方按消息头解析时错位。</p>
+ * <p>尚未写出的字节数超过高水位线时写入器变为不可写，回落到低水位线及以下时恢复可写，
+ * 可写状态变化通过{@link Listener#onWritabilityChanged(boolean)}通知，写入方据此自行限流。</p>
+ */
+class BluetoothWriter {
+    /** 默认数据包大小，接近RFCOMM默认MTU */
+    static final int DEFAULT_PACKET_SIZE = 990;
+    /** 默认低水位线 */
+    static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+    /** 默认高水位线 */
+    static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+    /** 写入优先级：控制指令 */
+    static final int PRIORITY_CONTROL = 0;
+    /** 写入优先级：大块数据 */
+    static final int PRIORITY_BULK = 1;
+
+    /** 输出流 */
+    private final OutputStream mOutputStream;
+    /** 写入完成监听 */
+    private final Listener mListener;
+    /** 数据包大小 */
+    private final int mPacketSize;
+    /** 最大合并延迟，纳秒 */
+    private final long mMaxLatencyNanos;
+
+    /** 队列锁 */
+    private final Object mLock = new Object();
+    /** 控制指令队列 */
+    private final Lane mControlLane = new Lane(PRIORITY_CONTROL);
+    /** 大块数据队列 */
+    private final Lane mBulkLane = new Lane(PRIORITY_BULK);
+    /** 队列中的字节数 */
+    private long mQueuedBytes;
+    /** 尚未写出的字节数，包括队列中和正在写出的数据 */
+    private long mPendingBytes;
+    /** 低水位线 */
+    private long mLowWaterMark = DEFAULT_LOW_WATER_MARK;
+    /** 高水位线 */
+    private long mHighWaterMark = DEFAULT_HIGH_WATER_MARK;
+    /** 是否可写 */
+    private boolean mWritable = true;
+    /** 压缩层，为null时按原样写出 */
+    private volatile BluetoothCompression mCompression;
+    /** 连接统计，为null时不统计 */
+    private volatile BluetoothMetrics mMetrics;
+    /** 可写状态通知锁，保证通知按状态变化的顺序送达 */
+    private final Object mNotifyLock = new Object();
+    /** 最后一次通知的可写状态 */
+    private boolean mNotifiedWritable = true;
+    /** 写入器是否已关闭 */
+    private boolean mClosed;
+    /** 关闭原因 */
+    private IOException mCloseCause;
+
+    /**
+     * 默认构造
+     * @param os 输出流
+     * @param packetSize 数据包大小
+     * @param maxLatencyMillis 最大合并延迟，毫秒，为0时不等待
+     * @param listener 写入完成监听
+     */
+    BluetoothWriter(OutputStream os, int packetSize, long maxLatencyMillis, Listener listener) {
+        if (packetSize < 1 || maxLatencyMillis < 0)
+            throw new IllegalArgumentException("packetSize must be positive and maxLatencyMillis can't be negative.");
+        mOutputStream = os;
+        mPacketSize = packetSize;
+        mMaxLatencyNanos = maxLatencyMillis * 1000000L;
+        mListener = listener;
+    }
+
+    /**
+     * 设置高低水位线
+     * @param lowWaterMark 低水位线，字节
+     * @param highWaterMark 高水位线，字节
+     * @throws IllegalArgumentException 水位线为负数或低水位线大于高水位线
+     */
+    void setWaterMarks(long lowWaterMark, long highWaterMark) {
+        if (lowWaterMark < 0 || lowWaterMark > highWaterMark)
+            throw new IllegalArgumentException("lowWaterMark must be between 0 and highWaterMark.");
+        synchronized (mLock) {
+            mLowWaterMark = lowWaterMark;
+            mHighWaterMark = highWaterMark;
+            updateWritability();
+        }
+        notifyWritability();
+    }
+
+    /**
+     * 设置压缩层，此后的每次写入先编码为压缩层消息再加入队列
+     * @param compression 压缩层，为null时按原样写出
+     */
+    void setCompression(BluetoothCompression compression) {
+        mCompression = compression;
+    }
+
+    /**
+     * 设置连接统计，需在首次写入之前调用
+     * @param metrics 连接统计，为null时不统计
+     */
+    void setMetrics(BluetoothMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 将数据加入控制队列，写入完成前不能修改{@code buffer}
+     * @param buffer 字节缓存
+     * @param offset 起始位置
+     * @param count 字节数
+     * @param token 写入完成时回传给监听的标识，可为null
+     * @throws IOException 写入器已关闭
+     * @throws IndexOutOfBoundsException 字节缓存操作越界
+     */
+    void write(byte[] buffer, int offset, int count, Object token) throws IOException {
+        write(buffer, offset, count, PRIORITY_CONTROL, token);
+    }
+
+    /**
+     * 将数据加入指定优先级的队列，写入完成前不能修改{@code buffer}
+     * @param buffer 字节缓存
+     * @param offset 起始位置
+     * @param count 字节数
+     * @param priority 写入优先级，{@link #PRIORITY_CONTROL}或{@link #PRIORITY_BULK}
+     * @param token 写入完成时回传给监听的标识，可为null
+     * @throws IOException 写入器已关闭
+     * @throws IndexOutOfBoundsException 字节缓存操作越界
+     * @throws IllegalArgumentException 优先级不合法
+     */
+    void write(byte[] buffer, int offset, int count, int priority, Object token) throws IOException {
+        if (offset < 0 || count < 0 || offset + count > buffer.length)
+            throw new IndexOutOfBoundsException("offset: " + offset + ", count: " + count + ", length: " + buffer.length);
+        BluetoothCompression compression = mCompression;
+        if (null == compression) {
+            writeRaw(buffer, offset, count, priority, token);
+            return;
+        }
+
+        // 大块数据每块编码后恰好不超过一个数据包，控制指令可在消息之间插入
+        Lane lane = lane(priority);
+        int chunk = lane == mBulkLane ? Math.max(1, mPacketSize - BluetoothCompression.HEADER_LENGTH) : Math.max(1, count);
+        ArrayList<WriteRequest> requests = new ArrayList<>();
+        long now = System.nanoTime();
+        int position = 0;
+        do {
+            int length = Math.min(chunk, count - position);
+            BluetoothBuffer message = compression.encode(buffer, offset + position, length);
+            position += length;
+            requests.add(new WriteRequest(message.array(), message.offset(), message.length(),
+                    position == count ? token : null, now, true));
+        } while (position < count);
+        enqueue(lane, requests);
+    }
+
+    /**
+     * 将数据不经压缩层直接加入指定优先级的队列
+     * @param buffer 字节缓存
+     * @param offset 起始位置
+     * @param count 字节数
+     * @param priority 写入优先级
+     * @param token 写入完成时回传给监听的标识，可为null
+     * @throws IOException 写入器已关闭
+     * @throws IllegalArgumentException 优先级不合法
+     */
+    void writeRaw(byte[] buffer, int offset, int count, int priority, Object token) throws IOException {
+        ArrayList<WriteRequest> requests = new ArrayList<>(1);
+        requests.add(new WriteRequest(buffer, offset, count, token, System.nanoTime(), false));
+        enqueue(lane(priority), requests);
+    }
+
+    /**
+     * 将写入请求整体加入队列，同一次写入拆分出的消息之间不会混入其他线程的写入
+     * @param lane 队列
+     * @param requests 写入请求
+     * @throws IOException 写入器已关闭
+     */
+    private void enqueue(Lane lane, ArrayList<WriteRequest> requests) throws IOException {
+        synchronized (mLock) {
+            if (mClosed)
+                throw closedException();
+            BluetoothMetrics metrics = mMetrics;
+            for (WriteRequest request : requests) {
+                lane.mQueue.addLast(request);
+                lane.mQueuedBytes += request.mCount;
+                mQueuedBytes += request.mCount;
+                mPendingBytes += request.mCount;
+                if (null != metrics)
+                    metrics.recordEnqueued(request.mCount, mQueuedBytes);
+            }
+            updateWritability();
+            mLock.notifyAll();
+        }
+        notifyWritability();
+    }
+
+    /**
+     * 获取队列中等待写入的字节数
+     * @return 字节数
+     */
+    long queuedBytes() {
+        synchronized (mLock) {
+            return mQueuedBytes;
+        }
+    }
+
+    /**
+     * 获取尚未写出的字节数，包括队列中和正在写出的数据
+     * @return 字节数
+     */
+    long pendingBytes() {
+        synchronized (mLock) {
+            return mPendingBytes;
+        }
+    }
+
+    /**
+     * 写入器是否可写，尚未写出的字节数超过高水位线后不可写，直至回落到低水位线
+     * @return true 可写
+     */
+    boolean isWritable() {
+        synchronized (mLock) {
+            return mWritable;
+        }
+    }
+
+    /**
+     * 获取指定优先级队列的统计快照
+     * @param priority 写入优先级
+     * @return 统计快照
+     * @throws IllegalArgumentException 优先级不合法
+     */
+    BluetoothWriteStats stats(int priority) {
+        Lane lane = lane(priority);
+        synchronized (mLock) {
+            return new BluetoothWriteStats(lane.mPriority, lane.mQueue.size(), lane.mQueuedBytes, lane.mWriteCount,
+                    lane.mChunkCount, lane.mTotalWaitNanos, lane.mMaxWaitNanos);
+        }
+    }
+
+    /**
+     * 关闭写入器，队列中尚未写出的数据均以写入失败通知监听
+     * @param cause 关闭原因
+     */
+    void close(IOException cause) {
+        ArrayList<WriteRequest> pending;
+        synchronized (mLock) {
+            if (mClosed)
+                return;
+            mClosed = true;
+            mCloseCause = cause;
+            pending = new ArrayList<>(mControlLane.mQueue);
+            pending.addAll(mBulkLane.mQueue);
+            BluetoothMetrics metrics = mMetrics;
+            if (null != metrics)
+                metrics.recordDequeued(pending.size(), mQueuedBytes);
+            mControlLane.clear();
+            mBulkLane.clear();
+            mQueuedBytes = 0;
+            mPendingBytes = 0;
+            mLock.notifyAll();
+        }
+        IOException e = closedException();
+        for (WriteRequest request : pending)
+            notifyComplete(request.mToken, e);
+    }
+
+    /**
+     * 等待已加入队列的数据全部写出
+     * @param timeoutMillis 最长等待时间，毫秒
+     * @return true 数据已全部写出，false 超时或写入器已关闭
+     * @throws InterruptedException 等待线程被中断
+     */
+    boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        synchronized (mLock) {
+            while (!mClosed && mPendingBytes > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                mLock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+            }
+            return !mClosed;
+        }
+    }
+
+    /**
+     * 写入器是否已关闭
+     * @return true 已关闭
+     */
+    boolean isClosed() {
+        synchronized (mLock) {
+            return mClosed;
+        }
+    }
+
+    /**
+     * 在当前线程循环写出队列中的数据，直至写入器关闭或输出流异常
+     */
+    void run() {
+        byte[] packet = new byte[mPacketSize];
+        ArrayList<WriteRequest> batch = new ArrayList<>();
+        try {
+            for (;;) {
+                int size = take(batch);
+                if (size < 0)
+                    break;
+                if (1 == batch.size() || size > mPacketSize) {
+                    for (WriteRequest request : batch)
+                        mOutputStream.write(request.mBuffer, request.mSegmentOffset, request.mSegmentLength);
+                } else {
+                    int position = 0;
+                    for (WriteRequest request : batch) {
+                        System.arraycopy(request.mBuffer, request.mSegmentOffset, packet, position, request.mSegmentLength);
+                        position += request.mSegmentLength;
+                    }
+                    mOutputStream.write(packet, 0, position);
+                }
+                mOutputStream.flush();
+                BluetoothTraffic.recordWritten(size);
+                complete(size);
+                int done = 0;
+                for (WriteRequest request : batch) {
+                    if (request.isDone()) {
+                        done++;
+                        notifyComplete(request.mToken, null);
+                    }
+                }
+                BluetoothMetrics metrics = mMetrics;
+                if (null != metrics)
+                    metrics.recordWritten(size, done);
+                batch.clear();
+            }
+        } catch (IOException e) {
+            fail(batch, e);
+        } catch (InterruptedException e) {
+            fail(batch, new IOException("Bluetooth writer is interrupted."));
+        }
+    }
+
+    /**
+     * 写出失败，通知本批数据失败并关闭写入器
+     * <p>只写出部分数据块的大块数据仍在队列中，由{@link #close(IOException)}通知。</p>
+     * @param batch 本批写入请求
+     * @param e 异常信息
+     */
+    private void fail(ArrayList<WriteRequest> batch, IOException e) {
+        for (WriteRequest request : batch) {
+            if (request.isDone())
+                notifyComplete(request.mToken, e);
+        }
+        close(e);
+    }
+
+    /**
+     * 等待并取出一批待写入的数据。
+     * <p>控制队列非空时只从控制队列取出完整的写入请求；否则从大块数据队列取出不超过一个数据包的数据，
+     * 写入请求跨越数据包边界时只取出其中的一段，剩余部分留在队列头部。
+     * 大块数据队列头部的压缩层消息已部分写出时，先写完该消息再处理控制队列。</p>
+     * @param batch 输出的写入请求列表，每个请求本次写出的范围记录在请求中
+     * @return 本批字节数，写入器已关闭时返回-1
+     * @throws InterruptedException 写入线程被中断
+     */
+    private int take(ArrayList<WriteRequest> batch) throws InterruptedException {
+        synchronized (mLock) {
+            while (mControlLane.mQueue.isEmpty() && mBulkLane.mQueue.isEmpty() && !mClosed)
+                mLock.wait();
+            // 数据不足一个数据包时，在最大延迟内等待后续写入
+            while (!mClosed && mQueuedBytes < mPacketSize && mMaxLatencyNanos > 0) {
+                Lane head = mControlLane.mQueue.isEmpty() ? mBulkLane : mControlLane;
+                long remaining = head.mQueue.peekFirst().mEnqueueTime + mMaxLatencyNanos - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+                mLock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+            }
+            if (mClosed)
+                return -1;
+
+            WriteRequest bulkHead = mBulkLane.mQueue.peekFirst();
+            boolean messageStarted = null != bulkHead && bulkHead.mFramed && bulkHead.mPosition > 0;
+            Lane lane = mControlLane.mQueue.isEmpty() || messageStarted ? mBulkLane : mControlLane;
+            boolean split = lane == mBulkLane;
+            long now = System.nanoTime();
+            int size = 0;
+            int taken = 0;
+            while (!lane.mQueue.isEmpty()) {
+                WriteRequest request = lane.mQueue.peekFirst();
+                int remaining = request.mCount - request.mPosition;
+                int length = remaining;
+                if (split) {
+                    // 放不下的压缩层消息留到下一批开头，本批结束后控制指令可以插入
+                    if (request.mFramed && !batch.isEmpty() && size + remaining > mPacketSize)
+                        break;
+                    length = Math.min(remaining, mPacketSize - size);
+                } else if (!batch.isEmpty() && size + remaining > mPacketSize)
+                    break;
+                if (0 == length && remaining > 0)
+                    break;
+
+                if (0 == request.mPosition)
+                    lane.recordWait(now - request.mEnqueueTime);
+                request.mSegmentOffset = request.mOffset + request.mPosition;
+                request.mSegmentLength = length;
+                request.mPosition += length;
+                if (request.isDone()) {
+                    lane.mQueue.pollFirst();
+                    taken++;
+                }
+                lane.mChunkCount++;
+                batch.add(request);
+                size += length;
+            }
+            lane.mQueuedBytes -= size;
+            mQueuedBytes -= size;
+            BluetoothMetrics metrics = mMetrics;
+            if (null != metrics)
+                metrics.recordDequeued(taken, size);
+            return size;
+        }
+    }
+
+    /**
+     * 获取优先级对应的队列
+     * @param priority 写入优先级
+     * @return 队列
+     * @throws IllegalArgumentException 优先级不合法
+     */
+    private Lane lane(int priority) {
+        switch (priority) {
+            case PRIORITY_CONTROL:
+                return mControlLane;
+            case PRIORITY_BULK:
+                return mBulkLane;
+            default:
+                throw new IllegalArgumentException("unknown write priority: " + priority);
+        }
+    }
+
+    /**
+     * 通知一次写入已完成，{@link Completion}标识自行处理结果，其余标识交给监听
+     * @param token 写入时传入的标识
+     * @param e 写入异常，成功时为null
+     */
+    private void notifyComplete(Object token, IOException e) {
+        if (token instanceof Completion)
+            ((Completion) token).onWriteComplete(e);
+        else
+            mListener.onWriteComplete(token, e);
+    }
+
+    /**
+     * 一批数据已写出，更新尚未写出的字节数
+     * @param size 本批字节数
+     */
+    private void complete(int size) {
+        synchronized (mLock) {
+            if (mClosed)
+                return;
+            mPendingBytes -= size;
+            updateWritability();
+            if (0 == mPendingBytes)
+                mLock.notifyAll();
+        }
+        notifyWritability();
+    }
+
+    /**
+     * 根据尚未写出的字节数更新可写状态，需持有队列锁
+     */
+    private void updateWritability() {
+        if (mWritable && mPendingBytes > mHighWaterMark)
+            mWritable = false;
+        else if (!mWritable && mPendingBytes <= mLowWaterMark)
+            mWritable = true;
+    }
+
+    /**
+     * 可写状态与最后一次通知不同时通知监听，在队列锁之外调用
+     */
+    private void notifyWritability() {
+        synchronized (mNotifyLock) {
+            boolean writable = isWritable();
+            if (writable == mNotifiedWritable)
+                return;
+            mNotifiedWritable = writable;
+            mListener.onWritabilityChanged(writable);
+        }
+    }
+
+    /**
+     * 生成写入器已关闭异常
+     * @return 异常信息
+     */
+    private IOException closedException() {
+        if (null != mCloseCause)
+            return mCloseCause;
+        return new IOException("Bluetooth writer is closed.");
+    }
+
+    /**
+     * 写入请求
+     */
+    private static class WriteRequest {
+        final byte[] mBuffer;
+        final int mOffset;
+        final int mCount;
+        final Object mToken;
+        final long mEnqueueTime;
+        /** 是否为压缩层消息，开始写出后不能被控制指令打断 */
+        final boolean mFramed;
+        /** 已取出写出的字节数 */
+        int mPosition;
+        /** 本次写出的起始位置 */
+        int mSegmentOffset;
+        /** 本次写出的字节数 */
+        int mSegmentLength;
+
+        WriteRequest(byte[] buffer, int offset, int count, Object token, long enqueueTime, boolean framed) {
+            mBuffer = buffer;
+            mOffset = offset;
+            mCount = count;
+            mToken = token;
+            mEnqueueTime = enqueueTime;
+            mFramed = framed;
+        }
+
+        /**
+         * 是否已全部取出写出
+         * @return true 本次写出的是最后一段数据
+         */
+        boolean isDone() {
+            return mPosition == mCount;
+        }
+    }
+
+    /**
+     * 单个优先级的写入队列及统计，由队列锁保护
+     */
+    private static class Lane {
+        /** 写入优先级 */
+        final int mPriority;
+        /** 待写入队列 */
+        final ArrayDeque<WriteRequest> mQueue = new ArrayDeque<>();
+        /** 队列中的字节数 */
+        long mQueuedBytes;
+        /** 已开始写出的写入次数 */
+        long mWriteCount;
+        /** 已写出的数据块数 */
+        long mChunkCount;
+        /** 累计等待时间，纳秒 */
+        long mTotalWaitNanos;
+        /** 最大等待时间，纳秒 */
+        long mMaxWaitNanos;
+
+        Lane(int priority) {
+            mPriority = priority;
+        }
+
+        /**
+         * 记录一次写入从加入队列到开始写出的等待时间
+         * @param waitNanos 等待时间，纳秒
+         */
+        void recordWait(long waitNanos) {
+            mWriteCount++;
+            mTotalWaitNanos += waitNanos;
+            if (waitNanos > mMaxWaitNanos)
+                mMaxWaitNanos = waitNanos;
+        }
+
+        /**
+         * 清空队列
+         */
+        void clear() {
+            mQueue.clear();
+            mQueuedBytes = 0;
+        }
+    }
+
+    /**
+     * 写入完成监听
+     */
+    interface Listener {
+        /**
+         * 一次写入已完成，在写入线程或调用{@link #close(IOException)}的线程中回调
+         * @param token 写入时传入的标识
+         * @param e 写入异常，成功时为null
+         */
+        void onWriteComplete(Object token, IOException e);
+
+        /**
+         * 写入器可写状态发生变化，在写入线程或调用{@link #write(byte[], int, int, Object)}的线程中回调
+         * @param writable true 可写
+         */
+        void onWritabilityChanged(boolean writable);
+    }
+
+    /**
+     * 自行处理写入结果的写入标识，写入器内部使用的写入以此区别于用户的写入回调，不会通知{@link Listener}
+     */
+    interface Completion {
+        /**
+         * 写入已完成，在写入线程或调用{@link #close(IOException)}的线程中回调
+         * @param e 写入异常，成功时为null
+         */
+        void onWriteComplete(IOException e);
+    }
+}
@@ -0,0 +1,102 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 逻辑通道分片、信用和重组测试
+ */
+public class BluetoothChannelTest {
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31);
+        return data;
+    }
+
+    @Test
+    public void nextFragment_splitsByFragmentSizeAndMarksLast() {
+        BluetoothChannel channel = new BluetoothChannel(1, null, null, 1 << 20, 1 << 20);
+        byte[] data = pattern(2500);
+        channel.enqueue(data);
+        BluetoothChannel.Fragment first = channel.nextFragment(1000);
+        BluetoothChannel.Fragment second = channel.nextFragment(1000);
+        BluetoothChannel.Fragment third = channel.nextFragment(1000);
+        assertEquals(1000, first.mLength);
+        assertFalse(first.mLast);
+        assertEquals(1000, second.mOffset);
+        assertFalse(second.mLast);
+        assertEquals(500, third.mLength);
+        assertTrue(third.mLast);
+        assertFalse(channel.isSendable());
+    }
+
+    @Test
+    public void nextFragment_stopsAtCreditsUntilGranted() {
+        BluetoothChannel channel = new BluetoothChannel(1, null, null, 1500, 1 << 20);
+        channel.enqueue(pattern(4000));
+        assertEquals(1000, channel.nextFragment(1000).mLength);
+        assertEquals(500, channel.nextFragment(1000).mLength);
+        assertFalse(channel.isSendable());
+        channel.addCredits(800);
+        assertTrue(channel.isSendable());
+        assertEquals(800, channel.nextFragment(1000).mLength);
+        assertFalse(channel.isSendable());
+    }
+
+    @Test
+    public void emptyMessage_needsNoCredits() {
+        BluetoothChannel channel = new BluetoothChannel(1, null, null, 0, 1024);
+        channel.enqueue(new byte[0]);
+        assertTrue(channel.isSendable());
+        BluetoothChannel.Fragment fragment = channel.nextFragment(1000);
+        assertEquals(0, fragment.mLength);
+        assertTrue(fragment.mLast);
+    }
+
+    @Test
+    public void receive_reassemblesFragments() throws IOException {
+        BluetoothChannel sender = new BluetoothChannel(1, null, null, 1 << 20, 1 << 20);
+        BluetoothChannel receiver = new BluetoothChannel(1, null, null, 1 << 20, 1 << 20);
+        byte[] data = pattern(3333);
+        sender.enqueue(data);
+        byte[] message = null;
+        while (sender.isSendable()) {
+            BluetoothChannel.Fragment fragment = sender.nextFragment(512);
+            assertNull(message);
+            message = receiver.receive(fragment.mData, fragment.mOffset, fragment.mLength, fragment.mLast);
+        }
+        assertArrayEquals(data, message);
+    }
+
+    @Test
+    public void receive_rejectsOversizedMessage() throws IOException {
+        BluetoothChannel receiver = new BluetoothChannel(1, null, null, 0, 1000);
+        receiver.receive(new byte[600], 0, 600, false);
+        try {
+            receiver.receive(new byte[600], 0, 600, true);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void nextFragment_drainsQueueAndClearDiscards() {
+        BluetoothChannel channel = new BluetoothChannel(1, null, null, 1 << 20, 1 << 20);
+        channel.enqueue(pattern(100));
+        channel.enqueue(pattern(50));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (channel.isSendable()) {
+            BluetoothChannel.Fragment fragment = channel.nextFragment(40);
+            out.write(fragment.mData, fragment.mOffset, fragment.mLength);
+        }
+        assertEquals(150, out.size());
+        channel.enqueue(pattern(10));
+        channel.clear();
+        assertFalse(channel.isSendable());
+    }
+}
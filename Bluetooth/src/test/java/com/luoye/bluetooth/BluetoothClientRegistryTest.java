@@ -0,0 +1,145 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 共享蓝牙终端登记表测试
+ */
+public class BluetoothClientRegistryTest {
+    private static final UUID UUID_A = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    private static final UUID UUID_B = UUID.fromString("00001102-0000-1000-8000-00805F9B34FB");
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    /**
+     * 以内存数据通道新建已连接蓝牙终端的工厂
+     */
+    static class TransportFactory implements BluetoothClientRegistry.Factory {
+        final List<BluetoothTestTransport> mTransports = Collections.synchronizedList(new ArrayList<BluetoothTestTransport>());
+
+        @Override
+        public BluetoothClient create(BluetoothDevice device, UUID uuid, boolean secure) {
+            BluetoothTestTransport transport = new BluetoothTestTransport();
+            mTransports.add(transport);
+            BluetoothClient client = new BluetoothClient(transport);
+            client.setIoExecutor(new BluetoothClientTest.TrackingExecutor());
+            return client;
+        }
+    }
+
+    @Test
+    public void acquire_sharesOneClientPerAddressAndUuid() throws Exception {
+        TransportFactory factory = new TransportFactory();
+        BluetoothClientRegistry registry = new BluetoothClientRegistry(factory);
+        registry.setLingerMillis(0);
+        BluetoothClientHandle first = registry.acquire(ADDRESS, null, UUID_A, true);
+        BluetoothClientHandle second = registry.acquire(ADDRESS, null, UUID_A, true);
+        BluetoothClientHandle other = registry.acquire(ADDRESS, null, UUID_B, true);
+        assertSame(first.getClient(), second.getClient());
+        assertNotSame(first.getClient(), other.getClient());
+        assertEquals(2, registry.size());
+        assertEquals(2, factory.mTransports.size());
+
+        first.release();
+        first.release();
+        assertTrue(first.isReleased());
+        assertEquals(2, registry.size());
+        assertFalse(factory.mTransports.get(0).mCloseCalled);
+        try {
+            first.getClient();
+            fail("released handle should not return a client");
+        } catch (IOException expected) {
+        }
+
+        second.release();
+        assertEquals(1, registry.size());
+        assertTrue(factory.mTransports.get(0).mCloseCalled);
+        assertFalse(factory.mTransports.get(1).mCloseCalled);
+        other.release();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void release_keepsConnectionDuringLinger() throws Exception {
+        TransportFactory factory = new TransportFactory();
+        BluetoothClientRegistry registry = new BluetoothClientRegistry(factory);
+        registry.setLingerMillis(100);
+        BluetoothClientHandle handle = registry.acquire(ADDRESS, null, UUID_A, true);
+        BluetoothClient client = handle.getClient();
+        handle.release();
+
+        BluetoothClientHandle again = registry.acquire(ADDRESS, null, UUID_A, true);
+        assertSame(client, again.getClient());
+        Thread.sleep(200);
+        assertFalse(factory.mTransports.get(0).mCloseCalled);
+
+        again.release();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (registry.size() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, registry.size());
+        assertTrue(factory.mTransports.get(0).mCloseCalled);
+        assertEquals(1, factory.mTransports.size());
+    }
+
+    @Test
+    public void client_replacesAndShutsDownDisconnectedClient() throws Exception {
+        TransportFactory factory = new TransportFactory();
+        BluetoothClientRegistry registry = new BluetoothClientRegistry(factory);
+        BluetoothClientHandle handle = registry.acquire(ADDRESS, null, UUID_A, true);
+        final CountDownLatch connected = new CountDownLatch(1);
+        handle.asyncConnect(new BluetoothClient.OnBluetoothConnectCallback(BluetoothExecutors.direct()) {
+            @Override
+            public void onConnectSuccess(BluetoothClient client) {
+                connected.countDown();
+            }
+
+            @Override
+            public void onConnectFailure(Exception e) {
+            }
+        });
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        BluetoothClient stale = handle.getClient();
+        BluetoothClientTest.InputRecorder input = new BluetoothClientTest.InputRecorder();
+        stale.asyncRead(input);
+        stale.asyncWrite("ping".getBytes());
+        factory.mTransports.get(0).disconnect();
+        assertTrue(input.mDisconnected.await(5, TimeUnit.SECONDS));
+
+        BluetoothClient fresh = handle.getClient();
+        assertNotSame(stale, fresh);
+        assertTrue(factory.mTransports.get(0).mCloseCalled);
+        assertEquals(BluetoothClient.BLUETOOTH_CLIENT_STATUS_CLOSED, stale.status());
+        assertSame(fresh, handle.getClient());
+        assertEquals(1, registry.size());
+        handle.release();
+        registry.closeAll();
+    }
+
+    @Test
+    public void closeAll_invalidatesOutstandingHandles() throws Exception {
+        TransportFactory factory = new TransportFactory();
+        BluetoothClientRegistry registry = new BluetoothClientRegistry(factory);
+        BluetoothClientHandle handle = registry.acquire(ADDRESS, null, UUID_A, true);
+        handle.getClient();
+        registry.closeAll();
+        assertEquals(0, registry.size());
+        assertTrue(factory.mTransports.get(0).mCloseCalled);
+        try {
+            handle.getClient();
+            fail("closed registry entry should not return a client");
+        } catch (IOException expected) {
+        }
+    }
+}
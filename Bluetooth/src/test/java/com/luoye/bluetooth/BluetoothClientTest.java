@@ -0,0 +1,147 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 蓝牙终端收发生命周期测试
+ */
+public class BluetoothClientTest {
+    /**
+     * 每个任务使用独立线程的执行器，记录所有线程以便检查任务是否退出
+     */
+    static class TrackingExecutor implements Executor {
+        final List<Thread> mThreads = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            Thread thread = new Thread(command, "tracking-" + mThreads.size());
+            thread.setDaemon(true);
+            mThreads.add(thread);
+            thread.start();
+        }
+
+        /**
+         * 等待所有任务退出
+         * @param timeoutMillis 每个线程的最长等待时间，毫秒
+         * @return 仍在运行的线程数
+         */
+        synchronized int awaitTermination(long timeoutMillis) throws InterruptedException {
+            int alive = 0;
+            for (Thread thread : mThreads) {
+                thread.join(timeoutMillis);
+                if (thread.isAlive())
+                    alive++;
+            }
+            return alive;
+        }
+    }
+
+    /**
+     * 记录接收数据和断开事件的监听回调
+     */
+    static class InputRecorder extends BluetoothClient.BluetoothInputCallback {
+        final StringBuilder mInput = new StringBuilder();
+        final CountDownLatch mDisconnected = new CountDownLatch(1);
+        volatile CountDownLatch mReceived = new CountDownLatch(1);
+        volatile IOException mException;
+
+        InputRecorder() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onInput(byte[] buffer) {
+            synchronized (mInput) {
+                mInput.append(new String(buffer));
+            }
+            mReceived.countDown();
+        }
+
+        @Override
+        public void onDisconnected(IOException e) {
+            mException = e;
+            mDisconnected.countDown();
+        }
+
+        String input() {
+            synchronized (mInput) {
+                return mInput.toString();
+            }
+        }
+    }
+
+    /**
+     * 记录写入结果的回调
+     */
+    static class WriteRecorder extends BluetoothClient.OnBluetoothWriteCallback {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile IOException mException;
+
+        WriteRecorder() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onWriteSuccess() {
+            mDone.countDown();
+        }
+
+        @Override
+        public void onWriteFailure(IOException e) {
+            mException = e;
+            mDone.countDown();
+        }
+    }
+
+    @Test
+    public void remoteClose_afterAsyncWrite_stopsWriterTask() throws Exception {
+        BluetoothTestTransport transport = new BluetoothTestTransport();
+        TrackingExecutor executor = new TrackingExecutor();
+        BluetoothClient client = new BluetoothClient(transport);
+        client.setIoExecutor(executor);
+        InputRecorder input = new InputRecorder();
+        client.asyncRead(input);
+        WriteRecorder write = new WriteRecorder();
+        client.asyncWrite("hello".getBytes(), write);
+        assertTrue(write.mDone.await(5, TimeUnit.SECONDS));
+        assertNull(write.mException);
+        assertEquals(3, executor.mThreads.size());
+
+        transport.disconnect();
+        assertTrue(input.mDisconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.awaitTermination(5000));
+        assertEquals(BluetoothClient.BLUETOOTH_CLIENT_STATUS_DISCONNECT, client.status());
+        try {
+            client.asyncWrite("late".getBytes());
+            fail("asyncWrite after disconnect should fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void shutdown_stopsReadDispatchAndWriterTasks() throws Exception {
+        BluetoothTestTransport transport = new BluetoothTestTransport();
+        TrackingExecutor executor = new TrackingExecutor();
+        BluetoothClient client = new BluetoothClient(transport);
+        client.setIoExecutor(executor);
+        InputRecorder input = new InputRecorder();
+        client.asyncRead(input);
+        client.asyncWrite("x".getBytes());
+        transport.feed("data".getBytes());
+        assertTrue(input.mReceived.await(5, TimeUnit.SECONDS));
+
+        client.shutdown();
+        assertEquals(0, executor.awaitTermination(5000));
+        assertEquals("data", input.input());
+        assertEquals(BluetoothClient.BLUETOOTH_CLIENT_STATUS_CLOSED, client.status());
+    }
+}
@@ -0,0 +1,233 @@
+package com.luoye.bluetooth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 压缩层测试
+ */
+public class BluetoothCompressionTest {
+    private BluetoothCompression mSender;
+    private BluetoothCompression mReceiver;
+
+    @Before
+    public void setUp() throws IOException {
+        mSender = new BluetoothCompression();
+        mReceiver = new BluetoothCompression();
+        // 双方交换握手消息
+        byte[] hello = mReceiver.hello();
+        assertTrue(receive(mSender, hello, 0, hello.length, 3).isEmpty());
+        assertTrue(mSender.isPeerCompressionEnabled());
+    }
+
+    /**
+     * 将数据按指定块大小交给压缩层解码
+     */
+    private static ArrayList<byte[]> receive(BluetoothCompression compression, byte[] data, int offset, int length,
+                                             int chunkSize) throws IOException {
+        ArrayList<byte[]> payloads = new ArrayList<>();
+        ArrayList<BluetoothBuffer> out = new ArrayList<>();
+        for (int position = offset; position < offset + length; position += chunkSize) {
+            int n = Math.min(chunkSize, offset + length - position);
+            byte[] chunk = new byte[n];
+            System.arraycopy(data, position, chunk, 0, n);
+            BluetoothBuffer in = BluetoothBuffer.wrap(chunk);
+            try {
+                compression.decode(in, out);
+            } finally {
+                in.release();
+            }
+            for (BluetoothBuffer payload : out) {
+                payloads.add(payload.toByteArray());
+                payload.release();
+            }
+            out.clear();
+        }
+        return payloads;
+    }
+
+    private static byte[] text(int length) {
+        byte[] data = new byte[length];
+        byte[] line = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n".getBytes();
+        for (int i = 0; i < length; i++)
+            data[i] = line[i % line.length];
+        return data;
+    }
+
+    /**
+     * 每次写出后向写入器追加一条控制指令的输出流，模拟大块数据写出期间不断到来的控制指令
+     */
+    private static class InterleavingStream extends ByteArrayOutputStream {
+        private final int mMaxControls;
+        private BluetoothWriter mWriter;
+        private int mControls;
+
+        InterleavingStream(int maxControls) {
+            mMaxControls = maxControls;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            if (mControls >= mMaxControls)
+                return;
+            byte[] control = ("ctl" + mControls++).getBytes();
+            try {
+                mWriter.write(control, 0, control.length, BluetoothWriter.PRIORITY_CONTROL, null);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 通过启用压缩层的写入器发送大块数据，写出期间不断插入控制指令，返回对方解码出的消息
+     */
+    private ArrayList<byte[]> writeInterleaved(byte[] bulk, int packetSize, int controls) throws Exception {
+        InterleavingStream stream = new InterleavingStream(controls);
+        final BluetoothWriter writer = new BluetoothWriter(stream, packetSize, 0, new BluetoothWriter.Listener() {
+            @Override
+            public void onWriteComplete(Object token, IOException e) {
+            }
+
+            @Override
+            public void onWritabilityChanged(boolean writable) {
+            }
+        });
+        stream.mWriter = writer;
+        writer.setCompression(mSender);
+        writer.write(bulk, 0, bulk.length, BluetoothWriter.PRIORITY_BULK, null);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writer.run();
+            }
+        });
+        thread.start();
+        assertTrue(writer.awaitDrained(5000));
+        writer.close(new IOException("done"));
+        thread.join(5000);
+
+        byte[] wire = stream.toByteArray();
+        return receive(mReceiver, wire, 0, wire.length, 128);
+    }
+
+    /**
+     * 检查解码出的消息：控制指令按顺序完整送达且插在大块数据之间，大块数据拼接后与原数据一致
+     */
+    private static void assertInterleaved(byte[] bulk, int controls, ArrayList<byte[]> payloads) {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        int nextControl = 0;
+        boolean interleaved = false;
+        for (byte[] payload : payloads) {
+            String text = new String(payload);
+            if (nextControl < controls && text.equals("ctl" + nextControl)) {
+                nextControl++;
+                interleaved |= received.size() > 0 && received.size() < bulk.length;
+            } else {
+                received.write(payload, 0, payload.length);
+            }
+        }
+        assertEquals(controls, nextControl);
+        assertTrue(interleaved);
+        assertArrayEquals(bulk, received.toByteArray());
+    }
+
+    @Test
+    public void writer_controlWritesBetweenBulkMessagesKeepStreamDecodable() throws Exception {
+        byte[] bulk = new byte[4000];
+        System.arraycopy(text(2000), 0, bulk, 0, 2000);
+        System.arraycopy(random(2000, 7), 0, bulk, 2000, 2000);
+        assertInterleaved(bulk, 5, writeInterleaved(bulk, BluetoothWriter.DEFAULT_PACKET_SIZE, 5));
+    }
+
+    @Test
+    public void writer_messageLargerThanPacketIsNotInterruptedByControl() throws Exception {
+        // 数据包小于消息头，每条消息都跨越多个数据包
+        byte[] bulk = random(40, 11);
+        assertInterleaved(bulk, 8, writeInterleaved(bulk, 3, 8));
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void encode_compressesRepetitiveDataAndRoundTrips() throws IOException {
+        byte[] data = text(4096);
+        BluetoothBuffer message = mSender.encode(data, 0, data.length);
+        assertEquals(BluetoothCompression.TYPE_DEFLATE, message.get(0));
+        assertTrue(message.length() < data.length / 4);
+
+        ArrayList<byte[]> payloads = receive(mReceiver, message.array(), message.offset(), message.length(), 7);
+        assertEquals(1, payloads.size());
+        assertArrayEquals(data, payloads.get(0));
+        assertEquals(1, mSender.getCompressedCount());
+        assertTrue(mSender.getSendThroughputGain() > 4);
+        assertEquals(mSender.getSendThroughputGain(), mReceiver.getReceiveThroughputGain(), 1e-9);
+    }
+
+    @Test
+    public void encode_sendsRawBelowThresholdOrBeforeHello() throws IOException {
+        byte[] small = text(BluetoothCompression.DEFAULT_THRESHOLD - 1);
+        BluetoothBuffer message = mSender.encode(small, 0, small.length);
+        assertEquals(BluetoothCompression.TYPE_RAW, message.get(0));
+        assertEquals(BluetoothCompression.HEADER_LENGTH + small.length, message.length());
+
+        byte[] large = text(4096);
+        message = mReceiver.encode(large, 0, large.length);
+        assertFalse(mReceiver.isPeerCompressionEnabled());
+        assertEquals(BluetoothCompression.TYPE_RAW, message.get(0));
+        ArrayList<byte[]> payloads = receive(mSender, message.array(), message.offset(), message.length(), 1000);
+        assertArrayEquals(large, payloads.get(0));
+    }
+
+    @Test
+    public void encode_backsOffOnIncompressibleData() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ArrayList<byte[]> sent = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            byte[] data = random(1000, i);
+            sent.add(data);
+            BluetoothBuffer message = mSender.encode(data, 0, data.length);
+            assertEquals(BluetoothCompression.TYPE_RAW, message.get(0));
+            stream.write(message.array(), message.offset(), message.length());
+        }
+        assertEquals(40, mSender.getUncompressedCount());
+
+        // 暂停期间不尝试压缩，可压缩的数据也按原样发送
+        byte[] data = text(1000);
+        assertEquals(BluetoothCompression.TYPE_RAW, mSender.encode(data, 0, data.length).get(0));
+
+        byte[] all = stream.toByteArray();
+        ArrayList<byte[]> payloads = receive(mReceiver, all, 0, all.length, 333);
+        assertEquals(40, payloads.size());
+        for (int i = 0; i < 40; i++)
+            assertArrayEquals(sent.get(i), payloads.get(i));
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsCorruptedMessage() throws IOException {
+        byte[] data = text(4096);
+        BluetoothBuffer message = mSender.encode(data, 0, data.length);
+        byte[] corrupted = message.toByteArray();
+        for (int i = 12; i < 20; i++)
+            corrupted[i] ^= 0x5A;
+        receive(mReceiver, corrupted, 0, corrupted.length, corrupted.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsUnknownType() throws IOException {
+        byte[] message = {9, 0, 0, 0, 1, 0};
+        receive(mReceiver, message, 0, message.length, message.length);
+    }
+}
@@ -0,0 +1,89 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按行解码器与在onInput中逐字节扫描的吞吐对比，两者都直接读取原始数据，不做额外拷贝。
+ * <p>解码器查找换行符的扫描与逐字节循环相同，该对比用于确认输出数据帧切片的开销，而不是证明扫描更快。</p>
+ */
+public class BluetoothDelimiterFrameDecoderBenchmark {
+    /** 单次读取的字节数，接近RFCOMM默认MTU */
+    private static final int CHUNK_SIZE = 990;
+    /** 重复轮数 */
+    private static final int ROUNDS = 5;
+
+    private static byte[] nmeaStream(int bytes) {
+        byte[] sentence = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n".getBytes(Charset.forName("US-ASCII"));
+        byte[] data = new byte[bytes];
+        for (int i = 0; i < bytes; i++)
+            data[i] = sentence[i % sentence.length];
+        return data;
+    }
+
+    /**
+     * 常见的应用层写法：在onInput中逐字节追加，遇到换行符时输出一行
+     */
+    private static long naive(byte[] data) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long lines = 0;
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            int end = Math.min(offset + CHUNK_SIZE, data.length);
+            for (int i = offset; i < end; i++) {
+                byte b = data[i];
+                if ('\n' == b) {
+                    byte[] bytes = line.toByteArray();
+                    int length = bytes.length > 0 && '\r' == bytes[bytes.length - 1] ? bytes.length - 1 : bytes.length;
+                    lines += length > 0 ? 1 : 0;
+                    line.reset();
+                } else {
+                    line.write(b);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static long decoder(byte[] data) throws Exception {
+        final long[] lines = new long[1];
+        BluetoothFrameDecoder.Output out = new BluetoothFrameDecoder.Output() {
+            @Override
+            public void onFrame(BluetoothBuffer frame) {
+                lines[0] += frame.length() > 0 ? 1 : 0;
+                frame.release();
+            }
+        };
+        BluetoothDelimiterFrameDecoder decoder = BluetoothDelimiterFrameDecoder.newLineDecoder(BluetoothDelimiterFrameDecoder.DEFAULT_MAX_FRAME_LENGTH);
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            BluetoothBuffer chunk = BluetoothBuffer.wrap(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+            decoder.decode(chunk, out);
+            chunk.release();
+        }
+        return lines[0];
+    }
+
+    @Test
+    public void lineDecoder_throughputComparedWithPerByteLoop() throws Exception {
+        byte[] data = nmeaStream(8 * 1024 * 1024);
+        long expected = naive(data);
+        assertEquals(expected, decoder(data));
+
+        long naiveNanos = Long.MAX_VALUE;
+        long decoderNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            naive(data);
+            naiveNanos = Math.min(naiveNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            decoder(data);
+            decoderNanos = Math.min(decoderNanos, System.nanoTime() - start);
+        }
+        double mb = data.length / 1024.0 / 1024.0;
+        System.out.println(String.format("line scanning %.0f MB: per-byte loop %.1f MB/s, decoder %.1f MB/s",
+                mb, mb * 1e9 / naiveNanos, mb * 1e9 / decoderNanos));
+    }
+}
@@ -0,0 +1,123 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分隔符帧和HDLC帧解码测试
+ */
+public class BluetoothDelimiterFrameDecoderTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * 收集解码输出的数据帧
+     */
+    private static class Frames implements BluetoothFrameDecoder.Output {
+        final ArrayList<byte[]> mFrames = new ArrayList<>();
+        final ArrayList<BluetoothBuffer> mBuffers = new ArrayList<>();
+
+        @Override
+        public void onFrame(BluetoothBuffer frame) {
+            mFrames.add(frame.toByteArray());
+            mBuffers.add(frame);
+        }
+
+        String string(int index) {
+            return new String(mFrames.get(index), ASCII);
+        }
+    }
+
+    /**
+     * 按所有可能的位置把数据拆成两次读取后解码
+     */
+    private static void decodeSplitEverywhere(BluetoothFrameDecoder decoder, byte[] data, byte[][] expected) throws IOException {
+        for (int split = 0; split <= data.length; split++) {
+            decoder.reset();
+            Frames frames = new Frames();
+            decoder.decode(BluetoothBuffer.wrap(data, 0, split), frames);
+            decoder.decode(BluetoothBuffer.wrap(data, split, data.length - split), frames);
+            assertEquals("split at " + split, expected.length, frames.mFrames.size());
+            for (int i = 0; i < expected.length; i++)
+                assertArrayEquals("split at " + split, expected[i], frames.mFrames.get(i));
+        }
+    }
+
+    @Test
+    public void lineDecoder_handlesLfAndCrLf() throws Exception {
+        byte[] data = "$GPGGA,1\r\n$GPRMC,2\nAT+OK\r\n\r\npartial".getBytes(ASCII);
+        decodeSplitEverywhere(BluetoothDelimiterFrameDecoder.newLineDecoder(64), data, new byte[][]{
+                "$GPGGA,1".getBytes(ASCII), "$GPRMC,2".getBytes(ASCII), "AT+OK".getBytes(ASCII), new byte[0]});
+    }
+
+    @Test
+    public void multiByteDelimiter_acrossReads() throws Exception {
+        byte[] data = "a\rb\r\nc\n\r\n".getBytes(ASCII);
+        decodeSplitEverywhere(new BluetoothDelimiterFrameDecoder("\r\n".getBytes(ASCII), 64, true), data, new byte[][]{
+                "a\rb".getBytes(ASCII), "c\n".getBytes(ASCII)});
+        decodeSplitEverywhere(new BluetoothDelimiterFrameDecoder("\r\n".getBytes(ASCII), 64, false), data, new byte[][]{
+                "a\rb\r\n".getBytes(ASCII), "c\n\r\n".getBytes(ASCII)});
+    }
+
+    @Test
+    public void lineDecoder_completeLineIsSliceOfInput() throws Exception {
+        byte[] data = "one\ntwo\nthr".getBytes(ASCII);
+        BluetoothBuffer in = BluetoothBuffer.wrap(data);
+        Frames frames = new Frames();
+        BluetoothDelimiterFrameDecoder decoder = BluetoothDelimiterFrameDecoder.newLineDecoder(64);
+        decoder.decode(in, frames);
+        assertEquals(2, frames.mFrames.size());
+        assertSame(data, frames.mBuffers.get(0).array());
+        assertSame(data, frames.mBuffers.get(1).array());
+        decoder.decode(BluetoothBuffer.wrap("ee\n".getBytes(ASCII)), frames);
+        assertEquals("three", frames.string(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void lineDecoder_rejectsTooLongLine() throws Exception {
+        BluetoothDelimiterFrameDecoder decoder = BluetoothDelimiterFrameDecoder.newLineDecoder(4);
+        Frames frames = new Frames();
+        decoder.decode(BluetoothBuffer.wrap("abc".getBytes(ASCII)), frames);
+        decoder.decode(BluetoothBuffer.wrap("def".getBytes(ASCII)), frames);
+    }
+
+    @Test
+    public void lineDecoder_maxLengthExcludesLineEnding() throws Exception {
+        byte[] data = "abcd\nefgh\r\n".getBytes(ASCII);
+        decodeSplitEverywhere(BluetoothDelimiterFrameDecoder.newLineDecoder(4), data, new byte[][]{
+                "abcd".getBytes(ASCII), "efgh".getBytes(ASCII)});
+        for (String line : new String[]{"abcde\n", "abcde\r\n", "abcde\r"}) {
+            try {
+                BluetoothDelimiterFrameDecoder.newLineDecoder(4).decode(BluetoothBuffer.wrap(line.getBytes(ASCII)), new Frames());
+                fail(line.trim() + " should exceed the limit");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void hdlc_unescapesAndSkipsEmptyFrames() throws Exception {
+        byte[] data = {0x11, 0x7E, 0x01, 0x7D, 0x5E, 0x02, 0x7E, 0x7E, 0x03, 0x7D, 0x5D, 0x7E, 0x04, 0x05, 0x7E, 0x06};
+        decodeSplitEverywhere(new BluetoothHdlcFrameDecoder(64), data, new byte[][]{
+                {0x01, 0x7E, 0x02}, {0x03, 0x7D}, {0x04, 0x05}});
+    }
+
+    @Test
+    public void hdlc_abortSequenceDiscardsFrame() throws Exception {
+        byte[] data = {0x7E, 0x01, 0x02, 0x7D, 0x7E, 0x03, 0x7E};
+        decodeSplitEverywhere(new BluetoothHdlcFrameDecoder(64), data, new byte[][]{{0x03}});
+    }
+
+    @Test
+    public void hdlc_plainFrameIsSliceOfInput() throws Exception {
+        byte[] data = {0x7E, 0x01, 0x02, 0x7E};
+        Frames frames = new Frames();
+        new BluetoothHdlcFrameDecoder(64).decode(BluetoothBuffer.wrap(data), frames);
+        assertSame(data, frames.mBuffers.get(0).array());
+        assertArrayEquals(new byte[]{0x01, 0x02}, frames.mFrames.get(0));
+    }
+}
@@ -0,0 +1,130 @@
+package com.luoye.bluetooth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 已知设备缓存测试
+ */
+public class BluetoothDeviceCacheTest {
+    private static final UUID SPP = UUID.fromString("00001101-0000-1000-8000-00805f9b34fb");
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("known_devices", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    private static BluetoothKnownDevice device(String address, String name, long lastSeen) {
+        return new BluetoothKnownDevice(address, name, 0x1F00, -60, lastSeen, new UUID[] {SPP},
+                BluetoothClient.CONNECT_STRATEGY_CHANNEL, 3);
+    }
+
+    @Test
+    public void save_roundTripsThroughFile() throws Exception {
+        BluetoothDeviceCache cache = new BluetoothDeviceCache(mFile);
+        cache.put(device("00:00:00:00:00:01", "printer", 1000));
+        cache.put(device("00:00:00:00:00:02", null, 2000));
+        cache.save();
+
+        List<BluetoothKnownDevice> devices = new BluetoothDeviceCache(mFile).getAll();
+        assertEquals(2, devices.size());
+        assertEquals("00:00:00:00:00:02", devices.get(0).getAddress());
+        assertNull(devices.get(0).getName());
+        BluetoothKnownDevice printer = devices.get(1);
+        assertEquals("printer", printer.getName());
+        assertEquals(0x1F00, printer.getDeviceClass());
+        assertEquals(-60, printer.getRssi());
+        assertEquals(1000, printer.getLastSeen());
+        assertTrue(printer.hasService(SPP));
+        assertEquals(BluetoothClient.CONNECT_STRATEGY_CHANNEL, printer.getConnectStrategy());
+        assertEquals(3, printer.getRfcommChannel());
+    }
+
+    @Test
+    public void refresh_updatesOnlyKnownDevices() {
+        BluetoothDeviceCache cache = new BluetoothDeviceCache(mFile);
+        cache.put(device("00:00:00:00:00:01", "printer", 1000));
+        assertFalse(cache.refresh("00:00:00:00:00:09", "other", 0, -50, 5000));
+        assertTrue(cache.refresh("00:00:00:00:00:01", null, BluetoothKnownDevice.DEVICE_CLASS_UNKNOWN, -40, 5000));
+
+        BluetoothKnownDevice printer = cache.get("00:00:00:00:00:01");
+        assertEquals("printer", printer.getName());
+        assertEquals(0x1F00, printer.getDeviceClass());
+        assertEquals(-40, printer.getRssi());
+        assertEquals(5000, printer.getLastSeen());
+        assertEquals(3, printer.getRfcommChannel());
+        assertNull(cache.get("00:00:00:00:00:09"));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlySeenBeyondCapacity() {
+        BluetoothDeviceCache cache = new BluetoothDeviceCache(mFile);
+        for (int i = 0; i <= BluetoothDeviceCache.MAX_DEVICES; i++)
+            cache.put(device("device-" + i, null, 1000 + i));
+        assertEquals(BluetoothDeviceCache.MAX_DEVICES, cache.getAll().size());
+        assertNull(cache.get("device-0"));
+        assertNotNull(cache.get("device-1"));
+    }
+
+    @Test
+    public void load_ignoresCorruptFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] {1, 2, 3, 4, 5});
+        out.close();
+        BluetoothDeviceCache cache = new BluetoothDeviceCache(mFile);
+        assertTrue(cache.getAll().isEmpty());
+        cache.put(device("00:00:00:00:00:01", "printer", 1000));
+        cache.save();
+        assertEquals(1, new BluetoothDeviceCache(mFile).getAll().size());
+    }
+
+    @Test
+    public void refreshAndPeek_beforeLoad_doNotReadFile() throws Exception {
+        BluetoothDeviceCache writer = new BluetoothDeviceCache(mFile);
+        writer.put(device("00:00:00:00:00:01", "printer", 1000));
+        writer.save();
+
+        BluetoothDeviceCache cache = new BluetoothDeviceCache(mFile);
+        assertNull(cache.peek("00:00:00:00:00:01"));
+        assertFalse(cache.refresh("00:00:00:00:00:01", "renamed", 0, -40, 5000));
+        assertFalse(cache.isLoaded());
+
+        assertEquals("printer", cache.get("00:00:00:00:00:01").getName());
+        assertTrue(cache.isLoaded());
+        assertEquals("printer", cache.peek("00:00:00:00:00:01").getName());
+        assertTrue(cache.refresh("00:00:00:00:00:01", "renamed", 0, -40, 5000));
+    }
+
+    @Test
+    public void preload_loadsInBackground() throws Exception {
+        BluetoothDeviceCache writer = new BluetoothDeviceCache(mFile);
+        writer.put(device("00:00:00:00:00:01", "printer", 1000));
+        writer.save();
+
+        BluetoothDeviceCache cache = new BluetoothDeviceCache(mFile);
+        cache.preload();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cache.isLoaded() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(cache.isLoaded());
+        assertEquals("printer", cache.peek("00:00:00:00:00:01").getName());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+}
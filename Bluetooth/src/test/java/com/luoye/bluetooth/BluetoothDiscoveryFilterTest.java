@@ -0,0 +1,60 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 蓝牙搜索过滤条件测试
+ */
+public class BluetoothDiscoveryFilterTest {
+    /** 设备地址 */
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+    /** 设备主类型：音视频 */
+    private static final int MAJOR_AUDIO_VIDEO = 0x0400;
+    /** 设备主类型：电话 */
+    private static final int MAJOR_PHONE = 0x0200;
+
+    @Test
+    public void matches_emptyFilterAcceptsEverything() {
+        BluetoothDiscoveryFilter filter = new BluetoothDiscoveryFilter();
+        assertTrue(filter.matches(ADDRESS, null, BluetoothDiscoveryFilter.ANY_MAJOR_DEVICE_CLASS,
+                BluetoothDiscoveredDevice.RSSI_UNKNOWN));
+    }
+
+    @Test
+    public void matches_namePrefixIsCaseSensitiveAndRejectsUnknownName() {
+        BluetoothDiscoveryFilter filter = new BluetoothDiscoveryFilter();
+        filter.setNamePrefix("HC-");
+        assertTrue(filter.matches(ADDRESS, "HC-05", MAJOR_PHONE, -60));
+        assertFalse(filter.matches(ADDRESS, "hc-05", MAJOR_PHONE, -60));
+        assertFalse(filter.matches(ADDRESS, null, MAJOR_PHONE, -60));
+    }
+
+    @Test
+    public void matches_addressIgnoresCase() {
+        BluetoothDiscoveryFilter filter = new BluetoothDiscoveryFilter();
+        filter.setAddress("00:11:22:aa:bb:cc");
+        assertTrue(filter.matches(ADDRESS, null, MAJOR_PHONE, -60));
+        assertTrue(filter.matches(ADDRESS.toLowerCase(), null, MAJOR_PHONE, -60));
+        assertFalse(filter.matches("00:11:22:AA:BB:CD", null, MAJOR_PHONE, -60));
+    }
+
+    @Test
+    public void matches_majorDeviceClassRejectsUnknownClass() {
+        BluetoothDiscoveryFilter filter = new BluetoothDiscoveryFilter();
+        filter.setMajorDeviceClass(MAJOR_AUDIO_VIDEO);
+        assertTrue(filter.matches(ADDRESS, null, MAJOR_AUDIO_VIDEO, -60));
+        assertFalse(filter.matches(ADDRESS, null, MAJOR_PHONE, -60));
+        assertFalse(filter.matches(ADDRESS, null, BluetoothDiscoveryFilter.ANY_MAJOR_DEVICE_CLASS, -60));
+    }
+
+    @Test
+    public void matches_minRssiRejectsWeakAndUnknownRssi() {
+        BluetoothDiscoveryFilter filter = new BluetoothDiscoveryFilter();
+        filter.setMinRssi(-70);
+        assertTrue(filter.matches(ADDRESS, null, MAJOR_PHONE, -70));
+        assertFalse(filter.matches(ADDRESS, null, MAJOR_PHONE, -71));
+        assertFalse(filter.matches(ADDRESS, null, MAJOR_PHONE, BluetoothDiscoveredDevice.RSSI_UNKNOWN));
+    }
+}
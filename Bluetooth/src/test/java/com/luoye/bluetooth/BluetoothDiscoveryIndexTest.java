@@ -0,0 +1,79 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 搜索索引测试
+ */
+public class BluetoothDiscoveryIndexTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    @Test
+    public void upsert_reportsNewDeviceOnceAndMergesRepeats() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        BluetoothDiscoveryIndex.Delta delta = index.upsert(ADDRESS, null, null, "printer", -60, 1000);
+        assertEquals(BluetoothDiscoveryIndex.DELTA_ADDED, delta.mType);
+        assertEquals("printer", delta.mDevice.getName());
+        assertEquals(-60, delta.mDevice.getRssi());
+
+        assertNull(index.upsert(ADDRESS, null, null, "printer", -61, 2000));
+        assertNull(index.upsert(ADDRESS, null, null, null, -59, 3000));
+        assertEquals(1, index.size());
+
+        BluetoothDiscoveredDevice device = index.snapshot().get(0);
+        assertEquals(1000, device.getFirstSeen());
+        assertEquals(3000, device.getLastSeen());
+        assertEquals(3, device.getSightings());
+        assertEquals("printer", device.getName());
+    }
+
+    @Test
+    public void upsert_reportsNameChange() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        index.upsert(ADDRESS, null, null, null, -60, 0);
+        BluetoothDiscoveryIndex.Delta delta = index.upsert(ADDRESS, null, null, "printer", -60, 10);
+        assertEquals(BluetoothDiscoveryIndex.DELTA_UPDATED, delta.mType);
+        assertEquals(BluetoothDiscoveredDevice.CHANGE_NAME, delta.mChanges);
+    }
+
+    @Test
+    public void upsert_smoothsRssiAndReportsOnlyBeyondThreshold() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        index.setRssiAlpha(0.5f);
+        index.setRssiThreshold(5);
+        index.upsert(ADDRESS, null, null, null, -80, 0);
+        // 单个-60的样本只把平滑值拉到-70，超过阈值
+        BluetoothDiscoveryIndex.Delta delta = index.upsert(ADDRESS, null, null, null, -60, 1);
+        assertEquals(BluetoothDiscoveredDevice.CHANGE_RSSI, delta.mChanges);
+        assertEquals(-70, delta.mDevice.getRssi());
+        assertEquals(-60, delta.mDevice.getRawRssi());
+        // -72使平滑值变为-71，相对上次报告的-70未达阈值
+        assertNull(index.upsert(ADDRESS, null, null, null, -72, 2));
+    }
+
+    @Test
+    public void upsert_ignoresUnknownRssi() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        index.upsert(ADDRESS, null, null, null, -60, 0);
+        assertNull(index.upsert(ADDRESS, null, null, null, BluetoothDiscoveredDevice.RSSI_UNKNOWN, 1));
+        assertEquals(-60, index.snapshot().get(0).getRssi());
+    }
+
+    @Test
+    public void expire_removesDevicesNotSeenWithinTimeout() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        index.setLostTimeout(100);
+        index.upsert("A", null, null, null, -60, 0);
+        index.upsert("B", null, null, null, -60, 50);
+        List<BluetoothDiscoveredDevice> lost = index.expire(120);
+        assertEquals(1, lost.size());
+        assertEquals("A", lost.get(0).getAddress());
+        assertEquals(1, index.size());
+        // 丢失后再出现按新设备报告
+        assertEquals(BluetoothDiscoveryIndex.DELTA_ADDED, index.upsert("A", null, null, null, -60, 130).mType);
+    }
+}
@@ -0,0 +1,75 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 快速连接期间的搜索暂停状态测试
+ */
+public class BluetoothDiscoveryPauseTest {
+    @Test
+    public void pause_withoutDiscovery_neverResumes() {
+        BluetoothDiscoveryPause pause = new BluetoothDiscoveryPause();
+        assertFalse(pause.pause(false));
+        assertFalse(pause.isPaused());
+        assertFalse(pause.onFinished());
+        assertFalse(pause.resume());
+        assertFalse(pause.onStarted());
+        assertEquals(0, pause.count());
+    }
+
+    @Test
+    public void pause_hidesFinishAndResumedStart() {
+        BluetoothDiscoveryPause pause = new BluetoothDiscoveryPause();
+        assertTrue(pause.pause(true));
+        assertTrue(pause.onFinished()); // cancelDiscovery引起的结束广播
+
+        assertTrue(pause.resume());
+        assertTrue(pause.onFinished()); // 恢复的搜索开始前仍屏蔽结束广播
+        assertTrue(pause.onStarted());
+        assertFalse(pause.isPaused());
+
+        // 恢复后的搜索按正常搜索处理
+        assertFalse(pause.onStarted());
+        assertFalse(pause.onFinished());
+    }
+
+    @Test
+    public void overlappingFastConnects_resumeOnlyAfterLast() {
+        BluetoothDiscoveryPause pause = new BluetoothDiscoveryPause();
+        assertTrue(pause.pause(true));
+        assertFalse(pause.pause(false)); // 搜索已被第一个快速连接暂停
+        assertEquals(2, pause.count());
+
+        assertFalse(pause.resume());
+        assertTrue(pause.isPaused());
+        assertTrue(pause.onStarted()); // 其他快速连接仍在进行，屏蔽开始广播且保持暂停
+        assertTrue(pause.isPaused());
+
+        assertTrue(pause.resume());
+        assertEquals(0, pause.count());
+        assertTrue(pause.onStarted());
+        assertFalse(pause.isPaused());
+    }
+
+    @Test
+    public void abandon_letsFinishThrough() {
+        BluetoothDiscoveryPause pause = new BluetoothDiscoveryPause();
+        assertTrue(pause.pause(true));
+        assertTrue(pause.resume());
+        pause.abandon(); // startDiscovery失败，按搜索结束处理
+        assertFalse(pause.isPaused());
+        assertFalse(pause.onFinished());
+    }
+
+    @Test
+    public void reset_clearsStalePauseForNewSession() {
+        BluetoothDiscoveryPause pause = new BluetoothDiscoveryPause();
+        assertTrue(pause.pause(true));
+        pause.reset(); // 暂停期间会话被停止，新会话开始
+        assertFalse(pause.onFinished());
+        assertFalse(pause.resume());
+        assertEquals(0, pause.count());
+    }
+}
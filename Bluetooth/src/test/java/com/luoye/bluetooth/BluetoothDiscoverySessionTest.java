@@ -0,0 +1,142 @@
+package com.luoye.bluetooth;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 共享搜索会话测试
+ */
+public class BluetoothDiscoverySessionTest {
+    private static final String ADDRESS_A = "00:11:22:33:44:0A";
+    private static final String ADDRESS_B = "00:11:22:33:44:0B";
+
+    /**
+     * 记录回调的索引监听
+     */
+    private static class RecordingListener implements Bluetooth.OnBluetoothDeviceIndexListener {
+        final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onDiscoveryStarted() {
+            mEvents.add("started");
+        }
+
+        @Override
+        public void onDeviceFound(BluetoothDevice device, BluetoothClass cls, String name, int rssi) {
+            mEvents.add("found");
+        }
+
+        @Override
+        public void onDeviceAdded(BluetoothDiscoveredDevice device) {
+            mEvents.add("added " + device.getAddress());
+        }
+
+        @Override
+        public void onDeviceUpdated(BluetoothDiscoveredDevice device, int changes) {
+            mEvents.add("updated " + device.getAddress());
+        }
+
+        @Override
+        public void onDeviceLost(BluetoothDiscoveredDevice device) {
+            mEvents.add("lost " + device.getAddress());
+        }
+
+        @Override
+        public void onDiscoveryFinished() {
+            mEvents.add("finished");
+        }
+
+        @Override
+        public void onDiscoveryCanceled() {
+            mEvents.add("canceled");
+        }
+    }
+
+    @Test
+    public void add_rejectsSameListenerTwice() {
+        BluetoothDiscoverySession session = new BluetoothDiscoverySession(0);
+        RecordingListener listener = new RecordingListener();
+        assertNotNull(session.add(listener, null, 0));
+        assertNull(session.add(listener, null, 0));
+        assertEquals(1, session.size());
+        assertNotNull(session.remove(listener));
+        assertTrue(session.isEmpty());
+    }
+
+    @Test
+    public void start_replaysDevicesToLateJoinerOnce() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        index.upsert(ADDRESS_A, null, null, "a", -60, 10);
+        BluetoothDiscoverySession session = new BluetoothDiscoverySession(0);
+        RecordingListener late = new RecordingListener();
+        BluetoothDiscoverySession.Subscriber subscriber = session.add(late, null, 0);
+
+        assertFalse(subscriber.start(index.snapshot()));
+        assertFalse(subscriber.start(index.snapshot()));
+        // 已补发的设备再次出现时按变化分发
+        BluetoothDiscoveryIndex.Delta delta = index.upsert(ADDRESS_A, null, null, "a2", -60, 20);
+        subscriber.deliver(null, null, "a2", -60, delta.mDevice, delta);
+        assertEquals(Arrays.asList("started", "added " + ADDRESS_A, "updated " + ADDRESS_A), late.mEvents);
+    }
+
+    @Test
+    public void deliver_appliesFilterPerSubscriber() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        BluetoothDiscoverySession session = new BluetoothDiscoverySession(0);
+        BluetoothDiscoveryFilter filter = new BluetoothDiscoveryFilter();
+        filter.setNamePrefix("HC-");
+        RecordingListener filtered = new RecordingListener();
+        RecordingListener all = new RecordingListener();
+        session.add(filtered, filter, 0).start(Collections.<BluetoothDiscoveredDevice>emptyList());
+        session.add(all, null, 0).start(Collections.<BluetoothDiscoveredDevice>emptyList());
+
+        assertEquals(1, session.accepting(ADDRESS_A, "phone", null, -60).size());
+        assertEquals(2, session.accepting(ADDRESS_B, "HC-05", null, -60).size());
+        BluetoothDiscoveryIndex.Delta delta = index.upsert(ADDRESS_B, null, null, "HC-05", -60, 10);
+        for (BluetoothDiscoverySession.Subscriber subscriber : session.accepting(ADDRESS_B, "HC-05", null, -60))
+            subscriber.deliver(null, null, "HC-05", -60, delta.mDevice, delta);
+        assertEquals(Arrays.asList("started", "added " + ADDRESS_B), filtered.mEvents);
+        assertEquals(Arrays.asList("started", "added " + ADDRESS_B), all.mEvents);
+    }
+
+    @Test
+    public void deliver_reportsFullAtMaxMatchesAndIgnoresLaterResults() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        BluetoothDiscoverySession session = new BluetoothDiscoverySession(0);
+        RecordingListener listener = new RecordingListener();
+        BluetoothDiscoverySession.Subscriber subscriber = session.add(listener, null, 1);
+        subscriber.start(Collections.<BluetoothDiscoveredDevice>emptyList());
+
+        BluetoothDiscoveryIndex.Delta delta = index.upsert(ADDRESS_A, null, null, null, -60, 10);
+        assertTrue(subscriber.deliver(null, null, null, -60, delta.mDevice, delta));
+        delta = index.upsert(ADDRESS_B, null, null, null, -60, 20);
+        assertFalse(subscriber.deliver(null, null, null, -60, delta.mDevice, delta));
+        subscriber.finish(Collections.<BluetoothDiscoveredDevice>emptyList());
+        subscriber.cancel();
+        assertEquals(Arrays.asList("started", "added " + ADDRESS_A, "finished"), listener.mEvents);
+    }
+
+    @Test
+    public void finish_reportsLostOnlyForDeliveredDevices() {
+        BluetoothDiscoveryIndex index = new BluetoothDiscoveryIndex();
+        index.setLostTimeout(100);
+        index.upsert(ADDRESS_A, null, null, null, -60, 0);
+        index.upsert(ADDRESS_B, null, null, null, -60, 0);
+        RecordingListener listener = new RecordingListener();
+        BluetoothDiscoverySession.Subscriber subscriber = new BluetoothDiscoverySession(0).add(listener, null, 0);
+        subscriber.start(Collections.singletonList(index.get(ADDRESS_A)));
+
+        subscriber.finish(index.expire(1000));
+        assertEquals(Arrays.asList("started", "added " + ADDRESS_A, "lost " + ADDRESS_A, "finished"),
+                listener.mEvents);
+    }
+}
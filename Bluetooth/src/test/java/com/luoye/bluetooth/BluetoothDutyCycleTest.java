@@ -0,0 +1,68 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 搜索占空比控制测试
+ */
+public class BluetoothDutyCycleTest {
+    /** 单次搜索1秒、周期4秒、繁忙阈值1000字节/秒、空闲保持500毫秒 */
+    private static BluetoothDutyCycle newDutyCycle() {
+        return new BluetoothDutyCycle(1000, 4000, 1000, 500);
+    }
+
+    @Test
+    public void sample_scansForWindowOncePerInterval() {
+        BluetoothDutyCycle dutyCycle = newDutyCycle();
+        assertEquals(BluetoothDutyCycle.ACTION_START_SCAN, dutyCycle.sample(0, 0));
+        dutyCycle.scanStarted(0);
+        assertEquals(BluetoothDutyCycle.ACTION_NONE, dutyCycle.sample(500, 0));
+        assertEquals(BluetoothDutyCycle.ACTION_STOP_SCAN, dutyCycle.sample(1000, 0));
+        dutyCycle.scanEnded(1000);
+        assertEquals(BluetoothDutyCycle.ACTION_NONE, dutyCycle.sample(2000, 0));
+        assertEquals(BluetoothDutyCycle.ACTION_NONE, dutyCycle.sample(3500, 0));
+        assertEquals(BluetoothDutyCycle.ACTION_START_SCAN, dutyCycle.sample(4000, 0));
+        assertEquals(1, dutyCycle.getScanCount());
+        assertEquals(1000, dutyCycle.getScanMillis());
+    }
+
+    @Test
+    public void sample_backsOffWhileBusyAndResumesWhenIdle() {
+        BluetoothDutyCycle dutyCycle = newDutyCycle();
+        dutyCycle.sample(0, 0);
+        dutyCycle.scanStarted(0);
+        // 500毫秒内传输1000字节，达到2000字节/秒
+        assertEquals(BluetoothDutyCycle.ACTION_STOP_SCAN, dutyCycle.sample(500, 1000));
+        dutyCycle.scanEnded(500);
+        assertEquals(1, dutyCycle.getBackoffCount());
+        // 链路仍繁忙，不恢复
+        assertEquals(BluetoothDutyCycle.ACTION_NONE, dutyCycle.sample(1000, 3000));
+        // 刚空闲，未满空闲保持时长
+        assertEquals(BluetoothDutyCycle.ACTION_NONE, dutyCycle.sample(1200, 3000));
+        // 空闲满500毫秒，立即重新搜索被打断的周期，无需等到下一个周期
+        assertEquals(BluetoothDutyCycle.ACTION_START_SCAN, dutyCycle.sample(1500, 3000));
+    }
+
+    @Test
+    public void sample_estimatesThroughputLostToScanning() {
+        BluetoothDutyCycle dutyCycle = new BluetoothDutyCycle(1000, 4000, 100000, 0);
+        dutyCycle.sample(0, 0);
+        dutyCycle.scanStarted(0);
+        dutyCycle.scanEnded(0);
+        // 未搜索时10000字节/秒
+        dutyCycle.sample(1000, 10000);
+        dutyCycle.scanStarted(1000);
+        // 搜索时降至6000字节/秒，低于繁忙阈值因而继续搜索
+        assertEquals(BluetoothDutyCycle.ACTION_NONE, dutyCycle.sample(1500, 13000));
+        assertEquals(10000, dutyCycle.getLinkThroughput());
+        assertEquals(6000, dutyCycle.getScanningThroughput());
+        assertEquals(2000, dutyCycle.getLostBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsWindowLongerThanInterval() {
+        new BluetoothDutyCycle(5000, 4000, 1000, 500);
+    }
+}
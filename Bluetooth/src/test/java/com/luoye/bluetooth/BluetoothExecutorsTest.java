@@ -0,0 +1,101 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 回调执行器和共享定时器测试
+ */
+public class BluetoothExecutorsTest {
+    /**
+     * 记录回调的目标
+     */
+    private static class RecordingTarget implements BluetoothCallbackDispatcher.Target {
+        final List<String> mEvents = new ArrayList<>();
+        volatile Thread mThread;
+
+        @Override
+        public synchronized void onCallback(int what, Object obj) {
+            mThread = Thread.currentThread();
+            mEvents.add(what + ":" + obj);
+        }
+    }
+
+    @Test
+    public void direct_runsInlineOnCallingThread() {
+        final Thread[] ran = new Thread[1];
+        BluetoothExecutors.direct().execute(new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = Thread.currentThread();
+            }
+        });
+        assertSame(Thread.currentThread(), ran[0]);
+        assertSame(BluetoothExecutors.direct(), BluetoothExecutors.direct());
+    }
+
+    @Test
+    public void isDirect_onlyForDirectExecutor() {
+        assertTrue(BluetoothExecutors.isDirect(BluetoothExecutors.direct()));
+        assertFalse(BluetoothExecutors.isDirect(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }));
+        assertFalse(BluetoothExecutors.isDirect(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void looper_rejectsNull() {
+        BluetoothExecutors.looper(null);
+    }
+
+    @Test
+    public void dispatcher_directCallsBackInlineAndOtherExecutorsViaExecute() throws Exception {
+        RecordingTarget direct = new RecordingTarget();
+        new BluetoothCallbackDispatcher(BluetoothExecutors.direct(), direct).dispatch(1, "a");
+        assertEquals("[1:a]", direct.mEvents.toString());
+        assertSame(Thread.currentThread(), direct.mThread);
+
+        final List<Runnable> queued = new ArrayList<>();
+        RecordingTarget deferred = new RecordingTarget();
+        BluetoothCallbackDispatcher dispatcher = new BluetoothCallbackDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        }, deferred);
+        dispatcher.dispatch(2, "b");
+        dispatcher.dispatch(3, "c");
+        assertTrue(deferred.mEvents.isEmpty());
+        for (Runnable task : queued)
+            task.run();
+        assertEquals("[2:b, 3:c]", deferred.mEvents.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dispatcher_rejectsNullExecutor() {
+        new BluetoothCallbackDispatcher((Executor) null, new RecordingTarget());
+    }
+
+    @Test
+    public void timer_isSharedDaemonThread() throws Exception {
+        assertSame(BluetoothExecutors.timer(), BluetoothExecutors.timer());
+        Thread thread = BluetoothExecutors.timer().schedule(new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        }, 10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+        assertEquals("bluetooth-timer", thread.getName());
+        assertTrue(thread.isDaemon());
+    }
+}
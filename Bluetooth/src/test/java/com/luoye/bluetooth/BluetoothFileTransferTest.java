@@ -0,0 +1,296 @@
+package com.luoye.bluetooth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 文件发送与接收测试
+ */
+public class BluetoothFileTransferTest {
+    private File mSource;
+    private File mTarget;
+    private byte[] mData;
+
+    @Before
+    public void setUp() throws IOException {
+        mData = new byte[100 * 1024 + 123];
+        for (int i = 0; i < mData.length; i++)
+            mData[i] = (byte) (i * 7 + (i >>> 8));
+        mSource = File.createTempFile("bluetooth-send", ".bin");
+        mTarget = File.createTempFile("bluetooth-receive", ".bin");
+        FileOutputStream fos = new FileOutputStream(mSource);
+        try {
+            fos.write(mData);
+        } finally {
+            fos.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mSource.delete();
+        mTarget.delete();
+    }
+
+    /**
+     * 记录发送结果的回调
+     */
+    static class SendCallback extends BluetoothFileTransfer.OnFileTransferCallback {
+        final List<Long> mProgress = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile boolean mComplete;
+        volatile IOException mFailure;
+
+        SendCallback() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onProgress(BluetoothFileTransfer transfer, long position, long length) {
+            mProgress.add(position);
+        }
+
+        @Override
+        public void onComplete(BluetoothFileTransfer transfer) {
+            mComplete = true;
+            mDone.countDown();
+        }
+
+        @Override
+        public void onFailure(BluetoothFileTransfer transfer, IOException e) {
+            mFailure = e;
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * 记录接收结果的回调
+     */
+    static class ReceiveCallback extends BluetoothFileInputCallback {
+        final ByteArrayOutputStream mTrailing = new ByteArrayOutputStream();
+        final List<Long> mProgress = new ArrayList<>();
+        File mComplete;
+        IOException mFailure;
+
+        ReceiveCallback(File file, long offset, long length) throws IOException {
+            super(file, offset, length, BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onFileProgress(long position, long length) {
+            mProgress.add(position);
+        }
+
+        @Override
+        public void onFileComplete(File file) {
+            mComplete = file;
+        }
+
+        @Override
+        public void onFileFailure(IOException e) {
+            mFailure = e;
+        }
+
+        @Override
+        public void onInput(byte[] buffer) {
+            mTrailing.write(buffer, 0, buffer.length);
+        }
+
+        @Override
+        public void onDisconnected(IOException e) {
+        }
+    }
+
+    /**
+     * 超过指定字节数后写入失败的输出流
+     */
+    static class LimitedOutputStream extends OutputStream {
+        final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        final int mLimit;
+
+        LimitedOutputStream(int limit) {
+            mLimit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (mData.size() + len > mLimit)
+                throw new IOException("connection lost");
+            mData.write(b, off, len);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int position = 0;
+            while (position < data.length)
+                position += fis.read(data, position, data.length - position);
+            return data;
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static Thread start(final BluetoothWriter writer) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                writer.run();
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 以读取线程的块大小将数据交给接收回调
+     */
+    private static void feed(ReceiveCallback callback, byte[] data, int offset, int length) {
+        for (int position = offset; position < offset + length; position += 1000) {
+            byte[] chunk = new byte[Math.min(1000, offset + length - position)];
+            System.arraycopy(data, position, chunk, 0, chunk.length);
+            callback.notifyInput(BluetoothBuffer.wrap(chunk));
+        }
+    }
+
+    @Test
+    public void sendFile_streamsWholeFileInChunks() throws Exception {
+        LimitedOutputStream os = new LimitedOutputStream(Integer.MAX_VALUE);
+        BluetoothWriter writer = new BluetoothWriter(os, BluetoothWriter.DEFAULT_PACKET_SIZE, 0, new BluetoothWriterTest.Results(0));
+        Thread thread = start(writer);
+        SendCallback callback = new SendCallback();
+        BluetoothFileTransfer transfer = new BluetoothFileTransfer(mSource, 0, writer, callback);
+        transfer.run();
+
+        assertTrue(callback.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.mComplete);
+        assertArrayEquals(mData, os.mData.toByteArray());
+        assertEquals(mData.length, transfer.getPosition());
+        assertEquals(Long.valueOf(mData.length), callback.mProgress.get(callback.mProgress.size() - 1));
+        assertTrue(callback.mProgress.size() <= 101);
+        writer.close(null);
+        thread.join(5000);
+    }
+
+    @Test
+    public void sendFile_resumesFromPositionAfterFailure() throws Exception {
+        LimitedOutputStream lost = new LimitedOutputStream(30000);
+        BluetoothWriter writer = new BluetoothWriter(lost, BluetoothWriter.DEFAULT_PACKET_SIZE, 0, new BluetoothWriterTest.Results(0));
+        Thread thread = start(writer);
+        SendCallback callback = new SendCallback();
+        BluetoothFileTransfer transfer = new BluetoothFileTransfer(mSource, 0, writer, callback);
+        transfer.run();
+        assertTrue(callback.mDone.await(5, TimeUnit.SECONDS));
+        assertNotNull(callback.mFailure);
+        thread.join(5000);
+        long position = transfer.getPosition();
+        assertTrue(position > 0 && position <= 30000);
+        assertEquals(0, position % BluetoothFileTransfer.DEFAULT_CHUNK_SIZE);
+
+        LimitedOutputStream os = new LimitedOutputStream(Integer.MAX_VALUE);
+        writer = new BluetoothWriter(os, BluetoothWriter.DEFAULT_PACKET_SIZE, 0, new BluetoothWriterTest.Results(0));
+        thread = start(writer);
+        callback = new SendCallback();
+        new BluetoothFileTransfer(mSource, position, writer, callback).run();
+        assertTrue(callback.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.mComplete);
+        byte[] resumed = os.mData.toByteArray();
+        assertEquals(mData.length - position, resumed.length);
+        for (int i = 0; i < resumed.length; i++)
+            assertEquals(mData[(int) position + i], resumed[i]);
+        writer.close(null);
+        thread.join(5000);
+    }
+
+    @Test
+    public void sendFile_rejectsOtherWritesUntilFinished() throws Exception {
+        BluetoothTestTransport[] link = BluetoothTestTransport.pair();
+        BluetoothClient sender = new BluetoothClient(link[0]);
+        sender.setIoExecutor(new BluetoothClientTest.TrackingExecutor());
+        BluetoothClient receiver = new BluetoothClient(link[1]);
+        receiver.setIoExecutor(new BluetoothClientTest.TrackingExecutor());
+        ReceiveCallback received = new ReceiveCallback(mTarget, 0, mData.length);
+        receiver.asyncRead(received);
+
+        // 接收方把发送期间到达的数据都写入文件，其他写入必须被拒绝
+        SendCallback callback = new SendCallback();
+        sender.sendFile(mSource, 0, callback);
+        try {
+            sender.asyncWrite("ping".getBytes());
+            fail("write during file transfer should fail");
+        } catch (IOException expected) {
+        }
+        try {
+            sender.sendFile(mSource, 0, new SendCallback());
+            fail("second file transfer should fail");
+        } catch (IOException expected) {
+        }
+
+        assertTrue(callback.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.mComplete);
+        sender.asyncWrite("tail".getBytes());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.mTrailing.size() < 4 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals("tail", received.mTrailing.toString());
+        assertEquals(mTarget, received.mComplete);
+        assertArrayEquals(mData, readFile(mTarget));
+        sender.shutdown();
+        receiver.shutdown();
+    }
+
+    @Test
+    public void receive_writesFileAndPassesTrailingData() throws Exception {
+        ReceiveCallback callback = new ReceiveCallback(mTarget, 0, mData.length);
+        byte[] input = new byte[mData.length + 5];
+        System.arraycopy(mData, 0, input, 0, mData.length);
+        input[mData.length] = 42;
+        feed(callback, input, 0, input.length);
+
+        assertEquals(mTarget, callback.mComplete);
+        assertNull(callback.mFailure);
+        assertArrayEquals(mData, readFile(mTarget));
+        assertEquals(5, callback.mTrailing.size());
+        assertEquals(42, callback.mTrailing.toByteArray()[0]);
+        assertFalse(callback.mProgress.isEmpty());
+    }
+
+    @Test
+    public void receive_resumesFromPositionAfterDisconnect() throws Exception {
+        ReceiveCallback first = new ReceiveCallback(mTarget, 0, mData.length);
+        feed(first, mData, 0, 40500);
+        first.notifyDisconnected(new IOException("connection lost"));
+        assertNotNull(first.mFailure);
+        assertNull(first.mComplete);
+        long position = first.getPosition();
+        assertEquals(40500, position);
+
+        ReceiveCallback second = new ReceiveCallback(mTarget, position, mData.length);
+        feed(second, mData, (int) position, mData.length - (int) position);
+        assertEquals(mTarget, second.mComplete);
+        assertArrayEquals(mData, readFile(mTarget));
+        assertEquals(0, second.mTrailing.size());
+    }
+}
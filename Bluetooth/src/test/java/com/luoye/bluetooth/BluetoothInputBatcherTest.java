@@ -0,0 +1,71 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 接收数据批量聚合测试
+ */
+public class BluetoothInputBatcherTest {
+    private static final long MILLIS = 1000000L;
+
+    private static BluetoothBuffer chunk(int length, int value) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) value;
+        return BluetoothBuffer.wrap(bytes);
+    }
+
+    @Test
+    public void add_flushesWhenWindowElapses() {
+        BluetoothInputBatcher batcher = new BluetoothInputBatcher(16, 1024);
+        assertNull(batcher.add(chunk(10, 1), 0));
+        assertNull(batcher.add(chunk(10, 2), 5 * MILLIS));
+        assertEquals(11 * MILLIS, batcher.remaining(5 * MILLIS));
+        assertNull(batcher.poll(15 * MILLIS));
+
+        BluetoothBatch batch = batcher.poll(16 * MILLIS);
+        assertNotNull(batch);
+        assertEquals(2, batch.chunkCount());
+        assertEquals(20, batch.length());
+        byte[] bytes = batch.toByteArray();
+        assertEquals(1, bytes[0]);
+        assertEquals(2, bytes[19]);
+        batch.release();
+        assertEquals(-1, batcher.remaining(16 * MILLIS));
+    }
+
+    @Test
+    public void add_flushesWhenMaxBytesReached() {
+        BluetoothInputBatcher batcher = new BluetoothInputBatcher(16, 100);
+        for (int i = 0; i < 4; i++)
+            assertNull(batcher.add(chunk(20, i), i));
+        BluetoothBatch batch = batcher.add(chunk(20, 4), 5);
+        assertNotNull(batch);
+        assertEquals(5, batch.chunkCount());
+        assertEquals(100, batch.length());
+        batch.release();
+
+        assertNull(batcher.add(chunk(30, 5), 6));
+        batch = batcher.drain();
+        assertEquals(30, batch.length());
+        batch.release();
+
+        assertEquals(2, batcher.batchCount());
+        assertEquals(6, batcher.chunkCount());
+        assertEquals(130, batcher.byteCount());
+        assertEquals(100, batcher.maxBatchBytes());
+        assertEquals(1, batcher.sizeFlushCount());
+    }
+
+    @Test
+    public void release_returnsAllChunksToPool() {
+        BluetoothBufferPool pool = new BluetoothBufferPool(8, 4);
+        BluetoothInputBatcher batcher = new BluetoothInputBatcher(16, 1024);
+        for (int i = 0; i < 3; i++)
+            batcher.add(pool.acquire(), 0);
+        batcher.drain().release();
+        assertEquals(3, pool.freeCount());
+    }
+}
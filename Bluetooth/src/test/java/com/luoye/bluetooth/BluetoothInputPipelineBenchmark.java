@@ -0,0 +1,196 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 接收流水线与原读取循环（每块数据后sleep(10)）的单块延迟和吞吐量对比。
+ */
+public class BluetoothInputPipelineBenchmark {
+    /** 单块数据大小，前8字节为数据到达时间 */
+    private static final int CHUNK_SIZE = 16;
+
+    /**
+     * 按块返回数据的阻塞输入流，空数组表示输入结束
+     */
+    private static class QueueInputStream extends InputStream {
+        final BlockingQueue<byte[]> mQueue = new LinkedBlockingQueue<>();
+
+        void arrive() {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            long now = System.nanoTime();
+            for (int i = 0; i < 8; i++)
+                chunk[i] = (byte) (now >>> (i * 8));
+            mQueue.add(chunk);
+        }
+
+        void end() {
+            mQueue.add(new byte[0]);
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            byte[] chunk;
+            try {
+                chunk = mQueue.take();
+            } catch (InterruptedException e) {
+                throw new IOException(e.toString());
+            }
+            if (0 == chunk.length)
+                return -1;
+            System.arraycopy(chunk, 0, b, off, chunk.length);
+            return chunk.length;
+        }
+    }
+
+    /**
+     * 单块延迟统计
+     */
+    private static class LatencyRecorder {
+        long mCount;
+        long mTotalNanos;
+        long mMaxNanos;
+
+        void record(byte[] array, int offset) {
+            long arrived = 0;
+            for (int i = 0; i < 8; i++)
+                arrived |= (array[offset + i] & 0xFFL) << (i * 8);
+            long latency = System.nanoTime() - arrived;
+            mCount++;
+            mTotalNanos += latency;
+            mMaxNanos = Math.max(mMaxNanos, latency);
+        }
+
+        double meanMillis() {
+            return mTotalNanos / 1e6 / mCount;
+        }
+    }
+
+    /**
+     * 原ReadThread的读取循环
+     */
+    private static void legacyLoop(InputStream is, LatencyRecorder recorder) throws Exception {
+        byte[] buffer = new byte[1024];
+        int nSize;
+        while ((nSize = is.read(buffer)) != -1) {
+            byte[] newBuffer = new byte[nSize];
+            System.arraycopy(buffer, 0, newBuffer, 0, nSize);
+            recorder.record(newBuffer, 0);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 使用接收流水线的读取循环
+     */
+    private static void pipelineLoop(InputStream is, final LatencyRecorder recorder) throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final BluetoothInputPipeline pipeline = new BluetoothInputPipeline(BluetoothInputPipeline.DEFAULT_CAPACITY,
+                new BluetoothInputPipeline.Dispatcher() {
+                    @Override
+                    public boolean dispatch(BluetoothBuffer buffer) {
+                        recorder.record(buffer.array(), buffer.offset());
+                        buffer.release();
+                        return true;
+                    }
+
+                    @Override
+                    public long idle() {
+                        return -1;
+                    }
+
+                    @Override
+                    public void onFinished(IOException e) {
+                        finished.countDown();
+                    }
+                });
+        new Thread() {
+            @Override
+            public void run() {
+                pipeline.consume();
+            }
+        }.start();
+        pipeline.produce(new BluetoothReader(is, new BluetoothBufferPool()));
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 以固定间隔产生数据，测量数据到达至分发的延迟
+     */
+    private static LatencyRecorder measureLatency(boolean legacy, final int chunks, final long intervalMillis) throws Exception {
+        final QueueInputStream is = new QueueInputStream();
+        LatencyRecorder recorder = new LatencyRecorder();
+        Thread generator = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < chunks; i++) {
+                        is.arrive();
+                        Thread.sleep(intervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                is.end();
+            }
+        };
+        generator.start();
+        if (legacy)
+            legacyLoop(is, recorder);
+        else
+            pipelineLoop(is, recorder);
+        generator.join();
+        assertEquals(chunks, recorder.mCount);
+        return recorder;
+    }
+
+    /**
+     * 数据全部就绪时测量每秒分发的数据块数
+     */
+    private static double measureThroughput(boolean legacy, int chunks) throws Exception {
+        QueueInputStream is = new QueueInputStream();
+        for (int i = 0; i < chunks; i++)
+            is.arrive();
+        is.end();
+        LatencyRecorder recorder = new LatencyRecorder();
+        long start = System.nanoTime();
+        if (legacy)
+            legacyLoop(is, recorder);
+        else
+            pipelineLoop(is, recorder);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(chunks, recorder.mCount);
+        return chunks * 1e9 / elapsed;
+    }
+
+    @Test
+    public void latency_pipelineFollowsDataRate() throws Exception {
+        LatencyRecorder legacy = measureLatency(true, 100, 2);
+        LatencyRecorder pipeline = measureLatency(false, 100, 2);
+        System.out.println(String.format("per-chunk latency (chunk every 2 ms): legacy mean %.2f ms max %.2f ms, pipeline mean %.3f ms max %.3f ms",
+                legacy.meanMillis(), legacy.mMaxNanos / 1e6, pipeline.meanMillis(), pipeline.mMaxNanos / 1e6));
+        assertTrue(pipeline.meanMillis() < legacy.meanMillis());
+    }
+
+    @Test
+    public void throughput_pipelineIsNotCappedByTimer() throws Exception {
+        double legacy = measureThroughput(true, 50);
+        double pipeline = measureThroughput(false, 100000);
+        System.out.println(String.format("throughput: legacy %.0f chunks/s, pipeline %.0f chunks/s", legacy, pipeline));
+        assertTrue(legacy <= 101);
+        assertTrue(pipeline > legacy * 10);
+    }
+}
@@ -0,0 +1,135 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 接收流水线测试
+ */
+public class BluetoothInputPipelineTest {
+    @Test
+    public void ringBuffer_offerAndPollInOrder() {
+        BluetoothRingBuffer<Integer> ring = new BluetoothRingBuffer<>(3);
+        assertEquals(4, ring.capacity());
+        for (int i = 0; i < 4; i++)
+            assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(4));
+        for (int i = 1; i <= 4; i++)
+            assertEquals(Integer.valueOf(i), ring.poll());
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void consume_pausesWithoutLosingDataAndResumes() throws Exception {
+        final byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i * 31);
+        final AtomicBoolean paused = new AtomicBoolean(true);
+        final byte[] received = new byte[data.length];
+        final int[] position = new int[1];
+        final CountDownLatch finished = new CountDownLatch(1);
+        final BluetoothInputPipeline pipeline = new BluetoothInputPipeline(4, new BluetoothInputPipeline.Dispatcher() {
+            @Override
+            public boolean dispatch(BluetoothBuffer buffer) {
+                if (paused.get())
+                    return false;
+                System.arraycopy(buffer.array(), buffer.offset(), received, position[0], buffer.length());
+                position[0] += buffer.length();
+                buffer.release();
+                return true;
+            }
+
+            @Override
+            public long idle() {
+                return -1;
+            }
+
+            @Override
+            public void onFinished(IOException e) {
+                finished.countDown();
+            }
+        });
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                pipeline.consume();
+            }
+        };
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                pipeline.produce(new BluetoothReader(new ByteArrayInputStream(data), new BluetoothBufferPool(1024, 8)));
+            }
+        };
+        consumer.start();
+        producer.start();
+
+        // 暂停期间队列写满，读取线程挂起
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.pendingCount() < 4 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(4, pipeline.pendingCount());
+        assertTrue(producer.isAlive());
+
+        paused.set(false);
+        pipeline.resume();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(data.length, position[0]);
+        assertArrayEquals(data, received);
+        assertTrue(pipeline.isClosed());
+    }
+
+    @Test
+    public void finishWhilePaused_releasesBacklogAndReportsFinish() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final IOException[] reason = new IOException[1];
+        final BluetoothInputPipeline pipeline = new BluetoothInputPipeline(4, new BluetoothInputPipeline.Dispatcher() {
+            @Override
+            public boolean dispatch(BluetoothBuffer buffer) {
+                return false; // 没有接收者
+            }
+
+            @Override
+            public long idle() {
+                return -1;
+            }
+
+            @Override
+            public void onFinished(IOException e) {
+                reason[0] = e;
+                finished.countDown();
+            }
+        });
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                pipeline.consume();
+            }
+        };
+        consumer.start();
+        BluetoothBuffer[] backlog = new BluetoothBuffer[3];
+        for (int i = 0; i < backlog.length; i++) {
+            backlog[i] = BluetoothBuffer.wrap(new byte[] {(byte) i});
+            assertTrue(pipeline.publish(backlog[i]));
+        }
+
+        IOException disconnect = new IOException("disconnected");
+        pipeline.finish(disconnect);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertSame(disconnect, reason[0]);
+        assertTrue(pipeline.isClosed());
+        assertEquals(0, pipeline.pendingCount());
+        for (BluetoothBuffer buffer : backlog)
+            assertEquals(0, buffer.refCnt());
+    }
+}
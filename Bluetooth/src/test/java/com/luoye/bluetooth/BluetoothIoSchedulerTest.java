@@ -0,0 +1,164 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 蓝牙I/O调度器测试
+ */
+public class BluetoothIoSchedulerTest {
+    @Test
+    public void execute_namesThreadsAndSetsPriority() throws Exception {
+        BluetoothIoScheduler scheduler = new BluetoothIoScheduler(2, "test-io", Thread.MIN_PRIORITY);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(thread.get().getName().startsWith("test-io-"));
+        assertEquals(Thread.MIN_PRIORITY, thread.get().getPriority());
+        assertTrue(thread.get().isDaemon());
+        scheduler.shutdown();
+    }
+
+    /**
+     * 阻塞到释放为止的任务
+     */
+    private static class BlockingTask implements Runnable {
+        final CountDownLatch mStarted;
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        BlockingTask(int count) {
+            mStarted = new CountDownLatch(count);
+        }
+
+        @Override
+        public void run() {
+            mStarted.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void execute_rejectsTasksBeyondMaxThreadsInsteadOfQueuing() throws Exception {
+        BluetoothIoScheduler scheduler = new BluetoothIoScheduler(2, "test-io", Thread.NORM_PRIORITY);
+        BlockingTask blocking = new BlockingTask(2);
+        scheduler.execute(blocking);
+        scheduler.execute(blocking);
+        assertTrue(blocking.mStarted.await(5, TimeUnit.SECONDS));
+        try {
+            scheduler.execute(blocking);
+            fail("task beyond max threads should be rejected");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(2, scheduler.getActiveCount());
+        assertEquals(0, scheduler.getQueuedCount());
+
+        // 线程归还后可以再次执行
+        blocking.mRelease.countDown();
+        final CountDownLatch ran = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ran.getCount() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ran.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(10);
+                continue;
+            }
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, ran.getCount());
+        assertEquals(2, scheduler.getLargestPoolSize());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void saturatedScheduler_failsClientReadAndWriteWithIOException() throws Exception {
+        BluetoothIoScheduler scheduler = new BluetoothIoScheduler(1, "test-io", Thread.NORM_PRIORITY);
+        BlockingTask blocking = new BlockingTask(1);
+        scheduler.execute(blocking);
+        assertTrue(blocking.mStarted.await(5, TimeUnit.SECONDS));
+
+        BluetoothTestTransport transport = new BluetoothTestTransport();
+        BluetoothClient client = new BluetoothClient(transport);
+        client.setIoExecutor(scheduler);
+        try {
+            client.asyncRead(new BluetoothClientTest.InputRecorder());
+            fail("asyncRead on a saturated scheduler should fail");
+        } catch (IOException expected) {
+        }
+        try {
+            client.asyncWrite("ping".getBytes());
+            fail("asyncWrite on a saturated scheduler should fail");
+        } catch (IOException expected) {
+        }
+        blocking.mRelease.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void defaultScheduler_keepsServingAfterMoreDisconnectsThanThreads() throws Exception {
+        BluetoothIoScheduler scheduler = new BluetoothIoScheduler(4, "test-io", Thread.NORM_PRIORITY);
+        BluetoothIoScheduler.setDefault(scheduler);
+        try {
+            // 每个连接占用3个线程，断开后若有任务不退出，第二个连接之后就会排队
+            for (int i = 0; i < 10; i++) {
+                BluetoothTestTransport transport = new BluetoothTestTransport();
+                BluetoothClient client = new BluetoothClient(transport);
+                BluetoothClientTest.InputRecorder input = new BluetoothClientTest.InputRecorder();
+                client.asyncRead(input);
+                client.asyncWrite(("ping" + i).getBytes());
+                transport.feed(("data" + i).getBytes());
+                assertTrue("client " + i + " got no data", input.mReceived.await(5, TimeUnit.SECONDS));
+                transport.disconnect();
+                assertTrue(input.mDisconnected.await(5, TimeUnit.SECONDS));
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (scheduler.getActiveCount() > 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(0, scheduler.getActiveCount());
+            assertEquals(0, scheduler.getQueuedCount());
+        } finally {
+            BluetoothIoScheduler.setDefault(new BluetoothIoScheduler(BluetoothIoScheduler.DEFAULT_MAX_THREADS,
+                    BluetoothIoScheduler.DEFAULT_THREAD_NAME_PREFIX, Thread.NORM_PRIORITY));
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void execute_afterShutdownIsRejected() {
+        BluetoothIoScheduler scheduler = new BluetoothIoScheduler(1, "test-io", Thread.NORM_PRIORITY);
+        scheduler.shutdown();
+        assertTrue(scheduler.isShutdown());
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsInvalidPriority() {
+        new BluetoothIoScheduler(1, "test-io", Thread.MAX_PRIORITY + 1);
+    }
+}
@@ -0,0 +1,108 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 长度字段帧解码测试
+ */
+public class BluetoothLengthFieldFrameDecoderTest {
+    /**
+     * 收集解码输出的数据帧
+     */
+    private static class Frames implements BluetoothFrameDecoder.Output {
+        final ArrayList<byte[]> mFrames = new ArrayList<>();
+        final ArrayList<BluetoothBuffer> mBuffers = new ArrayList<>();
+
+        @Override
+        public void onFrame(BluetoothBuffer frame) {
+            mFrames.add(frame.toByteArray());
+            mBuffers.add(frame);
+        }
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++)
+            payload[i] = (byte) (seed + i);
+        return payload;
+    }
+
+    @Test
+    public void decode_reassemblesFramesSplitAtEveryPosition() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ArrayList<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] payload = payload(i * 7 % 300, i);
+            payloads.add(payload);
+            stream.write(payload.length >>> 8);
+            stream.write(payload.length);
+            stream.write(payload);
+        }
+        byte[] data = stream.toByteArray();
+
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            BluetoothLengthFieldFrameDecoder decoder = new BluetoothLengthFieldFrameDecoder(2, ByteOrder.BIG_ENDIAN, 1024);
+            Frames frames = new Frames();
+            int position = 0;
+            while (position < data.length) {
+                int length = Math.min(data.length - position, 1 + random.nextInt(round < 10 ? 4 : 600));
+                BluetoothBuffer in = BluetoothBuffer.wrap(data, position, length);
+                decoder.decode(in, frames);
+                in.release();
+                position += length;
+            }
+            assertEquals(payloads.size(), frames.mFrames.size());
+            for (int i = 0; i < payloads.size(); i++)
+                assertArrayEquals(payloads.get(i), frames.mFrames.get(i));
+        }
+    }
+
+    @Test
+    public void decode_completeFrameIsSliceOfInput() throws Exception {
+        byte[] data = {0, 3, 1, 2, 3, 0, 1, 9};
+        BluetoothBufferPool pool = new BluetoothBufferPool(16, 1);
+        BluetoothBuffer in = pool.acquire();
+        System.arraycopy(data, 0, in.array(), 0, data.length);
+        in.setRange(0, data.length);
+
+        Frames frames = new Frames();
+        new BluetoothLengthFieldFrameDecoder(2, ByteOrder.BIG_ENDIAN, 64).decode(in, frames);
+        in.release();
+        assertEquals(2, frames.mBuffers.size());
+        assertSame(in.array(), frames.mBuffers.get(0).array());
+        assertArrayEquals(new byte[]{1, 2, 3}, frames.mFrames.get(0));
+        assertArrayEquals(new byte[]{9}, frames.mFrames.get(1));
+
+        assertEquals(0, pool.freeCount());
+        for (BluetoothBuffer frame : frames.mBuffers)
+            frame.release();
+        assertEquals(1, pool.freeCount());
+    }
+
+    @Test
+    public void decode_littleEndianOffsetAndAdjustment() throws Exception {
+        // 类型(1) + 长度(4, 小端，包含整个帧) + 数据
+        byte[] data = {0x7F, 8, 0, 0, 0, 10, 20, 30};
+        BluetoothLengthFieldFrameDecoder decoder = new BluetoothLengthFieldFrameDecoder(1, 4, ByteOrder.LITTLE_ENDIAN, -5, 0, 64);
+        Frames frames = new Frames();
+        decoder.decode(BluetoothBuffer.wrap(data, 0, 3), frames);
+        decoder.decode(BluetoothBuffer.wrap(data, 3, 5), frames);
+        assertEquals(1, frames.mFrames.size());
+        assertArrayEquals(data, frames.mFrames.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsFrameLongerThanMax() throws Exception {
+        BluetoothLengthFieldFrameDecoder decoder = new BluetoothLengthFieldFrameDecoder(2, ByteOrder.BIG_ENDIAN, 100);
+        decoder.decode(BluetoothBuffer.wrap(new byte[]{1, 0}), new Frames());
+    }
+}
@@ -0,0 +1,158 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 连接统计测试
+ */
+public class BluetoothMetricsTest {
+    @Test
+    public void histogram_bucketsByPowerOfTwo() {
+        assertEquals(0, BluetoothHistogram.bucket(1, 17));
+        assertEquals(1, BluetoothHistogram.bucket(2, 17));
+        assertEquals(1, BluetoothHistogram.bucket(3, 17));
+        assertEquals(10, BluetoothHistogram.bucket(1024, 17));
+        assertEquals(16, BluetoothHistogram.bucket(1 << 20, 17));
+        // 90个1、10个1000：P50落在第0个桶，P99落在[512, 1024)桶
+        long[] counts = new long[17];
+        counts[0] = 90;
+        counts[9] = 10;
+        assertEquals(1, BluetoothHistogram.percentile(counts, 50));
+        assertEquals(1023, BluetoothHistogram.percentile(counts, 99));
+        assertEquals(0, BluetoothHistogram.percentile(new long[17], 99));
+    }
+
+    @Test
+    public void reader_recordsBytesAndChunkSizes() throws Exception {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        BluetoothReader reader = new BluetoothReader(new ByteArrayInputStream(new byte[1000]),
+                new BluetoothBufferPool(256, 4));
+        reader.setMetrics(metrics);
+        BluetoothBuffer buffer;
+        while ((buffer = reader.read()) != null) {
+            assertTrue(buffer.mTimestamp > 0);
+            buffer.release();
+        }
+        BluetoothMetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(1000, snapshot.getBytesRead());
+        assertEquals(4, snapshot.getReadChunkCount());
+        // 3块256字节、1块232字节
+        assertEquals(3, snapshot.getReadChunkHistogram()[8]);
+        assertEquals(1, snapshot.getReadChunkHistogram()[7]);
+        assertEquals(250, snapshot.getAverageReadChunkSize());
+    }
+
+    @Test
+    public void writer_tracksQueueDepthAndWrittenMessages() throws Exception {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        BluetoothWriterTest.RecordingOutputStream os = new BluetoothWriterTest.RecordingOutputStream();
+        os.mGate = new CountDownLatch(1);
+        BluetoothWriterTest.Results results = new BluetoothWriterTest.Results(4);
+        BluetoothWriter writer = new BluetoothWriter(os, 100, 0, results);
+        writer.setMetrics(metrics);
+        Thread thread = BluetoothWriterTest.start(writer);
+
+        writer.write(new byte[10], 0, 10, 0);
+        assertTrue(os.mFirstWrite.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 4; i++)
+            writer.write(new byte[20], 0, 20, i);
+        BluetoothMetricsSnapshot queued = metrics.snapshot();
+        assertEquals(3, queued.getQueuedMessages());
+        assertEquals(60, queued.getQueuedBytes());
+        assertEquals(60, queued.getPeakQueuedBytes());
+
+        os.mGate.countDown();
+        assertTrue(results.mDone.await(5, TimeUnit.SECONDS));
+        writer.close(null);
+        thread.join(5000);
+        BluetoothMetricsSnapshot drained = metrics.snapshot();
+        assertEquals(0, drained.getQueuedMessages());
+        assertEquals(0, drained.getQueuedBytes());
+        assertEquals(70, drained.getBytesWritten());
+        assertEquals(4, drained.getMessagesWritten());
+    }
+
+    @Test
+    public void recordDispatched_measuresLatencyFromReadTime() {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        metrics.recordDispatched(System.nanoTime() - 5000000L);
+        metrics.recordDispatched(0);
+        BluetoothMetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getMessagesRead());
+        assertTrue(snapshot.getAverageDispatchLatencyMillis() >= 5);
+        assertEquals(snapshot.getAverageDispatchLatencyMillis(), snapshot.getMaxDispatchLatencyMillis(), 1e-9);
+        // 5毫秒落在[4096, 8192)微秒桶
+        assertEquals(8.191, snapshot.getDispatchLatencyPercentileMillis(99), 1e-9);
+    }
+
+    @Test
+    public void batchCallback_recordsDispatchLatencyForEveryChunk() {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        final int[] received = new int[1];
+        BluetoothBatchInputCallback callback = new BluetoothBatchInputCallback(1000, 1 << 20, BluetoothExecutors.direct()) {
+            @Override
+            public void onInput(byte[] buffer) {
+                received[0] += buffer.length;
+            }
+
+            @Override
+            public void onDisconnected(IOException e) {
+            }
+        };
+        callback.mMetrics = metrics;
+        long readTime = System.nanoTime() - 5000000L;
+        for (int i = 0; i < 3; i++) {
+            BluetoothBuffer buffer = BluetoothBuffer.wrap(new byte[10]);
+            buffer.mTimestamp = readTime;
+            callback.notifyInput(buffer);
+        }
+        assertEquals(0, metrics.snapshot().getMessagesRead());
+
+        callback.notifyFlush();
+        assertEquals(30, received[0]);
+        BluetoothMetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.getMessagesRead());
+        assertTrue(snapshot.getAverageDispatchLatencyMillis() >= 5);
+    }
+
+    @Test
+    public void fileCallback_recordsDispatchWhenDataIsWrittenToFile() throws Exception {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        File file = File.createTempFile("bluetooth-metrics", ".bin");
+        try {
+            BluetoothFileTransferTest.ReceiveCallback callback = new BluetoothFileTransferTest.ReceiveCallback(file, 0, 20);
+            callback.mMetrics = metrics;
+            for (int i = 0; i < 2; i++) {
+                BluetoothBuffer buffer = BluetoothBuffer.wrap(new byte[10]);
+                buffer.mTimestamp = System.nanoTime() - 5000000L;
+                callback.notifyInput(buffer);
+            }
+            assertEquals(file, callback.mComplete);
+            BluetoothMetricsSnapshot snapshot = metrics.snapshot();
+            assertEquals(2, snapshot.getMessagesRead());
+            assertTrue(snapshot.getAverageDispatchLatencyMillis() >= 5);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void snapshot_reportsRateSincePreviousSnapshot() throws Exception {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        metrics.recordRead(1000);
+        Thread.sleep(20);
+        assertTrue(metrics.snapshot().getReadRate() > 0);
+        Thread.sleep(20);
+        BluetoothMetricsSnapshot idle = metrics.snapshot();
+        assertEquals(0, idle.getReadRate());
+        assertTrue(idle.getAverageReadRate() > 0);
+    }
+}
@@ -0,0 +1,315 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 蓝牙多路复用器测试，两端通过内存通道连接
+ */
+public class BluetoothMultiplexerTest {
+    /** 测试使用的分片大小 */
+    private static final int FRAGMENT = 100;
+    /** 测试使用的接收窗口 */
+    private static final int WINDOW = 1000;
+
+    /**
+     * 暂存任务、由测试决定何时执行的执行器，用于模拟处理缓慢的接收回调
+     */
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        synchronized int size() {
+            return mTasks.size();
+        }
+
+        /**
+         * 执行所有暂存的任务
+         * @return 执行的任务数
+         */
+        int runAll() {
+            List<Runnable> tasks;
+            synchronized (this) {
+                tasks = new ArrayList<>(mTasks);
+                mTasks.clear();
+            }
+            for (Runnable task : tasks)
+                task.run();
+            return tasks.size();
+        }
+    }
+
+    /**
+     * 记录消息和关闭事件的通道回调
+     */
+    private static class ChannelRecorder extends BluetoothChannel.OnChannelCallback {
+        /** 所有通道共用的到达顺序 */
+        final List<String> mArrivals;
+        final List<byte[]> mMessages = new ArrayList<>();
+        final CountDownLatch mClosed = new CountDownLatch(1);
+        volatile IOException mException;
+
+        ChannelRecorder(Executor executor, List<String> arrivals) {
+            super(executor);
+            mArrivals = arrivals;
+        }
+
+        ChannelRecorder() {
+            this(BluetoothExecutors.direct(), new ArrayList<String>());
+        }
+
+        @Override
+        public void onMessage(BluetoothChannel channel, byte[] data) {
+            synchronized (mArrivals) {
+                mMessages.add(data);
+                mArrivals.add(channel.getId() + ":" + data.length);
+                mArrivals.notifyAll();
+            }
+        }
+
+        @Override
+        public void onClosed(BluetoothChannel channel, IOException e) {
+            mException = e;
+            mClosed.countDown();
+        }
+
+        /**
+         * 等待收到指定数量的消息
+         * @return true 已收到
+         */
+        boolean await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (mArrivals) {
+                while (mMessages.size() < count) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        return false;
+                    mArrivals.wait(remaining);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 连接的两端
+     */
+    private static class Link {
+        final BluetoothTestTransport[] mTransports = BluetoothTestTransport.pair();
+        final BluetoothClient mSenderClient = client(mTransports[0]);
+        final BluetoothMultiplexer mSender = new BluetoothMultiplexer(mSenderClient, FRAGMENT, WINDOW, 1 << 20);
+        final BluetoothMultiplexer mReceiver = new BluetoothMultiplexer(client(mTransports[1]), FRAGMENT, WINDOW, 1 << 20);
+
+        void start() throws IOException {
+            mSender.start();
+            mReceiver.start();
+        }
+
+        private static BluetoothClient client(BluetoothTestTransport transport) {
+            BluetoothClient client = new BluetoothClient(transport);
+            client.setIoExecutor(new BluetoothClientTest.TrackingExecutor());
+            return client;
+        }
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31);
+        return data;
+    }
+
+    /**
+     * 等待条件成立
+     */
+    private static boolean eventually(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    @Test
+    public void messages_roundTripAcrossFragments() throws Exception {
+        Link link = new Link();
+        ChannelRecorder received = new ChannelRecorder();
+        BluetoothChannel out = link.mSender.openChannel(1, new ChannelRecorder());
+        link.mReceiver.openChannel(1, received);
+        link.start();
+
+        byte[] big = pattern(WINDOW * 5 + 37);
+        out.send(big);
+        out.send(new byte[0]);
+        out.send("tail".getBytes());
+        assertTrue(received.await(3));
+        assertArrayEquals(big, received.mMessages.get(0));
+        assertEquals(0, received.mMessages.get(1).length);
+        assertEquals("tail", new String(received.mMessages.get(2)));
+    }
+
+    @Test
+    public void slowReceiver_stallsSenderAtWindowUntilConsumed() throws Exception {
+        final Link link = new Link();
+        ManualExecutor slow = new ManualExecutor();
+        ChannelRecorder received = new ChannelRecorder(slow, new ArrayList<String>());
+        final BluetoothChannel out = link.mSender.openChannel(1, new ChannelRecorder());
+        link.mReceiver.openChannel(1, received);
+        link.start();
+
+        int count = 2 * WINDOW / FRAGMENT;
+        for (int i = 0; i < count; i++)
+            out.send(pattern(FRAGMENT));
+        // 回调未处理，信用耗尽后剩余消息留在发送队列中
+        assertTrue(eventually(new Condition() {
+            @Override
+            public boolean holds() {
+                return 0 == out.getCredits();
+            }
+        }));
+        assertEquals(WINDOW, out.getQueuedBytes());
+        Thread.sleep(50);
+        assertEquals(WINDOW / FRAGMENT, slow.size());
+
+        int delivered = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered < count && System.currentTimeMillis() < deadline) {
+            delivered += slow.runAll();
+            Thread.sleep(5);
+        }
+        assertEquals(count, delivered);
+        assertEquals(0, out.getQueuedBytes());
+        assertTrue(eventually(new Condition() {
+            @Override
+            public boolean holds() {
+                return WINDOW == out.getCredits();
+            }
+        }));
+    }
+
+    @Test
+    public void longMessage_returnsIntermediateCreditsOnReassembly() throws Exception {
+        Link link = new Link();
+        ManualExecutor slow = new ManualExecutor();
+        ChannelRecorder received = new ChannelRecorder(slow, new ArrayList<String>());
+        final BluetoothChannel out = link.mSender.openChannel(1, new ChannelRecorder());
+        link.mReceiver.openChannel(1, received);
+        link.start();
+
+        // 消息超过窗口，回调未处理也能完整送达，只有最后一个分片的信用未归还
+        out.send(pattern(WINDOW * 3));
+        assertTrue(eventually(new Condition() {
+            @Override
+            public boolean holds() {
+                return 0 == out.getQueuedBytes();
+            }
+        }));
+        assertTrue(eventually(new Condition() {
+            @Override
+            public boolean holds() {
+                return out.getCredits() >= WINDOW - FRAGMENT - WINDOW / 2;
+            }
+        }));
+        assertEquals(1, slow.size());
+        slow.runAll();
+        assertTrue(received.await(1));
+        assertEquals(WINDOW * 3, received.mMessages.get(0).length);
+    }
+
+    @Test
+    public void channels_takeTurnsPerFragment() throws Exception {
+        Link link = new Link();
+        List<String> arrivals = new ArrayList<>();
+        ChannelRecorder bulk = new ChannelRecorder(BluetoothExecutors.direct(), arrivals);
+        ChannelRecorder control = new ChannelRecorder(BluetoothExecutors.direct(), arrivals);
+        BluetoothChannel bulkOut = link.mSender.openChannel(1, new ChannelRecorder());
+        BluetoothChannel controlOut = link.mSender.openChannel(2, new ChannelRecorder());
+        link.mReceiver.openChannel(1, bulk);
+        link.mReceiver.openChannel(2, control);
+        link.start();
+
+        // 大块数据先入队，之后的短消息仍在几个分片内送达，不必等待整条大消息
+        bulkOut.send(pattern(WINDOW * 8));
+        controlOut.send("ping".getBytes());
+        assertTrue(bulk.await(1));
+        assertTrue(control.await(1));
+        synchronized (arrivals) {
+            assertEquals(Arrays.asList("2:4", "1:" + WINDOW * 8), arrivals);
+        }
+    }
+
+    @Test
+    public void unknownChannel_returnsCreditsSoSenderNeverStalls() throws Exception {
+        Link link = new Link();
+        final BluetoothChannel orphan = link.mSender.openChannel(9, new ChannelRecorder());
+        BluetoothChannel known = link.mSender.openChannel(1, new ChannelRecorder());
+        ChannelRecorder received = new ChannelRecorder();
+        link.mReceiver.openChannel(1, received);
+        link.start();
+
+        for (int i = 0; i < 3 * WINDOW / FRAGMENT; i++)
+            orphan.send(pattern(FRAGMENT));
+        assertTrue(eventually(new Condition() {
+            @Override
+            public boolean holds() {
+                return 0 == orphan.getQueuedBytes();
+            }
+        }));
+        known.send("after".getBytes());
+        assertTrue(received.await(1));
+        assertEquals("after", new String(received.mMessages.get(0)));
+    }
+
+    @Test
+    public void disconnect_closesChannelsOnBothSides() throws Exception {
+        Link link = new Link();
+        ChannelRecorder senderSide = new ChannelRecorder();
+        ChannelRecorder receiverSide = new ChannelRecorder();
+        BluetoothChannel out = link.mSender.openChannel(1, senderSide);
+        link.mReceiver.openChannel(1, receiverSide);
+        link.start();
+
+        link.mTransports[0].disconnect();
+        assertTrue(senderSide.mClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(receiverSide.mClosed.await(5, TimeUnit.SECONDS));
+        assertNotNull(senderSide.mException);
+        try {
+            out.send("late".getBytes());
+            fail("send after close should fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void close_notifiesChannelsButKeepsClient() throws Exception {
+        Link link = new Link();
+        ChannelRecorder senderSide = new ChannelRecorder();
+        link.mSender.openChannel(1, senderSide);
+        link.mReceiver.openChannel(1, new ChannelRecorder());
+        link.start();
+
+        link.mSender.close();
+        assertTrue(senderSide.mClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(link.mSenderClient.isConnected());
+        assertFalse(link.mTransports[0].mCloseCalled);
+    }
+}
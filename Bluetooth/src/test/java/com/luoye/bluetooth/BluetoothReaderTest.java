@@ -0,0 +1,108 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 池化接收路径测试，使用内存输入流驱动{@link BluetoothReader}。
+ */
+public class BluetoothReaderTest {
+    /**
+     * 每次最多返回{@code chunk}字节的输入流，模拟蓝牙套接字分段到达的数据
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final InputStream mSource;
+        private final int mChunk;
+
+        ChunkedInputStream(byte[] data, int chunk) {
+            mSource = new ByteArrayInputStream(data);
+            mChunk = chunk;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return mSource.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return mSource.read(b, off, Math.min(len, mChunk));
+        }
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) i;
+        return data;
+    }
+
+    @Test
+    public void read_deliversAllBytesInOrder() throws Exception {
+        byte[] data = data(10000);
+        BluetoothBufferPool pool = new BluetoothBufferPool(256, 4);
+        BluetoothReader reader = new BluetoothReader(new ChunkedInputStream(data, 100), pool);
+        int position = 0;
+        BluetoothBuffer buffer;
+        while ((buffer = reader.read()) != null) {
+            assertTrue(buffer.length() <= 100);
+            for (int i = 0; i < buffer.length(); i++)
+                assertEquals(data[position++], buffer.get(i));
+            assertTrue(buffer.release());
+        }
+        assertEquals(data.length, position);
+    }
+
+    @Test
+    public void read_steadyStateAllocatesNothingPerChunk() throws Exception {
+        BluetoothBufferPool pool = new BluetoothBufferPool(64, 8);
+        BluetoothReader reader = new BluetoothReader(new ChunkedInputStream(new byte[64 * 100000], 64), pool);
+        BluetoothBuffer[] inFlight = new BluetoothBuffer[4];
+
+        // 预热：模拟消费者同时持有4个缓存，读取第5块时缓存池达到稳定规模
+        for (int i = 0; i < inFlight.length; i++)
+            inFlight[i] = reader.read();
+        int chunks = 0;
+        BluetoothBuffer buffer = reader.read();
+        inFlight[0].release();
+        inFlight[0] = buffer;
+        long allocated = pool.allocatedCount();
+        assertEquals(inFlight.length + 1, allocated);
+
+        while ((buffer = reader.read()) != null) {
+            chunks++;
+            inFlight[chunks % inFlight.length].release();
+            inFlight[chunks % inFlight.length] = buffer;
+        }
+        for (BluetoothBuffer b : inFlight)
+            b.release();
+
+        assertTrue(chunks > 1000);
+        assertEquals("pool allocated new buffers in steady state", allocated, pool.allocatedCount());
+        assertEquals(allocated, pool.freeCount());
+    }
+
+    @Test
+    public void retainedSlice_keepsParentUntilReleased() throws Exception {
+        BluetoothBufferPool pool = new BluetoothBufferPool(16, 2);
+        BluetoothBuffer buffer = pool.acquire();
+        BluetoothBuffer slice = buffer.retainedSlice(4, 8);
+        assertFalse(buffer.release());
+        assertEquals(0, pool.freeCount());
+        assertTrue(slice.release());
+        assertEquals(0, buffer.refCnt());
+        assertEquals(1, pool.freeCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_twiceThrows() throws Exception {
+        BluetoothBuffer buffer = BluetoothBuffer.wrap(new byte[4]);
+        buffer.release();
+        buffer.release();
+    }
+}
@@ -0,0 +1,68 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 重放缓存和重连退避测试
+ */
+public class BluetoothReplayBufferTest {
+    @Test
+    public void add_assignsIncreasingSequences() throws IOException {
+        BluetoothReplayBuffer buffer = new BluetoothReplayBuffer(1024);
+        assertEquals(1, buffer.add(new byte[10]).mSequence);
+        assertEquals(2, buffer.add(new byte[20]).mSequence);
+        assertEquals(2, buffer.size());
+        assertEquals(30, buffer.bytes());
+    }
+
+    @Test
+    public void acknowledge_removesOnlyConfirmedMessages() throws IOException {
+        BluetoothReplayBuffer buffer = new BluetoothReplayBuffer(1024);
+        for (int i = 0; i < 5; i++)
+            buffer.add(new byte[] {(byte) i});
+        assertEquals(3, buffer.acknowledge(3));
+        assertEquals(0, buffer.acknowledge(2)); // 过期的确认
+        List<BluetoothReplayBuffer.Message> pending = buffer.pending();
+        assertEquals(2, pending.size());
+        assertEquals(4, pending.get(0).mSequence);
+        assertEquals(3, pending.get(0).mData[0]);
+        assertEquals(5, pending.get(1).mSequence);
+        assertEquals(2, buffer.bytes());
+    }
+
+    @Test
+    public void add_rejectsWhenFullInsteadOfDroppingOldest() throws IOException {
+        BluetoothReplayBuffer buffer = new BluetoothReplayBuffer(100);
+        buffer.add(new byte[60]);
+        try {
+            buffer.add(new byte[41]);
+            fail("replay buffer should be full");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, buffer.size());
+        buffer.acknowledge(1);
+        assertEquals(2, buffer.add(new byte[100]).mSequence);
+    }
+
+    @Test
+    public void backoff_growsWithinJitterRangeAndCaps() {
+        BluetoothBackoff backoff = new BluetoothBackoff(100, 1000, new Random(1));
+        long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+        for (long ceiling : ceilings) {
+            long delay = backoff.next();
+            assertTrue(delay + " not in [" + ceiling / 2 + ", " + ceiling + "]", delay >= ceiling / 2 && delay <= ceiling);
+        }
+        assertEquals(ceilings.length, backoff.attempts());
+        for (int i = 0; i < 100; i++)
+            assertTrue(backoff.next() <= 1000);
+        backoff.reset();
+        assertEquals(0, backoff.attempts());
+        assertTrue(backoff.next() <= 100);
+    }
+}
@@ -0,0 +1,152 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 可恢复蓝牙会话测试
+ */
+public class BluetoothResilientSessionTest {
+    /**
+     * 记录会话事件的回调
+     */
+    private static class SessionRecorder extends BluetoothResilientSession.OnResilientSessionCallback {
+        final List<String> mMessages = new ArrayList<>();
+        volatile CountDownLatch mConnected = new CountDownLatch(1);
+        final CountDownLatch mLost = new CountDownLatch(1);
+        volatile CountDownLatch mMessage = new CountDownLatch(1);
+
+        SessionRecorder() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onConnected(BluetoothResilientSession session) {
+            mConnected.countDown();
+        }
+
+        @Override
+        public void onMessage(BluetoothResilientSession session, byte[] data) {
+            synchronized (mMessages) {
+                mMessages.add(new String(data));
+            }
+            mMessage.countDown();
+        }
+
+        @Override
+        public void onConnectionLost(BluetoothResilientSession session, IOException e) {
+            mLost.countDown();
+        }
+
+        @Override
+        public void onRecovered(BluetoothResilientSession session, long recoveryMillis, int replayed) {
+            mConnected.countDown();
+        }
+
+        @Override
+        public void onClosed(BluetoothResilientSession session, IOException e) {
+        }
+
+        List<String> messages() {
+            synchronized (mMessages) {
+                return new ArrayList<>(mMessages);
+            }
+        }
+    }
+
+    /**
+     * 启动任务后让调用线程稍作等待的执行器，使新线程先于调用线程的后续操作运行
+     */
+    private static class YieldingExecutor extends BluetoothClientTest.TrackingExecutor {
+        @Override
+        public synchronized void execute(Runnable command) {
+            super.execute(command);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 新建使用内存通道的已连接蓝牙终端
+     */
+    private static BluetoothClient client(BluetoothTestTransport transport) {
+        return client(transport, new BluetoothClientTest.TrackingExecutor());
+    }
+
+    /**
+     * 新建使用内存通道的已连接蓝牙终端
+     */
+    private static BluetoothClient client(BluetoothTestTransport transport, BluetoothClientTest.TrackingExecutor executor) {
+        BluetoothClient client = new BluetoothClient(transport);
+        client.setIoExecutor(executor);
+        return client;
+    }
+
+    @Test
+    public void attach_exchangesMessagesBothWays() throws Exception {
+        BluetoothTestTransport[] link = BluetoothTestTransport.pair();
+        SessionRecorder a = new SessionRecorder();
+        SessionRecorder b = new SessionRecorder();
+        BluetoothResilientSession sessionA = new BluetoothResilientSession(null, null, true, a);
+        BluetoothResilientSession sessionB = new BluetoothResilientSession(null, null, true, b);
+        sessionA.send("queued".getBytes());
+        sessionB.attach(client(link[1]));
+        sessionA.attach(client(link[0]));
+        assertTrue(a.mConnected.await(5, TimeUnit.SECONDS));
+        assertTrue(b.mConnected.await(5, TimeUnit.SECONDS));
+        assertTrue(b.mMessage.await(5, TimeUnit.SECONDS));
+
+        sessionB.send("reply".getBytes());
+        assertTrue(a.mMessage.await(5, TimeUnit.SECONDS));
+        assertEquals("[queued]", b.messages().toString());
+        assertEquals("[reply]", a.messages().toString());
+        assertEquals(BluetoothResilientSession.STATE_CONNECTED, sessionA.getState());
+        sessionA.close();
+        sessionB.close();
+    }
+
+    @Test
+    public void newPeerSession_messagesQueuedBeforeAttachAreNotDroppedAsDuplicates() throws Exception {
+        SessionRecorder b = new SessionRecorder();
+        BluetoothResilientSession sessionB = new BluetoothResilientSession(null, null, true, b);
+
+        // 先与旧的对方会话交换若干消息，使本方记住对方序号
+        BluetoothTestTransport[] first = BluetoothTestTransport.pair();
+        SessionRecorder a1 = new SessionRecorder();
+        BluetoothResilientSession sessionA1 = new BluetoothResilientSession(null, null, true, a1);
+        sessionB.attach(client(first[1]));
+        sessionA1.attach(client(first[0]));
+        assertTrue(b.mConnected.await(5, TimeUnit.SECONDS));
+        b.mMessage = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++)
+            sessionA1.send(("old" + i).getBytes());
+        assertTrue(b.mMessage.await(5, TimeUnit.SECONDS));
+        first[0].disconnect();
+        assertTrue(b.mLost.await(5, TimeUnit.SECONDS));
+        sessionA1.close();
+
+        // 新的对方会话在连接前发送的消息，序号从0开始，须在本方收到其恢复帧后才被接收
+        BluetoothTestTransport[] second = BluetoothTestTransport.pair();
+        SessionRecorder a2 = new SessionRecorder();
+        BluetoothResilientSession sessionA2 = new BluetoothResilientSession(null, null, true, a2);
+        sessionA2.send("fresh".getBytes());
+        b.mMessage = new CountDownLatch(1);
+        sessionB.attach(client(second[1])); // 本方恢复帧先进入对方的接收队列
+        sessionA2.attach(client(second[0], new YieldingExecutor()));
+        assertTrue(b.mMessage.await(5, TimeUnit.SECONDS));
+        assertEquals("[old0, old1, old2, fresh]", b.messages().toString());
+        assertEquals(0, sessionB.getDuplicateCount());
+        sessionA2.close();
+        sessionB.close();
+    }
+}
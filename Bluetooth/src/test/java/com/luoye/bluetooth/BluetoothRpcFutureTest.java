@@ -0,0 +1,101 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 远程调用结果测试
+ */
+public class BluetoothRpcFutureTest {
+    /**
+     * 记录结果的完成回调
+     */
+    private static class RecordingCallback extends BluetoothRpc.OnRpcResponseCallback {
+        final AtomicReference<Object> mResult = new AtomicReference<>();
+
+        RecordingCallback() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onResponse(byte[] response) {
+            mResult.set(response);
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            mResult.set(e);
+        }
+    }
+
+    @Test
+    public void complete_wakesWaiterAndCallsBackOnce() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        final BluetoothRpcFuture future = new BluetoothRpcFuture(null, 7, callback);
+        final byte[] response = {1, 2, 3};
+        Thread completer = new Thread() {
+            @Override
+            public void run() {
+                future.complete(response);
+            }
+        };
+        completer.start();
+        assertArrayEquals(response, future.get(5, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+        // 等待者被唤醒时回调可能尚未执行
+        completer.join(5000);
+        assertSame(response, callback.mResult.get());
+        assertFalse(future.fail(new IOException("late")));
+        assertSame(response, callback.mResult.get());
+    }
+
+    @Test
+    public void fail_throwsExecutionExceptionWithCause() throws InterruptedException {
+        RecordingCallback callback = new RecordingCallback();
+        BluetoothRpcFuture future = new BluetoothRpcFuture(null, 1, callback);
+        IOException failure = new IOException("deadline exceeded");
+        assertTrue(future.fail(failure));
+        try {
+            future.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertSame(failure, callback.mResult.get());
+        assertFalse(future.complete(new byte[0]));
+    }
+
+    @Test
+    public void get_timesOutWhilePending() throws Exception {
+        BluetoothRpcFuture future = new BluetoothRpcFuture(null, 1, null);
+        try {
+            future.get(20, TimeUnit.MILLISECONDS);
+            fail("expected TimeoutException");
+        } catch (TimeoutException expected) {
+        }
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void cancel_suppressesCallbackAndLateResponse() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        BluetoothRpcFuture future = new BluetoothRpcFuture(null, 1, callback);
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertFalse(future.complete(new byte[] {1}));
+        assertNull(callback.mResult.get());
+        try {
+            future.get();
+            fail("expected CancellationException");
+        } catch (CancellationException expected) {
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 蓝牙远程调用层测试，两端通过内存通道连接
+ */
+public class BluetoothRpcTest {
+    /**
+     * 记录请求、由测试决定何时应答的请求处理回调
+     */
+    private static class RequestRecorder extends BluetoothRpc.OnRpcRequestCallback {
+        final List<Integer> mIds = new ArrayList<>();
+        final List<String> mRequests = new ArrayList<>();
+
+        RequestRecorder() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public synchronized void onRequest(BluetoothRpc rpc, int id, byte[] request) {
+            mIds.add(id);
+            mRequests.add(new String(request));
+            notifyAll();
+        }
+
+        /**
+         * 等待收到指定数量的请求
+         * @return true 已收到
+         */
+        synchronized boolean await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mIds.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized int id(int index) {
+            return mIds.get(index);
+        }
+
+        synchronized String request(int index) {
+            return mRequests.get(index);
+        }
+    }
+
+    /**
+     * 连接的两端
+     */
+    private static class Link {
+        final BluetoothTestTransport[] mTransports = BluetoothTestTransport.pair();
+        final BluetoothRpc mCaller;
+        final BluetoothRpc mCallee;
+
+        Link(int maxInFlight, RequestRecorder handler) throws IOException {
+            mCaller = new BluetoothRpc(client(mTransports[0]), maxInFlight);
+            mCallee = new BluetoothRpc(client(mTransports[1]));
+            mCaller.start(null);
+            mCallee.start(handler);
+        }
+
+        private static BluetoothClient client(BluetoothTestTransport transport) {
+            BluetoothClient client = new BluetoothClient(transport);
+            client.setIoExecutor(new BluetoothClientTest.TrackingExecutor());
+            return client;
+        }
+    }
+
+    /**
+     * 等待在途请求全部移除，应答先完成调用再移除在途记录
+     */
+    private static int awaitInFlight(BluetoothRpc rpc) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rpc.getInFlightCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        return rpc.getInFlightCount();
+    }
+
+    /**
+     * 等待调用失败并返回失败原因
+     */
+    private static Throwable failure(BluetoothRpcFuture future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            fail("call did not complete");
+        }
+        fail("call should have failed");
+        return null;
+    }
+
+    @Test
+    public void responses_matchRequestsByIdInAnyOrder() throws Exception {
+        RequestRecorder handler = new RequestRecorder();
+        Link link = new Link(BluetoothRpc.DEFAULT_MAX_IN_FLIGHT, handler);
+        BluetoothRpcFuture[] futures = new BluetoothRpcFuture[3];
+        for (int i = 0; i < futures.length; i++)
+            futures[i] = link.mCaller.call(("req" + i).getBytes());
+        assertTrue(handler.await(3));
+        assertEquals(3, link.mCaller.getInFlightCount());
+
+        // 倒序应答，中间一个以错误应答
+        link.mCallee.reply(handler.id(2), (handler.request(2) + "-ok").getBytes());
+        link.mCallee.replyError(handler.id(1), "busy");
+        link.mCallee.reply(handler.id(0), (handler.request(0) + "-ok").getBytes());
+
+        assertEquals("req0-ok", new String(futures[0].get(5, TimeUnit.SECONDS)));
+        assertEquals("req2-ok", new String(futures[2].get(5, TimeUnit.SECONDS)));
+        Throwable remote = failure(futures[1]);
+        assertTrue(remote instanceof IOException);
+        assertTrue(remote.getMessage().contains("busy"));
+        assertEquals(0, awaitInFlight(link.mCaller));
+    }
+
+    @Test
+    public void requestsBeyondMaxInFlight_queueUntilEarlierCallsComplete() throws Exception {
+        RequestRecorder handler = new RequestRecorder();
+        Link link = new Link(1, handler);
+        BluetoothRpcFuture first = link.mCaller.call("a".getBytes());
+        BluetoothRpcFuture second = link.mCaller.call("b".getBytes());
+        assertEquals(1, link.mCaller.getInFlightCount());
+        assertEquals(1, link.mCaller.getQueuedCount());
+        assertTrue(handler.await(1));
+
+        link.mCallee.reply(handler.id(0), "A".getBytes());
+        assertEquals("A", new String(first.get(5, TimeUnit.SECONDS)));
+        assertTrue(handler.await(2));
+        assertEquals("b", handler.request(1));
+        assertEquals(0, link.mCaller.getQueuedCount());
+        link.mCallee.reply(handler.id(1), "B".getBytes());
+        assertEquals("B", new String(second.get(5, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void deadline_failsCallAndIgnoresLateResponse() throws Exception {
+        RequestRecorder handler = new RequestRecorder();
+        Link link = new Link(1, handler);
+        BluetoothRpcFuture slow = link.mCaller.call("slow".getBytes(), 100);
+        BluetoothRpcFuture queued = link.mCaller.call("next".getBytes(), 0);
+        assertTrue(handler.await(1));
+
+        Throwable timeout = failure(slow);
+        assertTrue(timeout.getMessage().contains("deadline"));
+        assertTrue(handler.await(2)); // 超时释放的名额发出排队的请求
+
+        link.mCallee.reply(handler.id(0), "late".getBytes());
+        link.mCallee.reply(handler.id(1), "fresh".getBytes());
+        assertEquals("fresh", new String(queued.get(5, TimeUnit.SECONDS)));
+        assertEquals(0, awaitInFlight(link.mCaller));
+    }
+
+    @Test
+    public void cancel_releasesSlotForQueuedCall() throws Exception {
+        RequestRecorder handler = new RequestRecorder();
+        Link link = new Link(1, handler);
+        BluetoothRpcFuture first = link.mCaller.call("a".getBytes(), 0);
+        BluetoothRpcFuture second = link.mCaller.call("b".getBytes(), 0);
+        assertTrue(handler.await(1));
+
+        assertTrue(first.cancel(false));
+        assertTrue(first.isCancelled());
+        assertTrue(handler.await(2));
+        assertEquals("b", handler.request(1));
+        link.mCallee.reply(handler.id(0), "ignored".getBytes());
+        link.mCallee.reply(handler.id(1), "B".getBytes());
+        assertEquals("B", new String(second.get(5, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void disconnect_failsInFlightAndQueuedCalls() throws Exception {
+        RequestRecorder handler = new RequestRecorder();
+        Link link = new Link(1, handler);
+        BluetoothRpcFuture inFlight = link.mCaller.call("a".getBytes(), 0);
+        BluetoothRpcFuture queued = link.mCaller.call("b".getBytes(), 0);
+        assertTrue(handler.await(1));
+
+        link.mTransports[1].disconnect();
+        assertTrue(failure(inFlight) instanceof IOException);
+        assertTrue(failure(queued) instanceof IOException);
+        assertEquals(0, link.mCaller.getInFlightCount());
+        assertEquals(0, link.mCaller.getQueuedCount());
+        assertTrue(failure(link.mCaller.call("c".getBytes())) instanceof IOException);
+    }
+}
@@ -0,0 +1,130 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 蓝牙服务端会话模式测试
+ */
+public class BluetoothServerTest {
+    /**
+     * 从队列中取出待接受连接的接受器
+     */
+    static class QueueAcceptor implements BluetoothServer.Acceptor {
+        /** 接受器已关闭的标记 */
+        private static final BluetoothClient CLOSED = new BluetoothClient(new BluetoothTestTransport());
+
+        final LinkedBlockingQueue<BluetoothClient> mPending = new LinkedBlockingQueue<>();
+
+        @Override
+        public BluetoothClient accept(int timeout) throws IOException {
+            BluetoothClient client;
+            try {
+                client = mPending.take();
+            } catch (InterruptedException e) {
+                throw new IOException(e.toString());
+            }
+            if (CLOSED == client) {
+                mPending.offer(CLOSED);
+                throw new IOException("server socket closed");
+            }
+            return client;
+        }
+
+        @Override
+        public void close() {
+            mPending.offer(CLOSED);
+        }
+    }
+
+    /**
+     * 记录会话事件的回调
+     */
+    static class SessionRecorder extends BluetoothServer.OnBluetoothSessionCallback {
+        final LinkedBlockingQueue<BluetoothSession> mOpened = new LinkedBlockingQueue<>();
+        final LinkedBlockingQueue<BluetoothSession> mClosed = new LinkedBlockingQueue<>();
+
+        SessionRecorder() {
+            super(BluetoothExecutors.direct());
+        }
+
+        @Override
+        public void onSessionOpened(BluetoothSession session) {
+            mOpened.offer(session);
+        }
+
+        @Override
+        public void onSessionClosed(BluetoothSession session) {
+            mClosed.offer(session);
+        }
+
+        @Override
+        public void onAcceptFailure(IOException e) {
+        }
+    }
+
+    @Test
+    public void remoteClose_shutsDownClientAndFreesSessionThreads() throws Exception {
+        QueueAcceptor acceptor = new QueueAcceptor();
+        BluetoothServer server = new BluetoothServer(acceptor);
+        SessionRecorder sessions = new SessionRecorder();
+        server.startSessions(1, sessions);
+        try {
+            // 会话线程池只有5个线程，超过线程数的会话被对方断开后，新的会话仍能收到数据
+            for (int i = 0; i < 8; i++) {
+                BluetoothTestTransport transport = new BluetoothTestTransport();
+                acceptor.mPending.offer(new BluetoothClient(transport));
+                BluetoothSession session = sessions.mOpened.poll(5, TimeUnit.SECONDS);
+                assertNotNull("session " + i + " not opened", session);
+                BluetoothClientTest.InputRecorder input = new BluetoothClientTest.InputRecorder();
+                session.getClient().asyncRead(input);
+                session.getClient().asyncWrite(("ping" + i).getBytes());
+                transport.feed(("data" + i).getBytes());
+                assertTrue("session " + i + " got no data", input.mReceived.await(5, TimeUnit.SECONDS));
+                assertEquals("data" + i, input.input());
+
+                transport.disconnect();
+                assertSame(session, sessions.mClosed.poll(5, TimeUnit.SECONDS));
+                assertTrue(transport.mCloseCalled);
+                assertEquals(BluetoothClient.BLUETOOTH_CLIENT_STATUS_CLOSED, session.getState());
+            }
+            assertEquals(0, server.getSessionCount());
+            assertEquals(0, server.getRejectedSessionCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void fullServer_rejectsAndClosesExtraConnections() throws Exception {
+        QueueAcceptor acceptor = new QueueAcceptor();
+        BluetoothServer server = new BluetoothServer(acceptor);
+        SessionRecorder sessions = new SessionRecorder();
+        server.startSessions(1, sessions);
+        try {
+            BluetoothTestTransport first = new BluetoothTestTransport();
+            BluetoothTestTransport second = new BluetoothTestTransport();
+            acceptor.mPending.offer(new BluetoothClient(first));
+            acceptor.mPending.offer(new BluetoothClient(second));
+            BluetoothSession session = sessions.mOpened.poll(5, TimeUnit.SECONDS);
+            assertNotNull(session);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!second.mCloseCalled && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertTrue(second.mCloseCalled);
+            assertEquals(1, server.getRejectedSessionCount());
+            assertEquals(1, server.getSessionCount());
+            assertSame(session, server.getSession(session.getId()));
+        } finally {
+            server.shutdown();
+        }
+        assertTrue(sessions.mClosed.poll(5, TimeUnit.SECONDS) != null);
+        assertEquals(0, server.getSessionCount());
+        assertEquals(BluetoothServer.BLUETOOTH_SERVER_STATUS_CLOSED, server.status());
+    }
+}
@@ -0,0 +1,49 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段计数器测试
+ */
+public class BluetoothStripedCounterTest {
+    @Test
+    public void add_sumsConcurrentUpdatesWithoutLoss() throws Exception {
+        final BluetoothStripedCounter counter = new BluetoothStripedCounter();
+        final int threads = 8;
+        final int perThread = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < perThread; j++)
+                        counter.increment();
+                    counter.add(-1);
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join(10000);
+        assertEquals((long) threads * perThread - threads, counter.sum());
+    }
+
+    @Test
+    public void stripes_isPowerOfTwoCappedAtSixteen() {
+        assertEquals(1, BluetoothStripedCounter.stripes(1));
+        assertEquals(4, BluetoothStripedCounter.stripes(3));
+        assertEquals(8, BluetoothStripedCounter.stripes(8));
+        assertEquals(16, BluetoothStripedCounter.stripes(64));
+    }
+}
@@ -0,0 +1,144 @@
+package com.luoye.bluetooth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 内存数据通道，用于在JVM中模拟已连接的蓝牙套接字
+ */
+class BluetoothTestTransport implements BluetoothClient.Transport {
+    /** 对方断开连接的标记 */
+    private static final byte[] EOF = new byte[0];
+
+    /** 待读取的数据 */
+    private final LinkedBlockingQueue<byte[]> mIncoming = new LinkedBlockingQueue<>();
+    /** 已写出的数据 */
+    private final ByteArrayOutputStream mWritten = new ByteArrayOutputStream();
+    /** 是否已断开或关闭 */
+    private volatile boolean mClosed;
+    /** 本端是否已关闭通道 */
+    volatile boolean mCloseCalled;
+    /** 对端通道，写出的数据直接交给对端读取 */
+    private volatile BluetoothTestTransport mPeer;
+
+    private final InputStream mInputStream = new InputStream() {
+        /** 当前正在读取的数据 */
+        private byte[] mChunk;
+        /** 当前数据的读取位置 */
+        private int mPosition;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (null == mChunk || mPosition == mChunk.length) {
+                try {
+                    mChunk = mIncoming.take();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.toString());
+                }
+                mPosition = 0;
+                if (EOF == mChunk) {
+                    mIncoming.offer(EOF);
+                    throw new IOException("bt socket closed, read return: -1");
+                }
+            }
+            int n = Math.min(len, mChunk.length - mPosition);
+            System.arraycopy(mChunk, mPosition, b, off, n);
+            mPosition += n;
+            return n;
+        }
+    };
+
+    private final OutputStream mOutputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mClosed)
+                throw new IOException("Broken pipe");
+            BluetoothTestTransport peer = mPeer;
+            if (null != peer) {
+                byte[] copy = new byte[len];
+                System.arraycopy(b, off, copy, 0, len);
+                peer.feed(copy);
+            }
+            synchronized (mWritten) {
+                mWritten.write(b, off, len);
+            }
+        }
+    };
+
+    /**
+     * 创建一对互相连接的通道
+     * @return 两端通道
+     */
+    static BluetoothTestTransport[] pair() {
+        BluetoothTestTransport a = new BluetoothTestTransport();
+        BluetoothTestTransport b = new BluetoothTestTransport();
+        a.mPeer = b;
+        b.mPeer = a;
+        return new BluetoothTestTransport[]{a, b};
+    }
+
+    /**
+     * 模拟对方发来数据
+     * @param data 数据
+     */
+    void feed(byte[] data) {
+        if (!mClosed && data.length > 0)
+            mIncoming.offer(data);
+    }
+
+    /**
+     * 模拟对方断开连接，阻塞中的读取抛出异常，此后写出失败
+     */
+    void disconnect() {
+        mClosed = true;
+        mIncoming.offer(EOF);
+        BluetoothTestTransport peer = mPeer;
+        if (null != peer && !peer.mClosed)
+            peer.disconnect();
+    }
+
+    /**
+     * 获取已写出的数据
+     * @return 数据
+     */
+    byte[] written() {
+        synchronized (mWritten) {
+            return mWritten.toByteArray();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !mClosed;
+    }
+
+    @Override
+    public void close() {
+        mCloseCalled = true;
+        disconnect();
+    }
+}
@@ -0,0 +1,272 @@
+package com.luoye.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 异步写入器测试
+ */
+public class BluetoothWriterTest {
+    /**
+     * 记录每次写出大小的输出流，可让写出阻塞以模拟慢速链路
+     */
+    static class RecordingOutputStream extends OutputStream {
+        final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        final List<Integer> mWrites = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch mFirstWrite = new CountDownLatch(1);
+        volatile CountDownLatch mGate;
+        volatile boolean mFail;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mFirstWrite.countDown();
+            CountDownLatch gate = mGate;
+            if (null != gate) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.toString());
+                }
+            }
+            if (mFail)
+                throw new IOException("broken pipe");
+            synchronized (mData) {
+                mData.write(b, off, len);
+            }
+            mWrites.add(len);
+        }
+    }
+
+    /**
+     * 记录写入结果的监听
+     */
+    static class Results implements BluetoothWriter.Listener {
+        final List<Object> mSucceeded = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Object> mFailed = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Boolean> mWritability = Collections.synchronizedList(new ArrayList<Boolean>());
+        final CountDownLatch mDone;
+
+        Results(int count) {
+            mDone = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onWriteComplete(Object token, IOException e) {
+            (null == e ? mSucceeded : mFailed).add(token);
+            mDone.countDown();
+        }
+
+        @Override
+        public void onWritabilityChanged(boolean writable) {
+            mWritability.add(writable);
+        }
+    }
+
+    static Thread start(final BluetoothWriter writer) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                writer.run();
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void run_coalescesSmallWritesQueuedWhileBusy() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.mGate = new CountDownLatch(1);
+        Results results = new Results(101);
+        BluetoothWriter writer = new BluetoothWriter(os, 100, 0, results);
+        Thread thread = start(writer);
+
+        writer.write(new byte[]{-1}, 0, 1, -1);
+        assertTrue(os.mFirstWrite.await(5, TimeUnit.SECONDS));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(-1);
+        for (int i = 0; i < 100; i++) {
+            byte[] b = {(byte) i, (byte) i, (byte) i, (byte) i, (byte) i};
+            expected.write(b);
+            writer.write(b, 0, b.length, i);
+        }
+        assertEquals(500, writer.queuedBytes());
+        os.mGate.countDown();
+
+        assertTrue(results.mDone.await(5, TimeUnit.SECONDS));
+        assertEquals(101, results.mSucceeded.size());
+        assertEquals(-1, results.mSucceeded.get(0));
+        assertEquals(99, results.mSucceeded.get(100));
+        assertEquals(Integer.valueOf(1), os.mWrites.get(0));
+        assertEquals(6, os.mWrites.size());
+        for (int i = 1; i < os.mWrites.size(); i++)
+            assertEquals(Integer.valueOf(100), os.mWrites.get(i));
+        assertArrayEquals(expected.toByteArray(), os.mData.toByteArray());
+        writer.close(null);
+        thread.join(5000);
+    }
+
+    @Test
+    public void run_waitsUpToMaxLatencyToFillPacket() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        Results results = new Results(3);
+        BluetoothWriter writer = new BluetoothWriter(os, 1000, 50, results);
+        Thread thread = start(writer);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            writer.write(new byte[10], 0, 10, i);
+            Thread.sleep(5);
+        }
+        assertTrue(results.mDone.await(5, TimeUnit.SECONDS));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+        assertTrue("flushed after " + elapsedMillis + " ms", elapsedMillis >= 45);
+        assertEquals(1, os.mWrites.size());
+        assertEquals(Integer.valueOf(30), os.mWrites.get(0));
+        writer.close(null);
+        thread.join(5000);
+    }
+
+    @Test
+    public void run_failsPendingWritesOnStreamError() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.mFail = true;
+        os.mGate = new CountDownLatch(1);
+        Results results = new Results(3);
+        BluetoothWriter writer = new BluetoothWriter(os, 10, 0, results);
+        Thread thread = start(writer);
+
+        writer.write(new byte[10], 0, 10, 0);
+        assertTrue(os.mFirstWrite.await(5, TimeUnit.SECONDS));
+        writer.write(new byte[10], 0, 10, 1);
+        writer.write(new byte[10], 0, 10, 2);
+        os.mGate.countDown();
+
+        assertTrue(results.mDone.await(5, TimeUnit.SECONDS));
+        assertEquals(3, results.mFailed.size());
+        thread.join(5000);
+        assertTrue(writer.isClosed());
+        try {
+            writer.write(new byte[1], 0, 1, 3);
+            fail("write after close should throw");
+        } catch (IOException e) {
+            assertEquals("broken pipe", e.getMessage());
+        }
+    }
+
+    @Test
+    public void write_togglesWritabilityAtWaterMarks() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.mGate = new CountDownLatch(1);
+        Results results = new Results(10);
+        BluetoothWriter writer = new BluetoothWriter(os, 100, 0, results);
+        writer.setWaterMarks(200, 500);
+        Thread thread = start(writer);
+
+        for (int i = 0; i < 5; i++)
+            writer.write(new byte[100], 0, 100, i);
+        assertTrue(writer.isWritable());
+        assertTrue(results.mWritability.isEmpty());
+        writer.write(new byte[100], 0, 100, 5);
+        assertFalse(writer.isWritable());
+        assertEquals(600, writer.pendingBytes());
+        for (int i = 6; i < 10; i++)
+            writer.write(new byte[100], 0, 100, i);
+        assertEquals(1, results.mWritability.size());
+        assertEquals(Boolean.FALSE, results.mWritability.get(0));
+
+        os.mGate.countDown();
+        assertTrue(results.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(writer.isWritable());
+        assertEquals(0, writer.pendingBytes());
+        assertEquals(2, results.mWritability.size());
+        assertEquals(Boolean.TRUE, results.mWritability.get(1));
+        writer.close(null);
+        thread.join(5000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setWaterMarks_rejectsLowAboveHigh() {
+        new BluetoothWriter(new RecordingOutputStream(), 100, 0, new Results(0)).setWaterMarks(10, 5);
+    }
+
+    @Test
+    public void run_controlPreemptsBulkBetweenChunks() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.mGate = new CountDownLatch(1);
+        Results results = new Results(3);
+        BluetoothWriter writer = new BluetoothWriter(os, 100, 0, results);
+        Thread thread = start(writer);
+
+        byte[] bulk = new byte[1050];
+        for (int i = 0; i < bulk.length; i++)
+            bulk[i] = (byte) i;
+        writer.write(bulk, 0, bulk.length, BluetoothWriter.PRIORITY_BULK, "bulk");
+        assertTrue(os.mFirstWrite.await(5, TimeUnit.SECONDS));
+        byte[] control = {-1, -2, -3};
+        writer.write(control, 0, control.length, BluetoothWriter.PRIORITY_CONTROL, "control");
+        writer.write(control, 0, control.length, BluetoothWriter.PRIORITY_CONTROL, "control2");
+        assertEquals(950, writer.stats(BluetoothWriter.PRIORITY_BULK).getQueuedBytes());
+        assertEquals(2, writer.stats(BluetoothWriter.PRIORITY_CONTROL).getQueuedCount());
+        os.mGate.countDown();
+
+        assertTrue(results.mDone.await(5, TimeUnit.SECONDS));
+        assertEquals("control", results.mSucceeded.get(0));
+        assertEquals("control2", results.mSucceeded.get(1));
+        assertEquals("bulk", results.mSucceeded.get(2));
+        assertEquals(Integer.valueOf(100), os.mWrites.get(0));
+        assertEquals(Integer.valueOf(6), os.mWrites.get(1));
+        assertEquals(Integer.valueOf(50), os.mWrites.get(os.mWrites.size() - 1));
+        assertEquals(12, os.mWrites.size());
+
+        byte[] expected = new byte[bulk.length + 6];
+        System.arraycopy(bulk, 0, expected, 0, 100);
+        System.arraycopy(control, 0, expected, 100, 3);
+        System.arraycopy(control, 0, expected, 103, 3);
+        System.arraycopy(bulk, 100, expected, 106, bulk.length - 100);
+        assertArrayEquals(expected, os.mData.toByteArray());
+
+        BluetoothWriteStats bulkStats = writer.stats(BluetoothWriter.PRIORITY_BULK);
+        assertEquals(1, bulkStats.getWriteCount());
+        assertEquals(11, bulkStats.getChunkCount());
+        assertEquals(0, bulkStats.getQueuedBytes());
+        BluetoothWriteStats controlStats = writer.stats(BluetoothWriter.PRIORITY_CONTROL);
+        assertEquals(2, controlStats.getWriteCount());
+        assertTrue(controlStats.getMaxWaitMillis() > 0);
+        writer.close(null);
+        thread.join(5000);
+    }
+
+    @Test
+    public void run_failsPartiallyWrittenBulkOnce() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.mGate = new CountDownLatch(1);
+        Results results = new Results(1);
+        BluetoothWriter writer = new BluetoothWriter(os, 100, 0, results);
+        Thread thread = start(writer);
+
+        writer.write(new byte[500], 0, 500, BluetoothWriter.PRIORITY_BULK, "bulk");
+        assertTrue(os.mFirstWrite.await(5, TimeUnit.SECONDS));
+        os.mFail = true;
+        os.mGate.countDown();
+        assertTrue(results.mDone.await(5, TimeUnit.SECONDS));
+        thread.join(5000);
+        assertEquals(1, results.mFailed.size());
+        assertEquals(0, results.mSucceeded.size());
+    }
+}
@@ -0,0 +1,145 @@
+package com.luoye.bluetoothsimple;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.Choreographer;
+import android.widget.ListView;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * 设备列表帧耗时测试，模拟拥挤环境中大量搜索结果涌入的同时滚动列表，统计掉帧比例。
+ * <p>需要运行在有蓝牙模块且API 16以上的设备上。</p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceListFrameTimingTest {
+    /** 模拟的设备数 */
+    private static final int DEVICE_COUNT = 300;
+    /** 每个设备重复报告的次数 */
+    private static final int REPORTS_PER_DEVICE = 5;
+    /** 测量时长，毫秒 */
+    private static final long MEASURE_MILLIS = 3000;
+    /** 允许的掉帧比例 */
+    private static final double MAX_JANK_RATIO = 0.1;
+
+    @Rule
+    public ActivityTestRule<MainActivity> mActivityRule = new ActivityTestRule<>(MainActivity.class, false, false);
+
+    @Test
+    public void discoveryBurstWhileScrolling_keepsFramesSmooth() throws Exception {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        assumeNotNull(adapter);
+        final MainActivity activity = mActivityRule.launchActivity(null);
+
+        final ListView[] listView = new ListView[1];
+        final DeviceAdapter[] deviceAdapter = new DeviceAdapter[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                listView[0] = new ListView(activity);
+                deviceAdapter[0] = new DeviceAdapter(activity, null);
+                deviceAdapter[0].setListView(listView[0]);
+                listView[0].setAdapter(deviceAdapter[0]);
+                activity.setContentView(listView[0]);
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        final ArrayList<BluetoothDevice> devices = new ArrayList<>();
+        for (int i = 0; i < DEVICE_COUNT; i++)
+            devices.add(adapter.getRemoteDevice(String.format(Locale.US, "02:00:00:00:%02X:%02X", i >> 8, i & 0xFF)));
+
+        final FrameRecorder recorder = new FrameRecorder();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.start();
+            }
+        });
+
+        // 模拟搜索广播：每条结果单独投递到主线程，同一设备反复出现
+        long deadline = System.currentTimeMillis() + MEASURE_MILLIS;
+        int reports = 0;
+        while (System.currentTimeMillis() < deadline && reports < DEVICE_COUNT * REPORTS_PER_DEVICE) {
+            final BluetoothDevice device = devices.get(reports % DEVICE_COUNT);
+            final int report = reports++;
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    deviceAdapter[0].put(new Device(device, "device-" + report, System.currentTimeMillis()));
+                    if (0 == report % 20)
+                        listView[0].smoothScrollBy(200, 100);
+                }
+            });
+            Thread.sleep(2);
+        }
+        Thread.sleep(Math.max(0, deadline - System.currentTimeMillis()));
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+                deviceAdapter[0].flush();
+            }
+        });
+
+        assertEquals(DEVICE_COUNT, deviceAdapter[0].getCount());
+        // 每帧最多整体刷新一次
+        assertTrue("data set changed " + deviceAdapter[0].getDataSetChangedCount() + " times in "
+                        + recorder.mFrames + " frames",
+                deviceAdapter[0].getDataSetChangedCount() <= recorder.mFrames + 1);
+        assertTrue("no frames recorded", recorder.mFrames > 0);
+        double jankRatio = (double) recorder.mJankFrames / recorder.mFrames;
+        assertTrue(String.format(Locale.US, "%d of %d frames janked (%.1f%%)",
+                recorder.mJankFrames, recorder.mFrames, jankRatio * 100), jankRatio <= MAX_JANK_RATIO);
+    }
+
+    /**
+     * 帧间隔记录器，间隔超过1.5个刷新周期的帧记为掉帧，只在主线程访问
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        /** 刷新周期，纳秒 */
+        private static final long FRAME_NANOS = 16666667L;
+
+        int mFrames;
+        int mJankFrames;
+        private long mLastFrameNanos;
+        private boolean mRunning;
+
+        void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning)
+                return;
+            if (0 != mLastFrameNanos) {
+                mFrames++;
+                if (frameTimeNanos - mLastFrameNanos > FRAME_NANOS * 3 / 2)
+                    mJankFrames++;
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -1,17 +1,58 @@
 package com.luoye.bluetoothsimple;
 
 import android.bluetooth.BluetoothDevice;
+import android.text.TextUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
 
 /**
+ * 列表中的蓝牙设备，创建时一次性算好列表项要显示的内容，绑定列表项时不再查询蓝牙服务或格式化时间。
  * Created by LUOYE on 2017/2/26.
  */
 
 public class Device {
+    /** 时间格式，所有设备共用 */
+    private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
     public BluetoothDevice device;
     public long time;
+    /** 设备地址 */
+    public final String address;
+    /** 显示名称，名称未知时为地址 */
+    public final String displayName;
+    /** 配对状态 */
+    public final int bondState;
+    /** 配对状态文字 */
+    public final String stateText;
+    /** 时间文字 */
+    public final String timeText;
 
     public Device(BluetoothDevice device, long time) {
+        this(device, device.getName(), time);
+    }
+
+    /**
+     * 构造函数
+     * @param device 蓝牙设备
+     * @param name 设备名称，搜索结果中已带有名称时传入可省去一次查询
+     * @param time 时间
+     */
+    public Device(BluetoothDevice device, String name, long time) {
         this.device = device;
         this.time = time;
+        address = device.getAddress();
+        displayName = TextUtils.isEmpty(name) ? address : name;
+        bondState = device.getBondState();
+        if (bondState == BluetoothDevice.BOND_BONDED) {
+            stateText = "已配对";
+        } else if (bondState == BluetoothDevice.BOND_BONDING) {
+            stateText = "配对中...";
+        } else {
+            stateText = "未配对";
+        }
+        synchronized (TIME_FORMAT) {
+            timeText = TIME_FORMAT.format(new Date(time));
+        }
     }
 }
@@ -1,51 +1,216 @@
 package com.luoye.bluetoothsimple;
 
-import android.bluetooth.BluetoothDevice;
 import android.content.Context;
-import android.text.TextUtils;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
+ * 蓝牙设备列表适配器。
+ * <p>{@link #put(Device)}和{@link #remove(String)}的修改先按设备地址合并，每个显示帧最多应用一次：
+ * 有设备增删时整体刷新一次，只有设备信息变化时只重新绑定屏幕上可见的对应列表项。所有方法都需在主线程调用。</p>
  * Created by LUOYE on 2017/2/26.
  */
 
 public class DeviceAdapter extends BaseAdapter {
+    /** 不支持Choreographer时的帧间隔，毫秒 */
+    private static final long FRAME_INTERVAL_MILLIS = 16;
+
     /** 上下文 */
     private Context mContext;
     /** 蓝牙设备列表 */
     private ArrayList<Device> mDevices = new ArrayList<>();
+    /** 设备地址到列表位置的索引 */
+    private final HashMap<String, Integer> mPositions = new HashMap<>();
+    /** 待应用的修改，值为null表示移除 */
+    private final LinkedHashMap<String, Device> mPending = new LinkedHashMap<>();
+    /** 显示列表的控件，用于只重新绑定变化的列表项 */
+    private ListView mListView;
+    /** 是否已安排在下一帧应用修改 */
+    private boolean mFrameScheduled;
+    /** 整体刷新次数 */
+    private int mDataSetChangedCount;
+    /** 主线程Handler，不支持Choreographer时使用 */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /** 帧回调 */
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    /** 帧回调，API 16起可用 */
+    private Object mFrameCallback;
 
     public DeviceAdapter(Context context, ArrayList<Device> devices) {
         mContext = context;
         if (null != devices)
             mDevices = devices;
+        reindex();
+    }
+
+    /**
+     * 设置显示列表的控件，设置后信息变化的设备只重新绑定可见的列表项
+     * @param listView 列表控件
+     */
+    public void setListView(ListView listView) {
+        mListView = listView;
     }
 
     public void add(Device device) {
+        mPositions.put(device.address, mDevices.size());
         mDevices.add(device);
-        notifyDataSetChanged();
+        notifyChanged();
     }
 
     public boolean add(Collection<Device> devices) {
         boolean bSuccess = mDevices.addAll(devices);
-        notifyDataSetChanged();
+        reindex();
+        notifyChanged();
         return bSuccess;
     }
 
     public void clear() {
         mDevices.clear();
+        mPositions.clear();
+        mPending.clear();
+        notifyChanged();
+    }
+
+    /**
+     * 添加或更新设备，地址相同的设备已在列表中时原位替换，在下一帧应用
+     * @param device 设备
+     */
+    public void put(Device device) {
+        mPending.put(device.address, device);
+        scheduleFrame();
+    }
+
+    /**
+     * 移除设备，在下一帧应用
+     * @param address 设备地址
+     */
+    public void remove(String address) {
+        mPending.put(address, null);
+        scheduleFrame();
+    }
+
+    /**
+     * 立即应用待处理的修改
+     */
+    public void flush() {
+        if (mFrameScheduled) {
+            mFrameScheduled = false;
+            cancelFrame();
+        }
+        if (mPending.isEmpty())
+            return;
+        boolean structural = false;
+        ArrayList<Integer> changed = new ArrayList<>();
+        for (Map.Entry<String, Device> e : mPending.entrySet()) {
+            Integer position = mPositions.get(e.getKey());
+            Device device = e.getValue();
+            if (null == device) {
+                if (null != position) {
+                    mDevices.remove((int) position);
+                    reindex();
+                    structural = true;
+                }
+            } else if (null == position) {
+                mPositions.put(device.address, mDevices.size());
+                mDevices.add(device);
+                structural = true;
+            } else {
+                mDevices.set(position, device);
+                changed.add(position);
+            }
+        }
+        mPending.clear();
+        if (structural || null == mListView) {
+            notifyChanged();
+            return;
+        }
+        int first = mListView.getFirstVisiblePosition();
+        int last = mListView.getLastVisiblePosition();
+        for (int position : changed) {
+            if (position >= first && position <= last)
+                getView(position, mListView.getChildAt(position - first), mListView);
+        }
+    }
+
+    /**
+     * 获取整体刷新次数，用于测试
+     * @return 次数
+     */
+    int getDataSetChangedCount() {
+        return mDataSetChangedCount;
+    }
+
+    /**
+     * 整体刷新
+     */
+    private void notifyChanged() {
+        mDataSetChangedCount++;
         notifyDataSetChanged();
     }
 
+    /**
+     * 重建地址索引
+     */
+    private void reindex() {
+        mPositions.clear();
+        for (int i = 0; i < mDevices.size(); i++)
+            mPositions.put(mDevices.get(i).address, i);
+    }
+
+    /**
+     * 安排在下一帧应用修改
+     */
+    private void scheduleFrame() {
+        if (mFrameScheduled)
+            return;
+        mFrameScheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (null == mFrameCallback) {
+                mFrameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        mFrameScheduled = false;
+                        flush();
+                    }
+                };
+            }
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        } else {
+            mHandler.postDelayed(mFrameRunnable, FRAME_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * 取消已安排的帧回调
+     */
+    private void cancelFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (null != mFrameCallback)
+                Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        } else {
+            mHandler.removeCallbacks(mFrameRunnable);
+        }
+    }
+
     @Override
     public int getCount() {
         return mDevices.size();
@@ -76,15 +241,12 @@ public class DeviceAdapter extends BaseAdapter {
         }
 
         Device device = mDevices.get(position);
-        holder.mTxtName.setText(TextUtils.isEmpty(device.device.getName()) ? device.device.getAddress() : device.device.getName());
-        if (device.device.getBondState() == BluetoothDevice.BOND_BONDED) {
-            holder.mTxtState.setText("已配对");
-        } else if (device.device.getBondState() == BluetoothDevice.BOND_BONDING) {
-            holder.mTxtState.setText("配对中...");
-        } else {
-            holder.mTxtState.setText("未配对");
-        }
-        holder.mTxtTime.setText(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(device.time)));
+        if (holder.mDevice == device) // 同一设备对象，内容不变
+            return convertView;
+        holder.mDevice = device;
+        holder.mTxtName.setText(device.displayName);
+        holder.mTxtState.setText(device.stateText);
+        holder.mTxtTime.setText(device.timeText);
         return convertView;
     }
 
@@ -92,5 +254,7 @@ public class DeviceAdapter extends BaseAdapter {
         TextView mTxtName;
         TextView mTxtState;
         TextView mTxtTime;
+        /** 已绑定的设备 */
+        Device mDevice;
     }
 }
@@ -12,6 +12,7 @@ import android.widget.ListView;
 import android.widget.Toast;
 
 import com.luoye.bluetooth.Bluetooth;
+import com.luoye.bluetooth.BluetoothDiscoveredDevice;
 
 import java.util.ArrayList;
 
@@ -28,6 +29,44 @@ public class DiscoverDialog extends Dialog implements AdapterView.OnItemClickLis
     DeviceAdapter mAdapter;
     /** 蓝牙设备选中事件监听接口 */
     OnBluetoothDeviceClickListener mOnBluetoothDeviceClickListener;
+    /** 蓝牙搜索监听接口 */
+    final Bluetooth.OnBluetoothDeviceIndexListener mDiscoveryListener = new Bluetooth.OnBluetoothDeviceIndexListener() {
+        @Override
+        public void onDiscoveryStarted() {
+            Toast.makeText(getContext(), "开始扫描周边设备！", Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onDeviceFound(BluetoothDevice device, BluetoothClass cls, String name, int rssi) {
+        }
+
+        @Override
+        public void onDeviceAdded(BluetoothDiscoveredDevice device) {
+            mAdapter.put(new Device(device.getDevice(), device.getName(), System.currentTimeMillis()));
+        }
+
+        @Override
+        public void onDeviceUpdated(BluetoothDiscoveredDevice device, int changes) {
+            // 列表不显示RSSI，只有名称变化才需要更新
+            if (0 != (changes & BluetoothDiscoveredDevice.CHANGE_NAME))
+                mAdapter.put(new Device(device.getDevice(), device.getName(), System.currentTimeMillis()));
+        }
+
+        @Override
+        public void onDeviceLost(BluetoothDiscoveredDevice device) {
+            mAdapter.remove(device.getAddress());
+        }
+
+        @Override
+        public void onDiscoveryFinished() {
+            Toast.makeText(getContext(), "扫描周边设备完成！", Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onDiscoveryCanceled() {
+            Toast.makeText(getContext(), "扫描周边设备中止！", Toast.LENGTH_SHORT).show();
+        }
+    };
 
     public DiscoverDialog(Context context, Bluetooth bluetooth) {
         super(context);
@@ -40,6 +79,7 @@ public class DiscoverDialog extends Dialog implements AdapterView.OnItemClickLis
         mLivDevices = (ListView) LayoutInflater.from(getContext()).inflate(R.layout.dialog_discover, null);
         setContentView(mLivDevices);
         mAdapter = new DeviceAdapter(getContext(), null);
+        mAdapter.setListView(mLivDevices);
         mLivDevices.setAdapter(mAdapter);
         mLivDevices.setOnItemClickListener(this);
     }
@@ -58,33 +98,14 @@ public class DiscoverDialog extends Dialog implements AdapterView.OnItemClickLis
         }
         mAdapter.add(devices);
 
-        mBluetooth.scanDevices(new Bluetooth.OnBluetoothDiscoveryListener() {
-            @Override
-            public void onDiscoveryStarted() {
-                Toast.makeText(getContext(), "开始扫描周边设备！", Toast.LENGTH_SHORT).show();
-            }
-
-            @Override
-            public void onDeviceFound(BluetoothDevice device, BluetoothClass cls, String name, int rssi) {
-                mAdapter.add(new Device(device, System.currentTimeMillis()));
-            }
-
-            @Override
-            public void onDiscoveryFinished() {
-                Toast.makeText(getContext(), "扫描周边设备完成！", Toast.LENGTH_SHORT).show();
-            }
-
-            @Override
-            public void onDiscoveryCanceled() {
-                Toast.makeText(getContext(), "扫描周边设备中止！", Toast.LENGTH_SHORT).show();
-            }
-        });
+        mBluetooth.scanDevices(mDiscoveryListener);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        mBluetooth.stopScan();
+        mBluetooth.stopScan(mDiscoveryListener);
+        mAdapter.flush();
     }
 
     @Override